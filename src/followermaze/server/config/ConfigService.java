@@ -7,14 +7,62 @@ import java.util.Properties;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.util.VirtualThreads;
+
 /**
  * ConfigService provides configuration settings throughout the whole server. The settings are initialized using default values, but can also be modified by changing their value in the
- * server.properties file on the classpath. Implemented via enum singleton pattern.
+ * server.properties file on the classpath. System properties with the same name override the config file, which allows benchmarks to switch settings between runs. Implemented via enum singleton
+ * pattern.
  *
  */
 public enum ConfigService {
   INSTANCE;
 
+  /** User client connections are multiplexed by a fixed number of selector based event loops */
+  public static final String USER_CLIENT_IO_MODE_SELECTOR = "selector";
+
+  /** Every user client connection is handled by its own thread blocking on the socket */
+  public static final String USER_CLIENT_IO_MODE_THREAD_PER_CONNECTION = "threadPerConnection";
+
+  /** The sequencer waits for missing events forever */
+  public static final String SEQUENCE_GAP_POLICY_STRICT = "strict";
+
+  /** The sequencer skips missing events once a gap limit is exceeded */
+  public static final String SEQUENCE_GAP_POLICY_SKIP = "skip";
+
+  /** Blocking tasks run on platform threads */
+  public static final String THREAD_MODE_PLATFORM = "platform";
+
+  /** Blocking tasks run on virtual threads, requires a JVM supporting them */
+  public static final String THREAD_MODE_VIRTUAL = "virtual";
+
+  /** A client exceeding its outbound limits is disconnected */
+  public static final String OUTBOUND_OVERFLOW_POLICY_DISCONNECT = "disconnect";
+
+  /** A client exceeding its outbound limits loses its oldest pending messages */
+  public static final String OUTBOUND_OVERFLOW_POLICY_DROP_OLDEST = "dropOldest";
+
+  /** A client exceeding its outbound limits loses the messages posted to it while above the limits */
+  public static final String OUTBOUND_OVERFLOW_POLICY_DROP_NEWEST = "dropNewest";
+
+  /** The thread posting to a client exceeding its outbound limits waits until the client has caught up */
+  public static final String OUTBOUND_OVERFLOW_POLICY_BACKPRESSURE = "backpressure";
+
+  /** Followers are stored on the heap in a graph that is only accessed by the thread owning its partition */
+  public static final String FOLLOWER_GRAPH_SINGLE_THREADED = "singleThreaded";
+
+  /** Followers are stored off the heap in memory-mapped files with an on-heap cache of the recently modified users */
+  public static final String FOLLOWER_GRAPH_MAPPED = "mapped";
+
+  /** The event log is forced to the disk after every group of written batches */
+  public static final String EVENT_LOG_FSYNC_ALWAYS = "always";
+
+  /** The event log is forced to the disk at most once per configured interval */
+  public static final String EVENT_LOG_FSYNC_INTERVAL = "interval";
+
+  /** The event log is never forced to the disk explicitly, the operating system decides when to write it */
+  public static final String EVENT_LOG_FSYNC_NEVER = "never";
+
   /** Logger */
   private final Logger logger = LogManager.getLogger( ConfigService.class );
 
@@ -30,8 +78,113 @@ public enum ConfigService {
   /** Maximum buffer size in byte used to read messages from connected clients */
   private final String MAX_BUFFER_LENGTH_CLIENT_SOCKET_IN_BYTE_VAR = "maxBufferLengthClientSocketInByte";
 
-  /** Maximum buffer size for the result buffer used to copy messages from the read buffer */
-  private final String RESULT_BUFFER_LENGTH_IN_BYTE_VAR = "resultBufferLengthInByte";
+  /** Maximum length of a single message, read buffers grow up to this size if a message does not fit into them */
+  private final String MAX_MESSAGE_LENGTH_IN_BYTE_VAR = "maxMessageLengthInByte";
+
+  /** Mode used to handle user client connections, either "selector" or "threadPerConnection" */
+  private final String USER_CLIENT_IO_MODE_VAR = "userClientIoMode";
+
+  /** Number of event loop threads multiplexing the user client connections in selector mode */
+  private final String USER_CLIENT_EVENT_LOOP_THREADS_VAR = "userClientEventLoopThreads";
+
+  /** Maximum number of connections accepted per wakeup of the accept selector */
+  private final String ACCEPT_BATCH_SIZE_VAR = "acceptBatchSize";
+
+  /** Maximum length of the queue of pending connections of the server sockets */
+  private final String LISTEN_BACKLOG_VAR = "listenBacklog";
+
+  /** Number of events the ring buffer between the event reading thread and the sequencer thread can hold */
+  private final String EVENT_RING_BUFFER_SIZE_VAR = "eventRingBufferSize";
+
+  /** Number of sequence numbers covered by the reorder window, events further ahead are kept in an overflow structure */
+  private final String REORDER_WINDOW_SIZE_VAR = "reorderWindowSize";
+
+  /** Maximum number of recycled event instances kept per event type */
+  private final String EVENT_POOL_SIZE_VAR = "eventPoolSize";
+
+  /** Number of threads processing the events, the users are partitioned across them, 1 processes all events on the sequencer thread */
+  private final String EVENT_SHARDS_VAR = "eventShards";
+
+  /** Number of threads delivering notifications to the clients, 0 uses one thread per available processor */
+  private final String DELIVERY_WORKER_THREADS_VAR = "deliveryWorkerThreads";
+
+  /** Number of pending bytes at which the messages of a client are written without waiting for further messages */
+  private final String OUTBOUND_FLUSH_THRESHOLD_BYTES_VAR = "outboundFlushThresholdBytes";
+
+  /** Maximum time in microseconds a message waits for further messages to the same client before it is written, 0 writes right away */
+  private final String OUTBOUND_MAX_LINGER_MICROS_VAR = "outboundMaxLingerMicros";
+
+  /** Maximum number of messages waiting in the mailbox of a client */
+  private final String OUTBOUND_MAX_MESSAGES_VAR = "outboundMaxMessages";
+
+  /** Maximum number of bytes waiting in the mailbox of a client */
+  private final String OUTBOUND_MAX_BYTES_VAR = "outboundMaxBytes";
+
+  /** Policy applied if a client exceeds its outbound limits, either "disconnect", "dropOldest", "dropNewest" or "backpressure" */
+  private final String OUTBOUND_OVERFLOW_POLICY_VAR = "outboundOverflowPolicy";
+
+  /** Number of messages waiting for a client from which on a newer status update of a user replaces an older one not sent yet, 0 disables conflation */
+  private final String OUTBOUND_CONFLATION_BACKLOG_VAR = "outboundConflationBacklog";
+
+  /** Number of followers from which on the status updates of a user are logged once and read by the followers instead of being posted to every follower, 0 disables logging */
+  private final String CELEBRITY_FOLLOWER_THRESHOLD_VAR = "celebrityFollowerThreshold";
+
+  /** Number of status updates kept in the log of a user with a very large number of followers */
+  private final String AUTHOR_LOG_CAPACITY_VAR = "authorLogCapacity";
+
+  /** Data structure storing the followers, either "singleThreaded" or "mapped" */
+  private final String FOLLOWER_GRAPH_VAR = "followerGraph";
+
+  /** Directory of the files of the mapped follower graph, the temporary directory if empty */
+  private final String FOLLOWER_GRAPH_DIRECTORY_VAR = "followerGraphDirectory";
+
+  /** Maximum number of followers plus users held in the on-heap cache of every partition of the mapped follower graph */
+  private final String FOLLOWER_GRAPH_CACHE_SIZE_VAR = "followerGraphCacheSize";
+
+  /** Number of registered clients from which on a broadcast is posted to the clients by several threads */
+  private final String BROADCAST_PARALLEL_THRESHOLD_VAR = "broadcastParallelThreshold";
+
+  /** Number of clients a single thread posts a parallel broadcast to */
+  private final String BROADCAST_CHUNK_SIZE_VAR = "broadcastChunkSize";
+
+  /** Threads running connection handlers and client notifications, either "platform" or "virtual" */
+  private final String THREAD_MODE_VAR = "threadMode";
+
+  /** Policy applied if a sequence number does not arrive, either "strict" or "skip" */
+  private final String SEQUENCE_GAP_POLICY_VAR = "sequenceGapPolicy";
+
+  /** Maximum time in ms the sequencer waits for a missing event in skip mode */
+  private final String MAX_GAP_WAIT_MILLIS_VAR = "maxGapWaitMillis";
+
+  /** Maximum number of events buffered behind a missing event in skip mode */
+  private final String MAX_BUFFERED_EVENTS_VAR = "maxBufferedEvents";
+
+  /** Maximum estimated memory footprint in byte of the events buffered behind a missing event in skip mode */
+  private final String MAX_BUFFERED_EVENT_BYTES_VAR = "maxBufferedEventBytes";
+
+  /** File the state of the event processing is snapshotted to and restored from on startup, empty disables snapshots */
+  private final String SNAPSHOT_FILE_VAR = "snapshotFile";
+
+  /** Interval in seconds a snapshot is written in, 0 writes a snapshot on shutdown only */
+  private final String SNAPSHOT_INTERVAL_SECONDS_VAR = "snapshotIntervalSeconds";
+
+  /** Directory the accepted events are logged to and replayed from on startup, empty disables the event log */
+  private final String EVENT_LOG_DIRECTORY_VAR = "eventLogDirectory";
+
+  /** Size in byte from which on a new segment of the event log is started */
+  private final String EVENT_LOG_SEGMENT_BYTES_VAR = "eventLogSegmentBytes";
+
+  /** Size in byte of the buffers collecting the logged events before they are written */
+  private final String EVENT_LOG_BUFFER_BYTES_VAR = "eventLogBufferBytes";
+
+  /** Policy forcing the event log to the disk, either "always", "interval" or "never" */
+  private final String EVENT_LOG_FSYNC_POLICY_VAR = "eventLogFsyncPolicy";
+
+  /** Interval in ms the event log is forced to the disk in with the "interval" policy */
+  private final String EVENT_LOG_FSYNC_INTERVAL_MILLIS_VAR = "eventLogFsyncIntervalMillis";
+
+  /** Interval in seconds the metrics are logged in, 0 disables logging */
+  private final String METRICS_LOG_INTERVAL_SECONDS_VAR = "metricsLogIntervalSeconds";
 
   /** Config properties, used to read settings from a config file */
   private final Properties configProperties;
@@ -63,7 +216,42 @@ public enum ConfigService {
     defaultProperties.setProperty( MAX_THREADS_USER_CLIENT_DISPATCHER_VAR, "200" );
     defaultProperties.setProperty( MAX_BUFFER_LENGTH_EVENT_SOCKET_IN_BYTE_VAR, "1024" );
     defaultProperties.setProperty( MAX_BUFFER_LENGTH_CLIENT_SOCKET_IN_BYTE_VAR, "16" );
-    defaultProperties.setProperty( RESULT_BUFFER_LENGTH_IN_BYTE_VAR, "20" );
+    defaultProperties.setProperty( MAX_MESSAGE_LENGTH_IN_BYTE_VAR, "1048576" );
+    defaultProperties.setProperty( USER_CLIENT_IO_MODE_VAR, USER_CLIENT_IO_MODE_SELECTOR );
+    defaultProperties.setProperty( USER_CLIENT_EVENT_LOOP_THREADS_VAR, "2" );
+    defaultProperties.setProperty( ACCEPT_BATCH_SIZE_VAR, "64" );
+    defaultProperties.setProperty( LISTEN_BACKLOG_VAR, "1024" );
+    defaultProperties.setProperty( EVENT_RING_BUFFER_SIZE_VAR, "65536" );
+    defaultProperties.setProperty( REORDER_WINDOW_SIZE_VAR, "65536" );
+    defaultProperties.setProperty( EVENT_POOL_SIZE_VAR, "16384" );
+    defaultProperties.setProperty( EVENT_SHARDS_VAR, "1" );
+    defaultProperties.setProperty( DELIVERY_WORKER_THREADS_VAR, "0" );
+    defaultProperties.setProperty( OUTBOUND_FLUSH_THRESHOLD_BYTES_VAR, "16384" );
+    defaultProperties.setProperty( OUTBOUND_MAX_LINGER_MICROS_VAR, "200" );
+    defaultProperties.setProperty( OUTBOUND_MAX_MESSAGES_VAR, "262144" );
+    defaultProperties.setProperty( OUTBOUND_MAX_BYTES_VAR, "67108864" );
+    defaultProperties.setProperty( OUTBOUND_OVERFLOW_POLICY_VAR, OUTBOUND_OVERFLOW_POLICY_DISCONNECT );
+    defaultProperties.setProperty( OUTBOUND_CONFLATION_BACKLOG_VAR, "0" );
+    defaultProperties.setProperty( CELEBRITY_FOLLOWER_THRESHOLD_VAR, "100000" );
+    defaultProperties.setProperty( AUTHOR_LOG_CAPACITY_VAR, "65536" );
+    defaultProperties.setProperty( FOLLOWER_GRAPH_VAR, FOLLOWER_GRAPH_SINGLE_THREADED );
+    defaultProperties.setProperty( FOLLOWER_GRAPH_DIRECTORY_VAR, "" );
+    defaultProperties.setProperty( FOLLOWER_GRAPH_CACHE_SIZE_VAR, "4194304" );
+    defaultProperties.setProperty( BROADCAST_PARALLEL_THRESHOLD_VAR, "8192" );
+    defaultProperties.setProperty( BROADCAST_CHUNK_SIZE_VAR, "2048" );
+    defaultProperties.setProperty( THREAD_MODE_VAR, THREAD_MODE_PLATFORM );
+    defaultProperties.setProperty( SEQUENCE_GAP_POLICY_VAR, SEQUENCE_GAP_POLICY_SKIP );
+    defaultProperties.setProperty( MAX_GAP_WAIT_MILLIS_VAR, "10000" );
+    defaultProperties.setProperty( MAX_BUFFERED_EVENTS_VAR, "1000000" );
+    defaultProperties.setProperty( MAX_BUFFERED_EVENT_BYTES_VAR, "268435456" );
+    defaultProperties.setProperty( SNAPSHOT_FILE_VAR, "" );
+    defaultProperties.setProperty( SNAPSHOT_INTERVAL_SECONDS_VAR, "300" );
+    defaultProperties.setProperty( EVENT_LOG_DIRECTORY_VAR, "" );
+    defaultProperties.setProperty( EVENT_LOG_SEGMENT_BYTES_VAR, "67108864" );
+    defaultProperties.setProperty( EVENT_LOG_BUFFER_BYTES_VAR, "1048576" );
+    defaultProperties.setProperty( EVENT_LOG_FSYNC_POLICY_VAR, EVENT_LOG_FSYNC_INTERVAL );
+    defaultProperties.setProperty( EVENT_LOG_FSYNC_INTERVAL_MILLIS_VAR, "100" );
+    defaultProperties.setProperty( METRICS_LOG_INTERVAL_SECONDS_VAR, "60" );
     logger.exit();
   }
 
@@ -127,15 +315,339 @@ public enum ConfigService {
 
   /**
    * 
-   * @return Size of temporary buffer used to store a single message for further processing
+   * @return Maximum length of a single message in byte, read buffers grow up to this size if a message does not fit into them
    */
-  public int getResultBufferLengthInByte() {
-    int result = -1;
+  public int getMaxMessageLengthInByte() {
+    return getIntProperty( MAX_MESSAGE_LENGTH_IN_BYTE_VAR );
+  }
+
+  /**
+   * 
+   * @return Mode used to handle user client connections, either USER_CLIENT_IO_MODE_SELECTOR or USER_CLIENT_IO_MODE_THREAD_PER_CONNECTION
+   */
+  public String getUserClientIoMode() {
+    return getStringProperty( USER_CLIENT_IO_MODE_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of event loop threads that multiplex all user client connections in selector mode
+   */
+  public int getUserClientEventLoopThreads() {
+    return getIntProperty( USER_CLIENT_EVENT_LOOP_THREADS_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of connections accepted per wakeup of the accept selector
+   */
+  public int getAcceptBatchSize() {
+    return getIntProperty( ACCEPT_BATCH_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum length of the queue of pending connections of the server sockets
+   */
+  public int getListenBacklog() {
+    return getIntProperty( LISTEN_BACKLOG_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of events the ring buffer between the event reading thread and the sequencer thread can hold
+   */
+  public int getEventRingBufferSize() {
+    return getIntProperty( EVENT_RING_BUFFER_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of sequence numbers covered by the reorder window, events further ahead are kept in an overflow structure
+   */
+  public int getReorderWindowSize() {
+    return getIntProperty( REORDER_WINDOW_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of recycled event instances kept per event type
+   */
+  public int getEventPoolSize() {
+    return getIntProperty( EVENT_POOL_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of threads processing the events, the users are partitioned across them, 1 processes all events on the sequencer thread
+   */
+  public int getEventShards() {
+    return getIntProperty( EVENT_SHARDS_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of threads delivering notifications to the clients, 0 uses one thread per available processor
+   */
+  public int getDeliveryWorkerThreads() {
+    return getIntProperty( DELIVERY_WORKER_THREADS_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of pending bytes at which the messages of a client are written without waiting for further messages
+   */
+  public int getOutboundFlushThresholdBytes() {
+    return getIntProperty( OUTBOUND_FLUSH_THRESHOLD_BYTES_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum time in microseconds a message waits for further messages to the same client before it is written, 0 writes right away
+   */
+  public int getOutboundMaxLingerMicros() {
+    return getIntProperty( OUTBOUND_MAX_LINGER_MICROS_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of messages waiting in the mailbox of a client
+   */
+  public int getOutboundMaxMessages() {
+    return getIntProperty( OUTBOUND_MAX_MESSAGES_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of bytes waiting in the mailbox of a client
+   */
+  public int getOutboundMaxBytes() {
+    return getIntProperty( OUTBOUND_MAX_BYTES_VAR );
+  }
+
+  /**
+   * 
+   * @return Policy applied if a client exceeds its outbound limits, either "disconnect", "dropOldest", "dropNewest" or "backpressure"
+   */
+  public String getOutboundOverflowPolicy() {
+    return getStringProperty( OUTBOUND_OVERFLOW_POLICY_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of messages waiting for a client from which on a newer status update of a user replaces an older one not sent yet, 0 disables conflation
+   */
+  public int getOutboundConflationBacklog() {
+    return getIntProperty( OUTBOUND_CONFLATION_BACKLOG_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of followers from which on the status updates of a user are logged once and read by the followers instead of being posted to every follower, 0 disables logging. Counted in total:
+   *         every event shard only sees the followers of its own users and compares them against the threshold divided by the number of event shards
+   */
+  public int getCelebrityFollowerThreshold() {
+    return getIntProperty( CELEBRITY_FOLLOWER_THRESHOLD_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of status updates kept in the log of a user with a very large number of followers
+   */
+  public int getAuthorLogCapacity() {
+    return getIntProperty( AUTHOR_LOG_CAPACITY_VAR );
+  }
+
+  /**
+   * 
+   * @return Data structure storing the followers, either "singleThreaded" or "mapped", the mapped graph cannot be combined with snapshots
+   */
+  public String getFollowerGraph() {
+    return getStringProperty( FOLLOWER_GRAPH_VAR );
+  }
+
+  /**
+   * 
+   * @return Directory of the files of the mapped follower graph, the temporary directory if empty
+   */
+  public String getFollowerGraphDirectory() {
+    return getStringProperty( FOLLOWER_GRAPH_DIRECTORY_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of followers plus users held in the on-heap cache of every partition of the mapped follower graph
+   */
+  public int getFollowerGraphCacheSize() {
+    return getIntProperty( FOLLOWER_GRAPH_CACHE_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of registered clients from which on a broadcast is posted to the clients by several threads
+   */
+  public int getBroadcastParallelThreshold() {
+    return getIntProperty( BROADCAST_PARALLEL_THRESHOLD_VAR );
+  }
+
+  /**
+   * 
+   * @return Number of clients a single thread posts a parallel broadcast to
+   */
+  public int getBroadcastChunkSize() {
+    return getIntProperty( BROADCAST_CHUNK_SIZE_VAR );
+  }
+
+  /**
+   * 
+   * @return Threads running connection handlers and client notifications, either "platform" or "virtual"
+   */
+  public String getThreadMode() {
+    return getStringProperty( THREAD_MODE_VAR );
+  }
+
+  /**
+   * Checks, if connection handlers and client notifications should run on virtual threads. Falls back to platform threads if the running JVM does not support virtual threads.
+   * 
+   * @return True, if virtual threads are configured and supported
+   */
+  public boolean isVirtualThreadMode() {
+    if ( !THREAD_MODE_VIRTUAL.equals( getThreadMode() ) ) {
+      return false;
+    }
+    if ( !VirtualThreads.isSupported() ) {
+      logger.warn( "Virtual threads are not supported by this JVM, using platform threads." );
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * 
+   * @return Policy applied if a sequence number does not arrive, either "strict" or "skip"
+   */
+  public String getSequenceGapPolicy() {
+    return getStringProperty( SEQUENCE_GAP_POLICY_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum time in ms the sequencer waits for a missing event in skip mode
+   */
+  public int getMaxGapWaitMillis() {
+    return getIntProperty( MAX_GAP_WAIT_MILLIS_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum number of events buffered behind a missing event in skip mode
+   */
+  public int getMaxBufferedEvents() {
+    return getIntProperty( MAX_BUFFERED_EVENTS_VAR );
+  }
+
+  /**
+   * 
+   * @return Maximum estimated memory footprint in byte of the events buffered behind a missing event in skip mode
+   */
+  public int getMaxBufferedEventBytes() {
+    return getIntProperty( MAX_BUFFERED_EVENT_BYTES_VAR );
+  }
+
+  /**
+   * 
+   * @return File the state of the event processing is snapshotted to and restored from on startup, empty if snapshots are disabled, must be empty for the mapped follower graph
+   */
+  public String getSnapshotFile() {
+    return getStringProperty( SNAPSHOT_FILE_VAR );
+  }
+
+  /**
+   * 
+   * @return Interval in seconds a snapshot is written in, 0 writes a snapshot on shutdown only
+   */
+  public int getSnapshotIntervalSeconds() {
+    return getIntProperty( SNAPSHOT_INTERVAL_SECONDS_VAR );
+  }
+
+  /**
+   * 
+   * @return Directory the accepted events are logged to and replayed from on startup, empty if the event log is disabled
+   */
+  public String getEventLogDirectory() {
+    return getStringProperty( EVENT_LOG_DIRECTORY_VAR );
+  }
+
+  /**
+   * 
+   * @return Size in byte from which on a new segment of the event log is started
+   */
+  public int getEventLogSegmentBytes() {
+    return getIntProperty( EVENT_LOG_SEGMENT_BYTES_VAR );
+  }
+
+  /**
+   * 
+   * @return Size in byte of the buffers collecting the logged events before they are written
+   */
+  public int getEventLogBufferBytes() {
+    return getIntProperty( EVENT_LOG_BUFFER_BYTES_VAR );
+  }
+
+  /**
+   * 
+   * @return Policy forcing the event log to the disk, either "always", "interval" or "never"
+   */
+  public String getEventLogFsyncPolicy() {
+    return getStringProperty( EVENT_LOG_FSYNC_POLICY_VAR );
+  }
+
+  /**
+   * 
+   * @return Interval in ms the event log is forced to the disk in with the "interval" policy
+   */
+  public int getEventLogFsyncIntervalMillis() {
+    return getIntProperty( EVENT_LOG_FSYNC_INTERVAL_MILLIS_VAR );
+  }
+
+  /**
+   * 
+   * @return Interval in seconds the metrics are logged in, 0 disables logging
+   */
+  public int getMetricsLogIntervalSeconds() {
+    return getIntProperty( METRICS_LOG_INTERVAL_SECONDS_VAR );
+  }
+
+  /**
+   * Reads a string setting from the system properties or the config file, falls back to the default value if the setting is not configured
+   * 
+   * @param var
+   *          Name of the setting
+   * @return Configured or default value of the setting
+   */
+  private String getStringProperty( final String var ) {
+    String result = System.getProperty( var );
+    if ( result == null || result.trim().isEmpty() ) {
+      result = configProperties.getProperty( var );
+    }
+    if ( result == null || result.trim().isEmpty() ) {
+      return defaultProperties.getProperty( var );
+    }
+    return result.trim();
+  }
+
+  /**
+   * Reads an integer setting, falls back to the default value if the setting is not configured or can not be parsed
+   * 
+   * @param var
+   *          Name of the setting
+   * @return Configured or default value of the setting
+   */
+  private int getIntProperty( final String var ) {
     try {
-      result = Integer.valueOf( configProperties.getProperty( RESULT_BUFFER_LENGTH_IN_BYTE_VAR ) );
+      return Integer.valueOf( getStringProperty( var ) );
     } catch ( NumberFormatException ex ) {
-      return Integer.valueOf( defaultProperties.getProperty( RESULT_BUFFER_LENGTH_IN_BYTE_VAR ) );
+      return Integer.valueOf( defaultProperties.getProperty( var ) );
     }
-    return result;
   }
 }
@@ -1,15 +1,23 @@
 package followermaze.server.dispatcher;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.config.ConfigService;
+
 /**
  * Abstract base class of the EventDispatcher and the UserClientDispatcher classes. This class creates the ServerSocketChannel on the passed in port and configures the channel for further processing
- * in its subclasses.
+ * in its subclasses. Incoming connections are accepted by a selector waiting for OP_ACCEPT, so the dispatcher threads do not consume CPU while no clients are connecting.
  *
  */
 public abstract class BaseDispatcher implements Runnable {
@@ -19,18 +27,33 @@ public abstract class BaseDispatcher implements Runnable {
   /** ServerSocketChannel which is used for listening for incoming connections */
   protected ServerSocketChannel serverSocket;
 
+  /** Selector used to wait for incoming connections on the server socket */
+  protected Selector acceptSelector;
+
   /** Latch is used to signal when the server is ready to accept incoming connections */
   protected final CountDownLatch readyLatch;
 
   /** Flag controls the main loop */
   protected volatile boolean running = true;
 
+  /** Maximum number of connections accepted per selector wakeup */
+  private final int acceptBatchSize;
+
   /** Method is called before thread shutdown and cleans up the components used by the subclass */
   abstract void cleanUp();
 
+  /**
+   * Called by the accept loop for every accepted connection
+   *
+   * @param clientSocket
+   *          Socket of the accepted connection
+   * @throws Exception
+   */
+  abstract void handleConnection( final SocketChannel clientSocket ) throws Exception;
+
   /**
    * Constructor creates the ServerSocketChannel and binds it to the passed in port
-   * 
+   *
    * @param port
    *          Port on which the socket channel is waiting for incoming connections
    * @param readySignal
@@ -40,19 +63,82 @@ public abstract class BaseDispatcher implements Runnable {
     super();
     logger.entry( port, readySignal );
     this.readyLatch = readySignal;
+    this.acceptBatchSize = Math.max( 1, ConfigService.INSTANCE.getAcceptBatchSize() );
     try {
       // use NIO ServerSockets
       serverSocket = ServerSocketChannel.open();
-      serverSocket.socket().bind( new InetSocketAddress( port ) );
+      serverSocket.socket().bind( new InetSocketAddress( port ), ConfigService.INSTANCE.getListenBacklog() );
       serverSocket.configureBlocking( false );
+      acceptSelector = Selector.open();
+      serverSocket.register( acceptSelector, SelectionKey.OP_ACCEPT );
     } catch ( Exception ex ) {
       logger.error( "Error during connection creation! " + ex );
     }
     logger.exit();
   }
 
-  /** Sets the main loop control flag to false */
+  /**
+   * Main accept loop, blocks on the selector until connections are pending and accepts up to the configured batch size of connections per wakeup. Returns after shutdown() has been called.
+   *
+   * @throws Exception
+   *           Error during accepting connections
+   */
+  protected void acceptConnections() throws Exception {
+    logger.entry();
+    try {
+      while ( running ) {
+        acceptSelector.select();
+        final Iterator<SelectionKey> keyIter = acceptSelector.selectedKeys().iterator();
+        while ( keyIter.hasNext() ) {
+          final SelectionKey key = keyIter.next();
+          keyIter.remove();
+          if ( key.isValid() && key.isAcceptable() ) {
+            acceptBatch();
+          }
+        }
+      }
+    } catch ( ClosedSelectorException ex ) {
+      logger.debug( "Accept selector has been closed." );
+    }
+    logger.exit();
+  }
+
+  /**
+   * Accepts pending connections until either no more connections are pending or the batch size is reached. Remaining connections are accepted after the next selector wakeup.
+   *
+   * @throws Exception
+   *           Error during accepting connections
+   */
+  private void acceptBatch() throws Exception {
+    for ( int i = 0; i < acceptBatchSize && running; i++ ) {
+      final SocketChannel clientSocket = serverSocket.accept();
+      if ( clientSocket == null ) {
+        return;
+      }
+      handleConnection( clientSocket );
+    }
+  }
+
+  /**
+   * Closes the accept selector and the server socket
+   *
+   * @throws IOException
+   *           Error while closing
+   */
+  protected void closeServerSocket() throws IOException {
+    logger.info( "Closing Server Socket..." );
+    if ( acceptSelector != null ) {
+      acceptSelector.close();
+    }
+    serverSocket.close();
+    logger.info( "Closing Server Socket...completed" );
+  }
+
+  /** Sets the main loop control flag to false and wakes up the accept loop */
   public void shutdown() {
     running = false;
+    if ( acceptSelector != null ) {
+      acceptSelector.wakeup();
+    }
   }
 }
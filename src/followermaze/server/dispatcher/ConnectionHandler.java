@@ -2,6 +2,8 @@ package followermaze.server.dispatcher;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
 import org.apache.logging.log4j.LogManager;
@@ -38,7 +40,8 @@ abstract class ConnectionHandler implements Runnable {
    * Read messages from the client sockets are passed to this method to be further processed inside the specific subclasses.
    * 
    * @param message
-   *          ByteBuffer containing a message
+   *          ByteBuffer containing a message between its position and its limit, including the message terminator. The buffer is a view on the read buffer and must not be kept after the method
+   *          returns
    * @throws Exception
    */
   abstract void processMessage( final ByteBuffer message ) throws Exception;
@@ -48,17 +51,18 @@ abstract class ConnectionHandler implements Runnable {
   }
 
   /**
-   * Returns the length of the result buffer which is used to hold the content of a single message
+   * Returns the maximum length of a single message, the read buffer grows up to this size if a message does not fit into it
    * 
-   * @return Resultbuffer size in byte
+   * @return Maximum message length in byte
    */
-  protected int getResultBufferLengthInByte() {
-    return ConfigService.INSTANCE.getResultBufferLengthInByte();
+  protected int getMaxMessageLengthInByte() {
+    return ConfigService.INSTANCE.getMaxMessageLengthInByte();
   }
 
   /**
-   * Method reads data from a connected SocketChannel until no more bytes are received. The bytes are read into a a bytebuffer which is then copied byte-per-byte into a result bytebuffer to find the
-   * message terminator byte. The content of the result buffer is further processed by subclass specific implementations of processMessage()
+   * Method reads data from a connected SocketChannel until no more bytes are received. The bytes are read into the buffer of a LineFramer which scans them in bulk for the message terminator. Every
+   * complete message is passed as a view on the read buffer to the subclass specific implementation of processMessage(), incomplete messages are kept until the remaining bytes have been read. A
+   * non-blocking socket is waited for with a selector of its own, so the handler thread still blocks until bytes arrive.
    * 
    * @throws Exception
    *           IOException
@@ -68,38 +72,33 @@ abstract class ConnectionHandler implements Runnable {
     logger.entry();
 
     // use implementation dependent sizes to reduce expensive system calls for allocation
-    final int maxBufferSize = getMaxBufferSize();
-    final int resultBufferSize = getResultBufferLengthInByte();
+    final LineFramer framer = new LineFramer( getMaxBufferSize(), getMaxMessageLengthInByte() );
 
-    int bytesReadTotal = 0;
-
-    ByteBuffer resultBuffer = ByteBuffer.allocate( resultBufferSize );
-    ByteBuffer tempBuffer = ByteBuffer.allocate( maxBufferSize );
+    long bytesReadTotal = 0;
 
+    final Selector readSelector = clientSocket.isBlocking() ? null : Selector.open();
     boolean running = true;
     try {
+      if ( readSelector != null ) {
+        clientSocket.register( readSelector, SelectionKey.OP_READ );
+      }
       while ( running ) {
 
-        int bytesRead = clientSocket.read( tempBuffer );
-        bytesReadTotal += bytesRead;
+        final int bytesRead = framer.readFrom( clientSocket );
         if ( bytesRead == -1 ) {
           logger.trace( "No more bytes read from socket." );
           running = false;
+        } else if ( bytesRead == 0 && readSelector != null ) {
+          readSelector.select();
+          readSelector.selectedKeys().clear();
+          // interrupted on shutdown, a blocking read would have closed the socket
+          running = !Thread.currentThread().isInterrupted();
         } else {
-          // flip Buffer before reading
-          tempBuffer.flip();
-
-          for ( int i = 0; i < bytesRead; i++ ) {
-            final byte curByte = tempBuffer.get( i );
-            resultBuffer.put( curByte );
-
-            // message completely read?
-            if ( curByte == MESSAGE_TERMINATOR ) {
-              processMessage( resultBuffer );
-              resultBuffer.clear();
-            }
+          bytesReadTotal += bytesRead;
+          ByteBuffer message = null;
+          while ( (message = framer.nextFrame()) != null ) {
+            processMessage( message );
           }
-          tempBuffer.clear();
         }
       }
     } catch ( Exception ex ) {
@@ -107,12 +106,15 @@ abstract class ConnectionHandler implements Runnable {
     } finally {
       try {
         logger.trace( "Read " + bytesReadTotal + " from Socket." );
+        if ( readSelector != null ) {
+          readSelector.close();
+        }
         clientSocket.close();
       } catch ( Exception ex ) {
         throw ex;
       }
     }
-    logger.exit( resultBuffer );
+    logger.exit();
 
   }
 
@@ -1,15 +1,13 @@
 package followermaze.server.dispatcher;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import followermaze.server.config.ConfigService;
 import followermaze.server.model.event.Event;
 import followermaze.server.model.event.EventFactory;
+import followermaze.server.model.event.EventParser;
+import followermaze.server.model.event.EventPool;
 import followermaze.server.service.EventHandlerService;
 
 /**
@@ -19,7 +17,11 @@ import followermaze.server.service.EventHandlerService;
  */
 public class EventConnectionHandler extends ConnectionHandler {
 
-  private static final Logger logger = LogManager.getLogger( EventConnectionHandler.class );
+  /** Parses the messages read by this handler, only used by the reading thread */
+  private final EventParser parser = new EventParser();
+
+  /** Recycles the events created by this handler, events are taken by the reading thread and returned by the sequencer thread */
+  private final EventPool pool = new EventPool( ConfigService.INSTANCE.getEventPoolSize() );
 
   /**
    * @param clientSocket
@@ -30,32 +32,17 @@ public class EventConnectionHandler extends ConnectionHandler {
   }
 
   /**
-   * Processes the incoming message, converts it into its string representation and creates an event instance which is then processed by the EventHandlerService
+   * Processes the incoming message by parsing its bytes and creates an event instance which is then processed by the EventHandlerService
    * 
    * @param message
    *          Message in byte format
-   * @throws UnsupportedEncodingException
-   *           The target encoding specification is not supported
    */
   @Override
-  void processMessage( ByteBuffer message ) throws UnsupportedEncodingException {
-
-    logger.entry( message );
-    int numberOfBytesToRead = message.position();
-    final byte[] byteBuffer = new byte[numberOfBytesToRead];
-
-    message.flip();
-    message.get( byteBuffer, 0, numberOfBytesToRead );
-
-    final String messageStr = new String( byteBuffer, ENCODING );
-    logger.debug( "Processing message: " + messageStr );
-
-    final Event event = EventFactory.createEvent( messageStr );
+  void processMessage( ByteBuffer message ) {
+    final Event event = EventFactory.createEvent( message, parser, pool );
     if ( event != null ) {
-      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( messageStr ) );
+      EventHandlerService.INSTANCE.addEvent( event );
     }
-
-    logger.exit();
   }
 
   /**
@@ -9,18 +9,23 @@ import java.util.concurrent.Executors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.config.ConfigService;
 import followermaze.server.service.EventHandlerService;
+import followermaze.server.util.VirtualThreads;
 
 /**
  * 
- * Instance of this class waits for incoming connections on the event source port (default 9090). It uses Java NIO configured to be non-blocking. If a client connects on the port, a new
- * EventConnectionHandler is created that gets the socket channel instance created by the socket.accept(). The EventConnectionHandler is passed into an executor service which processes it decoupled
- * from the listening loop.
+ * Instance of this class waits for incoming connections on the event source port (default 9090). It uses the selector based accept loop of its base class. If a client connects on the port, a
+ * new EventConnectionHandler is created that gets the socket channel instance created by the socket.accept(). The EventConnectionHandler is passed into an executor service which processes it
+ * decoupled from the listening loop.
  */
 public class EventDispatcher extends BaseDispatcher {
 
   private static final Logger logger = LogManager.getLogger( EventDispatcher.class );
 
+  /** Executor processing the connection of the event source */
+  private ExecutorService executorService = null;
+
   /**
    * @param port
    *          Port in which the socket waits for incoming connections
@@ -38,27 +43,23 @@ public class EventDispatcher extends BaseDispatcher {
     logger.entry();
 
     // use single thread executor as there is only one client connecting on this port
-    final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    if ( ConfigService.INSTANCE.isVirtualThreadMode() ) {
+      executorService = Executors.newSingleThreadExecutor( VirtualThreads.newThreadFactory() );
+    } else {
+      executorService = Executors.newSingleThreadExecutor();
+    }
 
     try {
       logger.info( "Event Dispatcher is waiting for incoming connections..." );
       // server is ready for incoming connections
       readyLatch.countDown();
-      while ( running ) {
-        final SocketChannel clientSocket = serverSocket.accept();
-        if ( clientSocket != null ) {
-          logger.debug( "Submitting new ConnectionHandler Task" );
-          executorService.submit( new EventConnectionHandler( clientSocket ) );
-        }
-      }
+      acceptConnections();
     } catch ( Exception e ) {
       logger.error( "Error during socket communication.", e );
     } finally {
       try {
         cleanUp();
-        logger.info( "Closing Server Socket..." );
-        serverSocket.close();
-        logger.info( "Closing Server Socket...completed" );
+        closeServerSocket();
         logger.info( "Shutting down executor service..." );
         executorService.shutdownNow();
         logger.info( "Shutting down executor service...completed" );
@@ -69,6 +70,15 @@ public class EventDispatcher extends BaseDispatcher {
     logger.exit();
   }
 
+  /**
+   * Submits an EventConnectionHandler for the accepted event source connection
+   */
+  @Override
+  void handleConnection( final SocketChannel clientSocket ) {
+    logger.debug( "Submitting new ConnectionHandler Task" );
+    executorService.submit( new EventConnectionHandler( clientSocket ) );
+  }
+
   @Override
   void cleanUp() {
     // shut down EventHandlerService
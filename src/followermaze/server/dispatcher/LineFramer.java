@@ -0,0 +1,123 @@
+package followermaze.server.dispatcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Splits the bytes read from a socket into messages terminated by a linebreak. Bytes are read directly into a single buffer which is scanned in bulk for the message terminator. Complete messages are
+ * handed out as a view on that buffer, thus no bytes are copied per message. Incomplete messages at the end of the buffer are moved to its start before the next read and the buffer is grown if a
+ * single message does not fit into it. Instances are not thread-safe and are meant to be used by the thread reading from the socket.
+ *
+ */
+class LineFramer {
+
+  /** Linebreak terminating every message */
+  private static final byte MESSAGE_TERMINATOR = 10;
+
+  /** Maximum size the buffer may grow to, limits the length of a single message */
+  private final int maxCapacity;
+
+  /** Buffer the socket reads into, between reads its position marks the end of the read bytes */
+  private ByteBuffer buffer;
+
+  /** View on the buffer returned for every complete message, reused to avoid allocations */
+  private ByteBuffer frame;
+
+  /** Start index of the first message that has not been handed out yet */
+  private int frameStart = 0;
+
+  /** Index from which the scan for the next message terminator continues */
+  private int scanPosition = 0;
+
+  /**
+   * Constructs a LineFramer
+   *
+   * @param initialCapacity
+   *          Initial size of the read buffer in byte
+   * @param maxCapacity
+   *          Maximum size of the read buffer in byte, messages exceeding it are rejected
+   */
+  LineFramer( int initialCapacity, int maxCapacity ) {
+    this.maxCapacity = Math.max( initialCapacity, maxCapacity );
+    allocate( initialCapacity );
+  }
+
+  /**
+   * Reads bytes from the passed in channel into the buffer. Incomplete messages are moved to the start of the buffer first, the buffer is grown if it is filled completely by a single incomplete
+   * message.
+   *
+   * @param channel
+   *          Channel to read from
+   * @return Number of bytes read, -1 if the end of stream has been reached
+   * @throws IOException
+   *           Error reading from the channel
+   * @throws IllegalStateException
+   *           A single message exceeds the maximum capacity
+   */
+  int readFrom( final ReadableByteChannel channel ) throws IOException {
+    compact();
+    return channel.read( buffer );
+  }
+
+  /**
+   * Returns the next complete message including its terminator. The returned buffer is a view on the internal buffer, its content is only valid until the next call of readFrom(). Position and
+   * limit of the view mark the start and the end of the message.
+   *
+   * @return Next complete message, null if no complete message is available
+   */
+  ByteBuffer nextFrame() {
+    final byte[] bytes = buffer.array();
+    final int end = buffer.position();
+    for ( int i = scanPosition; i < end; i++ ) {
+      if ( bytes[i] == MESSAGE_TERMINATOR ) {
+        frame.limit( i + 1 );
+        frame.position( frameStart );
+        frameStart = i + 1;
+        scanPosition = frameStart;
+        return frame;
+      }
+    }
+    scanPosition = end;
+    return null;
+  }
+
+  /**
+   * @return Number of bytes of the incomplete message at the end of the buffer
+   */
+  int pendingBytes() {
+    return buffer.position() - frameStart;
+  }
+
+  /**
+   * Moves an incomplete message to the start of the buffer. If the message fills the whole buffer, the buffer is replaced by one of twice the size.
+   */
+  private void compact() {
+    final int pending = pendingBytes();
+    if ( frameStart > 0 ) {
+      System.arraycopy( buffer.array(), frameStart, buffer.array(), 0, pending );
+      buffer.position( pending );
+      scanPosition -= frameStart;
+      frameStart = 0;
+    }
+    if ( !buffer.hasRemaining() ) {
+      if ( buffer.capacity() >= maxCapacity ) {
+        throw new IllegalStateException( "Message exceeds the maximum length of " + maxCapacity + " bytes!" );
+      }
+      final ByteBuffer oldBuffer = buffer;
+      allocate( (int) Math.min( (long) oldBuffer.capacity() * 2, maxCapacity ) );
+      buffer.put( oldBuffer.array(), 0, pending );
+    }
+  }
+
+  /**
+   * Allocates a new read buffer and the view used to hand out messages
+   *
+   * @param capacity
+   *          Size of the buffer in byte
+   */
+  private void allocate( int capacity ) {
+    buffer = ByteBuffer.allocate( capacity );
+    frame = buffer.duplicate();
+  }
+}
@@ -6,6 +6,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import followermaze.server.service.EventHandlerService;
+import followermaze.server.service.EventLogService;
+import followermaze.server.service.MetricsService;
+import followermaze.server.service.SnapshotService;
 import followermaze.server.service.UserRegistryService;
 
 /**
@@ -17,6 +20,9 @@ public class ServerManager {
   /** Logger */
   private static final Logger logger = LogManager.getLogger( ServerManager.class );
 
+  /** Max wait time in ms for a dispatcher thread to shut down */
+  private static final int SHUTDOWN_TIMEOUT = 5000;
+
   /** Thread that runs the EventDispatcher */
   private Thread eventDispatcherThread = null;
 
@@ -30,7 +36,7 @@ public class ServerManager {
   private EventDispatcher eventDispatcher = null;
 
   /**
-   * Method starts an EventDispatcher and an UserClientDispatcher
+   * Method starts an EventDispatcher and an UserClientDispatcher, the state of the event processing is restored from a snapshot and the event log before if configured
    * 
    * @param eventDispatcherPort
    *          Port on which the EventDispatcher waits for EventSources to connect
@@ -39,6 +45,10 @@ public class ServerManager {
    */
   public void startUpServers( int eventDispatcherPort, int userClientDispatcherPort ) {
 
+    MetricsService.INSTANCE.startReporting();
+    SnapshotService.INSTANCE.start();
+    EventLogService.INSTANCE.start();
+
     boolean startedEventDispatcher = false;
     final CountDownLatch readySignalEventDispatcher = new CountDownLatch( 1 );
     eventDispatcher = new EventDispatcher( eventDispatcherPort, readySignalEventDispatcher );
@@ -88,9 +98,12 @@ public class ServerManager {
   }
 
   /**
-   * Method stops the servers by shutting down the threads
+   * Method stops the servers by shutting down the threads, a final snapshot and the pending events of the event log are written before the state is reset if configured
    */
   public void stopServers() {
+    MetricsService.INSTANCE.stopReporting();
+    SnapshotService.INSTANCE.stop();
+    EventLogService.INSTANCE.stop();
     EventHandlerService.INSTANCE.reset();
     UserRegistryService.INSTANCE.reset();
 
@@ -106,6 +119,18 @@ public class ServerManager {
     if ( userClientDispatcherThread != null ) {
       userClientDispatcherThread.interrupt();
     }
+
+    // wait until the server sockets are closed, so the ports can be bound again right away
+    try {
+      if ( eventDispatcherThread != null ) {
+        eventDispatcherThread.join( SHUTDOWN_TIMEOUT );
+      }
+      if ( userClientDispatcherThread != null ) {
+        userClientDispatcherThread.join( SHUTDOWN_TIMEOUT );
+      }
+    } catch ( InterruptedException e ) {
+      logger.error( "Error while waiting for the dispatchers to shut down!", e );
+    }
   }
 
   /**
@@ -13,7 +13,8 @@ import followermaze.server.service.UserRegistryService;
 
 /**
  * Instances of this class handle connections from user clients to the server. Every client sends a message that contains its client id, this message is received and parsed to register the client in
- * the UserRegistryService
+ * the UserRegistryService. With platform delivery workers the socket is made non-blocking like in the UserClientEventLoop, so a client that does not read its socket parks its mailbox in the write
+ * selector instead of blocking a delivery worker.
  *
  */
 public class UserClientConnectionHandler extends ConnectionHandler {
@@ -31,6 +32,17 @@ public class UserClientConnectionHandler extends ConnectionHandler {
     super( clientSocket );
   }
 
+  /**
+   * Makes the socket non-blocking before reading unless the delivery runs on virtual threads, where a blocking write only parks the virtual thread draining the mailbox
+   */
+  @Override
+  protected void readMessage() throws Exception {
+    if ( !ConfigService.INSTANCE.isVirtualThreadMode() ) {
+      clientSocket.configureBlocking( false );
+    }
+    super.readMessage();
+  }
+
   /**
    * Method extracts the user id from the passed in message and registers the user at the UserRegistryService
    */
@@ -38,16 +50,27 @@ public class UserClientConnectionHandler extends ConnectionHandler {
   void processMessage( ByteBuffer message ) throws UnsupportedEncodingException, IllegalArgumentException {
     logger.entry( message );
 
-    final String messageStr = new String( message.array(), ENCODING ).trim();
-    Integer userId = null;
+    final String messageStr = new String( message.array(), message.arrayOffset() + message.position(), message.remaining(), ENCODING );
+    UserRegistryService.INSTANCE.registerClient( new Client( extractUserId( messageStr ), clientSocket ) );
+    logger.exit();
+  }
+
+  /**
+   * Extracts the user id from the registration message sent by a client. Shared with the selector based UserClientEventLoop.
+   * 
+   * @param messageStr
+   *          Registration message including the message terminator
+   * @return User id sent by the client
+   * @throws IllegalArgumentException
+   *           The message does not contain a valid user id
+   */
+  static int extractUserId( final String messageStr ) throws IllegalArgumentException {
+    final String trimmed = messageStr.trim();
     try {
-      userId = Integer.valueOf( messageStr );
+      return Integer.valueOf( trimmed );
     } catch ( NumberFormatException ex ) {
-      throw new IllegalArgumentException( "Message " + messageStr + " does not contain a valid User ID!" );
+      throw new IllegalArgumentException( "Message " + trimmed + " does not contain a valid User ID!" );
     }
-
-    UserRegistryService.INSTANCE.registerClient( new Client( userId, clientSocket ) );
-    logger.exit();
   }
 
   @Override
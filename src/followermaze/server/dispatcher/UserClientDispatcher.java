@@ -11,21 +11,31 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import followermaze.server.config.ConfigService;
+import followermaze.server.util.VirtualThreads;
 import followermaze.server.service.UserRegistryService;
 
 /**
- * 
+ *
  * Instance of this class processes messages that are retrieved by clients connected on the user client port (default 9099)
- * 
+ *
  */
 class UserClientDispatcher extends BaseDispatcher {
 
   /** Logger */
   private static final Logger logger = LogManager.getLogger( UserClientDispatcher.class );
 
+  /** Event loops multiplexing the client connections in selector mode, null in thread per connection mode */
+  private UserClientEventLoop[] eventLoops = null;
+
+  /** Index of the event loop that gets the next accepted connection */
+  private int nextEventLoop = 0;
+
+  /** Executor running a UserClientConnectionHandler per connection in thread per connection mode, null in selector mode */
+  private ExecutorService executorService = null;
+
   /**
    * Constructs a UserClientDispatcher
-   * 
+   *
    * @param port
    *          Port on which to listen for incoming connections
    * @param readyLatch
@@ -36,45 +46,103 @@ class UserClientDispatcher extends BaseDispatcher {
   }
 
   /**
-   * Main processing loop, waits for incoming connections on provided port.
+   * Main processing loop, waits for incoming connections on provided port. Depending on the configured mode, accepted connections are either handed over to a fixed number of selector based event
+   * loops or processed by a thread per connection.
    */
   @Override
   public void run() {
 
-    final int corePoolSize = 100;
-    final int keepAliveTime = 1;
-
-    // use ThreadPoolExecutor to enable loaddepending generation and starvation of threads
-    final ExecutorService executorService = new ThreadPoolExecutor( corePoolSize, ConfigService.INSTANCE.getMaxThreadsUserClientDispatcher(), keepAliveTime, TimeUnit.MINUTES,
-        new LinkedBlockingQueue<Runnable>() );
-
     try {
-      logger.info( "User Client Dispatcher is waiting for incoming connections..." );
+      if ( ConfigService.USER_CLIENT_IO_MODE_THREAD_PER_CONNECTION.equals( ConfigService.INSTANCE.getUserClientIoMode() ) ) {
+        startThreadPerConnection();
+      } else {
+        startEventLoops();
+      }
+
       // server is ready for incoming connections
       readyLatch.countDown();
-      while ( running ) {
-        final SocketChannel clientSocket = serverSocket.accept();
-        if ( clientSocket != null ) {
-          executorService.submit( new UserClientConnectionHandler( clientSocket ) );
-        }
-      }
+      acceptConnections();
     } catch ( Exception e ) {
       logger.error( "Error during socket communication.", e );
     } finally {
       try {
         cleanUp();
-        logger.info( "Closing Server Socket..." );
-        serverSocket.close();
-        logger.info( "Closing Server Socket...completed" );
-        logger.info( "Shutting down executor service..." );
-        executorService.shutdownNow();
-        logger.info( "Shutting down executor service...completed" );
+        closeServerSocket();
+        stopConnectionHandling();
       } catch ( Exception e ) {
         logger.error( "Error during component shutdown.", e );
       }
     }
   }
 
+  /**
+   * Creates a fixed number of UserClientEventLoop instances, each running on its own thread. Accepted connections are distributed round robin over the event loops.
+   *
+   * @throws Exception
+   *           Selector of an event loop could not be opened
+   */
+  private void startEventLoops() throws Exception {
+    final int numberOfEventLoops = Math.max( 1, ConfigService.INSTANCE.getUserClientEventLoopThreads() );
+    eventLoops = new UserClientEventLoop[numberOfEventLoops];
+    for ( int i = 0; i < numberOfEventLoops; i++ ) {
+      eventLoops[i] = new UserClientEventLoop();
+      new Thread( eventLoops[i], "UserClientEventLoop-" + i ).start();
+    }
+    logger.info( "User Client Dispatcher is waiting for incoming connections using " + numberOfEventLoops + " event loops..." );
+  }
+
+  /**
+   * Creates the thread pool which runs a UserClientConnectionHandler per connection. The handler blocks on the socket for the lifetime of the connection. In virtual thread mode every handler runs on
+   * its own virtual thread, so the number of connections is not limited by the thread pool.
+   */
+  private void startThreadPerConnection() {
+    if ( ConfigService.INSTANCE.isVirtualThreadMode() ) {
+      executorService = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      logger.info( "User Client Dispatcher is waiting for incoming connections using virtual threads..." );
+      return;
+    }
+
+    final int corePoolSize = 100;
+    final int keepAliveTime = 1;
+
+    // use ThreadPoolExecutor to enable loaddepending generation and starvation of threads
+    executorService = new ThreadPoolExecutor( corePoolSize, ConfigService.INSTANCE.getMaxThreadsUserClientDispatcher(), keepAliveTime, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>() );
+    logger.info( "User Client Dispatcher is waiting for incoming connections..." );
+  }
+
+  /**
+   * Hands an accepted connection over to an event loop or submits a UserClientConnectionHandler, depending on the configured mode
+   */
+  @Override
+  void handleConnection( final SocketChannel clientSocket ) {
+    if ( eventLoops != null ) {
+      eventLoops[nextEventLoop].addConnection( clientSocket );
+      nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+    } else {
+      executorService.submit( new UserClientConnectionHandler( clientSocket ) );
+    }
+  }
+
+  /**
+   * Shuts down the event loops or the executor service handling the client connections
+   */
+  private void stopConnectionHandling() {
+    if ( eventLoops != null ) {
+      logger.info( "Shutting down event loops..." );
+      for ( UserClientEventLoop curEventLoop : eventLoops ) {
+        if ( curEventLoop != null ) {
+          curEventLoop.shutdown();
+        }
+      }
+      logger.info( "Shutting down event loops...completed" );
+    }
+    if ( executorService != null ) {
+      logger.info( "Shutting down executor service..." );
+      executorService.shutdownNow();
+      logger.info( "Shutting down executor service...completed" );
+    }
+  }
+
   @Override
   void cleanUp() {
     UserRegistryService.INSTANCE.reset();
@@ -0,0 +1,209 @@
+package followermaze.server.dispatcher;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.client.Client;
+import followermaze.server.service.UserRegistryService;
+
+/**
+ * Instances of this class multiplex a large number of user client connections on a single thread using a NIO Selector. The event loop reads the registration message containing the user id, registers
+ * the client at the UserRegistryService and afterwards detects disconnects, so the number of threads needed to handle user clients does not depend on the number of connected users.
+ *
+ */
+class UserClientEventLoop implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger( UserClientEventLoop.class );
+
+  /** Selector used to wait for readable client sockets */
+  private final Selector selector;
+
+  /** Sockets accepted by the dispatcher thread, registered with the selector by the event loop thread */
+  private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<SocketChannel>();
+
+  /** Size of the buffer used to read the registration message of a client */
+  private final int readBufferSize;
+
+  /** Flag controls the main loop */
+  private volatile boolean running = true;
+
+  /**
+   * Constructs an event loop and opens its selector
+   *
+   * @throws IOException
+   *           Selector could not be opened
+   */
+  UserClientEventLoop() throws IOException {
+    this.selector = Selector.open();
+    this.readBufferSize = ConfigService.INSTANCE.getMaxBufferLengthClientSocketInByte();
+  }
+
+  /**
+   * Hands an accepted client socket over to the event loop. The socket is registered with the selector by the event loop thread itself, thus the selector does not need to be synchronized.
+   *
+   * @param clientSocket
+   *          Accepted client socket
+   */
+  void addConnection( final SocketChannel clientSocket ) {
+    pendingRegistrations.add( clientSocket );
+    selector.wakeup();
+  }
+
+  /**
+   * Main loop, waits for readable sockets and processes registrations and disconnects
+   */
+  @Override
+  public void run() {
+    logger.entry();
+    try {
+      while ( running ) {
+        selector.select();
+        registerPendingConnections();
+
+        final Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
+        while ( keyIter.hasNext() ) {
+          final SelectionKey key = keyIter.next();
+          keyIter.remove();
+          if ( key.isValid() && key.isReadable() ) {
+            read( key );
+          }
+        }
+      }
+    } catch ( ClosedSelectorException ex ) {
+      logger.debug( "Selector has been closed." );
+    } catch ( Exception ex ) {
+      logger.error( "Error in user client event loop!", ex );
+    } finally {
+      closeSelector();
+    }
+    logger.exit();
+  }
+
+  /**
+   * Configures the sockets accepted since the last loop iteration to be non-blocking and registers them for read operations
+   */
+  private void registerPendingConnections() {
+    SocketChannel clientSocket = null;
+    while ( (clientSocket = pendingRegistrations.poll()) != null ) {
+      try {
+        clientSocket.configureBlocking( false );
+        clientSocket.register( selector, SelectionKey.OP_READ, new UserClientSession( readBufferSize ) );
+      } catch ( IOException e ) {
+        logger.error( "Error registering client socket with selector!", e );
+        closeSocket( clientSocket );
+      }
+    }
+  }
+
+  /**
+   * Reads all available bytes from a readable client socket. The first complete message contains the user id and registers the client. After the registration, incoming bytes are
+   * discarded, only the end of stream is of interest to detect disconnects.
+   *
+   * @param key
+   *          Selection key of the readable client socket
+   */
+  private void read( final SelectionKey key ) {
+    final SocketChannel clientSocket = (SocketChannel) key.channel();
+    final UserClientSession session = (UserClientSession) key.attachment();
+    try {
+      int bytesRead = 0;
+      while ( (bytesRead = session.framer.readFrom( clientSocket )) > 0 ) {
+        final ByteBuffer message = session.framer.nextFrame();
+        if ( session.client == null && message != null ) {
+          final String messageStr = new String( message.array(), message.arrayOffset() + message.position(), message.remaining(), ConnectionHandler.ENCODING );
+          session.client = new Client( UserClientConnectionHandler.extractUserId( messageStr ), clientSocket );
+          UserRegistryService.INSTANCE.registerClient( session.client );
+        }
+        // discard everything sent after the registration message
+        while ( session.framer.nextFrame() != null ) {
+          continue;
+        }
+      }
+      if ( bytesRead == -1 ) {
+        logger.trace( "No more bytes read from socket." );
+        disconnect( key, session );
+      }
+    } catch ( Exception e ) {
+      logger.error( "Error reading from socket!", e );
+      disconnect( key, session );
+    }
+  }
+
+  /**
+   * Closes the connection to a client and removes it from the UserRegistryService
+   *
+   * @param key
+   *          Selection key of the client socket
+   * @param session
+   *          State of the connection
+   */
+  private void disconnect( final SelectionKey key, final UserClientSession session ) {
+    key.cancel();
+    if ( session.client != null ) {
+      // marks the client as disconnected, so the cached connected followers drop it
+      session.client.disconnect();
+    }
+    closeSocket( (SocketChannel) key.channel() );
+  }
+
+  /**
+   * Closes the passed in socket
+   *
+   * @param clientSocket
+   *          Socket to be closed
+   */
+  private void closeSocket( final SocketChannel clientSocket ) {
+    try {
+      clientSocket.close();
+    } catch ( IOException e ) {
+      logger.error( "Error closing socket!", e );
+    }
+  }
+
+  /**
+   * Closes the selector and all client sockets that are still registered with it
+   */
+  private void closeSelector() {
+    try {
+      for ( SelectionKey key : selector.keys() ) {
+        closeSocket( (SocketChannel) key.channel() );
+      }
+      selector.close();
+    } catch ( Exception e ) {
+      logger.error( "Error closing selector!", e );
+    }
+  }
+
+  /** Stops the event loop and wakes up the selector */
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  /**
+   * State of a single client connection, attached to its selection key
+   */
+  private static class UserClientSession {
+
+    /** Splits the bytes read from the client into messages */
+    private final LineFramer framer;
+
+    /** Registered client, null until the registration message has been received */
+    private Client client = null;
+
+    UserClientSession( int readBufferSize ) {
+      this.framer = new LineFramer( readBufferSize, readBufferSize );
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package followermaze.server.model.client;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Log of the status updates of a user with a very large number of followers. Instead of posting an update to the mailbox of every follower, the thread processing the events appends it to the log
+ * once, the mailboxes of the connected followers subscribe to the log and read the updates when they are drained. The log is a ring of a fixed capacity, every half capacity the writer checks for
+ * followers that would fall behind by more than the capacity before the next check and applies the overflow policy to them. Single writer, any number of readers.
+ *
+ */
+public final class AuthorLog {
+
+  /** ID of the user whose status updates are logged */
+  private final int authorId;
+
+  /** Sequence numbers of the logged updates, the update at position p is stored at index p & mask */
+  private final AtomicIntegerArray sequenceNumbers;
+
+  /** Encoded updates, same index as the sequence numbers */
+  private final AtomicReferenceArray<ByteBuffer> payloads;
+
+  /** Mask used to map a position to an index */
+  private final int mask;
+
+  /** Number of updates appended so far, the position of the next update */
+  private final AtomicLong published = new AtomicLong();
+
+  /** Connected followers subscribed to the log by user ID */
+  private final ConcurrentMap<Integer, Client> subscribers = new ConcurrentHashMap<Integer, Client>();
+
+  /** True, while a wakeup of the subscribers is pending */
+  private final AtomicBoolean wakeupPending = new AtomicBoolean( false );
+
+  /**
+   * @param authorId
+   *          ID of the user whose status updates are logged
+   * @param requestedCapacity
+   *          Minimum number of updates kept, rounded up to the next power of two
+   */
+  public AuthorLog( int authorId, int requestedCapacity ) {
+    int capacity = 2;
+    while ( capacity < requestedCapacity ) {
+      capacity <<= 1;
+    }
+    this.authorId = authorId;
+    this.sequenceNumbers = new AtomicIntegerArray( capacity );
+    this.payloads = new AtomicReferenceArray<ByteBuffer>( capacity );
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * @return ID of the user whose status updates are logged
+   */
+  public int getAuthorId() {
+    return authorId;
+  }
+
+  /**
+   * Appends a status update, must only be called by the thread processing the events
+   *
+   * @param sequenceNumber
+   *          Sequence number of the update
+   * @param payload
+   *          Read-only buffer holding the encoded update, shared by all readers
+   */
+  public void append( int sequenceNumber, final ByteBuffer payload ) {
+    final long position = published.get();
+    final int index = (int) position & mask;
+    sequenceNumbers.lazySet( index, sequenceNumber );
+    payloads.lazySet( index, payload );
+    published.set( position + 1 );
+  }
+
+  /**
+   * @return True, if the next append starts a new half of the ring, thus the followers have to be checked for falling behind
+   */
+  public boolean isLagCheckDue() {
+    return (published.get() & (mask >> 1)) == 0;
+  }
+
+  /**
+   * Returns the lowest read position that cannot be overwritten before the next lag check, a follower reading below it would miss updates
+   *
+   * @return Lowest safe read position
+   */
+  public long getSafeReadPosition() {
+    return published.get() + ((mask + 1) >> 1) - mask;
+  }
+
+  /**
+   * @return Position of the next update, thus the number of updates appended so far
+   */
+  public long getPublished() {
+    return published.get();
+  }
+
+  /**
+   * Returns the oldest position that can still be read safely. The slot of the update before it may be overwritten by the writer right now.
+   *
+   * @return Oldest readable position
+   */
+  long getOldestReadable() {
+    return Math.max( 0, published.get() - mask );
+  }
+
+  /**
+   * @param position
+   *          Position of a published update
+   * @return Sequence number of the update, only valid if the position is still readable afterwards
+   */
+  int getSequenceNumber( long position ) {
+    return sequenceNumbers.get( (int) position & mask );
+  }
+
+  /**
+   * @param position
+   *          Position of a published update
+   * @return Encoded update, only valid if the position is still readable afterwards
+   */
+  ByteBuffer getPayload( long position ) {
+    return payloads.get( (int) position & mask );
+  }
+
+  /**
+   * Adds a connected follower to the subscribers, ignored if it is subscribed already
+   *
+   * @param follower
+   *          Connected follower
+   * @return True, if the follower has been added
+   */
+  public boolean addSubscriber( final Client follower ) {
+    return subscribers.put( follower.getId(), follower ) != follower;
+  }
+
+  /**
+   * Removes a follower from the subscribers
+   *
+   * @param follower
+   *          Follower to be removed
+   */
+  public void removeSubscriber( final Client follower ) {
+    subscribers.remove( follower.getId(), follower );
+  }
+
+  /**
+   * @return Connected followers subscribed to the log
+   */
+  public Collection<Client> getSubscribers() {
+    return subscribers.values();
+  }
+
+  /**
+   * Marks a wakeup of the subscribers as pending
+   *
+   * @return True, if no wakeup has been pending, thus the caller has to start one
+   */
+  public boolean requestWakeup() {
+    return wakeupPending.compareAndSet( false, true );
+  }
+
+  /**
+   * Called by the wakeup before it visits the subscribers, updates appended afterwards request another wakeup
+   */
+  public void startWakeup() {
+    wakeupPending.set( false );
+  }
+}
@@ -1,24 +1,28 @@
 package followermaze.server.model.client;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.service.MetricsService;
 import followermaze.server.service.UserRegistryService;
 
 /**
- * Instances of this class represent a connected user.
+ * Instances of this class represent a connected user. Outbound messages are encoded into a queue of pending buffers which is written with gathering writes as far as the socket accepts, a
+ * non-blocking socket whose send buffer is full leaves the remaining bytes queued until it becomes writable again.
  *
  */
 public class Client {
 
   private static final Logger logger = LogManager.getLogger( Client.class );
 
-  /** Charset used for encoding */
-  private static final String CHARSET = "UTF-8";
+  /** Number of write calls issued by flushes of all clients */
+  private static final AtomicLong writeCallCounter = MetricsService.INSTANCE.counter( "delivery.writeCalls" );
 
   /** ID of current client */
   private final Integer id;
@@ -26,6 +30,18 @@ public class Client {
   /** Socketchannel over which the client is connected */
   private final SocketChannel clientSocket;
 
+  /** Messages waiting to be sent to the client */
+  private final Mailbox mailbox = new Mailbox( this );
+
+  /** Encoded messages not yet written to the socket, only accessed by the delivery worker draining the mailbox */
+  private final OutboundQueue outbound = new OutboundQueue();
+
+  /** Subscriptions to the logs of followed users with a very large number of followers, copied on write */
+  private volatile Subscription[] subscriptions = new Subscription[0];
+
+  /** Set after sending a message failed, further messages are dropped */
+  private volatile boolean disconnected = false;
+
   /**
    * 
    * @param id
@@ -43,27 +59,182 @@ public class Client {
   }
 
   /**
-   * Method sends message to current user
-   * 
-   * @param messageStr
-   *          Message to be sent to the user
-   * @return TODO
+   * @return Mailbox holding the messages waiting to be sent to the client
+   */
+  public Mailbox getMailbox() {
+    return mailbox;
+  }
+
+  /**
+   * Subscribes the client to the log of a followed user, updates appended afterwards are sent to the client when its mailbox is drained. Ignored if the client is subscribed already.
+   *
+   * @param log
+   *          Log of the followed user
+   */
+  public synchronized void subscribe( final AuthorLog log ) {
+    if ( disconnected ) {
+      return;
+    }
+    for ( Subscription curSubscription : subscriptions ) {
+      if ( curSubscription.log == log && !curSubscription.isEnded() ) {
+        return;
+      }
+    }
+    final Subscription[] newSubscriptions = Arrays.copyOf( subscriptions, subscriptions.length + 1 );
+    newSubscriptions[subscriptions.length] = new Subscription( log );
+    subscriptions = newSubscriptions;
+  }
+
+  /**
+   * Ends the subscription of the client to the log of a user it no longer follows. Updates appended before are still sent, the subscription is removed once they have been read.
+   *
+   * @param log
+   *          Log of the user no longer followed
+   */
+  public synchronized void unsubscribe( final AuthorLog log ) {
+    for ( Subscription curSubscription : subscriptions ) {
+      if ( curSubscription.log == log && !curSubscription.isEnded() ) {
+        curSubscription.end();
+      }
+    }
+  }
+
+  /**
+   * @param log
+   *          Log of a followed user
+   * @return Position of the oldest update of the log the client has not read yet, Long.MAX_VALUE if the client does not read from the log
+   */
+  public long getReadPosition( final AuthorLog log ) {
+    long readPosition = Long.MAX_VALUE;
+    for ( Subscription curSubscription : subscriptions ) {
+      if ( curSubscription.log == log && !curSubscription.isFinished() ) {
+        readPosition = Math.min( readPosition, curSubscription.getPosition() );
+      }
+    }
+    return readPosition;
+  }
+
+  /**
+   * @return Subscriptions of the client, must not be modified
    */
-  public int notify( String messageStr ) {
+  Subscription[] getSubscriptions() {
+    return subscriptions;
+  }
+
+  /**
+   * Removes the subscriptions that have ended and whose updates have all been read, called by the delivery worker draining the mailbox
+   */
+  synchronized void removeFinishedSubscriptions() {
+    int remaining = 0;
+    for ( Subscription curSubscription : subscriptions ) {
+      if ( !curSubscription.isFinished() ) {
+        remaining++;
+      }
+    }
+    if ( remaining == subscriptions.length ) {
+      return;
+    }
+    final Subscription[] newSubscriptions = new Subscription[remaining];
+    int index = 0;
+    for ( Subscription curSubscription : subscriptions ) {
+      if ( !curSubscription.isFinished() ) {
+        newSubscriptions[index++] = curSubscription;
+      }
+    }
+    subscriptions = newSubscriptions;
+  }
 
-    logger.entry( messageStr );
-    int bytesWritten = 0;
+  /**
+   * @return Socketchannel over which the client is connected
+   */
+  public SocketChannel getChannel() {
+    return clientSocket;
+  }
+
+  /**
+   * Appends an encoded message to the pending buffers, the message is sent on the next flush. Must only be called by the delivery worker draining the mailbox.
+   *
+   * @param message
+   *          Buffer holding the encoded message between position and limit, owned by the client from now on
+   */
+  public void enqueue( final ByteBuffer message ) {
+    if ( !disconnected ) {
+      outbound.offer( message );
+    }
+  }
+
+  /**
+   * @return Number of bytes enqueued but not yet written to the socket
+   */
+  public long getPendingBytes() {
+    return outbound.getPendingBytes();
+  }
+
+  /**
+   * Computes how long the pending bytes may still wait for further messages before they have to be written
+   *
+   * @param maxLingerNanos
+   *          Maximum time in ns a message may wait after it has been enqueued
+   * @return Remaining time in ns, 0 or less if the pending bytes are due or no bytes are pending
+   */
+  public long getRemainingLingerNanos( long maxLingerNanos ) {
+    if ( outbound.isEmpty() ) {
+      return 0;
+    }
+    return outbound.getFirstEnqueuedNanos() + maxLingerNanos - System.nanoTime();
+  }
+
+  /**
+   * Writes the pending buffers as far as the socket accepts them without blocking, all pending buffers are passed to a single gathering write. Must only be called by the delivery worker draining the
+   * mailbox.
+   *
+   * @return True, if all pending buffers have been written or the client is disconnected, false if the socket send buffer is full and the client has to wait until the socket becomes writable
+   */
+  public boolean flush() {
+    if ( outbound.isEmpty() ) {
+      return true;
+    }
     try {
-      logger.debug( "Sending message " + messageStr + " to " + id );
-      bytesWritten = clientSocket.write( Charset.forName( CHARSET ).encode( messageStr ) );
-      logger.debug( "Sent " + bytesWritten + " bytes to client!" );
+      final int writes = outbound.writeTo( clientSocket );
+      if ( writes < 0 ) {
+        return false;
+      }
+      writeCallCounter.addAndGet( writes );
     } catch ( Exception e ) {
       // Client is no longer connected, remove it from the userregistry
       logger.error( "Error notifying client.", e );
-      UserRegistryService.INSTANCE.removeClient( this );
+      outbound.clear();
+      disconnect();
+    }
+    return true;
+  }
+
+  /**
+   * Marks the client as disconnected, removes it from the userregistry and closes its socket. Called after sending failed or if the client does not keep up with its notifications, further messages
+   * are dropped and the subscriptions are cancelled, so a delivery worker still draining the mailbox stops reading the logs.
+   */
+  public void disconnect() {
+    disconnected = true;
+    cancelSubscriptions();
+    UserRegistryService.INSTANCE.removeClient( this );
+    closeConnection();
+  }
+
+  /**
+   * Cancels and removes all subscriptions, called once the client has been marked as disconnected
+   */
+  private synchronized void cancelSubscriptions() {
+    for ( Subscription curSubscription : subscriptions ) {
+      curSubscription.cancel();
     }
-    logger.exit( bytesWritten );
-    return bytesWritten;
+    subscriptions = new Subscription[0];
+  }
+
+  /**
+   * @return True, if the client has been disconnected and further messages are dropped
+   */
+  public boolean isDisconnected() {
+    return disconnected;
   }
 
   /**
@@ -0,0 +1,407 @@
+package followermaze.server.model.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import followermaze.server.service.DeliveryService;
+import followermaze.server.service.MetricsService;
+import followermaze.server.util.MpscLinkedQueue;
+
+/**
+ * Mailbox of a client holding the messages that still have to be sent to it. Any thread may post messages, the mailbox is scheduled onto a delivery worker only while it contains messages. At most
+ * one worker drains a mailbox at a time, thus the messages of a client are sent in the order they have been posted. The mailbox counts the messages and bytes it holds, so the DeliveryService can
+ * limit the memory a slow client occupies. Status updates posted while the mailbox is backlogged may be conflated: a newer update of the same user cancels the older one that has not been sent yet,
+ * the newer one is queued behind the messages posted in between, thus the remaining messages are still sent in the order they have been posted. Status updates of users with a very large
+ * number of followers are not posted at all, the mailbox reads them from the logs the client subscribed to and merges them with the posted messages by sequence number.
+ *
+ */
+public class Mailbox implements Runnable {
+
+  /** Maximum number of messages sent per scheduling, so busy clients do not starve the others */
+  private static final int MAX_BATCH_SIZE = 64;
+
+  /** Number of status updates cancelled by a newer update of the same user in all mailboxes */
+  private static final AtomicLong conflatedCounter = MetricsService.INSTANCE.counter( "outbound.conflated" );
+
+  /** Client receiving the messages */
+  private final Client client;
+
+  /** Pending messages, either encoded buffers owned by this mailbox or conflatable status updates */
+  private final MpscLinkedQueue<Object> messages = new MpscLinkedQueue<Object>();
+
+  /** Latest conflatable status update by user, created when the mailbox is backlogged for the first time */
+  private volatile ConcurrentMap<Integer, ConflatableMessage> conflatableMessages = null;
+
+  /** True, while the mailbox is scheduled onto or drained by a delivery worker */
+  private final AtomicBoolean scheduled = new AtomicBoolean( false );
+
+  /** Number of messages in the mailbox */
+  private final AtomicInteger queuedMessages = new AtomicInteger();
+
+  /** Number of bytes of the messages in the mailbox */
+  private final AtomicLong queuedBytes = new AtomicLong();
+
+  /** Held while removing messages, the queue supports only one consumer at a time */
+  private final ReentrantLock consumerLock = new ReentrantLock();
+
+  /** True, while the mailbox exceeds its limits, used to report an overflow only once */
+  private final AtomicBoolean overflowing = new AtomicBoolean( false );
+
+  /**
+   * @param client
+   *          Client receiving the messages
+   */
+  Mailbox( final Client client ) {
+    this.client = client;
+  }
+
+  /**
+   * Adds a message to the mailbox
+   *
+   * @param message
+   *          Buffer holding the encoded message between position and limit, must not be used by other recipients
+   * @return True, if the caller has to schedule the mailbox onto a delivery worker
+   */
+  public boolean post( final ByteBuffer message ) {
+    queuedMessages.incrementAndGet();
+    queuedBytes.addAndGet( message.remaining() );
+    messages.offer( message );
+    return scheduled.compareAndSet( false, true );
+  }
+
+  /**
+   * Adds a status update to the mailbox. If the mailbox holds at least the passed in number of messages, the update is conflated: an update of the same user posted before that has not been sent yet is
+   * cancelled. Must only be called by the thread processing the events.
+   *
+   * @param fromUserId
+   *          User the status update originates from
+   * @param message
+   *          Buffer holding the encoded message between position and limit, must not be used by other recipients
+   * @param backlog
+   *          Number of messages in the mailbox from which on status updates are conflated
+   * @return True, if the caller has to schedule the mailbox onto a delivery worker
+   */
+  public boolean postStatusUpdate( int fromUserId, final ByteBuffer message, int backlog ) {
+    if ( queuedMessages.get() < backlog ) {
+      return post( message );
+    }
+
+    ConcurrentMap<Integer, ConflatableMessage> currentConflatableMessages = conflatableMessages;
+    if ( currentConflatableMessages == null ) {
+      currentConflatableMessages = new ConcurrentHashMap<Integer, ConflatableMessage>();
+      conflatableMessages = currentConflatableMessages;
+    }
+    final ConflatableMessage conflatable = new ConflatableMessage( fromUserId, message );
+    final ConflatableMessage previous = currentConflatableMessages.put( fromUserId, conflatable );
+    if ( previous != null && previous.claim() ) {
+      // the previous update has not been taken by a worker yet, it is skipped when polled
+      queuedMessages.decrementAndGet();
+      queuedBytes.addAndGet( -previous.message.remaining() );
+      conflatedCounter.incrementAndGet();
+    }
+    queuedMessages.incrementAndGet();
+    queuedBytes.addAndGet( message.remaining() );
+    messages.offer( conflatable );
+    return scheduled.compareAndSet( false, true );
+  }
+
+  /**
+   * @return Number of messages in the mailbox
+   */
+  public int getQueuedMessages() {
+    return queuedMessages.get();
+  }
+
+  /**
+   * @return Number of bytes of the messages in the mailbox
+   */
+  public long getQueuedBytes() {
+    return queuedBytes.get();
+  }
+
+  /**
+   * Removes the oldest messages until the mailbox holds at most the passed in number of messages and bytes. Skipped if a delivery worker is draining the mailbox right now, as the worker removes
+   * messages anyway.
+   *
+   * @param maxMessages
+   *          Maximum number of messages left in the mailbox
+   * @param maxBytes
+   *          Maximum number of bytes left in the mailbox
+   * @return Number of removed messages
+   */
+  public int dropOldest( int maxMessages, long maxBytes ) {
+    if ( !consumerLock.tryLock() ) {
+      return 0;
+    }
+    int dropped = 0;
+    try {
+      while ( queuedMessages.get() > maxMessages || queuedBytes.get() > maxBytes ) {
+        if ( poll() == null ) {
+          break;
+        }
+        dropped++;
+      }
+    } finally {
+      consumerLock.unlock();
+    }
+    return dropped;
+  }
+
+  /**
+   * Marks the mailbox as exceeding its limits
+   *
+   * @return True, if the mailbox did not exceed its limits before
+   */
+  public boolean markOverflowing() {
+    return overflowing.compareAndSet( false, true );
+  }
+
+  /**
+   * Marks the mailbox as being within its limits again
+   */
+  public void clearOverflowing() {
+    if ( overflowing.get() ) {
+      overflowing.set( false );
+    }
+  }
+
+  /**
+   * @return Client receiving the messages
+   */
+  public Client getClient() {
+    return client;
+  }
+
+  /**
+   * Sends the pending messages to the client, called by a delivery worker. The messages are coalesced with the bytes still pending at the client: as long as they stay below the flush threshold and
+   * the oldest one has not exceeded the linger time, the mailbox waits for further messages instead of writing. Reschedules the mailbox if messages are left after a batch or have been posted
+   * concurrently. If the socket of the client does not accept all bytes, the mailbox stays scheduled and is handed over to the DeliveryService until the socket becomes writable, thus a stalled client
+   * never blocks a worker.
+   */
+  @Override
+  public void run() {
+    final DeliveryService deliveryService = DeliveryService.INSTANCE;
+    final Subscription[] subscriptions = client.getSubscriptions();
+    int taken = 0;
+    consumerLock.lock();
+    try {
+      if ( subscriptions.length == 0 ) {
+        ByteBuffer message = poll();
+        while ( message != null ) {
+          client.enqueue( message );
+          if ( ++taken == MAX_BATCH_SIZE ) {
+            break;
+          }
+          message = poll();
+        }
+      } else {
+        taken = takeMerged( subscriptions );
+      }
+    } finally {
+      consumerLock.unlock();
+    }
+
+    if ( client.getPendingBytes() < deliveryService.getFlushThresholdBytes() ) {
+      if ( taken >= MAX_BATCH_SIZE ) {
+        // still scheduled, continue collecting after the other mailboxes
+        deliveryService.schedule( this );
+        return;
+      }
+      final long remainingLingerNanos = client.getRemainingLingerNanos( deliveryService.getMaxLingerNanos() );
+      if ( remainingLingerNanos > 0 ) {
+        // still scheduled, messages posted meanwhile are written together with the pending ones
+        deliveryService.scheduleAfter( this, remainingLingerNanos );
+        return;
+      }
+    }
+
+    if ( !client.flush() ) {
+      // still scheduled, continues once the socket is writable
+      deliveryService.awaitWritable( this );
+      return;
+    }
+    if ( taken >= MAX_BATCH_SIZE ) {
+      // still scheduled, continue after the other mailboxes
+      deliveryService.schedule( this );
+      return;
+    }
+    if ( subscriptions.length > 0 ) {
+      client.removeFinishedSubscriptions();
+    }
+
+    scheduled.set( false );
+    // a producer may have posted or a followed user may have logged an update after the last poll but before the flag was reset
+    if ( (!messages.isEmpty() || hasUnreadUpdates()) && scheduled.compareAndSet( false, true ) ) {
+      deliveryService.schedule( this );
+    }
+  }
+
+  /**
+   * Schedules the mailbox onto a delivery worker if it is not scheduled already, called after a followed user logged a status update
+   *
+   * @return True, if the caller has to schedule the mailbox onto a delivery worker
+   */
+  public boolean requestDrain() {
+    return scheduled.compareAndSet( false, true );
+  }
+
+  /**
+   * Takes the messages posted to the mailbox and the updates logged by followed users in the order of their sequence numbers. Messages are posted by the thread processing the events in that order
+   * after the updates preceding them have been logged, thus the limits of the logs are taken again after a message has been polled: all updates preceding the message are below the limits. If no
+   * message is left, the updates below the limits taken before the last poll are sent, any message posted afterwards follows them. Stops reading the logs once the client has been disconnected. The
+   * consumer lock has to be held.
+   *
+   * @param subscriptions
+   *          Subscriptions of the client
+   * @return Number of messages and updates taken
+   */
+  private int takeMerged( final Subscription[] subscriptions ) {
+    int taken = 0;
+    while ( taken < MAX_BATCH_SIZE && !client.isDisconnected() ) {
+      snapshot( subscriptions );
+      final ByteBuffer message = poll();
+      if ( message == null ) {
+        return taken + takeUpdates( subscriptions, Subscription.NONE, MAX_BATCH_SIZE - taken );
+      }
+      snapshot( subscriptions );
+      taken += takeUpdates( subscriptions, sequenceNumberOf( message ), Integer.MAX_VALUE );
+      client.enqueue( message );
+      taken++;
+    }
+    return taken;
+  }
+
+  /**
+   * Takes the logged updates below the limits of the subscriptions in the order of their sequence numbers
+   *
+   * @param subscriptions
+   *          Subscriptions of the client
+   * @param beforeSequenceNumber
+   *          Only updates with a lower sequence number are taken
+   * @param maxUpdates
+   *          Maximum number of updates taken
+   * @return Number of updates taken
+   */
+  private int takeUpdates( final Subscription[] subscriptions, int beforeSequenceNumber, int maxUpdates ) {
+    int taken = 0;
+    while ( taken < maxUpdates ) {
+      Subscription next = null;
+      int nextSequenceNumber = beforeSequenceNumber;
+      for ( Subscription curSubscription : subscriptions ) {
+        final int sequenceNumber = curSubscription.peek();
+        if ( sequenceNumber < nextSequenceNumber ) {
+          next = curSubscription;
+          nextSequenceNumber = sequenceNumber;
+        }
+      }
+      if ( next == null ) {
+        return taken;
+      }
+      final ByteBuffer update = next.take();
+      if ( update != null ) {
+        client.enqueue( update.duplicate() );
+        taken++;
+      }
+    }
+    return taken;
+  }
+
+  /**
+   * @return True, if a followed user logged updates the client has not read yet
+   */
+  private boolean hasUnreadUpdates() {
+    for ( Subscription curSubscription : client.getSubscriptions() ) {
+      if ( curSubscription.hasUnread() ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void snapshot( final Subscription[] subscriptions ) {
+    for ( Subscription curSubscription : subscriptions ) {
+      curSubscription.snapshot();
+    }
+  }
+
+  /**
+   * Parses the sequence number every event message starts with
+   *
+   * @param message
+   *          Encoded message, its position is not changed
+   * @return Sequence number, Integer.MAX_VALUE if the message does not start with a sequence number
+   */
+  private static int sequenceNumberOf( final ByteBuffer message ) {
+    int sequenceNumber = 0;
+    int digits = 0;
+    for ( int i = message.position(); i < message.limit(); i++ ) {
+      final int digit = message.get( i ) - '0';
+      if ( digit < 0 || digit > 9 ) {
+        break;
+      }
+      sequenceNumber = sequenceNumber * 10 + digit;
+      digits++;
+    }
+    return digits == 0 ? Integer.MAX_VALUE : sequenceNumber;
+  }
+
+  /**
+   * Removes the oldest message and updates the counts, skips status updates cancelled by a newer one. The consumer lock has to be held.
+   *
+   * @return Oldest message, null if the mailbox is empty
+   */
+  private ByteBuffer poll() {
+    Object element = messages.poll();
+    while ( element != null ) {
+      final ByteBuffer message;
+      if ( element instanceof ConflatableMessage ) {
+        final ConflatableMessage conflatable = (ConflatableMessage) element;
+        conflatableMessages.remove( conflatable.fromUserId, conflatable );
+        if ( !conflatable.claim() ) {
+          // cancelled by a newer update, the counts have been updated already
+          element = messages.poll();
+          continue;
+        }
+        message = conflatable.message;
+      } else {
+        message = (ByteBuffer) element;
+      }
+      queuedMessages.decrementAndGet();
+      queuedBytes.addAndGet( -message.remaining() );
+      return message;
+    }
+    return null;
+  }
+
+  /**
+   * Status update that may be cancelled by a newer update of the same user. Either the worker taking it or the thread cancelling it claims the update, whoever is first.
+   */
+  private static final class ConflatableMessage {
+
+    /** User the status update originates from */
+    private final int fromUserId;
+
+    /** Encoded status update */
+    private final ByteBuffer message;
+
+    /** Set once the update has been taken or cancelled */
+    private final AtomicBoolean claimed = new AtomicBoolean( false );
+
+    private ConflatableMessage( int fromUserId, final ByteBuffer message ) {
+      this.fromUserId = fromUserId;
+      this.message = message;
+    }
+
+    /**
+     * @return True, if the calling thread claimed the update
+     */
+    private boolean claim() {
+      return claimed.compareAndSet( false, true );
+    }
+  }
+}
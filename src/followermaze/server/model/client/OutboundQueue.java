@@ -0,0 +1,116 @@
+package followermaze.server.model.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Encoded messages of a client that have not been written to its socket yet. The buffers are kept in an array, thus all pending messages are written with a single gathering write instead of one
+ * write per message. The queue keeps track of the number of pending bytes and the time the oldest pending message has been enqueued, so the caller can decide to wait for further messages before
+ * writing. Only accessed by the delivery worker draining the mailbox of the client, thus not thread-safe.
+ *
+ */
+class OutboundQueue {
+
+  /** Maximum number of buffers passed to a single gathering write, larger arrays are split by the JDK anyway */
+  private static final int MAX_BUFFERS_PER_WRITE = 1024;
+
+  /** Pending buffers in the range [first, first + count) */
+  private ByteBuffer[] buffers = new ByteBuffer[16];
+
+  /** Index of the oldest pending buffer */
+  private int first = 0;
+
+  /** Number of pending buffers */
+  private int count = 0;
+
+  /** Number of pending bytes */
+  private long pendingBytes = 0;
+
+  /** Time in ns the oldest pending buffer has been enqueued */
+  private long firstEnqueuedNanos = 0;
+
+  /**
+   * Appends a buffer, its content between position and limit is written on the next write
+   *
+   * @param buffer
+   *          Buffer to be written
+   */
+  void offer( final ByteBuffer buffer ) {
+    if ( first + count == buffers.length ) {
+      if ( first > 0 ) {
+        // reuse the slots of the buffers written already
+        System.arraycopy( buffers, first, buffers, 0, count );
+        Arrays.fill( buffers, count, first + count, null );
+      } else {
+        buffers = Arrays.copyOf( buffers, buffers.length << 1 );
+      }
+      first = 0;
+    }
+    if ( count == 0 ) {
+      firstEnqueuedNanos = System.nanoTime();
+    }
+    buffers[first + count] = buffer;
+    count++;
+    pendingBytes += buffer.remaining();
+  }
+
+  /**
+   * Writes the pending buffers as far as the channel accepts them
+   *
+   * @param channel
+   *          Channel the buffers are written to
+   * @return Number of write calls, -1 if the channel did not accept all pending bytes
+   * @throws IOException
+   *           If writing to the channel fails
+   */
+  int writeTo( final GatheringByteChannel channel ) throws IOException {
+    int writes = 0;
+    while ( count > 0 ) {
+      final long written = channel.write( buffers, first, Math.min( count, MAX_BUFFERS_PER_WRITE ) );
+      writes++;
+      pendingBytes -= written;
+      while ( count > 0 && !buffers[first].hasRemaining() ) {
+        buffers[first++] = null;
+        count--;
+      }
+      if ( count > 0 && written == 0 ) {
+        return -1;
+      }
+    }
+    first = 0;
+    return writes;
+  }
+
+  /**
+   * @return Number of pending bytes
+   */
+  long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  /**
+   * @return True, if no buffers are pending
+   */
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * @return Time in ns the oldest pending buffer has been enqueued, only valid if buffers are pending
+   */
+  long getFirstEnqueuedNanos() {
+    return firstEnqueuedNanos;
+  }
+
+  /**
+   * Drops all pending buffers
+   */
+  void clear() {
+    Arrays.fill( buffers, first, first + count, null );
+    first = 0;
+    count = 0;
+    pendingBytes = 0;
+  }
+}
@@ -0,0 +1,149 @@
+package followermaze.server.model.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import followermaze.server.service.MetricsService;
+
+/**
+ * Read position of a client in the log of a followed user. The position is only accessed by the delivery worker draining the mailbox of the client, except for its initial value which is set by the
+ * thread processing the events when the client subscribes. Updates are read up to a limit taken when the mailbox is drained, thus a single drain reads a consistent snapshot of all logs. The position
+ * is published with an ordered store, so the thread appending to the log can detect a follower falling behind.
+ *
+ */
+final class Subscription {
+
+  /** Number of updates missed by followers that fell behind by more than the capacity of a log */
+  private static final AtomicLong overrunCounter = MetricsService.INSTANCE.counter( "authorLog.overruns" );
+
+  /** Updater publishing the position without a full fence */
+  private static final AtomicLongFieldUpdater<Subscription> POSITION_UPDATER = AtomicLongFieldUpdater.newUpdater( Subscription.class, "position" );
+
+  /** Sequence number returned if no update can be read */
+  static final int NONE = Integer.MAX_VALUE;
+
+  /** End of a subscription cancelled because its client has been disconnected */
+  private static final long CANCELLED = Long.MIN_VALUE;
+
+  /** Log the client subscribed to */
+  final AuthorLog log;
+
+  /** Position of the next update to be read, only written by the reading delivery worker */
+  private volatile long position;
+
+  /** Position up to which updates are read during the current drain, exclusive */
+  private long limit;
+
+  /** Position at which the client unsubscribed, updates appended afterwards are not read */
+  private volatile long end = Long.MAX_VALUE;
+
+  /**
+   * @param log
+   *          Log the client subscribes to, only updates appended afterwards are read
+   */
+  Subscription( final AuthorLog log ) {
+    this.log = log;
+    this.position = log.getPublished();
+    this.limit = position;
+  }
+
+  /**
+   * Takes the limit up to which updates are read during the current drain
+   */
+  void snapshot() {
+    limit = Math.min( log.getPublished(), end );
+  }
+
+  /**
+   * @return Sequence number of the next update below the limit, NONE if all updates below the limit have been read
+   */
+  int peek() {
+    while ( position < limit ) {
+      final int sequenceNumber = log.getSequenceNumber( position );
+      if ( position >= log.getOldestReadable() ) {
+        return sequenceNumber;
+      }
+      if ( !skipOverwritten() ) {
+        return NONE;
+      }
+    }
+    return NONE;
+  }
+
+  /**
+   * Reads the update returned by the last peek and advances the position
+   *
+   * @return Encoded update, null if the update has been overwritten meanwhile
+   */
+  ByteBuffer take() {
+    final ByteBuffer payload = log.getPayload( position );
+    if ( position < log.getOldestReadable() ) {
+      skipOverwritten();
+      return null;
+    }
+    POSITION_UPDATER.lazySet( this, position + 1 );
+    return payload;
+  }
+
+  /**
+   * @return Position of the next update to be read, may lag behind the reading delivery worker
+   */
+  long getPosition() {
+    return position;
+  }
+
+  /**
+   * @return True, if updates have been appended beyond the limit of the last drain or have not been read yet
+   */
+  boolean hasUnread() {
+    return position < Math.min( log.getPublished(), end );
+  }
+
+  /**
+   * Ends the subscription, updates appended so far are still read
+   */
+  void end() {
+    end = log.getPublished();
+  }
+
+  /**
+   * Cancels the subscription of a disconnected client, no further updates are read
+   */
+  void cancel() {
+    end = CANCELLED;
+  }
+
+  /**
+   * @return True, if the subscription has ended
+   */
+  boolean isEnded() {
+    return end != Long.MAX_VALUE;
+  }
+
+  /**
+   * @return True, if the subscription has ended and all updates before its end have been read
+   */
+  boolean isFinished() {
+    return position >= end;
+  }
+
+  /**
+   * Moves the position to the oldest readable update after the writer overwrote the next one. Only happens if the overflow policy lets a lagging follower drop updates, the writer reports the
+   * follower when it detects the lag. A follower disconnected by the overflow policy has its subscription cancelled before the writer overwrites its updates, the oldest readable position is read
+   * first, thus the cancellation is visible and the overwritten updates are not counted as missed.
+   *
+   * @return True, if the position has been moved, false if the subscription has ended before the next update
+   */
+  private boolean skipOverwritten() {
+    final long oldestReadable = log.getOldestReadable();
+    if ( position >= end ) {
+      return false;
+    }
+    if ( position < oldestReadable ) {
+      overrunCounter.addAndGet( oldestReadable - position );
+      POSITION_UPDATER.lazySet( this, oldestReadable );
+    }
+    return true;
+  }
+}
@@ -1,10 +1,16 @@
 package followermaze.server.model.event;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Abstract base class of all events generated and processed within the server. Immutable
+ * Abstract base class of all events generated and processed within the server. Instances are mutable so they can be recycled: the reading thread takes an instance from an EventPool and initializes it
+ * with the values of the parsed message, the sequencer thread returns it to its pool once it has been processed. The source message is copied into a byte array that is reused by the instance.
+ * Notifications are sent as the original bytes of the message, a single read-only payload is shared by all recipients.
  *
  */
 public abstract class AbstractEvent implements Event, Comparable<Event> {
@@ -12,57 +18,163 @@ public abstract class AbstractEvent implements Event, Comparable<Event> {
   /** Logger */
   protected static final Logger logger = LogManager.getLogger( AbstractEvent.class );
 
+  /** Charset used to decode messages */
+  private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  /** Terminator of the messages built from the parsed values */
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  /** Initial length of the message byte array */
+  private static final int INITIAL_MESSAGE_LENGTH = 32;
+
+  /** Pool the instance is returned to after processing, null if the instance is not pooled */
+  private final EventPool pool;
+
   /** Sequence number of the event instance */
-  final Integer sequenceNumber;
+  int sequenceNumber;
+
+  /** To user ID extracted from the source message, -1 if the event type has no to user */
+  int toUserId;
+
+  /** From user ID extracted from the source message, -1 if the event type has no from user */
+  int fromUserId;
+
+  /** Bytes of the source message, reused when the instance is recycled */
+  private byte[] messageBytes = null;
+
+  /** Length of the source message in byte, 0 if the message is not kept */
+  private int messageLength = 0;
 
-  /** To user ID extracted from the source message */
-  final Integer toUserId;
+  /** String representation of the source message, decoded on first use */
+  private String messageStr = null;
 
-  /** From user ID extracted from the source message */
-  final Integer fromUserId;
+  /** Read-only copy of the source message sent to the notified clients, created on first use, volatile as event shards may create it concurrently */
+  private volatile ByteBuffer payload = null;
 
-  /** String representation of the payload of the source message */
-  final String messageStr;
+  /**
+   *
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  AbstractEvent( final EventPool pool ) {
+    this.pool = pool;
+  }
 
   /**
-   * 
+   * Initializes the instance with the values of a parsed message
+   *
    * @param sequenceNumber
    *          Sequence number of the event
    * @param fromUserId
-   *          From user Id of the event
+   *          From user Id of the event, -1 if the event type has no from user
    * @param toUserId
-   *          To user Id of the event
-   * @param messageStr
-   *          Complete message string send to the server
+   *          To user Id of the event, -1 if the event type has no to user
+   * @param message
+   *          Buffer holding the complete message send to the server between position and limit, null if the message is not needed for processing
    */
-  public AbstractEvent( Integer sequenceNumber, Integer fromUserId, Integer toUserId, String messageStr ) {
-    super();
+  void init( int sequenceNumber, int fromUserId, int toUserId, final ByteBuffer message ) {
     this.sequenceNumber = sequenceNumber;
-    this.toUserId = toUserId;
     this.fromUserId = fromUserId;
-    this.messageStr = messageStr;
+    this.toUserId = toUserId;
+    this.messageStr = null;
+    this.payload = null;
+    if ( message == null ) {
+      messageLength = 0;
+      return;
+    }
+
+    messageLength = message.remaining();
+    if ( messageBytes == null || messageBytes.length < messageLength ) {
+      messageBytes = new byte[Math.max( messageLength, INITIAL_MESSAGE_LENGTH )];
+    }
+    if ( message.hasArray() ) {
+      System.arraycopy( message.array(), message.arrayOffset() + message.position(), messageBytes, 0, messageLength );
+    } else {
+      message.duplicate().get( messageBytes, 0, messageLength );
+    }
+  }
+
+  /**
+   * @return String representation of the complete message send to the server, null if the message is not kept
+   */
+  protected String getMessage() {
+    if ( messageStr == null && messageLength > 0 ) {
+      messageStr = new String( messageBytes, 0, messageLength, CHARSET );
+    }
+    return messageStr;
+  }
+
+  /**
+   * Returns the original bytes of the message, which are sent to the notified clients without decoding and encoding them. The payload is copied once, as the message bytes of the instance are reused
+   * after recycling, every recipient has to be passed its own duplicate of the returned buffer. Event shards processing the same event concurrently may each create a copy, all of them are equal.
+   *
+   * @return Read-only buffer holding the complete message send to the server, null if the message is not kept
+   */
+  protected ByteBuffer getPayload() {
+    ByteBuffer currentPayload = payload;
+    if ( currentPayload == null && messageLength > 0 ) {
+      currentPayload = ByteBuffer.wrap( Arrays.copyOf( messageBytes, messageLength ) ).asReadOnlyBuffer();
+      payload = currentPayload;
+    }
+    return currentPayload;
+  }
+
+  @Override
+  public void recycle() {
+    messageStr = null;
+    payload = null;
+    if ( pool != null ) {
+      pool.release( this );
+    }
   }
 
   @Override
   public int compareTo( final Event event ) {
-    return this.getSequenceNumber().compareTo( event.getSequenceNumber() );
+    return sequenceNumber < event.getSequenceNumber() ? -1 : (sequenceNumber == event.getSequenceNumber() ? 0 : 1);
   }
 
   @Override
-  public Integer getSequenceNumber() {
+  public int getSequenceNumber() {
     return sequenceNumber;
   }
 
   @Override
-  public Integer getToUserId() {
+  public int getToUserId() {
     return toUserId;
   }
 
   @Override
-  public Integer getFromUserId() {
+  public int getFromUserId() {
     return fromUserId;
   }
 
+  @Override
+  public int getMessageLength() {
+    return messageLength;
+  }
+
+  @Override
+  public String toSourceMessage() {
+    final String message = getMessage();
+    if ( message != null ) {
+      return message;
+    }
+    // events initialized without their message
+    final StringBuilder builder = new StringBuilder().append( sequenceNumber ).append( '|' ).append( (char) getEventType().getIdentifier() );
+    if ( fromUserId != -1 ) {
+      builder.append( '|' ).append( fromUserId );
+    }
+    if ( toUserId != -1 ) {
+      builder.append( '|' ).append( toUserId );
+    }
+    return builder.append( MESSAGE_TERMINATOR ).toString();
+  }
+
+  @Override
+  public void writeMessageTo( final ByteBuffer buffer ) {
+    buffer.put( messageBytes, 0, messageLength );
+  }
+
   @Override
   public String toString() {
     return "#Number: " + sequenceNumber + ", Type: " + getEventType() + ", FROM: " + fromUserId + ", TO: " + toUserId;
@@ -1,8 +1,5 @@
 package followermaze.server.model.event;
 
-import java.util.Collection;
-
-import followermaze.server.model.client.Client;
 import followermaze.server.service.UserRegistryService;
 
 /**
@@ -10,25 +7,25 @@ import followermaze.server.service.UserRegistryService;
  */
 public class BroadcastEvent extends AbstractEvent {
 
-  public BroadcastEvent( Integer sequenceNumber, String message ) {
-    super( sequenceNumber, -1, -1, message );
+  /**
+   * 
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  BroadcastEvent( final EventPool pool ) {
+    super( pool );
   }
 
   /**
-   * Processes the broadcast events. All at a point in time connected clients are notified. Method iterates through the list of connected clients and creates a new notification job for each. Those
-   * jobs are processed concurrently by the client specific executor services. This decouples notifications from the first part of event processing.
+   * Processes the broadcast events. All at a point in time connected clients are notified. The payload is posted to the mailboxes of the connected clients, for large numbers of clients the posting
+   * is split across several threads. The method returns once all mailboxes have been posted to, the notifications are sent concurrently by the delivery workers. This decouples notifications from the
+   * first part of event processing.
    */
   @Override
   public void processEvent() {
     logger.entry();
 
-    final UserRegistryService userReg = UserRegistryService.INSTANCE;
-    final Collection<Client> registeredClients = userReg.getAllRegisteredUser();
-
-    // this could be done via ExecutorService...
-    for ( Client curClient : registeredClients ) {
-      userReg.addNotificationJob( messageStr, curClient );
-    }
+    UserRegistryService.INSTANCE.addNotificationJobForAll( getPayload() );
 
     logger.exit();
   }
@@ -1,5 +1,7 @@
 package followermaze.server.model.event;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface for all events generated and processed within the server.
  *
@@ -9,17 +11,35 @@ public interface Event {
   /**
    * @return Sequence number of the event instance
    */
-  public Integer getSequenceNumber();
+  public int getSequenceNumber();
+
+  /**
+   * @return From user ID of the event instance, -1 if the event type has no from user
+   */
+  public int getFromUserId();
+
+  /**
+   * @return To user ID of the event instance, -1 if the event type has no to user
+   */
+  public int getToUserId();
 
   /**
-   * @return From user ID of the event instance
+   * @return Length of the source message kept by the event instance, 0 if the message is not kept
    */
-  public Integer getFromUserId();
+  public int getMessageLength();
 
   /**
-   * @return To user ID of the event instance
+   * @return Message in the format of the event source the event can be parsed from again, the original message if it is kept, else built from the parsed values
    */
-  public Integer getToUserId();
+  public String toSourceMessage();
+
+  /**
+   * Copies the kept source message into a buffer, getMessageLength() bytes are put at its position
+   *
+   * @param buffer
+   *          Buffer the message is put into
+   */
+  public void writeMessageTo( ByteBuffer buffer );
 
   /**
    * @return Type of the event instance
@@ -31,4 +51,9 @@ public interface Event {
    */
   public void processEvent();
 
+  /**
+   * Releases the event after it has been processed or discarded. Pooled instances are reused afterwards, thus the event must not be accessed anymore.
+   */
+  public void recycle();
+
 }
@@ -0,0 +1,239 @@
+package followermaze.server.model.event;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parses event messages directly from the bytes read from the event source. The fields separated by '|' are converted into primitive values without creating intermediate strings, thus parsing a
+ * valid message does not allocate any memory. The validation follows the rules of the former String based parsing: leading and trailing whitespace as well as trailing separators are ignored, the
+ * number of fields has to match the event type and all numbers have to be valid integers. Instances keep the result of the last parse and are not thread-safe, every reading thread uses its own
+ * instance.
+ *
+ */
+public class EventParser {
+
+  /** Separator that separates different components in the messages */
+  private static final byte SEPARATOR = '|';
+
+  /** Maximum number of fields of a valid event message */
+  private static final int MAX_FIELDS = 4;
+
+  /** Charset used to decode messages for error reporting */
+  private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  /** Start indexes of the fields of the last parsed message */
+  private final int[] fieldStart = new int[MAX_FIELDS];
+
+  /** End indexes (exclusive) of the fields of the last parsed message */
+  private final int[] fieldEnd = new int[MAX_FIELDS];
+
+  /** Sequence number of the last parsed message */
+  private int sequenceNumber;
+
+  /** From user id of the last parsed message, -1 if the event type has no from user */
+  private int fromUserId;
+
+  /** To user id of the last parsed message, -1 if the event type has no to user */
+  private int toUserId;
+
+  /** Type of the last parsed message */
+  private EventType eventType;
+
+  /**
+   * Parses the message between position and limit of the passed in buffer. The position of the buffer is not changed.
+   *
+   * @param message
+   *          Buffer holding a single message
+   * @throws IllegalArgumentException
+   *           The message does not describe a valid event
+   * @throws IllegalStateException
+   *           The message contains an unknown event type identifier
+   */
+  public void parse( final ByteBuffer message ) throws IllegalArgumentException, IllegalStateException {
+
+    // ignore leading and trailing whitespace, trailing separators are ignored as well
+    int start = message.position();
+    int end = message.limit();
+    while ( start < end && (message.get( start ) & 0xFF) <= ' ' ) {
+      start++;
+    }
+    while ( end > start && (message.get( end - 1 ) & 0xFF) <= ' ' ) {
+      end--;
+    }
+    while ( end > start && message.get( end - 1 ) == SEPARATOR ) {
+      end--;
+    }
+
+    // split into fields
+    int numberOfFields = 0;
+    if ( end > start ) {
+      fieldStart[0] = start;
+      numberOfFields = 1;
+      for ( int i = start; i < end; i++ ) {
+        if ( message.get( i ) == SEPARATOR ) {
+          if ( numberOfFields == MAX_FIELDS ) {
+            numberOfFields++;
+            break;
+          }
+          fieldEnd[numberOfFields - 1] = i;
+          fieldStart[numberOfFields] = i + 1;
+          numberOfFields++;
+        }
+      }
+      if ( numberOfFields <= MAX_FIELDS ) {
+        fieldEnd[numberOfFields - 1] = end;
+      }
+    }
+
+    if ( numberOfFields < 2 ) {
+      throw new IllegalArgumentException( "Invalid event: " + decode( message ) );
+    }
+
+    eventType = null;
+    if ( fieldEnd[1] - fieldStart[1] == 1 ) {
+      eventType = EventType.fromIdentifier( message.get( fieldStart[1] ) );
+    }
+    if ( eventType == null ) {
+      throw new IllegalStateException( "Identifier: " + decode( message ) + " does not describe a valid event!" );
+    }
+
+    switch ( eventType ) {
+      case FOLLOW:
+        checkNumberOfFields( message, numberOfFields, 4, "follow" );
+        break;
+      case UNFOLLOW:
+        checkNumberOfFields( message, numberOfFields, 4, "unfollow" );
+        break;
+      case BROADCAST:
+        checkNumberOfFields( message, numberOfFields, 2, "broadcast" );
+        break;
+      case PRIVATE_MSG:
+        checkNumberOfFields( message, numberOfFields, 4, "private message" );
+        break;
+      case STATUS_UPDATE:
+        checkNumberOfFields( message, numberOfFields, 3, "status update" );
+        break;
+    }
+
+    sequenceNumber = parseInt( message, 0, "Illegal sequence number: " );
+    fromUserId = numberOfFields > 2 ? parseInt( message, 2, "Illegal client id: " ) : -1;
+    toUserId = numberOfFields > 3 ? parseInt( message, 3, "Illegal client id: " ) : -1;
+  }
+
+  /**
+   * Checks the number of fields of the message against the number expected for the event type
+   *
+   * @param message
+   *          Parsed message
+   * @param numberOfFields
+   *          Number of fields found in the message
+   * @param expectedFields
+   *          Number of fields of the event type
+   * @param eventName
+   *          Name of the event type used in the error message
+   * @throws IllegalArgumentException
+   *           The number of fields does not match
+   */
+  private void checkNumberOfFields( final ByteBuffer message, int numberOfFields, int expectedFields, final String eventName ) throws IllegalArgumentException {
+    if ( numberOfFields != expectedFields ) {
+      throw new IllegalArgumentException( "Event " + decode( message ) + " does not describe a valid " + eventName + " event." );
+    }
+  }
+
+  /**
+   * Converts a field into an int with the same rules as Integer.valueOf(), restricted to ASCII digits
+   *
+   * @param message
+   *          Parsed message
+   * @param field
+   *          Index of the field
+   * @param errorMessage
+   *          Prefix of the error message
+   * @return Integer value of the field
+   * @throws IllegalArgumentException
+   *           The field does not contain a valid integer
+   */
+  private int parseInt( final ByteBuffer message, int field, final String errorMessage ) throws IllegalArgumentException {
+    int pos = fieldStart[field];
+    final int end = fieldEnd[field];
+    boolean negative = false;
+    if ( pos < end && (message.get( pos ) == '-' || message.get( pos ) == '+') ) {
+      negative = message.get( pos ) == '-';
+      pos++;
+    }
+    if ( pos == end ) {
+      throw new IllegalArgumentException( errorMessage + decode( message, field ) );
+    }
+    // accumulate negatively to be able to represent Integer.MIN_VALUE
+    final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    final int multMin = limit / 10;
+    int result = 0;
+    for ( ; pos < end; pos++ ) {
+      final int digit = message.get( pos ) - '0';
+      if ( digit < 0 || digit > 9 || result < multMin ) {
+        throw new IllegalArgumentException( errorMessage + decode( message, field ) );
+      }
+      result *= 10;
+      if ( result < limit + digit ) {
+        throw new IllegalArgumentException( errorMessage + decode( message, field ) );
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Decodes the complete message, only used for error reporting
+   *
+   * @param message
+   *          Parsed message
+   * @return String representation of the message
+   */
+  private String decode( final ByteBuffer message ) {
+    return CHARSET.decode( message.duplicate() ).toString();
+  }
+
+  /**
+   * Decodes a single field of the message, only used for error reporting
+   *
+   * @param message
+   *          Parsed message
+   * @param field
+   *          Index of the field
+   * @return String representation of the field
+   */
+  private String decode( final ByteBuffer message, int field ) {
+    final ByteBuffer fieldBuffer = message.duplicate();
+    fieldBuffer.limit( fieldEnd[field] );
+    fieldBuffer.position( fieldStart[field] );
+    return CHARSET.decode( fieldBuffer ).toString();
+  }
+
+  /**
+   * @return Sequence number of the last parsed message
+   */
+  public int getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  /**
+   * @return From user id of the last parsed message, -1 if the event type has no from user
+   */
+  public int getFromUserId() {
+    return fromUserId;
+  }
+
+  /**
+   * @return To user id of the last parsed message, -1 if the event type has no to user
+   */
+  public int getToUserId() {
+    return toUserId;
+  }
+
+  /**
+   * @return Type of the last parsed message
+   */
+  public EventType getEventType() {
+    return eventType;
+  }
+}
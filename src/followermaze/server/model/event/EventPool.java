@@ -0,0 +1,88 @@
+package followermaze.server.model.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import followermaze.server.service.MetricsService;
+import followermaze.server.util.SpscRingBuffer;
+
+/**
+ * Pool of recycled event instances, one free list per event type. Events are taken from the pool by the thread reading from the event source and returned by the sequencer thread after processing,
+ * so the free lists are single-producer / single-consumer ring buffers. New instances are only allocated if the free list of a type is empty, instances returned to a full free list are left to the
+ * garbage collector. Thus steady-state ingest and sequencing does not allocate event instances.
+ *
+ */
+public class EventPool {
+
+  /** Number of event instances allocated because a free list was empty */
+  private static final AtomicLong allocationCounter = MetricsService.INSTANCE.counter( "eventPool.allocations" );
+
+  /** Free lists indexed by the ordinal of the event type */
+  private final SpscRingBuffer<AbstractEvent>[] freeEvents;
+
+  /**
+   * Constructs a pool
+   *
+   * @param capacityPerType
+   *          Maximum number of free instances kept per event type
+   */
+  // arrays of a generic type can only be created raw
+  @SuppressWarnings( { "unchecked", "rawtypes" } )
+  public EventPool( int capacityPerType ) {
+    freeEvents = new SpscRingBuffer[EventType.values().length];
+    for ( int i = 0; i < freeEvents.length; i++ ) {
+      freeEvents[i] = new SpscRingBuffer<AbstractEvent>( capacityPerType );
+    }
+  }
+
+  /**
+   * Takes a free instance of the passed in type from the pool, allocates a new one if none is available. Must only be called by the reading thread.
+   *
+   * @param eventType
+   *          Type of the event
+   * @return Uninitialized event instance
+   */
+  AbstractEvent acquire( final EventType eventType ) {
+    final AbstractEvent event = freeEvents[eventType.ordinal()].poll();
+    if ( event != null ) {
+      return event;
+    }
+    allocationCounter.incrementAndGet();
+    return create( eventType, this );
+  }
+
+  /**
+   * Returns a processed instance to the pool. Must only be called by the sequencer thread.
+   *
+   * @param event
+   *          Event instance that is not accessed anymore
+   */
+  void release( final AbstractEvent event ) {
+    freeEvents[event.getEventType().ordinal()].offer( event );
+  }
+
+  /**
+   * Creates a new event instance
+   *
+   * @param eventType
+   *          Type of the event
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   * @return Uninitialized event instance
+   */
+  static AbstractEvent create( final EventType eventType, final EventPool pool ) {
+    switch ( eventType ) {
+      case FOLLOW:
+        return new FollowEvent( pool );
+      case UNFOLLOW:
+        return new UnfollowEvent( pool );
+      case BROADCAST:
+        return new BroadcastEvent( pool );
+      case PRIVATE_MSG:
+        return new PrivateMsgEvent( pool );
+      case STATUS_UPDATE:
+        return new StatusUpdateEvent( pool );
+      default:
+        throw new IllegalStateException( "Unhandled event type " + eventType );
+    }
+  }
+}
@@ -4,5 +4,43 @@ package followermaze.server.model.event;
  * Enum describing the different types of events that are handled by the server
  */
 public enum EventType {
-  FOLLOW, UNFOLLOW, BROADCAST, PRIVATE_MSG, STATUS_UPDATE;
+  FOLLOW( 'F' ), UNFOLLOW( 'U' ), BROADCAST( 'B' ), PRIVATE_MSG( 'P' ), STATUS_UPDATE( 'S' );
+
+  /** Identifier of the event type in the messages sent by the event source */
+  private final byte identifier;
+
+  private EventType( char identifier ) {
+    this.identifier = (byte) identifier;
+  }
+
+  /**
+   * @return Identifier of the event type in the messages sent by the event source
+   */
+  public byte getIdentifier() {
+    return identifier;
+  }
+
+  /**
+   * Returns the event type for the passed in identifier
+   * 
+   * @param identifier
+   *          Identifier of the event type in the messages sent by the event source
+   * @return Event type, null if the identifier does not describe a valid event type
+   */
+  public static EventType fromIdentifier( byte identifier ) {
+    switch ( identifier ) {
+      case 'F':
+        return FOLLOW;
+      case 'U':
+        return UNFOLLOW;
+      case 'B':
+        return BROADCAST;
+      case 'P':
+        return PRIVATE_MSG;
+      case 'S':
+        return STATUS_UPDATE;
+      default:
+        return null;
+    }
+  }
 }
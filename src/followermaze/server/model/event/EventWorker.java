@@ -6,7 +6,8 @@ import org.apache.logging.log4j.Logger;
 import followermaze.server.service.EventHandlerService;
 
 /**
- * Instances of this class are used to process the events which are created by the EventHandlerService based on the byte data read from event source.
+ * Instances of this class are used to process the events which are created by the EventHandlerService based on the byte data read from event source. The events are processed one after another on
+ * the calling thread, subclasses may hand them over to other threads instead.
  *
  */
 public class EventWorker implements Runnable {
@@ -14,33 +15,63 @@ public class EventWorker implements Runnable {
   private static final Logger logger = LogManager.getLogger( EventWorker.class );
 
   /**
-   * Method processes the events which are currently on the event queue handled by the EventHandlerService. The processing first retrieves the next sequence number to be processed and the event with
-   * the smallest sequence number on the queue. If the numbers match, the event is processed, the number is increased, and the next event is taken from the queue. This iteration ends when the next
-   * sequence number and the smallest event´s sequence number on the queue don´t match or if the queue is empty.
+   * Method processes the events which are ready on the reorder buffer handled by the EventHandlerService. Events are taken from the buffer as long as the event with the next expected sequence number
+   * is available. This iteration ends when the next sequence number has not arrived yet.
    */
   @Override
   public void run() {
     logger.entry();
 
-    int currentNextSequenceNumber = EventHandlerService.INSTANCE.getNextSequenceNumber();
-    // now check, if there´s something on the heap that might get processed now
-    Event nextEvent = EventHandlerService.INSTANCE.first();
-    logger.debug( "Started Worker Run, nextSequence: " + currentNextSequenceNumber + ", currentTopEvent: " + nextEvent.getSequenceNumber() );
-    while ( nextEvent != null && nextEvent.getSequenceNumber() == currentNextSequenceNumber ) {
-      EventHandlerService.INSTANCE.remove( nextEvent );
+    Event nextEvent = EventHandlerService.INSTANCE.pollNext();
+    while ( nextEvent != null ) {
+      process( nextEvent );
+      nextEvent = EventHandlerService.INSTANCE.pollNext();
+    }
+    logger.exit();
+  }
 
-      logger.debug( "Processing Event: " + nextEvent );
-      nextEvent.processEvent();
-      logger.debug( "Finished processing event: " + nextEvent );
+  /**
+   * Processes a single event whose predecessors have all been processed and recycles it afterwards
+   *
+   * @param event
+   *          Event to be processed
+   */
+  public void process( final Event event ) {
+    logger.debug( "Processing Event: " + event );
+    event.processEvent();
+    logger.debug( "Finished processing event: " + event );
 
-      if ( (currentNextSequenceNumber % 100000) == 0 ) {
-        logger.info( "Processed " + currentNextSequenceNumber + " events." );
-      }
+    final int sequenceNumber = event.getSequenceNumber();
+    event.recycle();
+    logProgress( sequenceNumber );
+  }
 
-      currentNextSequenceNumber++;
-      nextEvent = EventHandlerService.INSTANCE.first();
+  /**
+   * Runs a task on every thread processing events once it has processed all events passed in so far, the threads continue with the following events afterwards. Called by the sequencer, which does
+   * not wait for the task. The events are processed on the calling thread, thus the task is run right away.
+   *
+   * @param task
+   *          Task run once by every processing thread
+   */
+  public void runWhenProcessed( final Runnable task ) {
+    task.run();
+  }
+
+  /**
+   * Stops processing, called after the last event has been passed in. The events are processed on the calling thread, thus there is nothing to stop.
+   */
+  public void shutdown() {
+  }
+
+  /**
+   * Logs the progress every 100000 events
+   *
+   * @param sequenceNumber
+   *          Sequence number of the event that has been processed
+   */
+  protected void logProgress( int sequenceNumber ) {
+    if ( (sequenceNumber % 100000) == 0 ) {
+      logger.info( "Processed " + sequenceNumber + " events." );
     }
-    EventHandlerService.INSTANCE.setNextSequenceNumber( currentNextSequenceNumber );
-    logger.exit();
   }
 }
@@ -9,8 +9,13 @@ import followermaze.server.service.UserRegistryService;
  */
 public class FollowEvent extends AbstractEvent {
 
-  public FollowEvent( Integer sequenceNumber, Integer fromUserId, Integer toUserId, String messageStr ) {
-    super( sequenceNumber, fromUserId, toUserId, messageStr );
+  /**
+   * 
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  FollowEvent( final EventPool pool ) {
+    super( pool );
   }
 
   /**
@@ -23,7 +28,7 @@ public class FollowEvent extends AbstractEvent {
     userReg.addFollower( getToUserId(), getFromUserId() );
     final Client toUser = userReg.getClientById( getToUserId() );
     if ( toUser != null ) {
-      userReg.addNotificationJob( messageStr, toUser );
+      userReg.addNotificationJob( getPayload(), toUser );
     }
     logger.exit();
   }
@@ -9,8 +9,13 @@ import followermaze.server.service.UserRegistryService;
  */
 public class PrivateMsgEvent extends AbstractEvent {
 
-  public PrivateMsgEvent( Integer sequenceNumber, Integer fromUserId, Integer toUserId, String eventStr ) {
-    super( sequenceNumber, fromUserId, toUserId, eventStr );
+  /**
+   * 
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  PrivateMsgEvent( final EventPool pool ) {
+    super( pool );
   }
 
   /**
@@ -23,7 +28,7 @@ public class PrivateMsgEvent extends AbstractEvent {
     final UserRegistryService userReg = UserRegistryService.INSTANCE;
     final Client toUser = userReg.getClientById( getToUserId() );
     if ( toUser != null ) {
-      userReg.addNotificationJob( messageStr, toUser );
+      userReg.addNotificationJob( getPayload(), toUser );
     } else {
       logger.debug( "User with Id " + getToUserId() + " is not connected." );
     }
@@ -1,8 +1,5 @@
 package followermaze.server.model.event;
 
-import java.util.Set;
-
-import followermaze.server.model.client.Client;
 import followermaze.server.service.UserRegistryService;
 
 /**
@@ -11,30 +8,26 @@ import followermaze.server.service.UserRegistryService;
  */
 public class StatusUpdateEvent extends AbstractEvent {
 
-  public StatusUpdateEvent( Integer sequenceNumber, Integer fromUserId, String eventStr ) {
-    super( sequenceNumber, fromUserId, -1, eventStr );
+  /**
+   * 
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  StatusUpdateEvent( final EventPool pool ) {
+    super( pool );
   }
 
   /**
-   * Processes status updates by first retrieving a list of followers of the "from user" from the user registry services. It iterates this list and adds a notification job for every following client
-   * to the executor queue of those clients if they´re currently connected.
+   * Processes status updates by posting them to the connected followers of the "from user" in the user registry services. For every following client a notification job is added to the mailbox of
+   * that client, followers that are not connected are not visited at all. Status updates of users with a very large number of followers are appended to the log of the user instead, the mailboxes of
+   * the followers read them from there.
    */
   @Override
   public void processEvent() {
     logger.entry();
 
-    final UserRegistryService userReg = UserRegistryService.INSTANCE;
-    final Set<Integer> followers = userReg.getFollowers( getFromUserId() );
-    if ( followers != null ) {
-      for ( Integer curClientId : followers ) {
-        final Client cur = userReg.getClientById( curClientId );
-        if ( cur != null ) {
-          userReg.addNotificationJob( messageStr, cur );
-        }
-      }
-    } else {
-      logger.debug( "There are currently no followers registered for User " + getFromUserId() );
-    }
+    UserRegistryService.INSTANCE.addStatusUpdateJobForFollowers( getFromUserId(), getSequenceNumber(), getPayload() );
+
     logger.exit();
   }
 
@@ -42,5 +35,4 @@ public class StatusUpdateEvent extends AbstractEvent {
   public EventType getEventType() {
     return EventType.STATUS_UPDATE;
   }
-
 }
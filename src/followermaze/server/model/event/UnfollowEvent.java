@@ -8,8 +8,13 @@ import followermaze.server.service.UserRegistryService;
  */
 public class UnfollowEvent extends AbstractEvent {
 
-  public UnfollowEvent( Integer sequenceNumber, Integer fromUserId, Integer toUserId ) {
-    super( sequenceNumber, fromUserId, toUserId, null );
+  /**
+   * 
+   * @param pool
+   *          Pool the instance is returned to after processing, null if the instance is not pooled
+   */
+  UnfollowEvent( final EventPool pool ) {
+    super( pool );
   }
 
   /**
@@ -0,0 +1,256 @@
+package followermaze.server.model.graph;
+
+import java.util.Arrays;
+
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Representation for users with a very large number of followers, a compressed bitmap following the roaring bitmap layout. The followers are partitioned by the upper 16 bits of their ID, every
+ * partition is stored in a container holding the lower 16 bits. Sparse containers are sorted char arrays, dense containers are plain bitmaps of 2^16 bits. Thus a set costs at most two bytes per
+ * follower and only one bit per follower in dense ID ranges.
+ *
+ */
+class BitmapFollowerSet implements FollowerSet {
+
+  /** Number of values an array container may hold, a bitmap container of the same size is 8 KB */
+  private static final int MAX_ARRAY_CONTAINER_SIZE = 4096;
+
+  /** Cardinality below which a bitmap container is converted back into an array container */
+  private static final int MIN_BITMAP_CONTAINER_SIZE = 2048;
+
+  /** Upper 16 bits of the containers, sorted in the range [0, numberOfContainers) */
+  private int[] highKeys = new int[4];
+
+  /** Containers, same index as the corresponding high key */
+  private Container[] containers = new Container[4];
+
+  /** Number of containers */
+  private int numberOfContainers = 0;
+
+  /** Number of followers */
+  private int size = 0;
+
+  @Override
+  public boolean add( int followerId ) {
+    final int high = followerId >>> 16;
+    int index = Arrays.binarySearch( highKeys, 0, numberOfContainers, high );
+    if ( index < 0 ) {
+      index = -index - 1;
+      insertContainer( index, high, new ArrayContainer() );
+    }
+    final Container container = containers[index];
+    if ( !container.add( (char) followerId ) ) {
+      return false;
+    }
+    if ( container instanceof ArrayContainer && container.cardinality() > MAX_ARRAY_CONTAINER_SIZE ) {
+      containers[index] = ((ArrayContainer) container).toBitmap();
+    }
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove( int followerId ) {
+    final int index = Arrays.binarySearch( highKeys, 0, numberOfContainers, followerId >>> 16 );
+    if ( index < 0 ) {
+      return false;
+    }
+    final Container container = containers[index];
+    if ( !container.remove( (char) followerId ) ) {
+      return false;
+    }
+    if ( container.cardinality() == 0 ) {
+      removeContainer( index );
+    } else if ( container instanceof BitmapContainer && container.cardinality() < MIN_BITMAP_CONTAINER_SIZE ) {
+      containers[index] = ((BitmapContainer) container).toArray();
+    }
+    size--;
+    return true;
+  }
+
+  @Override
+  public boolean contains( int followerId ) {
+    final int index = Arrays.binarySearch( highKeys, 0, numberOfContainers, followerId >>> 16 );
+    return index >= 0 && containers[index].contains( (char) followerId );
+  }
+
+  @Override
+  public void forEach( final IntVisitor visitor ) {
+    for ( int i = 0; i < numberOfContainers; i++ ) {
+      containers[i].forEach( highKeys[i] << 16, visitor );
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private void insertContainer( int index, int high, final Container container ) {
+    if ( numberOfContainers == highKeys.length ) {
+      highKeys = Arrays.copyOf( highKeys, numberOfContainers << 1 );
+      containers = Arrays.copyOf( containers, numberOfContainers << 1 );
+    }
+    System.arraycopy( highKeys, index, highKeys, index + 1, numberOfContainers - index );
+    System.arraycopy( containers, index, containers, index + 1, numberOfContainers - index );
+    highKeys[index] = high;
+    containers[index] = container;
+    numberOfContainers++;
+  }
+
+  private void removeContainer( int index ) {
+    System.arraycopy( highKeys, index + 1, highKeys, index, numberOfContainers - index - 1 );
+    System.arraycopy( containers, index + 1, containers, index, numberOfContainers - index - 1 );
+    numberOfContainers--;
+    containers[numberOfContainers] = null;
+  }
+
+  /**
+   * Container holding the lower 16 bits of the followers of one partition
+   */
+  private interface Container {
+
+    boolean add( char low );
+
+    boolean remove( char low );
+
+    boolean contains( char low );
+
+    int cardinality();
+
+    /**
+     * Calls the visitor for every value, combined with the upper 16 bits of the partition
+     */
+    void forEach( int highBits, IntVisitor visitor );
+  }
+
+  /**
+   * Sparse container, sorted array of the lower 16 bits
+   */
+  private static final class ArrayContainer implements Container {
+
+    private char[] values = new char[4];
+
+    private int cardinality = 0;
+
+    @Override
+    public boolean add( char low ) {
+      final int index = Arrays.binarySearch( values, 0, cardinality, low );
+      if ( index >= 0 ) {
+        return false;
+      }
+      final int insertionPoint = -index - 1;
+      if ( cardinality == values.length ) {
+        values = Arrays.copyOf( values, cardinality + (cardinality >> 1) + 1 );
+      }
+      System.arraycopy( values, insertionPoint, values, insertionPoint + 1, cardinality - insertionPoint );
+      values[insertionPoint] = low;
+      cardinality++;
+      return true;
+    }
+
+    @Override
+    public boolean remove( char low ) {
+      final int index = Arrays.binarySearch( values, 0, cardinality, low );
+      if ( index < 0 ) {
+        return false;
+      }
+      System.arraycopy( values, index + 1, values, index, cardinality - index - 1 );
+      cardinality--;
+      return true;
+    }
+
+    @Override
+    public boolean contains( char low ) {
+      return Arrays.binarySearch( values, 0, cardinality, low ) >= 0;
+    }
+
+    @Override
+    public int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    public void forEach( int highBits, final IntVisitor visitor ) {
+      for ( int i = 0; i < cardinality; i++ ) {
+        visitor.visit( highBits | values[i] );
+      }
+    }
+
+    BitmapContainer toBitmap() {
+      final BitmapContainer bitmap = new BitmapContainer();
+      for ( int i = 0; i < cardinality; i++ ) {
+        bitmap.add( values[i] );
+      }
+      return bitmap;
+    }
+  }
+
+  /**
+   * Dense container, one bit per possible value of the lower 16 bits
+   */
+  private static final class BitmapContainer implements Container {
+
+    private final long[] words = new long[1024];
+
+    private int cardinality = 0;
+
+    @Override
+    public boolean add( char low ) {
+      final long bit = 1L << low;
+      final int word = low >>> 6;
+      if ( (words[word] & bit) != 0 ) {
+        return false;
+      }
+      words[word] |= bit;
+      cardinality++;
+      return true;
+    }
+
+    @Override
+    public boolean remove( char low ) {
+      final long bit = 1L << low;
+      final int word = low >>> 6;
+      if ( (words[word] & bit) == 0 ) {
+        return false;
+      }
+      words[word] &= ~bit;
+      cardinality--;
+      return true;
+    }
+
+    @Override
+    public boolean contains( char low ) {
+      return (words[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    public int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    public void forEach( int highBits, final IntVisitor visitor ) {
+      for ( int i = 0; i < words.length; i++ ) {
+        long word = words[i];
+        while ( word != 0 ) {
+          visitor.visit( highBits | (i << 6) | Long.numberOfTrailingZeros( word ) );
+          word &= word - 1;
+        }
+      }
+    }
+
+    ArrayContainer toArray() {
+      final ArrayContainer array = new ArrayContainer();
+      array.values = new char[cardinality];
+      for ( int i = 0; i < words.length; i++ ) {
+        long word = words[i];
+        while ( word != 0 ) {
+          array.values[array.cardinality++] = (char) ((i << 6) | Long.numberOfTrailingZeros( word ));
+          word &= word - 1;
+        }
+      }
+      return array;
+    }
+  }
+}
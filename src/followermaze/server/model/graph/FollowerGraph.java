@@ -0,0 +1,72 @@
+package followermaze.server.model.graph;
+
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Interface of the data structures storing which user follows which other user. User IDs are primitive ints, iterating over the followers of a user does not allocate any memory.
+ *
+ */
+public interface FollowerGraph {
+
+  /**
+   * Adds a follower to the followers of a user
+   *
+   * @param followedId
+   *          User who gets a new follower
+   * @param followerId
+   *          User who starts to follow the other user
+   * @return True, if the follower has been added, false if the follower has already been following the user
+   */
+  public boolean addFollower( int followedId, int followerId );
+
+  /**
+   * Removes a follower from the followers of a user
+   *
+   * @param followedId
+   *          User who loses a follower
+   * @param followerId
+   *          User who stops following the other user
+   * @return True, if the follower has been removed, false if the follower has not been following the user
+   */
+  public boolean removeFollower( int followedId, int followerId );
+
+  /**
+   * Calls the visitor for every follower of a user, the order is undefined
+   *
+   * @param followedId
+   *          User whose followers are visited
+   * @param visitor
+   *          Visitor called for every follower
+   * @return Number of visited followers
+   */
+  public int forEachFollower( int followedId, IntVisitor visitor );
+
+  /**
+   * Calls the visitor for every user with at least one follower, the order is undefined. The visitor may read the followers of the visited user, but must not modify the graph.
+   *
+   * @param visitor
+   *          Visitor called for every followed user
+   */
+  public void forEachFollowedUser( IntVisitor visitor );
+
+  /**
+   * @param followedId
+   *          User who may be followed
+   * @param followerId
+   *          User who may follow the other user
+   * @return True, if the follower follows the user
+   */
+  public boolean isFollowing( int followedId, int followerId );
+
+  /**
+   * @param followedId
+   *          User whose followers are counted
+   * @return Number of followers of the user
+   */
+  public int getFollowerCount( int followedId );
+
+  /**
+   * Removes all followers of all users
+   */
+  public void clear();
+}
@@ -0,0 +1,44 @@
+package followermaze.server.model.graph;
+
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Set of follower IDs of a single user. The follower graph picks one of several representations depending on the number of followers and converts between them when followers are added or removed.
+ *
+ */
+interface FollowerSet {
+
+  /**
+   * @param followerId
+   *          Follower to be added
+   * @return True, if the follower has been added, false if it was already contained
+   */
+  public boolean add( int followerId );
+
+  /**
+   * @param followerId
+   *          Follower to be removed
+   * @return True, if the follower has been removed, false if it was not contained
+   */
+  public boolean remove( int followerId );
+
+  /**
+   * @param followerId
+   *          Follower to look up
+   * @return True, if the set contains the follower
+   */
+  public boolean contains( int followerId );
+
+  /**
+   * Calls the visitor for every follower. The set must not be modified during the iteration.
+   *
+   * @param visitor
+   *          Visitor called for every follower
+   */
+  public void forEach( IntVisitor visitor );
+
+  /**
+   * @return Number of followers in the set
+   */
+  public int size();
+}
@@ -0,0 +1,18 @@
+package followermaze.server.model.graph;
+
+import followermaze.server.util.IntSet;
+
+/**
+ * Representation for users with a medium number of followers, backed by an open-addressing int set.
+ *
+ */
+class HashFollowerSet extends IntSet implements FollowerSet {
+
+  /**
+   * @param expectedSize
+   *          Number of followers the set can hold without growing
+   */
+  HashFollowerSet( int expectedSize ) {
+    super( expectedSize );
+  }
+}
@@ -0,0 +1,139 @@
+package followermaze.server.model.graph;
+
+import followermaze.server.util.IntObjectMap;
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Follower graph based on primitive open-addressing collections. Every user with followers maps to a follower set whose representation depends on its size: a sorted array for the majority of users
+ * with only a few followers, an open-addressing int set for medium sized sets and a compressed bitmap for users with a very large number of followers. Sets are promoted and demoted automatically
+ * when followers are added or removed, the thresholds differ so a set does not flip between two representations. Not thread-safe, only the sequencer thread modifies the graph.
+ *
+ */
+public class IntFollowerGraph implements FollowerGraph {
+
+  /** Maximum size of a sorted array set */
+  static final int MAX_SMALL_SET_SIZE = 8;
+
+  /** Size at which an int set is demoted to a sorted array set */
+  static final int MIN_HASH_SET_SIZE = 4;
+
+  /** Maximum size of an int set */
+  static final int MAX_HASH_SET_SIZE = 4096;
+
+  /** Size at which a bitmap set is demoted to an int set */
+  static final int MIN_BITMAP_SET_SIZE = 2048;
+
+  /** Followers by followed user */
+  private final IntObjectMap<FollowerSet> followers = new IntObjectMap<FollowerSet>();
+
+  @Override
+  public boolean addFollower( int followedId, int followerId ) {
+    FollowerSet followersOfUser = followers.get( followedId );
+    if ( followersOfUser == null ) {
+      followersOfUser = new SmallFollowerSet( 1 );
+      followers.put( followedId, followersOfUser );
+    }
+    if ( !followersOfUser.add( followerId ) ) {
+      return false;
+    }
+
+    final int size = followersOfUser.size();
+    if ( followersOfUser instanceof SmallFollowerSet && size > MAX_SMALL_SET_SIZE ) {
+      followers.put( followedId, copy( followersOfUser, new HashFollowerSet( size << 1 ) ) );
+    } else if ( followersOfUser instanceof HashFollowerSet && size > MAX_HASH_SET_SIZE ) {
+      followers.put( followedId, copy( followersOfUser, new BitmapFollowerSet() ) );
+    }
+    return true;
+  }
+
+  @Override
+  public boolean removeFollower( int followedId, int followerId ) {
+    final FollowerSet followersOfUser = followers.get( followedId );
+    if ( followersOfUser == null ) {
+      return false;
+    }
+    final boolean removed = followersOfUser.remove( followerId );
+
+    final int size = followersOfUser.size();
+    if ( size == 0 ) {
+      followers.remove( followedId );
+    } else if ( followersOfUser instanceof HashFollowerSet && size <= MIN_HASH_SET_SIZE ) {
+      followers.put( followedId, copy( followersOfUser, new SmallFollowerSet( size ) ) );
+    } else if ( followersOfUser instanceof BitmapFollowerSet && size < MIN_BITMAP_SET_SIZE ) {
+      followers.put( followedId, copy( followersOfUser, new HashFollowerSet( size ) ) );
+    }
+    return removed;
+  }
+
+  @Override
+  public int forEachFollower( int followedId, final IntVisitor visitor ) {
+    final FollowerSet followersOfUser = followers.get( followedId );
+    if ( followersOfUser == null ) {
+      return 0;
+    }
+    followersOfUser.forEach( visitor );
+    return followersOfUser.size();
+  }
+
+  @Override
+  public void forEachFollowedUser( final IntVisitor visitor ) {
+    followers.forEachKey( visitor );
+  }
+
+  @Override
+  public boolean isFollowing( int followedId, int followerId ) {
+    final FollowerSet followersOfUser = followers.get( followedId );
+    return followersOfUser != null && followersOfUser.contains( followerId );
+  }
+
+  @Override
+  public int getFollowerCount( int followedId ) {
+    final FollowerSet followersOfUser = followers.get( followedId );
+    return followersOfUser == null ? 0 : followersOfUser.size();
+  }
+
+  @Override
+  public void clear() {
+    followers.clear();
+  }
+
+  /**
+   * Removes all followers of a user at once
+   *
+   * @param followedId
+   *          User whose followers are removed
+   */
+  void removeFollowers( int followedId ) {
+    followers.remove( followedId );
+  }
+
+  /**
+   * @param followedId
+   *          User whose followers are stored
+   * @return Class of the representation used for the followers of the user, null if the user has no followers
+   */
+  Class<?> getRepresentation( int followedId ) {
+    final FollowerSet followersOfUser = followers.get( followedId );
+    return followersOfUser == null ? null : followersOfUser.getClass();
+  }
+
+  /**
+   * Copies all followers into another representation
+   *
+   * @param source
+   *          Current representation
+   * @param target
+   *          Empty new representation
+   * @return Target representation
+   */
+  private static FollowerSet copy( final FollowerSet source, final FollowerSet target ) {
+    source.forEach( new IntVisitor() {
+
+      @Override
+      public void visit( int followerId ) {
+        target.add( followerId );
+      }
+    } );
+    return target;
+  }
+}
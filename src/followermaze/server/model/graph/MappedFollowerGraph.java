@@ -0,0 +1,796 @@
+package followermaze.server.model.graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import followermaze.server.util.IntObjectMap;
+import followermaze.server.util.IntSet;
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Follower graph keeping the followers off the heap in a memory-mapped file, for graphs with more follows than fit into the heap. The followers of every user are stored as a sorted int array in a
+ * block of the file whose capacity is a power of two, freed blocks are reused by blocks of the same capacity. Only a primitive index of the followed users with the position, size and capacity of
+ * their blocks stays on the heap.
+ * <p>
+ * Users that are followed or unfollowed are loaded into an on-heap cache backed by an IntFollowerGraph. When the cache exceeds its size, the least recently used users are written back to their blocks
+ * and evicted. Users with too many followers to be loaded keep their block, their follows and unfollows are collected in a small on-heap delta that is merged into the block in a single pass once it
+ * exceeds 1/64 of the block, so a modification costs amortized constant time instead of shifting the block. Reads of users not in the cache are served from the mapped file without loading them, the
+ * page cache of the operating system keeps the frequently read blocks in memory. The file is only a store for the running server and is deleted when the graph is closed. Snapshots are not supported,
+ * they would copy every follow onto the heap, the SnapshotService refuses to start with this graph. Not thread-safe, only the owning thread accesses the graph.
+ *
+ */
+public class MappedFollowerGraph implements FollowerGraph, Closeable {
+
+  /** Every mapped region of the file covers 2^30 byte, a block must not be larger than a region */
+  static final int DEFAULT_REGION_SHIFT = 30;
+
+  /** The smallest block holds 2^2 followers */
+  private static final int MIN_BLOCK_SHIFT = 2;
+
+  /** Marker of a free slot of the index */
+  private static final byte FREE_SLOT = -1;
+
+  /** Marker of a followed user without a block */
+  private static final byte NO_BLOCK = -2;
+
+  /** Minimum number of slots of the index */
+  private static final int MIN_INDEX_CAPACITY = 16;
+
+  /** Users with more followers than the cache size divided by 2^4 are modified in place instead of being loaded */
+  private static final int LOAD_LIMIT_SHIFT = 4;
+
+  /** The delta of a user modified in place is merged into its block once it holds more changes than the block size divided by 2^6 */
+  private static final int DELTA_LIMIT_SHIFT = 6;
+
+  /** Minimum number of changes held in the delta of a user modified in place */
+  private static final int MIN_DELTA_LIMIT = 32;
+
+  /** File holding the blocks */
+  private final Path file;
+
+  /** Channel of the file */
+  private final FileChannel channel;
+
+  /** Mapped regions of the file */
+  private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+
+  /** Size of a region as power of two */
+  private final int regionShift;
+
+  /** Mask used to map a file position to the position in its region */
+  private final long regionMask;
+
+  /** Largest block class, its blocks fill a whole region */
+  private final int maxBlockClass;
+
+  /** Offsets of freed blocks by block class, used as stacks */
+  private final long[][] freeBlocks;
+
+  /** Number of freed blocks by block class */
+  private final int[] numberOfFreeBlocks;
+
+  /** File position at which the next new block is allocated */
+  private long allocatedBytes = 0;
+
+  /** Slots of the index holding the IDs of the followed users */
+  private int[] indexKeys;
+
+  /** File positions of the blocks, same index as the key */
+  private long[] indexOffsets;
+
+  /** Number of followers stored in the blocks, same index as the key */
+  private int[] indexSizes;
+
+  /** Classes of the blocks, NO_BLOCK if the user has no block and FREE_SLOT if the slot is free, same index as the key */
+  private byte[] indexClasses;
+
+  /** Mask used to map a hash to a slot index */
+  private int indexMask;
+
+  /** Number of followed users in the index */
+  private int indexSize;
+
+  /** Number of followed users in the index that triggers growing the index */
+  private int indexResizeThreshold;
+
+  /** Followers of the cached users */
+  private final IntFollowerGraph cachedFollowers = new IntFollowerGraph();
+
+  /** Cache entries by followed user */
+  private final IntObjectMap<CacheEntry> cacheEntries = new IntObjectMap<CacheEntry>();
+
+  /** Most recently used cache entry */
+  private CacheEntry mostRecentEntry = null;
+
+  /** Least recently used cache entry, evicted first */
+  private CacheEntry leastRecentEntry = null;
+
+  /** Maximum number of cached followers plus cached users */
+  private final long cacheSize;
+
+  /** Current number of cached followers plus cached users */
+  private long cacheUsage = 0;
+
+  /** Users with more followers are modified in place */
+  private final int loadLimit;
+
+  /** Changes not merged into the blocks yet by user modified in place */
+  private final IntObjectMap<BlockDelta> deltas = new IntObjectMap<BlockDelta>();
+
+  /** Visitor copying the followers of a user that is written back or the followers added by a delta into the scratch array */
+  private final FollowerCollector followerCollector = new FollowerCollector();
+
+  /**
+   * @param directory
+   *          Directory the file of the graph is created in
+   * @param cacheSize
+   *          Maximum number of followers plus users held in the on-heap cache
+   * @throws IOException
+   *           Thrown if the file can not be created
+   */
+  public MappedFollowerGraph( final Path directory, long cacheSize ) throws IOException {
+    this( directory, cacheSize, DEFAULT_REGION_SHIFT );
+  }
+
+  /**
+   * @param directory
+   *          Directory the file of the graph is created in
+   * @param cacheSize
+   *          Maximum number of followers plus users held in the on-heap cache
+   * @param regionShift
+   *          Size of a mapped region as power of two
+   * @throws IOException
+   *           Thrown if the file can not be created
+   */
+  MappedFollowerGraph( final Path directory, long cacheSize, int regionShift ) throws IOException {
+    this.cacheSize = cacheSize;
+    this.loadLimit = (int) Math.min( Integer.MAX_VALUE, cacheSize >> LOAD_LIMIT_SHIFT );
+    this.regionShift = regionShift;
+    this.regionMask = (1L << regionShift) - 1;
+    this.maxBlockClass = regionShift - 2 - MIN_BLOCK_SHIFT;
+    freeBlocks = new long[maxBlockClass + 1][];
+    numberOfFreeBlocks = new int[maxBlockClass + 1];
+    for ( int i = 0; i <= maxBlockClass; i++ ) {
+      freeBlocks[i] = new long[16];
+    }
+    allocateIndex( MIN_INDEX_CAPACITY );
+
+    Files.createDirectories( directory );
+    file = Files.createTempFile( directory, "followers-", ".graph" );
+    channel = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE );
+  }
+
+  @Override
+  public boolean addFollower( int followedId, int followerId ) {
+    CacheEntry entry = cacheEntries.get( followedId );
+    if ( entry == null ) {
+      final int slot = insertSlot( followedId );
+      if ( blockFollowerCount( followedId, slot ) > loadLimit ) {
+        return addToDelta( followedId, slot, followerId );
+      }
+      entry = load( followedId, slot );
+    } else {
+      touch( entry );
+    }
+    if ( !cachedFollowers.addFollower( followedId, followerId ) ) {
+      return false;
+    }
+    entry.dirty = true;
+    cacheUsage++;
+    evict();
+    return true;
+  }
+
+  @Override
+  public boolean removeFollower( int followedId, int followerId ) {
+    CacheEntry entry = cacheEntries.get( followedId );
+    if ( entry == null ) {
+      final int slot = findSlot( followedId );
+      if ( slot < 0 ) {
+        return false;
+      }
+      final int count = blockFollowerCount( followedId, slot );
+      if ( count == 0 ) {
+        return false;
+      }
+      if ( count > loadLimit ) {
+        return removeFromDelta( followedId, slot, followerId );
+      }
+      entry = load( followedId, slot );
+    } else {
+      touch( entry );
+    }
+    if ( !cachedFollowers.removeFollower( followedId, followerId ) ) {
+      return false;
+    }
+    entry.dirty = true;
+    cacheUsage--;
+    return true;
+  }
+
+  @Override
+  public int forEachFollower( int followedId, final IntVisitor visitor ) {
+    final CacheEntry entry = cacheEntries.get( followedId );
+    if ( entry != null ) {
+      touch( entry );
+      return cachedFollowers.forEachFollower( followedId, visitor );
+    }
+    final int slot = findSlot( followedId );
+    if ( slot < 0 ) {
+      return 0;
+    }
+    final BlockDelta delta = deltas.get( followedId );
+    final int size = indexSizes[slot];
+    if ( size > 0 ) {
+      final MappedByteBuffer region = region( indexOffsets[slot] );
+      final int position = positionInRegion( indexOffsets[slot] );
+      for ( int i = 0; i < size; i++ ) {
+        final int followerId = region.getInt( position + (i << 2) );
+        if ( delta == null || !delta.removed.contains( followerId ) ) {
+          visitor.visit( followerId );
+        }
+      }
+    }
+    if ( delta == null ) {
+      return size;
+    }
+    delta.added.forEach( visitor );
+    return size + delta.added.size() - delta.removed.size();
+  }
+
+  /**
+   * Visits the users in the order of the index, the visitor may read the followers of the visited user
+   */
+  @Override
+  public void forEachFollowedUser( final IntVisitor visitor ) {
+    final int[] keys = indexKeys;
+    for ( int slot = 0; slot < keys.length; slot++ ) {
+      if ( indexClasses[slot] != FREE_SLOT && getFollowerCount( keys[slot] ) > 0 ) {
+        visitor.visit( keys[slot] );
+      }
+    }
+  }
+
+  @Override
+  public boolean isFollowing( int followedId, int followerId ) {
+    if ( cacheEntries.get( followedId ) != null ) {
+      return cachedFollowers.isFollowing( followedId, followerId );
+    }
+    final int slot = findSlot( followedId );
+    if ( slot < 0 ) {
+      return false;
+    }
+    final BlockDelta delta = deltas.get( followedId );
+    if ( delta != null ) {
+      if ( delta.added.contains( followerId ) ) {
+        return true;
+      }
+      if ( delta.removed.contains( followerId ) ) {
+        return false;
+      }
+    }
+    return indexSizes[slot] > 0 && searchBlock( slot, followerId ) >= 0;
+  }
+
+  @Override
+  public int getFollowerCount( int followedId ) {
+    if ( cacheEntries.get( followedId ) != null ) {
+      return cachedFollowers.getFollowerCount( followedId );
+    }
+    final int slot = findSlot( followedId );
+    return slot < 0 ? 0 : blockFollowerCount( followedId, slot );
+  }
+
+  /**
+   * Removes all followers, the file keeps its size and its blocks are reused
+   */
+  @Override
+  public void clear() {
+    cachedFollowers.clear();
+    cacheEntries.clear();
+    deltas.clear();
+    mostRecentEntry = null;
+    leastRecentEntry = null;
+    cacheUsage = 0;
+    allocateIndex( MIN_INDEX_CAPACITY );
+    indexSize = 0;
+    Arrays.fill( numberOfFreeBlocks, 0 );
+    allocatedBytes = 0;
+  }
+
+  /**
+   * Removes all followers and deletes the file, the graph must not be used anymore
+   */
+  @Override
+  public void close() throws IOException {
+    clear();
+    regions.clear();
+    channel.close();
+  }
+
+  /**
+   * @return Number of users held in the on-heap cache
+   */
+  int getNumberOfCachedUsers() {
+    return cacheEntries.size();
+  }
+
+  /**
+   * @return Number of byte of the file used by blocks
+   */
+  long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Loads the followers of a user into the cache
+   *
+   * @return Entry of the loaded user, the most recently used entry
+   */
+  private CacheEntry load( int followedId, int slot ) {
+    final BlockDelta delta = deltas.remove( followedId );
+    if ( delta != null ) {
+      mergeDelta( slot, delta );
+    }
+    final int size = indexSizes[slot];
+    if ( size > 0 ) {
+      final MappedByteBuffer region = region( indexOffsets[slot] );
+      final int position = positionInRegion( indexOffsets[slot] );
+      for ( int i = 0; i < size; i++ ) {
+        cachedFollowers.addFollower( followedId, region.getInt( position + (i << 2) ) );
+      }
+    }
+    final CacheEntry entry = new CacheEntry( followedId );
+    cacheEntries.put( followedId, entry );
+    linkFirst( entry );
+    cacheUsage += 1 + size;
+    evict();
+    return entry;
+  }
+
+  /**
+   * Evicts the least recently used entries until the cache fits into its size, the most recently used entry is kept
+   */
+  private void evict() {
+    while ( cacheUsage > cacheSize && leastRecentEntry != mostRecentEntry ) {
+      final CacheEntry entry = leastRecentEntry;
+      final int followedId = entry.followedId;
+      unlink( entry );
+      cacheEntries.remove( followedId );
+      final int size = cachedFollowers.getFollowerCount( followedId );
+      cacheUsage -= 1 + size;
+      if ( entry.dirty ) {
+        followerCollector.count = 0;
+        cachedFollowers.forEachFollower( followedId, followerCollector );
+        Arrays.sort( followerCollector.followerIds, 0, size );
+        writeBlock( findSlot( followedId ), followerCollector.followerIds, size );
+      }
+      cachedFollowers.removeFollowers( followedId );
+    }
+  }
+
+  /**
+   * Writes the sorted followers of a user into its block, the block is replaced if it is too small or much too large
+   */
+  private void writeBlock( int slot, final int[] followerIds, int size ) {
+    if ( size == 0 ) {
+      freeBlock( slot );
+      indexSizes[slot] = 0;
+      return;
+    }
+    final int requiredClass = blockClass( size );
+    final int currentClass = indexClasses[slot];
+    if ( currentClass == NO_BLOCK || currentClass < requiredClass || currentClass > requiredClass + 1 ) {
+      freeBlock( slot );
+      indexOffsets[slot] = allocateBlock( requiredClass );
+      indexClasses[slot] = (byte) requiredClass;
+    }
+    final MappedByteBuffer region = region( indexOffsets[slot] );
+    final int position = positionInRegion( indexOffsets[slot] );
+    for ( int i = 0; i < size; i++ ) {
+      region.putInt( position + (i << 2), followerIds[i] );
+    }
+    indexSizes[slot] = size;
+  }
+
+  /**
+   * @return Number of followers of a user that is not loaded, including the changes not merged into its block yet
+   */
+  private int blockFollowerCount( int followedId, int slot ) {
+    final BlockDelta delta = deltas.get( followedId );
+    return delta == null ? indexSizes[slot] : indexSizes[slot] + delta.added.size() - delta.removed.size();
+  }
+
+  /**
+   * Adds a follower to the delta of a user that is not loaded, the delta is merged into the block once it is full
+   */
+  private boolean addToDelta( int followedId, int slot, int followerId ) {
+    BlockDelta delta = deltas.get( followedId );
+    if ( delta != null ) {
+      if ( delta.removed.remove( followerId ) ) {
+        return true;
+      }
+      if ( delta.added.contains( followerId ) ) {
+        return false;
+      }
+    }
+    if ( indexSizes[slot] > 0 && searchBlock( slot, followerId ) >= 0 ) {
+      return false;
+    }
+    if ( delta == null ) {
+      delta = new BlockDelta();
+      deltas.put( followedId, delta );
+    }
+    delta.added.add( followerId );
+    checkDelta( followedId, slot, delta );
+    return true;
+  }
+
+  /**
+   * Removes a follower by adding it to the delta of a user that is not loaded, the delta is merged into the block once it is full
+   */
+  private boolean removeFromDelta( int followedId, int slot, int followerId ) {
+    BlockDelta delta = deltas.get( followedId );
+    if ( delta != null ) {
+      if ( delta.added.remove( followerId ) ) {
+        return true;
+      }
+      if ( delta.removed.contains( followerId ) ) {
+        return false;
+      }
+    }
+    if ( indexSizes[slot] == 0 || searchBlock( slot, followerId ) < 0 ) {
+      return false;
+    }
+    if ( delta == null ) {
+      delta = new BlockDelta();
+      deltas.put( followedId, delta );
+    }
+    delta.removed.add( followerId );
+    checkDelta( followedId, slot, delta );
+    return true;
+  }
+
+  /**
+   * Merges the delta of a user into its block if it holds more changes than allowed for the size of the block
+   */
+  private void checkDelta( int followedId, int slot, final BlockDelta delta ) {
+    if ( delta.added.size() + delta.removed.size() > Math.max( MIN_DELTA_LIMIT, indexSizes[slot] >> DELTA_LIMIT_SHIFT ) ) {
+      deltas.remove( followedId );
+      mergeDelta( slot, delta );
+    }
+  }
+
+  /**
+   * Applies the changes of a delta to the block of a user in a single pass. The sorted block is merged with the sorted additions into a new block if it is too small, else the removed followers are
+   * compacted out from the front and the additions are merged in from the back, all in place.
+   */
+  private void mergeDelta( int slot, final BlockDelta delta ) {
+    final int oldSize = indexSizes[slot];
+    final int numberOfAdded = delta.added.size();
+    final int newSize = oldSize + numberOfAdded - delta.removed.size();
+    if ( newSize == 0 ) {
+      freeBlock( slot );
+      indexSizes[slot] = 0;
+      return;
+    }
+    followerCollector.count = 0;
+    delta.added.forEach( followerCollector );
+    final int[] added = followerCollector.followerIds;
+    Arrays.sort( added, 0, numberOfAdded );
+
+    final int requiredClass = blockClass( newSize );
+    final int currentClass = indexClasses[slot];
+    if ( currentClass == NO_BLOCK || currentClass < requiredClass ) {
+      final long targetOffset = allocateBlock( requiredClass );
+      final MappedByteBuffer target = region( targetOffset );
+      final int targetPosition = positionInRegion( targetOffset );
+      int written = 0;
+      int nextAdded = 0;
+      if ( oldSize > 0 ) {
+        final MappedByteBuffer source = region( indexOffsets[slot] );
+        final int sourcePosition = positionInRegion( indexOffsets[slot] );
+        for ( int i = 0; i < oldSize; i++ ) {
+          final int followerId = source.getInt( sourcePosition + (i << 2) );
+          if ( delta.removed.contains( followerId ) ) {
+            continue;
+          }
+          while ( nextAdded < numberOfAdded && added[nextAdded] < followerId ) {
+            target.putInt( targetPosition + (written++ << 2), added[nextAdded++] );
+          }
+          target.putInt( targetPosition + (written++ << 2), followerId );
+        }
+      }
+      while ( nextAdded < numberOfAdded ) {
+        target.putInt( targetPosition + (written++ << 2), added[nextAdded++] );
+      }
+      freeBlock( slot );
+      indexOffsets[slot] = targetOffset;
+      indexClasses[slot] = (byte) requiredClass;
+    } else {
+      final MappedByteBuffer region = region( indexOffsets[slot] );
+      final int position = positionInRegion( indexOffsets[slot] );
+      int kept = 0;
+      if ( delta.removed.size() > 0 ) {
+        for ( int i = 0; i < oldSize; i++ ) {
+          final int followerId = region.getInt( position + (i << 2) );
+          if ( !delta.removed.contains( followerId ) ) {
+            region.putInt( position + (kept++ << 2), followerId );
+          }
+        }
+      } else {
+        kept = oldSize;
+      }
+      int source = kept - 1;
+      int nextAdded = numberOfAdded - 1;
+      for ( int target = newSize - 1; nextAdded >= 0; target-- ) {
+        if ( source >= 0 && region.getInt( position + (source << 2) ) > added[nextAdded] ) {
+          region.putInt( position + (target << 2), region.getInt( position + (source-- << 2) ) );
+        } else {
+          region.putInt( position + (target << 2), added[nextAdded--] );
+        }
+      }
+    }
+    indexSizes[slot] = newSize;
+  }
+
+  /**
+   * Binary search of a follower in the block of a user
+   *
+   * @return Index of the follower, or -(insertion point + 1) if the follower is not contained
+   */
+  private int searchBlock( int slot, int followerId ) {
+    final MappedByteBuffer region = region( indexOffsets[slot] );
+    final int position = positionInRegion( indexOffsets[slot] );
+    int low = 0;
+    int high = indexSizes[slot] - 1;
+    while ( low <= high ) {
+      final int middle = (low + high) >>> 1;
+      final int value = region.getInt( position + (middle << 2) );
+      if ( value < followerId ) {
+        low = middle + 1;
+      } else if ( value > followerId ) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Allocates a block, a freed block of the same class is reused
+   *
+   * @return File position of the block
+   */
+  private long allocateBlock( int blockClass ) {
+    if ( blockClass > maxBlockClass ) {
+      throw new IllegalStateException( "Block of " + blockCapacity( blockClass ) + " followers exceeds a mapped region of " + (1L << regionShift) + " byte" );
+    }
+    if ( numberOfFreeBlocks[blockClass] > 0 ) {
+      return freeBlocks[blockClass][--numberOfFreeBlocks[blockClass]];
+    }
+    final long blockBytes = (long) blockCapacity( blockClass ) << 2;
+    // a block must not span two regions, the rest of the current region is skipped
+    if ( (allocatedBytes & regionMask) + blockBytes > regionMask + 1 ) {
+      allocatedBytes = ((allocatedBytes >>> regionShift) + 1) << regionShift;
+    }
+    final long offset = allocatedBytes;
+    allocatedBytes += blockBytes;
+    final int regionIndex = (int) (offset >>> regionShift);
+    while ( regions.size() <= regionIndex ) {
+      try {
+        regions.add( channel.map( FileChannel.MapMode.READ_WRITE, (long) regions.size() << regionShift, 1L << regionShift ) );
+      } catch ( IOException ex ) {
+        throw new IllegalStateException( "Could not map region " + regions.size() + " of follower graph " + file, ex );
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Adds the block of a user to the freed blocks of its class
+   */
+  private void freeBlock( int slot ) {
+    final int blockClass = indexClasses[slot];
+    if ( blockClass == NO_BLOCK ) {
+      return;
+    }
+    if ( numberOfFreeBlocks[blockClass] == freeBlocks[blockClass].length ) {
+      freeBlocks[blockClass] = Arrays.copyOf( freeBlocks[blockClass], freeBlocks[blockClass].length << 1 );
+    }
+    freeBlocks[blockClass][numberOfFreeBlocks[blockClass]++] = indexOffsets[slot];
+    indexClasses[slot] = NO_BLOCK;
+  }
+
+  /**
+   * @return Smallest block class holding the passed in number of followers
+   */
+  private static int blockClass( int size ) {
+    return Math.max( 0, 32 - Integer.numberOfLeadingZeros( size - 1 ) - MIN_BLOCK_SHIFT );
+  }
+
+  private static int blockCapacity( int blockClass ) {
+    return 1 << (blockClass + MIN_BLOCK_SHIFT);
+  }
+
+  private MappedByteBuffer region( long offset ) {
+    return regions.get( (int) (offset >>> regionShift) );
+  }
+
+  private int positionInRegion( long offset ) {
+    return (int) (offset & regionMask);
+  }
+
+  /**
+   * @return Slot of a followed user, -1 if the user is not in the index
+   */
+  private int findSlot( int followedId ) {
+    int slot = homeSlot( followedId );
+    while ( indexClasses[slot] != FREE_SLOT ) {
+      if ( indexKeys[slot] == followedId ) {
+        return slot;
+      }
+      slot = (slot + 1) & indexMask;
+    }
+    return -1;
+  }
+
+  /**
+   * @return Slot of a followed user, the user is added without a block if it is not in the index. Users are never removed from the index, users without followers keep a slot without a block.
+   */
+  private int insertSlot( int followedId ) {
+    int slot = homeSlot( followedId );
+    while ( indexClasses[slot] != FREE_SLOT ) {
+      if ( indexKeys[slot] == followedId ) {
+        return slot;
+      }
+      slot = (slot + 1) & indexMask;
+    }
+    if ( indexSize + 1 > indexResizeThreshold ) {
+      rehashIndex( indexKeys.length << 1 );
+      return insertSlot( followedId );
+    }
+    indexKeys[slot] = followedId;
+    indexClasses[slot] = NO_BLOCK;
+    indexSizes[slot] = 0;
+    indexSize++;
+    return slot;
+  }
+
+  private int homeSlot( int followedId ) {
+    final int hash = followedId * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & indexMask;
+  }
+
+  /**
+   * Moves all users into new index arrays
+   */
+  private void rehashIndex( int capacity ) {
+    final int[] oldKeys = indexKeys;
+    final long[] oldOffsets = indexOffsets;
+    final int[] oldSizes = indexSizes;
+    final byte[] oldClasses = indexClasses;
+    allocateIndex( capacity );
+    for ( int i = 0; i < oldKeys.length; i++ ) {
+      if ( oldClasses[i] != FREE_SLOT ) {
+        int slot = homeSlot( oldKeys[i] );
+        while ( indexClasses[slot] != FREE_SLOT ) {
+          slot = (slot + 1) & indexMask;
+        }
+        indexKeys[slot] = oldKeys[i];
+        indexOffsets[slot] = oldOffsets[i];
+        indexSizes[slot] = oldSizes[i];
+        indexClasses[slot] = oldClasses[i];
+      }
+    }
+  }
+
+  private void allocateIndex( int capacity ) {
+    indexKeys = new int[capacity];
+    indexOffsets = new long[capacity];
+    indexSizes = new int[capacity];
+    indexClasses = new byte[capacity];
+    Arrays.fill( indexClasses, FREE_SLOT );
+    indexMask = capacity - 1;
+    indexResizeThreshold = (capacity >> 1) + (capacity >> 2);
+  }
+
+  /**
+   * Moves an entry to the front of the LRU list
+   */
+  private void touch( final CacheEntry entry ) {
+    if ( entry != mostRecentEntry ) {
+      unlink( entry );
+      linkFirst( entry );
+    }
+  }
+
+  private void linkFirst( final CacheEntry entry ) {
+    entry.previous = null;
+    entry.next = mostRecentEntry;
+    if ( mostRecentEntry != null ) {
+      mostRecentEntry.previous = entry;
+    } else {
+      leastRecentEntry = entry;
+    }
+    mostRecentEntry = entry;
+  }
+
+  private void unlink( final CacheEntry entry ) {
+    if ( entry.previous != null ) {
+      entry.previous.next = entry.next;
+    } else {
+      mostRecentEntry = entry.next;
+    }
+    if ( entry.next != null ) {
+      entry.next.previous = entry.previous;
+    } else {
+      leastRecentEntry = entry.previous;
+    }
+    entry.previous = null;
+    entry.next = null;
+  }
+
+  /**
+   * User held in the on-heap cache, linked into the LRU list
+   */
+  private static final class CacheEntry {
+
+    /** Cached user */
+    private final int followedId;
+
+    /** True, if the followers have been modified since they have been loaded */
+    private boolean dirty = false;
+
+    /** More recently used entry */
+    private CacheEntry previous = null;
+
+    /** Less recently used entry */
+    private CacheEntry next = null;
+
+    private CacheEntry( int followedId ) {
+      this.followedId = followedId;
+    }
+  }
+
+  /**
+   * Follows and unfollows of a user modified in place that have not been merged into its block yet
+   */
+  private static final class BlockDelta {
+
+    /** Followers added since the last merge, not contained in the block */
+    private final IntSet added = new IntSet();
+
+    /** Followers of the block removed since the last merge */
+    private final IntSet removed = new IntSet();
+  }
+
+  /**
+   * Copies the visited followers into a growing array
+   */
+  private static final class FollowerCollector implements IntVisitor {
+
+    /** Visited followers */
+    private int[] followerIds = new int[64];
+
+    /** Number of visited followers */
+    private int count = 0;
+
+    @Override
+    public void visit( int followerId ) {
+      if ( count == followerIds.length ) {
+        followerIds = Arrays.copyOf( followerIds, count << 1 );
+      }
+      followerIds[count++] = followerId;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package followermaze.server.model.graph;
+
+import java.util.Arrays;
+
+import followermaze.server.util.IntVisitor;
+
+/**
+ * Representation for users with only a few followers. The followers are kept in a sorted int array which is searched binary, so a set costs little more than four bytes per follower.
+ *
+ */
+class SmallFollowerSet implements FollowerSet {
+
+  /** Followers, sorted in the range [0, size) */
+  private int[] followers;
+
+  /** Number of followers */
+  private int size = 0;
+
+  /**
+   * @param capacity
+   *          Number of followers the set can hold without growing
+   */
+  SmallFollowerSet( int capacity ) {
+    followers = new int[Math.max( 1, capacity )];
+  }
+
+  @Override
+  public boolean add( int followerId ) {
+    final int index = Arrays.binarySearch( followers, 0, size, followerId );
+    if ( index >= 0 ) {
+      return false;
+    }
+    final int insertionPoint = -index - 1;
+    if ( size == followers.length ) {
+      followers = Arrays.copyOf( followers, size << 1 );
+    }
+    System.arraycopy( followers, insertionPoint, followers, insertionPoint + 1, size - insertionPoint );
+    followers[insertionPoint] = followerId;
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove( int followerId ) {
+    final int index = Arrays.binarySearch( followers, 0, size, followerId );
+    if ( index < 0 ) {
+      return false;
+    }
+    System.arraycopy( followers, index + 1, followers, index, size - index - 1 );
+    size--;
+    return true;
+  }
+
+  @Override
+  public boolean contains( int followerId ) {
+    return Arrays.binarySearch( followers, 0, size, followerId ) >= 0;
+  }
+
+  @Override
+  public void forEach( final IntVisitor visitor ) {
+    for ( int i = 0; i < size; i++ ) {
+      visitor.visit( followers[i] );
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,244 @@
+package followermaze.server.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.client.AuthorLog;
+import followermaze.server.model.client.Client;
+import followermaze.server.model.graph.FollowerGraph;
+import followermaze.server.util.IntObjectMap;
+import followermaze.server.util.IntVisitor;
+import followermaze.server.util.MpscLinkedQueue;
+
+/**
+ * Keeps the logs of the users whose number of followers exceeds the configured threshold. The status updates of such a user are appended to its log once instead of being posted to every follower,
+ * the connected followers subscribe to the log and their mailboxes read the updates when they are drained. Thus processing a status update costs O(1) on the event processing thread regardless of the
+ * number of followers. A user gets a log on its first status update after reaching the threshold and keeps it afterwards. Subscriptions follow the follower graph and the registered clients: they are
+ * added when a connected client follows, when a follower connects and when the log is created, they end when a follower unfollows. The logs are modified by the event processing thread only, clients
+ * connecting are handed over through a queue.
+ *
+ */
+class AuthorLogRegistry {
+
+  private static final Logger logger = LogManager.getLogger( AuthorLogRegistry.class );
+
+  /** Follower graph, only accessed by the event processing thread */
+  private final FollowerGraph followers;
+
+  /** Registered clients by ID */
+  private final Map<Integer, Client> registeredClients;
+
+  /** Number of partitions the followers of a user are spread across */
+  private final int numberOfPartitions;
+
+  /** Logs by author, only accessed by the event processing thread */
+  private final IntObjectMap<AuthorLog> logs = new IntObjectMap<AuthorLog>();
+
+  /** All logs, copied on write, read by the threads registering and removing clients */
+  private volatile AuthorLog[] logArray = new AuthorLog[0];
+
+  /** Clients registered while logs exist, subscribed by the event processing thread */
+  private final MpscLinkedQueue<Client> pendingRegistrations = new MpscLinkedQueue<Client>();
+
+  /** Visitor subscribing the connected followers to a newly created log */
+  private final FollowerSubscriber followerSubscriber = new FollowerSubscriber();
+
+  /** Number of followers in this partition from which on a user gets a log, the configured threshold divided by the number of partitions, read on first use, 0 if logging is disabled */
+  private int followerThreshold = -1;
+
+  /** Number of updates kept per log, read on first use */
+  private int logCapacity = 0;
+
+  /** Number of status updates appended to logs */
+  private final AtomicLong appendCounter = MetricsService.INSTANCE.counter( "authorLog.appends" );
+
+  /**
+   * @param followers
+   *          Follower graph
+   * @param registeredClients
+   *          Registered clients by ID
+   * @param numberOfPartitions
+   *          Number of partitions the followers of a user are spread across
+   */
+  AuthorLogRegistry( final FollowerGraph followers, final Map<Integer, Client> registeredClients, int numberOfPartitions ) {
+    this.followers = followers;
+    this.registeredClients = registeredClients;
+    this.numberOfPartitions = numberOfPartitions;
+  }
+
+  /**
+   * Appends a status update to the log of its author if the author has a log or has reached the threshold, called by the event processing thread
+   *
+   * @param authorId
+   *          User the status update originates from
+   * @param sequenceNumber
+   *          Sequence number of the status update
+   * @param payload
+   *          Read-only buffer holding the encoded update
+   * @return True, if the update has been logged, false if it has to be posted to the followers
+   */
+  boolean append( int authorId, int sequenceNumber, final ByteBuffer payload ) {
+    if ( followerThreshold < 0 ) {
+      // the followers of a user are spread evenly across the partitions, each partition only counts its own
+      final int threshold = ConfigService.INSTANCE.getCelebrityFollowerThreshold();
+      followerThreshold = threshold <= 0 ? 0 : (threshold + numberOfPartitions - 1) / numberOfPartitions;
+      logCapacity = ConfigService.INSTANCE.getAuthorLogCapacity();
+    }
+    subscribePendingRegistrations();
+
+    AuthorLog log = logs.get( authorId );
+    if ( log == null ) {
+      final int followerCount = followers.getFollowerCount( authorId );
+      if ( followerThreshold <= 0 || followerCount < followerThreshold ) {
+        return false;
+      }
+      log = createLog( authorId, followerCount );
+    }
+    if ( log.isLagCheckDue() ) {
+      DeliveryService.INSTANCE.checkLaggingSubscribers( log );
+    }
+    log.append( sequenceNumber, payload );
+    appendCounter.incrementAndGet();
+    if ( log.requestWakeup() ) {
+      DeliveryService.INSTANCE.wakeSubscribers( log );
+    }
+    return true;
+  }
+
+  /**
+   * Subscribes a follower to the log of the followed user if it exists and the follower is connected, called by the event processing thread
+   *
+   * @param followedId
+   *          User who got a new follower
+   * @param followerId
+   *          User who started to follow the other user
+   */
+  void followerAdded( int followedId, int followerId ) {
+    final AuthorLog log = logs.get( followedId );
+    if ( log != null ) {
+      final Client follower = registeredClients.get( followerId );
+      if ( follower != null ) {
+        subscribe( follower, log );
+      }
+    }
+  }
+
+  /**
+   * Ends the subscription of a follower to the log of the followed user, called by the event processing thread
+   *
+   * @param followedId
+   *          User who lost a follower
+   * @param followerId
+   *          User who stopped following the other user
+   */
+  void followerRemoved( int followedId, int followerId ) {
+    final AuthorLog log = logs.get( followedId );
+    if ( log != null ) {
+      final Client follower = registeredClients.get( followerId );
+      if ( follower != null ) {
+        log.removeSubscriber( follower );
+        follower.unsubscribe( log );
+      }
+    }
+  }
+
+  /**
+   * Hands a newly registered client over to the event processing thread, which subscribes it to the logs of the users it follows. Called by any thread after the client has been registered.
+   *
+   * @param client
+   *          Registered client
+   */
+  void clientRegistered( final Client client ) {
+    if ( logArray.length > 0 ) {
+      pendingRegistrations.offer( client );
+    }
+  }
+
+  /**
+   * Removes a client from the subscribers of all logs, called by any thread
+   *
+   * @param client
+   *          Removed client
+   */
+  void clientRemoved( final Client client ) {
+    for ( AuthorLog curLog : logArray ) {
+      curLog.removeSubscriber( client );
+    }
+  }
+
+  /**
+   * Removes all logs, called while no events are processed
+   */
+  void clear() {
+    logs.clear();
+    logArray = new AuthorLog[0];
+    while ( pendingRegistrations.poll() != null ) {
+      // drop the pending registrations
+    }
+    followerThreshold = -1;
+  }
+
+  /**
+   * Creates the log of a user that reached the threshold and subscribes its connected followers
+   */
+  private AuthorLog createLog( int authorId, int followerCount ) {
+    final AuthorLog log = new AuthorLog( authorId, logCapacity );
+    logs.put( authorId, log );
+    // publish the log before looking up the followers, a client registering meanwhile is either found or handed over
+    final AuthorLog[] newLogArray = Arrays.copyOf( logArray, logArray.length + 1 );
+    newLogArray[logArray.length] = log;
+    logArray = newLogArray;
+
+    followerSubscriber.log = log;
+    followers.forEachFollower( authorId, followerSubscriber );
+    followerSubscriber.log = null;
+    logger.info( "User " + authorId + " has " + followerCount + " followers, its status updates are logged for " + log.getSubscribers().size() + " connected followers." );
+    return log;
+  }
+
+  /**
+   * Subscribes the clients registered since the last call to the logs of the users they follow
+   */
+  private void subscribePendingRegistrations() {
+    Client client = pendingRegistrations.poll();
+    while ( client != null ) {
+      if ( !client.isDisconnected() ) {
+        for ( AuthorLog curLog : logArray ) {
+          if ( followers.isFollowing( curLog.getAuthorId(), client.getId() ) ) {
+            subscribe( client, curLog );
+          }
+        }
+      }
+      client = pendingRegistrations.poll();
+    }
+  }
+
+  private static void subscribe( final Client follower, final AuthorLog log ) {
+    if ( log.addSubscriber( follower ) ) {
+      follower.subscribe( log );
+    }
+  }
+
+  /**
+   * Subscribes every visited follower that is currently connected to a log
+   */
+  private class FollowerSubscriber implements IntVisitor {
+
+    /** Log the followers are subscribed to */
+    private AuthorLog log = null;
+
+    @Override
+    public void visit( int followerId ) {
+      final Client follower = registeredClients.get( followerId );
+      if ( follower != null ) {
+        subscribe( follower, log );
+      }
+    }
+  }
+}
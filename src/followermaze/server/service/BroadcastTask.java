@@ -0,0 +1,67 @@
+package followermaze.server.service;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveAction;
+
+import followermaze.server.model.client.Client;
+
+/**
+ * Fork/join task posting a broadcast payload to a range of clients. Ranges larger than the chunk size are split in halves which are posted concurrently by the threads of the broadcast pool, every
+ * client is posted to by exactly one thread.
+ *
+ */
+class BroadcastTask extends RecursiveAction {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Snapshot of the registered clients */
+  private final Client[] clients;
+
+  /** First index of the range, inclusive */
+  private final int from;
+
+  /** Last index of the range, exclusive */
+  private final int to;
+
+  /** Maximum number of clients posted to without splitting the range */
+  private final int chunkSize;
+
+  /** Payload shared by all recipients */
+  private final ByteBuffer payload;
+
+  /**
+   * @param clients
+   *          Snapshot of the registered clients
+   * @param from
+   *          First index of the range, inclusive
+   * @param to
+   *          Last index of the range, exclusive
+   * @param chunkSize
+   *          Maximum number of clients posted to without splitting the range
+   * @param payload
+   *          Payload shared by all recipients
+   */
+  BroadcastTask( final Client[] clients, int from, int to, int chunkSize, final ByteBuffer payload ) {
+    this.clients = clients;
+    this.from = from;
+    this.to = to;
+    this.chunkSize = chunkSize;
+    this.payload = payload;
+  }
+
+  @Override
+  protected void compute() {
+    if ( to - from <= chunkSize ) {
+      final DeliveryService deliveryService = DeliveryService.INSTANCE;
+      for ( int i = from; i < to; i++ ) {
+        // the array may be larger than the number of clients copied into it
+        if ( clients[i] != null ) {
+          deliveryService.deliver( clients[i], payload );
+        }
+      }
+      return;
+    }
+    final int middle = (from + to) >>> 1;
+    invokeAll( new BroadcastTask( clients, from, middle, chunkSize, payload ), new BroadcastTask( clients, middle, to, chunkSize, payload ) );
+  }
+}
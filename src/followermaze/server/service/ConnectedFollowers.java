@@ -0,0 +1,72 @@
+package followermaze.server.service;
+
+import java.util.Arrays;
+
+import followermaze.server.model.client.Client;
+
+/**
+ * Cached array of the connected followers of a user, used to fan out status updates without looking up every follower in the registry. Built from the follower graph and the registered clients,
+ * patched when a follower is added or removed and when a follower is registered or removed from the registry. Only used by the thread processing the events, thus not thread-safe.
+ *
+ */
+public final class ConnectedFollowers {
+
+  /** Connected followers in the range [0, size) */
+  private Client[] clients;
+
+  /** Number of connected followers */
+  private int size = 0;
+
+  /**
+   * @param capacity
+   *          Initial capacity, the number of followers of the user
+   */
+  ConnectedFollowers( int capacity ) {
+    this.clients = new Client[Math.max( capacity, 1 )];
+  }
+
+  /**
+   * @return Number of connected followers
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index
+   *          Index in the range [0, size)
+   * @return Connected follower at the index
+   */
+  public Client get( int index ) {
+    return clients[index];
+  }
+
+  /**
+   * Appends a connected follower
+   *
+   * @param client
+   *          Connected follower
+   */
+  void add( final Client client ) {
+    if ( size == clients.length ) {
+      clients = Arrays.copyOf( clients, size + (size >> 1) + 1 );
+    }
+    clients[size++] = client;
+  }
+
+  /**
+   * Removes a follower, the order of the remaining followers is not kept
+   *
+   * @param followerId
+   *          ID of the follower to be removed
+   */
+  void remove( int followerId ) {
+    for ( int i = 0; i < size; i++ ) {
+      if ( clients[i].getId() == followerId ) {
+        clients[i] = clients[--size];
+        clients[size] = null;
+        return;
+      }
+    }
+  }
+}
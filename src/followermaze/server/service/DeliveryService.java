@@ -0,0 +1,391 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.client.AuthorLog;
+import followermaze.server.model.client.Client;
+import followermaze.server.model.client.Mailbox;
+import followermaze.server.util.VirtualThreads;
+
+/**
+ * DeliveryService sends the notifications to the connected clients. Messages are posted to the mailbox of a client, mailboxes that contain messages are drained by a fixed pool of delivery workers
+ * shared by all clients. The number of threads does not depend on the number of clients. In virtual thread mode every scheduled mailbox is drained on its own virtual thread instead. Mailboxes whose
+ * client socket does not accept further bytes are parked in a write selector until the socket becomes writable, so workers never wait for slow clients. Messages to the same client are coalesced: a
+ * mailbox holding fewer pending bytes than the flush threshold waits up to the configured linger time for further messages, then all of them are written with a single gathering write. Broadcasts to
+ * many clients are posted by a fork/join pool, the calling thread waits until the payload has been posted to every client, thus the order of the notifications of each client is preserved. The number
+ * of messages and bytes waiting for a client is limited, an overflow policy decides what happens to clients that do not keep up. Optionally, status updates to backlogged clients are conflated, only
+ * the latest update of a user waiting for a client is sent. Status updates of users with a very large number of followers are not posted at all, the mailboxes of the followers read them from the log
+ * of the user when they are woken up. Implemented using enum singleton pattern.
+ *
+ */
+public enum DeliveryService {
+  INSTANCE;
+
+  /** Logger */
+  private static final Logger logger = LogManager.getLogger( DeliveryService.class );
+
+  /** Charset used to encode messages passed in as strings */
+  private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  /** Delivery workers, created on first use */
+  private volatile ExecutorService workers = null;
+
+  /** Timer rescheduling mailboxes waiting for further messages, created together with the workers */
+  private volatile ScheduledExecutorService lingerTimer = null;
+
+  /** Number of pending bytes at which the messages of a client are written right away, read when the workers are started */
+  private volatile long flushThresholdBytes = 0;
+
+  /** Maximum time in ns a message waits for further messages to the same client, read when the workers are started */
+  private volatile long maxLingerNanos = 0;
+
+  /** Policy applied to clients exceeding their outbound limits, created on first delivery */
+  private volatile OverflowPolicy overflowPolicy = null;
+
+  /** Number of waiting messages from which on status updates are conflated, 0 if disabled, read together with the overflow policy */
+  private int conflationBacklog = 0;
+
+  /** Pool posting broadcasts to large numbers of clients, created on first broadcast */
+  private volatile ForkJoinPool broadcastPool = null;
+
+  /** Number of clients from which on a broadcast is posted by the broadcast pool, read when the pool is started */
+  private int broadcastParallelThreshold = 0;
+
+  /** Number of clients a single thread of the broadcast pool posts to, read when the pool is started */
+  private int broadcastChunkSize = 0;
+
+  /** Number of broadcasts posted by the broadcast pool */
+  private final AtomicLong parallelBroadcastCounter = MetricsService.INSTANCE.counter( "delivery.parallelBroadcasts" );
+
+  /** Selector waiting for stalled client sockets, created on first use */
+  private WriteSelector writeSelector = null;
+
+  /** Number of times a client socket did not accept all pending bytes */
+  private final AtomicLong writeStallCounter = MetricsService.INSTANCE.counter( "delivery.writeStalls" );
+
+  /**
+   * Posts a message to the mailbox of a client and schedules the mailbox if necessary
+   *
+   * @param client
+   *          Client to be notified
+   * @param message
+   *          Message to be sent
+   */
+  public void deliver( final Client client, final String message ) {
+    deliver( client, ByteBuffer.wrap( message.getBytes( CHARSET ) ) );
+  }
+
+  /**
+   * Posts the encoded bytes of a message to the mailbox of a client and schedules the mailbox if necessary. The payload may be shared by several recipients, the mailbox is passed a duplicate with its
+   * own position, thus the bytes are neither copied nor encoded per recipient.
+   *
+   * @param client
+   *          Client to be notified
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   */
+  public void deliver( final Client client, final ByteBuffer payload ) {
+    if ( client.isDisconnected() || !getOverflowPolicy().admit( client, payload.remaining() ) ) {
+      return;
+    }
+    final Mailbox mailbox = client.getMailbox();
+    if ( mailbox.post( payload.duplicate() ) ) {
+      schedule( mailbox );
+    }
+  }
+
+  /**
+   * Posts a status update to the mailbox of a client and schedules the mailbox if necessary. If conflation is enabled and the client is backlogged, a status update of the same user that is still
+   * waiting is cancelled. Must only be called by the thread processing the events.
+   *
+   * @param client
+   *          Client to be notified
+   * @param fromUserId
+   *          User the status update originates from
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   */
+  public void deliverStatusUpdate( final Client client, int fromUserId, final ByteBuffer payload ) {
+    final OverflowPolicy currentOverflowPolicy = getOverflowPolicy();
+    if ( conflationBacklog <= 0 ) {
+      deliver( client, payload );
+      return;
+    }
+    if ( client.isDisconnected() || !currentOverflowPolicy.admit( client, payload.remaining() ) ) {
+      return;
+    }
+    final Mailbox mailbox = client.getMailbox();
+    if ( mailbox.postStatusUpdate( fromUserId, payload.duplicate(), conflationBacklog ) ) {
+      schedule( mailbox );
+    }
+  }
+
+  /**
+   * Posts a payload to the mailboxes of all passed in clients. Small numbers of clients are posted to by the calling thread, larger ones are split into chunks posted concurrently by the broadcast
+   * pool. Returns after the payload has been posted to every client, so notifications posted afterwards are sent after the broadcast.
+   *
+   * @param clients
+   *          Clients to be notified
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   */
+  public void deliverToAll( final Collection<Client> clients, final ByteBuffer payload ) {
+    ForkJoinPool currentBroadcastPool = broadcastPool;
+    if ( currentBroadcastPool == null ) {
+      currentBroadcastPool = startBroadcastPool();
+    }
+    final int numberOfClients = clients.size();
+    if ( numberOfClients < broadcastParallelThreshold ) {
+      for ( Client curClient : clients ) {
+        deliver( curClient, payload );
+      }
+      return;
+    }
+    final Client[] snapshot = clients.toArray( new Client[numberOfClients] );
+    currentBroadcastPool.invoke( new BroadcastTask( snapshot, 0, snapshot.length, broadcastChunkSize, payload ) );
+    parallelBroadcastCounter.incrementAndGet();
+  }
+
+  /**
+   * Applies the overflow policy to the subscribers of a log that would miss updates overwritten before the next lag check, called by the thread appending to the log
+   *
+   * @param log
+   *          Log of a followed user
+   */
+  void checkLaggingSubscribers( final AuthorLog log ) {
+    final OverflowPolicy currentOverflowPolicy = getOverflowPolicy();
+    final long safeReadPosition = log.getSafeReadPosition();
+    for ( Client curSubscriber : log.getSubscribers() ) {
+      currentOverflowPolicy.checkLogReader( curSubscriber, log, safeReadPosition );
+    }
+  }
+
+  /**
+   * @return Policy applied to clients exceeding their outbound limits, created together with the conflation setting if not existing
+   */
+  private OverflowPolicy getOverflowPolicy() {
+    OverflowPolicy currentOverflowPolicy = overflowPolicy;
+    if ( currentOverflowPolicy == null ) {
+      synchronized ( this ) {
+        if ( overflowPolicy == null ) {
+          conflationBacklog = ConfigService.INSTANCE.getOutboundConflationBacklog();
+          overflowPolicy = OverflowPolicy.fromConfig();
+        }
+        currentOverflowPolicy = overflowPolicy;
+      }
+    }
+    return currentOverflowPolicy;
+  }
+
+  /**
+   * @return Broadcast pool, created if not running
+   */
+  private synchronized ForkJoinPool startBroadcastPool() {
+    if ( broadcastPool == null ) {
+      broadcastParallelThreshold = ConfigService.INSTANCE.getBroadcastParallelThreshold();
+      broadcastChunkSize = Math.max( 1, ConfigService.INSTANCE.getBroadcastChunkSize() );
+      broadcastPool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+    }
+    return broadcastPool;
+  }
+
+  /**
+   * Hands a mailbox that contains messages over to a delivery worker
+   *
+   * @param mailbox
+   *          Mailbox to be drained
+   */
+  public void schedule( final Mailbox mailbox ) {
+    try {
+      ExecutorService currentWorkers = workers;
+      if ( currentWorkers == null ) {
+        currentWorkers = startWorkers();
+      }
+      currentWorkers.execute( mailbox );
+    } catch ( RejectedExecutionException e ) {
+      logger.warn( "Delivery workers have been shut down, dropping scheduled mailbox." );
+    }
+  }
+
+  /**
+   * Hands a mailbox over to a delivery worker after a delay, used by mailboxes waiting for further messages before writing
+   *
+   * @param mailbox
+   *          Scheduled mailbox
+   * @param delayNanos
+   *          Delay in ns
+   */
+  public void scheduleAfter( final Mailbox mailbox, long delayNanos ) {
+    final ScheduledExecutorService currentLingerTimer = lingerTimer;
+    if ( currentLingerTimer == null ) {
+      logger.warn( "Delivery workers have been shut down, dropping lingering mailbox." );
+      return;
+    }
+    try {
+      currentLingerTimer.schedule( new Runnable() {
+
+        @Override
+        public void run() {
+          schedule( mailbox );
+        }
+      }, delayNanos, TimeUnit.NANOSECONDS );
+    } catch ( RejectedExecutionException e ) {
+      logger.warn( "Delivery workers have been shut down, dropping lingering mailbox." );
+    }
+  }
+
+  /**
+   * Schedules the mailboxes of the followers subscribed to a log after a status update has been appended. The subscribers are visited by a delivery worker, thus the thread processing the events only
+   * pays for a single task per log, updates appended while the wakeup is pending are picked up by the same pass.
+   *
+   * @param log
+   *          Log a status update has been appended to
+   */
+  public void wakeSubscribers( final AuthorLog log ) {
+    try {
+      ExecutorService currentWorkers = workers;
+      if ( currentWorkers == null ) {
+        currentWorkers = startWorkers();
+      }
+      currentWorkers.execute( new Runnable() {
+
+        @Override
+        public void run() {
+          log.startWakeup();
+          for ( Client curSubscriber : log.getSubscribers() ) {
+            final Mailbox mailbox = curSubscriber.getMailbox();
+            if ( !curSubscriber.isDisconnected() && mailbox.requestDrain() ) {
+              schedule( mailbox );
+            }
+          }
+        }
+      } );
+    } catch ( RejectedExecutionException e ) {
+      log.startWakeup();
+      logger.warn( "Delivery workers have been shut down, dropping wakeup of the followers of user " + log.getAuthorId() + "." );
+    }
+  }
+
+  /**
+   * @return Number of pending bytes at which the messages of a client are written without waiting for further messages
+   */
+  public long getFlushThresholdBytes() {
+    return flushThresholdBytes;
+  }
+
+  /**
+   * @return Maximum time in ns a message waits for further messages to the same client before it is written
+   */
+  public long getMaxLingerNanos() {
+    return maxLingerNanos;
+  }
+
+  /**
+   * Parks a scheduled mailbox until the socket of its client becomes writable, the mailbox is scheduled again afterwards
+   *
+   * @param mailbox
+   *          Mailbox whose client did not accept all pending bytes
+   */
+  public void awaitWritable( final Mailbox mailbox ) {
+    writeStallCounter.incrementAndGet();
+    final WriteSelector currentWriteSelector = startWriteSelector();
+    if ( currentWriteSelector != null ) {
+      currentWriteSelector.register( mailbox );
+    }
+  }
+
+  /**
+   * @return Write selector, started if not running, null if it could not be opened
+   */
+  private synchronized WriteSelector startWriteSelector() {
+    if ( writeSelector == null ) {
+      try {
+        writeSelector = new WriteSelector();
+        final Thread writeSelectorThread = new Thread( writeSelector, "DeliveryWriteSelector" );
+        writeSelectorThread.setDaemon( true );
+        writeSelectorThread.start();
+      } catch ( IOException e ) {
+        logger.error( "Error opening write selector, dropping stalled mailbox.", e );
+        writeSelector = null;
+      }
+    }
+    return writeSelector;
+  }
+
+  /**
+   * @return Delivery workers, created if not running
+   */
+  private synchronized ExecutorService startWorkers() {
+    if ( workers == null ) {
+      flushThresholdBytes = ConfigService.INSTANCE.getOutboundFlushThresholdBytes();
+      maxLingerNanos = TimeUnit.MICROSECONDS.toNanos( ConfigService.INSTANCE.getOutboundMaxLingerMicros() );
+      lingerTimer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+        @Override
+        public Thread newThread( Runnable r ) {
+          final Thread thread = new Thread( r, "DeliveryLingerTimer" );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+    }
+    if ( workers == null && ConfigService.INSTANCE.isVirtualThreadMode() ) {
+      // every scheduled mailbox is drained on its own virtual thread
+      workers = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      logger.info( "Started delivery using virtual threads." );
+    } else if ( workers == null ) {
+      int numberOfWorkers = ConfigService.INSTANCE.getDeliveryWorkerThreads();
+      if ( numberOfWorkers <= 0 ) {
+        numberOfWorkers = Runtime.getRuntime().availableProcessors();
+      }
+      workers = Executors.newFixedThreadPool( numberOfWorkers, new ThreadFactory() {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread( Runnable r ) {
+          return new Thread( r, "DeliveryWorker-" + threadNumber.getAndIncrement() );
+        }
+      } );
+      logger.info( "Started " + numberOfWorkers + " delivery workers." );
+    }
+    return workers;
+  }
+
+  /**
+   * Stops the delivery workers, the linger timer, the broadcast pool and the write selector, pending messages are dropped. They are started again on the next delivery.
+   */
+  public synchronized void reset() {
+    if ( workers != null ) {
+      workers.shutdownNow();
+      workers = null;
+      lingerTimer.shutdownNow();
+      lingerTimer = null;
+    }
+    overflowPolicy = null;
+    if ( broadcastPool != null ) {
+      broadcastPool.shutdownNow();
+      broadcastPool = null;
+    }
+    if ( writeSelector != null ) {
+      writeSelector.shutdown();
+      writeSelector = null;
+    }
+  }
+}
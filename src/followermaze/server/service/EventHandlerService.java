@@ -1,16 +1,27 @@
 package followermaze.server.service;
 
-import java.util.PriorityQueue;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.config.ConfigService;
 import followermaze.server.model.event.Event;
 import followermaze.server.model.event.EventWorker;
+import followermaze.server.util.ConsumerParker;
+import followermaze.server.util.IdleStrategy;
+import followermaze.server.util.SpscRingBuffer;
 
 /**
- * EventHandlerService handles incoming events and processes them using instances of EventWorker. The events are added to a queue which sorts them based on their sequeunce number. Implemented using
- * enum singleton pattern.
+ * EventHandlerService handles incoming events and processes them using instances of EventWorker. Events are processed in a pipeline: the thread reading from the event source publishes parsed events
+ * into a preallocated single-producer / single-consumer ring buffer, a dedicated sequencer thread drains the ring buffer and adds the events to a reorder buffer which releases them in the order of
+ * their sequence numbers. The ordered events are either processed by the sequencer thread itself or, if more than one event shard is configured, published to shard threads that process the users
+ * of their partition of the UserRegistryService in parallel. Snapshots of the processing state are captured between two events, the sequencer copies its own state and every thread processing
+ * events copies the follows of its users, and can be restored before the sequencer is started. Implemented using enum singleton pattern.
  *
  */
 public enum EventHandlerService {
@@ -18,77 +29,351 @@ public enum EventHandlerService {
 
   private final Logger logger = LogManager.getLogger( EventHandlerService.class );
 
-  /** Queue that holds events, due to single threaded processing, no need for synchronization */
-  final PriorityQueue<Event> eventQueue = new PriorityQueue<Event>();
+  /** Buffer that holds events arriving out of order, only accessed by the sequencer thread, thus no need for synchronization */
+  private final ReorderBuffer reorderBuffer = new ReorderBuffer( ConfigService.INSTANCE.getReorderWindowSize() );
 
-  /** Sequence number of next event to process */
-  int nextSequenceNumber = 1;
+  /** Ring buffer decoupling the thread reading from the event source from the sequencer thread */
+  private final SpscRingBuffer<Event> ringBuffer = new SpscRingBuffer<Event>( ConfigService.INSTANCE.getEventRingBufferSize() );
+
+  /** Policy deciding when to stop waiting for missing events */
+  private final GapPolicy gapPolicy = GapPolicy.fromConfig();
+
+  /** True, if the sequencer is waiting for a missing event while later events are buffered */
+  private boolean gapOpen = false;
+
+  /** Sequence number of the missing event the sequencer is waiting for */
+  private int gapSequenceNumber = 0;
+
+  /** Time in ns when the sequencer started waiting for the missing event */
+  private long gapStartNanos = 0;
+
+  /** Worker processing the ready events, only used by the sequencer thread, replaced by the event shards while the sequencer is running if configured */
+  private EventWorker worker = new EventWorker();
+
+  /** Number of times the reading thread had to wait because the ring buffer was full */
+  private final AtomicLong ringBufferFullCounter = MetricsService.INSTANCE.counter( "eventRingBuffer.full" );
+
+  /** Number of discarded events whose sequence number has already been processed or buffered */
+  private final AtomicLong duplicateCounter = MetricsService.INSTANCE.counter( "events.duplicate" );
+
+  /** Number of gaps the sequencer has skipped */
+  private final AtomicLong skippedGapsCounter = MetricsService.INSTANCE.counter( "sequenceGaps.skipped" );
+
+  /** Number of missing events the sequencer has skipped */
+  private final AtomicLong skippedEventsCounter = MetricsService.INSTANCE.counter( "events.skipped" );
+
+  /** Sequencer draining the ring buffer, null if not running */
+  private volatile EventSequencer sequencer = null;
+
+  /** Thread running the sequencer */
+  private Thread sequencerThread = null;
+
+  /** Task requested to run on the sequencer thread between two events, like capturing a snapshot, null if no task is requested */
+  private volatile FutureTask<?> sequencerTask = null;
+
+  private EventHandlerService() {
+    MetricsService.INSTANCE.registerGauge( "eventRingBuffer.size", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return ringBuffer.size();
+      }
+    } );
+    MetricsService.INSTANCE.registerGauge( "eventRingBuffer.capacity", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return ringBuffer.capacity();
+      }
+    } );
+    MetricsService.INSTANCE.registerGauge( "reorderBuffer.size", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return reorderBuffer.size();
+      }
+    } );
+  }
 
   /**
-   * Adds an event to the event queue and triggers an event worker run to process currently queued events.
-   * 
+   * Publishes an event to the sequencer thread. Must only be called by the single thread reading from the event source. Waits while the ring buffer is full, thus the reading rate is limited by the
+   * processing rate only if the ring buffer runs full.
+   *
    * @param event
    *          Event to be added
    */
   public void addEvent( final Event event ) {
-    logger.entry( event );
+    if ( sequencer == null ) {
+      startSequencer();
+    }
 
-    // push to queue
-    eventQueue.add( event );
+    if ( !ringBuffer.offer( event ) ) {
+      ringBufferFullCounter.incrementAndGet();
+      int idleIterations = 0;
+      while ( !ringBuffer.offer( event ) ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+      }
+    }
+    sequencer.unpark();
+  }
 
-    // doing this in the current thread blocks and limits the incoming rate on the producer side
-    final EventWorker worker = new EventWorker();
-    worker.run();
+  /**
+   * Processes the event right away if it carries the next expected sequence number and triggers an event worker run to process the buffered events following it. Otherwise the event is kept in the
+   * reorder buffer, duplicates are discarded. Accepted events are appended to the event log. Called by the sequencer thread.
+   *
+   * @param event
+   *          Event to be added
+   */
+  void sequence( final Event event ) {
+    if ( reorderBuffer.isNext( event.getSequenceNumber() ) ) {
+      reorderBuffer.advance();
+      EventLogService.INSTANCE.append( event );
+      worker.process( event );
+      worker.run();
+    } else if ( reorderBuffer.offer( event ) ) {
+      EventLogService.INSTANCE.append( event );
+    } else {
+      duplicateCounter.incrementAndGet();
+      logger.warn( "Discarding duplicate event " + event );
+      event.recycle();
+    }
+    checkGap();
+  }
+
+  /**
+   * Applies the gap policy if the sequencer is waiting for a missing event. Skips ahead to the first buffered event and processes the events following it as long as a limit of the policy is exceeded.
+   * Called by the sequencer thread after each event and while it is idle.
+   */
+  void checkGap() {
+    if ( gapPolicy.isStrict() ) {
+      return;
+    }
+    if ( reorderBuffer.size() == 0 ) {
+      gapOpen = false;
+      return;
+    }
+
+    final long now = System.nanoTime();
+    if ( !gapOpen || gapSequenceNumber != reorderBuffer.getNextSequenceNumber() ) {
+      gapOpen = true;
+      gapSequenceNumber = reorderBuffer.getNextSequenceNumber();
+      gapStartNanos = now;
+    }
 
-    logger.debug( "Events on Queue: " + eventQueue.size() );
-    logger.exit();
+    String exceededLimit = gapPolicy.checkLimits( reorderBuffer.size(), reorderBuffer.getBufferedBytes(), now - gapStartNanos );
+    while ( exceededLimit != null ) {
+      final int firstMissing = reorderBuffer.getNextSequenceNumber();
+      final int firstBuffered = reorderBuffer.skipToFirstBuffered();
+      skippedGapsCounter.incrementAndGet();
+      skippedEventsCounter.addAndGet( firstBuffered - firstMissing );
+      logger.warn( "Skipping missing events " + firstMissing + " to " + (firstBuffered - 1) + ", " + exceededLimit );
+      worker.run();
+
+      if ( reorderBuffer.size() == 0 ) {
+        gapOpen = false;
+        return;
+      }
+      // a new gap starts behind the processed events
+      gapSequenceNumber = reorderBuffer.getNextSequenceNumber();
+      gapStartNanos = now;
+      exceededLimit = gapPolicy.checkLimits( reorderBuffer.size(), reorderBuffer.getBufferedBytes(), 0 );
+    }
   }
 
   /**
-   * @return Number of next event to process
+   * Called by the sequencer thread after checkGap() before it parks
+   *
+   * @return Time in ns until the missing event the sequencer is waiting for times out, ConsumerParker.NO_TIMEOUT if it is not waiting for a missing event or waits forever
    */
-  public int getNextSequenceNumber() {
-    return nextSequenceNumber;
+  long getGapTimeoutNanos() {
+    if ( !gapOpen ) {
+      return ConsumerParker.NO_TIMEOUT;
+    }
+    return gapPolicy.getRemainingWaitNanos( System.nanoTime() - gapStartNanos );
+  }
+
+  /**
+   * Captures a snapshot of the processing state. If the sequencer is running, the snapshot is requested from the sequencer thread between two events and the calling thread waits until the sequencer
+   * and the event shards have copied their state, else it is captured by the calling thread.
+   *
+   * @return Snapshot holding the next expected sequence number, the buffered events and all follows
+   * @throws InterruptedException
+   *           Thrown if the calling thread is interrupted while waiting for the sequencer
+   * @throws ExecutionException
+   *           Thrown if the snapshot could not be captured
+   */
+  synchronized Snapshot takeSnapshot() throws InterruptedException, ExecutionException {
+    if ( sequencer == null ) {
+      final Snapshot snapshot = captureSnapshot();
+      snapshot.awaitCaptured();
+      return snapshot;
+    }
+    final FutureTask<Snapshot> task = new FutureTask<Snapshot>( new Callable<Snapshot>() {
+
+      @Override
+      public Snapshot call() {
+        return captureSnapshot();
+      }
+    } );
+    sequencerTask = task;
+    sequencer.unpark();
+    // the sequencer and the shards are not stopped meanwhile, stopping them requires the monitor held here
+    final Snapshot snapshot = task.get();
+    snapshot.awaitCaptured();
+    return snapshot;
   }
 
   /**
-   * 
+   * Runs a task on the sequencer thread between two events and waits for it, the task is run by the calling thread if the sequencer is not running
+   *
+   * @param task
+   *          Task to be run
+   * @throws InterruptedException
+   *           Thrown if the calling thread is interrupted while waiting for the sequencer
+   * @throws ExecutionException
+   *           Thrown if the task failed
+   */
+  synchronized void runOnSequencer( final Runnable task ) throws InterruptedException, ExecutionException {
+    if ( sequencer == null ) {
+      task.run();
+      return;
+    }
+    final FutureTask<Void> future = new FutureTask<Void>( task, null );
+    sequencerTask = future;
+    sequencer.unpark();
+    future.get();
+  }
+
+  /**
+   * Waits until the sequencer has taken all events added so far from the ring buffer and has passed them to the reorder buffer. Must not be called while further events are added.
+   *
+   * @throws InterruptedException
+   *           Thrown if the calling thread is interrupted while waiting for the sequencer
+   * @throws ExecutionException
+   *           Thrown if the sequencer could not be reached
+   */
+  synchronized void awaitSequenced() throws InterruptedException, ExecutionException {
+    int idleIterations = 0;
+    while ( sequencer != null && ringBuffer.size() > 0 ) {
+      idleIterations = IdleStrategy.idle( idleIterations );
+    }
+    runOnSequencer( new Runnable() {
+
+      @Override
+      public void run() {
+        // the sequencer runs a task only between two events
+      }
+    } );
+  }
+
+  /**
+   * Runs a requested task like capturing a snapshot, called by the sequencer thread between two events
+   */
+  void runRequestedTask() {
+    final FutureTask<?> task = sequencerTask;
+    if ( task != null ) {
+      sequencerTask = null;
+      task.run();
+    }
+  }
+
+  /**
+   * Restores the sequencer state of a snapshot, the follows are restored by the UserRegistryService. Must be called before the first event is added.
+   *
    * @param nextSequenceNumber
-   *          Number of next event to process
+   *          Sequence number of the next event to be processed
+   * @param bufferedEvents
+   *          Events buffered out of order when the snapshot was taken
    */
-  public void setNextSequenceNumber( int nextSequenceNumber ) {
-    this.nextSequenceNumber = nextSequenceNumber;
+  public synchronized void restore( int nextSequenceNumber, final List<Event> bufferedEvents ) {
+    if ( sequencer != null ) {
+      throw new IllegalStateException( "Snapshots must be restored before the sequencer is started." );
+    }
+    reorderBuffer.clear( nextSequenceNumber );
+    for ( Event curEvent : bufferedEvents ) {
+      reorderBuffer.offer( curEvent );
+    }
+    gapOpen = false;
   }
 
   /**
-   * Retrieves the first event in the queue. This is the event with the smallest sequence number of all events in the queue.
-   * 
-   * @return First event in the queue.
+   * Copies the state of the sequencer into a new snapshot and requests the worker to copy the follows once it has processed all events passed in. The sequencer does not wait for the event shards,
+   * each shard copies the follows of its own partition in parallel to the others.
    */
-  public Event first() {
-    if ( eventQueue.size() > 0 ) {
-      return eventQueue.peek();
-    } else {
-      return null;
+  private Snapshot captureSnapshot() {
+    final long start = System.nanoTime();
+    final Snapshot snapshot = new Snapshot( reorderBuffer.getNextSequenceNumber(), UserRegistryService.INSTANCE.getNumberOfPartitions() );
+    for ( Event curEvent : reorderBuffer.getBufferedEvents() ) {
+      snapshot.addBufferedEvent( curEvent );
     }
+    worker.runWhenProcessed( new Runnable() {
+
+      @Override
+      public void run() {
+        UserRegistryService.INSTANCE.copyFollowersTo( snapshot );
+      }
+    } );
+    snapshot.setSequencerPauseNanos( System.nanoTime() - start );
+    return snapshot;
   }
 
   /**
-   * Removes the given event from the queue.
-   * 
-   * @param event
-   *          Event to be removed
-   * @return True, if the event has been successfully removed, else false
+   * Starts the sequencer thread if it is not running yet, together with one event shard per partition of the UserRegistryService if there are several partitions
+   */
+  private synchronized void startSequencer() {
+    if ( sequencer == null ) {
+      final int numberOfShards = UserRegistryService.INSTANCE.getNumberOfPartitions();
+      if ( numberOfShards > 1 ) {
+        worker = new EventShards( numberOfShards, ConfigService.INSTANCE.getEventRingBufferSize() );
+      }
+      final EventSequencer newSequencer = new EventSequencer( ringBuffer );
+      sequencerThread = new Thread( newSequencer, "EventSequencer" );
+      sequencerThread.start();
+      sequencer = newSequencer;
+    }
+  }
+
+  /**
+   * Stops the sequencer thread and the event shards and waits for them to finish
+   */
+  private synchronized void stopSequencer() {
+    if ( sequencer != null ) {
+      sequencer.shutdown();
+      try {
+        sequencerThread.join();
+      } catch ( InterruptedException e ) {
+        logger.error( "Error while waiting for the sequencer to stop!", e );
+      }
+      sequencer = null;
+      sequencerThread = null;
+      worker.shutdown();
+      worker = new EventWorker();
+    }
+  }
+
+  /**
+   * @return Number of next event to process
+   */
+  public int getNextSequenceNumber() {
+    return reorderBuffer.getNextSequenceNumber();
+  }
+
+  /**
+   * Removes the event with the next expected sequence number from the reorder buffer. Must only be called by the sequencer thread.
+   *
+   * @return Event with the next expected sequence number, null if it has not arrived yet
    */
-  public boolean remove( final Event event ) {
-    return eventQueue.remove( event );
+  public Event pollNext() {
+    return reorderBuffer.poll();
   }
 
   /**
-   * Resets the handler to its startup state
+   * Resets the handler to its startup state. Stops the sequencer thread, it is started again when the next event is added. Must not be called while an event source is connected.
    */
-  public void reset() {
-    eventQueue.clear();
-    nextSequenceNumber = 1;
+  public synchronized void reset() {
+    stopSequencer();
+    ringBuffer.clear();
+    reorderBuffer.clear();
+    gapOpen = false;
   }
 }
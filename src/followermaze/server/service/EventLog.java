@@ -0,0 +1,497 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.event.Event;
+import followermaze.server.util.ConsumerParker;
+import followermaze.server.util.IdleStrategy;
+import followermaze.server.util.SpscRingBuffer;
+
+/**
+ * Append-only log of the accepted events, split into segment files. The sequencer copies every event accepted by the reorder buffer into a batch buffer and hands the batches to a dedicated writer
+ * thread whenever it runs out of events or the batch is full, thus logging only costs the sequencer a copy of the message. The writer collects all handed over batches, writes them with a single
+ * gathering write and forces them to the disk according to the fsync policy, so one fsync commits a whole group of batches. Batches are recycled through a second ring buffer, the sequencer waits if
+ * the writer falls behind by all batches. A new segment is started once the current one exceeds the configured size, closed segments are deleted once a checkpoint covers all of their events. Segment
+ * layout:
+ *
+ * <pre>
+ * per batch: int length of the records in byte, int CRC32 of the records
+ * per record: int sequence number, int length, message bytes
+ * </pre>
+ *
+ */
+final class EventLog {
+
+  private static final Logger logger = LogManager.getLogger( EventLog.class );
+
+  /** Size of the header of a batch in byte */
+  static final int BATCH_HEADER_SIZE = 8;
+
+  /** Size of the header of a record in byte */
+  static final int RECORD_HEADER_SIZE = 8;
+
+  /** Prefix of the segment file names, followed by the segment index */
+  private static final String SEGMENT_PREFIX = "events-";
+
+  /** Suffix of the segment file names */
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  /** Number of batch buffers */
+  private static final int NUMBER_OF_BATCHES = 8;
+
+  /** Directory holding the segments */
+  private final Path directory;
+
+  /** Size in byte from which on a new segment is started */
+  private final long segmentBytes;
+
+  /** Policy forcing the segments to the disk */
+  private final String fsyncPolicy;
+
+  /** Interval in ns the segments are forced to the disk in with the interval policy */
+  private final long fsyncIntervalNanos;
+
+  /** Batches handed over from the sequencer to the writer */
+  private final SpscRingBuffer<Batch> filledBatches = new SpscRingBuffer<Batch>( NUMBER_OF_BATCHES );
+
+  /** Batches returned from the writer to the sequencer */
+  private final SpscRingBuffer<Batch> freeBatches = new SpscRingBuffer<Batch>( NUMBER_OF_BATCHES );
+
+  /** Batch filled by the sequencer */
+  private Batch currentBatch;
+
+  /** Flag controls the main loop of the writer, cleared on close or if the log can not be written */
+  private volatile boolean running = true;
+
+  /** Sequence number up to which, exclusively, the events are covered by a checkpoint */
+  private volatile int checkpointSequenceNumber = 0;
+
+  /** Thread writing the batches */
+  private final Thread writerThread;
+
+  /** Parks the writer while no batches are available, unparked by the sequencer */
+  private final ConsumerParker writerParker = new ConsumerParker();
+
+  /** Closed segments, only accessed by the writer */
+  private final List<Segment> closedSegments;
+
+  /** Segment currently written, only accessed by the writer */
+  private Segment segment;
+
+  /** Channel of the segment currently written */
+  private FileChannel segmentChannel;
+
+  /** Size of the segment currently written in byte */
+  private long segmentSize = 0;
+
+  /** True, if batches have been written since the segment was forced to the disk */
+  private boolean unforced = false;
+
+  /** Time in ns the segment was forced to the disk */
+  private long lastForceNanos = System.nanoTime();
+
+  /** Checkpoint applied to the closed segments */
+  private int appliedCheckpoint = 0;
+
+  /** Number of written batches */
+  private final AtomicLong batchCounter = MetricsService.INSTANCE.counter( "eventLog.batches" );
+
+  /** Number of written bytes */
+  private final AtomicLong byteCounter = MetricsService.INSTANCE.counter( "eventLog.bytes" );
+
+  /** Number of times the segment has been forced to the disk */
+  private final AtomicLong fsyncCounter = MetricsService.INSTANCE.counter( "eventLog.fsyncs" );
+
+  /** Number of times the sequencer had to wait for a free batch */
+  private final AtomicLong batchesFullCounter = MetricsService.INSTANCE.counter( "eventLog.batchesFull" );
+
+  /** Number of segments deleted after a checkpoint */
+  private final AtomicLong deletedSegmentsCounter = MetricsService.INSTANCE.counter( "eventLog.segmentsDeleted" );
+
+  /**
+   * Opens a new segment after the existing ones and starts the writer thread
+   *
+   * @param directory
+   *          Directory holding the segments
+   * @param existingSegments
+   *          Segments recovered from the directory, sorted by index, deleted once a checkpoint covers them
+   * @throws IOException
+   *           Thrown if the new segment can not be created
+   */
+  EventLog( final Path directory, final List<Segment> existingSegments ) throws IOException {
+    final ConfigService config = ConfigService.INSTANCE;
+    this.directory = directory;
+    this.segmentBytes = config.getEventLogSegmentBytes();
+    this.fsyncPolicy = config.getEventLogFsyncPolicy();
+    this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos( config.getEventLogFsyncIntervalMillis() );
+    this.closedSegments = new ArrayList<Segment>( existingSegments );
+
+    // every batch holds at least one message of maximum length
+    final int batchCapacity = Math.max( config.getEventLogBufferBytes(), config.getMaxMessageLengthInByte() + BATCH_HEADER_SIZE + RECORD_HEADER_SIZE );
+    currentBatch = new Batch( batchCapacity );
+    for ( int i = 1; i < NUMBER_OF_BATCHES; i++ ) {
+      freeBatches.offer( new Batch( batchCapacity ) );
+    }
+
+    openSegment( existingSegments.isEmpty() ? 1 : existingSegments.get( existingSegments.size() - 1 ).getIndex() + 1 );
+    writerThread = new Thread( new Runnable() {
+
+      @Override
+      public void run() {
+        writeBatches();
+      }
+    }, "EventLogWriter" );
+    writerThread.start();
+  }
+
+  /**
+   * Copies an event into the current batch, hands the batch to the writer if the event does not fit into it anymore. Must only be called by the sequencer thread.
+   *
+   * @param event
+   *          Accepted event
+   */
+  void append( final Event event ) {
+    if ( !running ) {
+      return;
+    }
+    final int recordSize = RECORD_HEADER_SIZE + event.getMessageLength();
+    if ( currentBatch.remaining() < recordSize ) {
+      flush();
+      if ( currentBatch.remaining() < recordSize ) {
+        // the log has been closed meanwhile
+        return;
+      }
+    }
+    currentBatch.put( event );
+  }
+
+  /**
+   * Hands the current batch to the writer if it holds any events and continues with a free batch, waits if the writer has not returned any batch yet. Must only be called by the sequencer thread.
+   */
+  void flush() {
+    if ( currentBatch.isEmpty() || !running ) {
+      return;
+    }
+    // all batches fit into the ring buffer, thus offering never fails
+    filledBatches.offer( currentBatch );
+    writerParker.unpark();
+    Batch nextBatch = freeBatches.poll();
+    if ( nextBatch == null ) {
+      batchesFullCounter.incrementAndGet();
+      int idleIterations = 0;
+      while ( nextBatch == null && running ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+        nextBatch = freeBatches.poll();
+      }
+      if ( nextBatch == null ) {
+        // the log has been closed meanwhile, further events are ignored
+        nextBatch = new Batch( currentBatch.capacity() );
+      }
+    }
+    currentBatch = nextBatch;
+  }
+
+  /**
+   * Records that a snapshot covers all events before the passed in sequence number, the writer deletes the closed segments holding only such events
+   *
+   * @param sequenceNumber
+   *          Sequence number of the first event not covered
+   */
+  void checkpoint( int sequenceNumber ) {
+    checkpointSequenceNumber = sequenceNumber;
+    writerParker.unpark();
+  }
+
+  /**
+   * Stops the writer after it has written the handed over batches and closes the current segment. Events appended afterwards are ignored.
+   */
+  void close() {
+    running = false;
+    writerParker.unpark();
+    try {
+      writerThread.join();
+    } catch ( InterruptedException e ) {
+      logger.error( "Error while waiting for the event log writer to stop!", e );
+    }
+  }
+
+  /**
+   * Main loop of the writer, writes all handed over batches at once and waits with a progressive backoff if no batches are available, finally it parks until a batch is handed over, a checkpoint is
+   * recorded or the next interval fsync is due
+   */
+  private void writeBatches() {
+    final Batch[] batches = new Batch[NUMBER_OF_BATCHES];
+    final ByteBuffer[] buffers = new ByteBuffer[NUMBER_OF_BATCHES];
+    int idleIterations = 0;
+    try {
+      boolean stopping = false;
+      while ( !stopping ) {
+        // batches handed over before the log has been closed are written
+        stopping = !running;
+        int count = 0;
+        Batch batch;
+        while ( count < NUMBER_OF_BATCHES && (batch = filledBatches.poll()) != null ) {
+          batches[count] = batch;
+          buffers[count] = batch.seal();
+          count++;
+        }
+
+        if ( count > 0 ) {
+          idleIterations = 0;
+          writerParker.busy();
+          write( buffers, count );
+          for ( int i = 0; i < count; i++ ) {
+            segment.maxSequenceNumber = Math.max( segment.maxSequenceNumber, batches[i].maxSequenceNumber );
+            batches[i].clear();
+            freeBatches.offer( batches[i] );
+            batches[i] = null;
+            buffers[i] = null;
+          }
+          if ( ConfigService.EVENT_LOG_FSYNC_ALWAYS.equals( fsyncPolicy ) ) {
+            force();
+          }
+        } else if ( !stopping ) {
+          idleIterations = writerParker.idle( idleIterations, getForceTimeoutNanos() );
+        }
+
+        if ( unforced && ConfigService.EVENT_LOG_FSYNC_INTERVAL.equals( fsyncPolicy ) && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos ) {
+          force();
+        }
+        if ( segmentSize >= segmentBytes ) {
+          rollSegment();
+        }
+        applyCheckpoint();
+      }
+      force();
+    } catch ( IOException ex ) {
+      running = false;
+      logger.error( "Could not write event log " + segment.getFile() + ", events are not logged anymore!", ex );
+    } finally {
+      try {
+        segmentChannel.close();
+      } catch ( IOException ex ) {
+        logger.error( "Could not close event log " + segment.getFile(), ex );
+      }
+    }
+  }
+
+  /**
+   * @return Time in ns until the written batches have to be forced to the disk, ConsumerParker.NO_TIMEOUT if no fsync is due
+   */
+  private long getForceTimeoutNanos() {
+    if ( !unforced || !ConfigService.EVENT_LOG_FSYNC_INTERVAL.equals( fsyncPolicy ) ) {
+      return ConsumerParker.NO_TIMEOUT;
+    }
+    return fsyncIntervalNanos - (System.nanoTime() - lastForceNanos);
+  }
+
+  /**
+   * Writes the sealed batches with a single gathering write
+   */
+  private void write( final ByteBuffer[] buffers, int count ) throws IOException {
+    long remaining = 0;
+    for ( int i = 0; i < count; i++ ) {
+      remaining += buffers[i].remaining();
+    }
+    final long total = remaining;
+    while ( remaining > 0 ) {
+      remaining -= segmentChannel.write( buffers, 0, count );
+    }
+    segmentSize += total;
+    unforced = true;
+    batchCounter.addAndGet( count );
+    byteCounter.addAndGet( total );
+  }
+
+  /**
+   * Forces the written batches of the current segment to the disk, unless the fsync policy leaves this to the operating system
+   */
+  private void force() throws IOException {
+    if ( unforced && !ConfigService.EVENT_LOG_FSYNC_NEVER.equals( fsyncPolicy ) ) {
+      segmentChannel.force( false );
+      unforced = false;
+      fsyncCounter.incrementAndGet();
+    }
+    lastForceNanos = System.nanoTime();
+  }
+
+  /**
+   * Closes the current segment and starts the next one
+   */
+  private void rollSegment() throws IOException {
+    force();
+    segmentChannel.close();
+    closedSegments.add( segment );
+    openSegment( segment.getIndex() + 1 );
+  }
+
+  private void openSegment( long index ) throws IOException {
+    segment = new Segment( index, directory.resolve( SEGMENT_PREFIX + String.format( "%020d", index ) + SEGMENT_SUFFIX ) );
+    segmentChannel = FileChannel.open( segment.getFile(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+    segmentSize = 0;
+  }
+
+  /**
+   * Deletes the closed segments whose events are all covered by the latest checkpoint
+   */
+  private void applyCheckpoint() throws IOException {
+    final int checkpoint = checkpointSequenceNumber;
+    if ( checkpoint == appliedCheckpoint ) {
+      return;
+    }
+    appliedCheckpoint = checkpoint;
+    final Iterator<Segment> iterator = closedSegments.iterator();
+    while ( iterator.hasNext() ) {
+      final Segment curSegment = iterator.next();
+      if ( curSegment.maxSequenceNumber < checkpoint ) {
+        Files.deleteIfExists( curSegment.getFile() );
+        iterator.remove();
+        deletedSegmentsCounter.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Lists the segments in a directory
+   *
+   * @param directory
+   *          Directory holding the segments
+   * @return Segments sorted by index, their highest sequence numbers are not known yet
+   * @throws IOException
+   *           Thrown if the directory can not be read
+   */
+  static List<Segment> listSegments( final Path directory ) throws IOException {
+    final List<Segment> segments = new ArrayList<Segment>();
+    final DirectoryStream<Path> stream = Files.newDirectoryStream( directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX );
+    try {
+      for ( Path curFile : stream ) {
+        final String name = curFile.getFileName().toString();
+        try {
+          segments.add( new Segment( Long.parseLong( name.substring( SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length() ) ), curFile ) );
+        } catch ( NumberFormatException ex ) {
+          logger.warn( "Ignoring file " + curFile + " in the event log directory" );
+        }
+      }
+    } finally {
+      stream.close();
+    }
+    Collections.sort( segments, new Comparator<Segment>() {
+
+      @Override
+      public int compare( final Segment s1, final Segment s2 ) {
+        return s1.getIndex() < s2.getIndex() ? -1 : (s1.getIndex() == s2.getIndex() ? 0 : 1);
+      }
+    } );
+    return segments;
+  }
+
+  /**
+   * Segment file of the log
+   */
+  static final class Segment {
+
+    /** Index of the segment, increases with every new segment */
+    private final long index;
+
+    /** Segment file */
+    private final Path file;
+
+    /** Highest sequence number of the events in the segment, 0 if it holds no events */
+    int maxSequenceNumber = 0;
+
+    Segment( long index, final Path file ) {
+      this.index = index;
+      this.file = file;
+    }
+
+    /**
+     * @return Index of the segment, increases with every new segment
+     */
+    long getIndex() {
+      return index;
+    }
+
+    /**
+     * @return Segment file
+     */
+    Path getFile() {
+      return file;
+    }
+  }
+
+  /**
+   * Buffer collecting the records of several events, written as one batch
+   */
+  private static final class Batch {
+
+    /** Records of the batch, preceded by space for the batch header */
+    private final ByteBuffer buffer;
+
+    /** Checksum of the records */
+    private final CRC32 checksum = new CRC32();
+
+    /** Highest sequence number of the events in the batch */
+    private int maxSequenceNumber = 0;
+
+    private Batch( int capacity ) {
+      buffer = ByteBuffer.allocate( capacity );
+      clear();
+    }
+
+    private void put( final Event event ) {
+      buffer.putInt( event.getSequenceNumber() ).putInt( event.getMessageLength() );
+      event.writeMessageTo( buffer );
+      maxSequenceNumber = Math.max( maxSequenceNumber, event.getSequenceNumber() );
+    }
+
+    /**
+     * Writes the header of the batch
+     *
+     * @return Buffer holding the complete batch between position and limit
+     */
+    private ByteBuffer seal() {
+      final int length = buffer.position() - BATCH_HEADER_SIZE;
+      checksum.reset();
+      checksum.update( buffer.array(), BATCH_HEADER_SIZE, length );
+      buffer.putInt( 0, length ).putInt( 4, (int) checksum.getValue() );
+      buffer.flip();
+      return buffer;
+    }
+
+    private void clear() {
+      buffer.clear();
+      buffer.position( BATCH_HEADER_SIZE );
+      maxSequenceNumber = 0;
+    }
+
+    private boolean isEmpty() {
+      return buffer.position() == BATCH_HEADER_SIZE;
+    }
+
+    private int remaining() {
+      return buffer.remaining();
+    }
+
+    private int capacity() {
+      return buffer.capacity();
+    }
+  }
+}
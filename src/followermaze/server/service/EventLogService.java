@@ -0,0 +1,218 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.event.Event;
+import followermaze.server.model.event.EventFactory;
+import followermaze.server.model.event.EventParser;
+
+/**
+ * EventLogService writes every event accepted by the reorder buffer to a write-ahead log, duplicates are not logged, so the follows processed since the last snapshot can be rebuilt after a crash. On
+ * startup the segments of the log are replayed into the EventHandlerService, starting at the sequence number restored from the snapshot, incomplete batches at the end of a segment are truncated.
+ * Every written snapshot serves as checkpoint: segments only holding events covered by the snapshot are deleted, without a snapshot file the log is kept completely. Logging is done by a dedicated
+ * writer thread, the sequencer only copies the messages. Implemented using enum singleton pattern.
+ *
+ */
+public enum EventLogService {
+  INSTANCE;
+
+  /** Logger */
+  private static final Logger logger = LogManager.getLogger( EventLogService.class );
+
+  /** Log the events are appended to, null if the log is disabled or not running */
+  private volatile EventLog log = null;
+
+  /**
+   * Replays the configured log directory and starts logging the accepted events once the sequencer has taken the replayed events, so they are not logged again. Must be called after the snapshot has
+   * been restored and before the first event is added. Does nothing if no log directory is configured.
+   */
+  public synchronized void start() {
+    final String configuredDirectory = ConfigService.INSTANCE.getEventLogDirectory();
+    if ( log != null || configuredDirectory.isEmpty() ) {
+      return;
+    }
+    final Path directory = Paths.get( configuredDirectory );
+    if ( ConfigService.INSTANCE.getSnapshotFile().isEmpty() ) {
+      logger.warn( "No snapshot file configured, the segments of event log " + directory + " are never deleted and replayed completely on every start." );
+    }
+    try {
+      Files.createDirectories( directory );
+      final List<EventLog.Segment> segments = EventLog.listSegments( directory );
+      replay( segments );
+      EventHandlerService.INSTANCE.awaitSequenced();
+      log = new EventLog( directory, segments );
+    } catch ( IOException | ExecutionException ex ) {
+      logger.error( "Could not open event log " + directory + ", events are not logged!", ex );
+    } catch ( InterruptedException ex ) {
+      logger.error( "Interrupted while replaying event log " + directory + ", events are not logged!", ex );
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops logging after the sequencer has handed its appended events to the writer and they have been written, called on shutdown after the final snapshot
+   */
+  public synchronized void stop() {
+    if ( log != null ) {
+      final EventLog currentLog = log;
+      try {
+        EventHandlerService.INSTANCE.runOnSequencer( new Runnable() {
+
+          @Override
+          public void run() {
+            currentLog.flush();
+          }
+        } );
+      } catch ( ExecutionException ex ) {
+        logger.error( "Could not hand the appended events to the event log writer!", ex );
+      } catch ( InterruptedException ex ) {
+        logger.error( "Interrupted while handing the appended events to the event log writer!", ex );
+        Thread.currentThread().interrupt();
+      }
+      currentLog.close();
+      log = null;
+    }
+  }
+
+  /**
+   * Appends an event accepted by the reorder buffer to the log, called by the sequencer thread before the event is processed
+   *
+   * @param event
+   *          Accepted event
+   */
+  void append( final Event event ) {
+    final EventLog currentLog = log;
+    if ( currentLog != null ) {
+      currentLog.append( event );
+    }
+  }
+
+  /**
+   * Hands the appended events to the writer, called by the sequencer thread whenever the ring buffer is empty
+   */
+  void flush() {
+    final EventLog currentLog = log;
+    if ( currentLog != null ) {
+      currentLog.flush();
+    }
+  }
+
+  /**
+   * Records a checkpoint after a snapshot has been written, the segments covered by the snapshot are deleted
+   *
+   * @param nextSequenceNumber
+   *          Sequence number of the first event not covered by the snapshot
+   */
+  void checkpoint( int nextSequenceNumber ) {
+    final EventLog currentLog = log;
+    if ( currentLog != null ) {
+      currentLog.checkpoint( nextSequenceNumber );
+    }
+  }
+
+  /**
+   * Adds the logged events not covered by the restored snapshot to the EventHandlerService and determines the highest sequence number of every segment
+   *
+   * @param segments
+   *          Segments sorted by index
+   */
+  private void replay( final List<EventLog.Segment> segments ) throws IOException {
+    final long start = System.nanoTime();
+    final int firstSequenceNumber = EventHandlerService.INSTANCE.getNextSequenceNumber();
+    final EventParser parser = new EventParser();
+    long replayed = 0;
+    for ( EventLog.Segment curSegment : segments ) {
+      replayed += replaySegment( curSegment, firstSequenceNumber, parser );
+    }
+    if ( !segments.isEmpty() ) {
+      logger.info( "Replayed " + replayed + " events from " + segments.size() + " segments of the event log in " + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) + " ms." );
+    }
+  }
+
+  /**
+   * Replays the valid batches of a segment and truncates it behind the last valid batch
+   *
+   * @return Number of replayed events
+   */
+  private long replaySegment( final EventLog.Segment segment, int firstSequenceNumber, final EventParser parser ) throws IOException {
+    final FileChannel channel = FileChannel.open( segment.getFile(), StandardOpenOption.READ, StandardOpenOption.WRITE );
+    try {
+      final long size = channel.size();
+      final ByteBuffer header = ByteBuffer.allocate( EventLog.BATCH_HEADER_SIZE );
+      final CRC32 checksum = new CRC32();
+      ByteBuffer batch = ByteBuffer.allocate( 0 );
+      long replayed = 0;
+      long position = 0;
+      while ( position + EventLog.BATCH_HEADER_SIZE <= size ) {
+        header.clear();
+        readFully( channel, header, position );
+        final int length = header.getInt( 0 );
+        if ( length <= 0 || position + EventLog.BATCH_HEADER_SIZE + length > size ) {
+          break;
+        }
+        if ( batch.capacity() < length ) {
+          batch = ByteBuffer.allocate( length );
+        }
+        batch.clear();
+        batch.limit( length );
+        readFully( channel, batch, position + EventLog.BATCH_HEADER_SIZE );
+        checksum.reset();
+        checksum.update( batch.array(), 0, length );
+        if ( (int) checksum.getValue() != header.getInt( 4 ) ) {
+          break;
+        }
+
+        batch.flip();
+        while ( batch.hasRemaining() ) {
+          final int sequenceNumber = batch.getInt();
+          final int messageLength = batch.getInt();
+          segment.maxSequenceNumber = Math.max( segment.maxSequenceNumber, sequenceNumber );
+          if ( sequenceNumber >= firstSequenceNumber ) {
+            final ByteBuffer message = batch.duplicate();
+            message.limit( batch.position() + messageLength );
+            final Event event = EventFactory.createEvent( message, parser );
+            if ( event != null ) {
+              EventHandlerService.INSTANCE.addEvent( event );
+              replayed++;
+            }
+          }
+          batch.position( batch.position() + messageLength );
+        }
+        position += EventLog.BATCH_HEADER_SIZE + length;
+      }
+
+      if ( position < size ) {
+        logger.warn( "Truncating " + (size - position) + " byte of incomplete batches from the end of event log segment " + segment.getFile() );
+        channel.truncate( position );
+      }
+      return replayed;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Reads from an absolute position until the buffer is full
+   */
+  private static void readFully( final FileChannel channel, final ByteBuffer buffer, long position ) throws IOException {
+    while ( buffer.hasRemaining() ) {
+      if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+        throw new IOException( "Unexpected end of event log segment" );
+      }
+    }
+  }
+}
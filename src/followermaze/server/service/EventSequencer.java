@@ -0,0 +1,80 @@
+package followermaze.server.service;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.model.event.Event;
+import followermaze.server.util.ConsumerParker;
+import followermaze.server.util.SpscRingBuffer;
+
+/**
+ * The sequencer is the consumer side of the ingest pipeline. It runs on a dedicated thread, drains the events published by the reading thread into the ring buffer and hands them to the
+ * EventHandlerService, which orders and processes them. Thus the reading thread can continue reading while events are fanned out to the clients. Snapshots of the event processing state are captured
+ * by the sequencer between two events, the accepted events are appended to the event log and handed to its writer whenever the ring buffer runs empty.
+ *
+ */
+class EventSequencer implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger( EventSequencer.class );
+
+  /** Ring buffer the events are published into */
+  private final SpscRingBuffer<Event> ringBuffer;
+
+  /** Parks the sequencer while no events are available */
+  private final ConsumerParker parker = new ConsumerParker();
+
+  /** Flag controls the main loop */
+  private volatile boolean running = true;
+
+  /**
+   * @param ringBuffer
+   *          Ring buffer the events are published into
+   */
+  EventSequencer( final SpscRingBuffer<Event> ringBuffer ) {
+    this.ringBuffer = ringBuffer;
+  }
+
+  /**
+   * Main loop, polls the ring buffer and waits with a progressive backoff if no events are available, finally it parks until an event is published or a task is requested. While waiting, the gap
+   * policy is applied to events buffered behind a missing event, the sequencer parks until the missing event times out at most.
+   */
+  @Override
+  public void run() {
+    logger.entry();
+    int idleIterations = 0;
+    while ( running ) {
+      final Event event = ringBuffer.poll();
+      if ( event != null ) {
+        idleIterations = 0;
+        parker.busy();
+        try {
+          EventHandlerService.INSTANCE.sequence( event );
+        } catch ( Exception ex ) {
+          logger.error( "Error processing event " + event, ex );
+        }
+      } else {
+        EventLogService.INSTANCE.flush();
+        // missing events may time out while no further events arrive
+        try {
+          EventHandlerService.INSTANCE.checkGap();
+        } catch ( Exception ex ) {
+          logger.error( "Error processing events behind a skipped gap", ex );
+        }
+        idleIterations = parker.idle( idleIterations, EventHandlerService.INSTANCE.getGapTimeoutNanos() );
+      }
+      EventHandlerService.INSTANCE.runRequestedTask();
+    }
+    logger.exit();
+  }
+
+  /** Unparks the sequencer, called after an event has been published or a task has been requested */
+  void unpark() {
+    parker.unpark();
+  }
+
+  /** Sets the main loop control flag to false */
+  void shutdown() {
+    running = false;
+    parker.unpark();
+  }
+}
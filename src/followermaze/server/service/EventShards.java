@@ -0,0 +1,258 @@
+package followermaze.server.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.model.event.Event;
+import followermaze.server.model.event.EventWorker;
+import followermaze.server.util.ConsumerParker;
+import followermaze.server.util.IdleStrategy;
+
+/**
+ * Event worker processing the events on a fixed number of shard threads, one per partition of the UserRegistryService. The sequencer publishes the events in the order of their sequence numbers into
+ * a ring shared by all shards, every shard reads the whole ring and processes the events touching users it owns: follows by the shards of both users, unfollows by the shard of the follower, private
+ * messages by the shard of the recipient, status updates and broadcasts by all shards, each posting to its own users. Thus all notifications to a user are posted by a single shard in the order of the
+ * sequence numbers, while unrelated users are processed in parallel. The sequencer recycles an event once all shards have passed it and waits while the ring is full.
+ *
+ */
+final class EventShards extends EventWorker {
+
+  private static final Logger logger = LogManager.getLogger( EventShards.class );
+
+  /** Number of published events after which the sequencer recycles the events passed by all shards */
+  private static final int RECYCLE_INTERVAL = 64;
+
+  /** Events in the order of their sequence numbers, the event at position p is stored at index p & mask */
+  private final Event[] ring;
+
+  /** Mask used to map a position to an index */
+  private final int mask;
+
+  /** Number of events published so far, only written by the sequencer */
+  private final AtomicLong published = new AtomicLong();
+
+  /** Number of events passed by each shard, only written by the respective shard */
+  private final AtomicLong[] passed;
+
+  /** Number of events recycled so far, only accessed by the sequencer */
+  private long recycled = 0;
+
+  /** Shard threads */
+  private final Thread[] threads;
+
+  /** Parks each shard while no events are available, unparked by the sequencer */
+  private final ConsumerParker[] parkers;
+
+  /** Task run by every shard once it has passed the events up to the task position, null if no task has been requested yet */
+  private volatile Runnable pendingTask = null;
+
+  /** Number of published events the shards have to pass before they run the pending task, written before the task */
+  private long taskPosition = 0;
+
+  /** Flag controls the main loop of the shards */
+  private volatile boolean running = true;
+
+  /** Number of times the sequencer had to wait because the ring was full */
+  private final AtomicLong ringFullCounter = MetricsService.INSTANCE.counter( "eventShards.ringFull" );
+
+  /**
+   * Creates and starts the shards
+   *
+   * @param numberOfShards
+   *          Number of shards, has to equal the number of partitions of the UserRegistryService
+   * @param requestedCapacity
+   *          Minimum number of events in the ring, rounded up to the next power of two
+   */
+  EventShards( int numberOfShards, int requestedCapacity ) {
+    int capacity = 2;
+    while ( capacity < requestedCapacity ) {
+      capacity <<= 1;
+    }
+    ring = new Event[capacity];
+    mask = capacity - 1;
+    passed = new AtomicLong[numberOfShards];
+    threads = new Thread[numberOfShards];
+    parkers = new ConsumerParker[numberOfShards];
+    for ( int i = 0; i < numberOfShards; i++ ) {
+      passed[i] = new AtomicLong();
+      parkers[i] = new ConsumerParker();
+      threads[i] = new Thread( new Shard( i ), "EventShard-" + i );
+    }
+    for ( Thread curThread : threads ) {
+      curThread.start();
+    }
+    logger.info( "Started " + numberOfShards + " event shards." );
+  }
+
+  /**
+   * Publishes an event to the shards, must only be called by the sequencer thread in the order of the sequence numbers
+   */
+  @Override
+  public void process( final Event event ) {
+    final long position = published.get();
+    if ( position - recycled >= ring.length && recycleProcessed() == 0 ) {
+      ringFullCounter.incrementAndGet();
+      int idleIterations = 0;
+      while ( recycleProcessed() == 0 ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+      }
+    }
+    final int sequenceNumber = event.getSequenceNumber();
+    ring[(int) position & mask] = event;
+    published.lazySet( position + 1 );
+    ConsumerParker.unparkAll( parkers );
+
+    if ( (position & (RECYCLE_INTERVAL - 1)) == 0 ) {
+      recycleProcessed();
+    }
+    logProgress( sequenceNumber );
+  }
+
+  /**
+   * Requests every shard to run a task once it has passed the events published so far, the sequencer continues publishing meanwhile. Must not be called before the previous task has been run by all
+   * shards.
+   */
+  @Override
+  public void runWhenProcessed( final Runnable task ) {
+    taskPosition = published.get();
+    pendingTask = task;
+    ConsumerParker.unparkAll( parkers );
+  }
+
+  /**
+   * Stops the shards and waits for them to finish, events not processed yet are dropped
+   */
+  @Override
+  public void shutdown() {
+    running = false;
+    ConsumerParker.unparkAll( parkers );
+    for ( Thread curThread : threads ) {
+      try {
+        curThread.join();
+      } catch ( InterruptedException e ) {
+        logger.error( "Error while waiting for the event shards to stop!", e );
+      }
+    }
+    final long end = published.get();
+    while ( recycled < end ) {
+      recycle( recycled++ );
+    }
+  }
+
+  /**
+   * Recycles the events passed by all shards
+   *
+   * @return Number of recycled events
+   */
+  private int recycleProcessed() {
+    long passedByAll = Long.MAX_VALUE;
+    for ( AtomicLong curPassed : passed ) {
+      passedByAll = Math.min( passedByAll, curPassed.get() );
+    }
+    final int count = (int) (passedByAll - recycled);
+    while ( recycled < passedByAll ) {
+      recycle( recycled++ );
+    }
+    return count;
+  }
+
+  private void recycle( long position ) {
+    final int index = (int) position & mask;
+    ring[index].recycle();
+    ring[index] = null;
+  }
+
+  /**
+   * Checks if a shard has to process an event
+   *
+   * @param event
+   *          Published event
+   * @param shard
+   *          Index of the shard
+   * @return True, if the event touches a user owned by the shard
+   */
+  private static boolean isOwnedBy( final Event event, int shard ) {
+    final UserRegistryService userReg = UserRegistryService.INSTANCE;
+    switch ( event.getEventType() ) {
+      case FOLLOW:
+        return userReg.getPartitionIndex( event.getFromUserId() ) == shard || userReg.getPartitionIndex( event.getToUserId() ) == shard;
+      case UNFOLLOW:
+        return userReg.getPartitionIndex( event.getFromUserId() ) == shard;
+      case PRIVATE_MSG:
+        return userReg.getPartitionIndex( event.getToUserId() ) == shard;
+      default:
+        // status updates and broadcasts reach users of all shards
+        return true;
+    }
+  }
+
+  /**
+   * Main loop of a shard, processes the published events it owns in order and waits with a progressive backoff if no events are available, finally it parks until the sequencer publishes an event
+   * or requests a task
+   */
+  private class Shard implements Runnable {
+
+    /** Index of the shard, equals the index of its partition */
+    private final int index;
+
+    /** Pending task run last by the shard */
+    private Runnable lastTask = null;
+
+    private Shard( int index ) {
+      this.index = index;
+    }
+
+    @Override
+    public void run() {
+      UserRegistryService.INSTANCE.bindPartition( index );
+      final AtomicLong passedByShard = passed[index];
+      final ConsumerParker parker = parkers[index];
+      long position = passedByShard.get();
+      int idleIterations = 0;
+      try {
+        while ( running ) {
+          long available = published.get();
+          final Runnable task = pendingTask;
+          if ( task != null && task != lastTask ) {
+            if ( position == taskPosition ) {
+              lastTask = task;
+              runTask( task );
+            } else {
+              // the task runs before the events published after it has been requested
+              available = Math.min( available, taskPosition );
+            }
+          }
+          if ( position == available ) {
+            idleIterations = parker.idle( idleIterations, ConsumerParker.NO_TIMEOUT );
+            continue;
+          }
+          idleIterations = 0;
+          parker.busy();
+          while ( position < available ) {
+            final Event event = ring[(int) position & mask];
+            if ( isOwnedBy( event, index ) ) {
+              try {
+                event.processEvent();
+              } catch ( Exception ex ) {
+                logger.error( "Error processing event " + event + " on shard " + index, ex );
+              }
+            }
+            passedByShard.lazySet( ++position );
+          }
+        }
+      } finally {
+        UserRegistryService.INSTANCE.unbindPartition();
+      }
+    }
+
+    private void runTask( final Runnable task ) {
+      try {
+        task.run();
+      } catch ( Exception ex ) {
+        logger.error( "Error running task on shard " + index, ex );
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package followermaze.server.service;
+
+import java.util.concurrent.TimeUnit;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.util.ConsumerParker;
+
+/**
+ * Decides, when the sequencer stops waiting for a missing sequence number. In strict mode the sequencer waits forever, as the ordering guarantee is never violated. In skip mode the sequencer skips
+ * the missing events once it has waited longer than the configured time or once the events buffered behind the gap exceed the configured count or memory budget.
+ *
+ */
+class GapPolicy {
+
+  /** True, if missing events are waited for forever */
+  private final boolean strict;
+
+  /** Maximum time in ns to wait for a missing event */
+  private final long maxGapWaitNanos;
+
+  /** Maximum number of buffered events */
+  private final int maxBufferedEvents;
+
+  /** Maximum estimated memory footprint in byte of the buffered events */
+  private final long maxBufferedBytes;
+
+  /**
+   * @param strict
+   *          True, if missing events are waited for forever
+   * @param maxGapWaitMillis
+   *          Maximum time in ms to wait for a missing event
+   * @param maxBufferedEvents
+   *          Maximum number of buffered events
+   * @param maxBufferedBytes
+   *          Maximum estimated memory footprint in byte of the buffered events
+   */
+  GapPolicy( boolean strict, long maxGapWaitMillis, int maxBufferedEvents, long maxBufferedBytes ) {
+    this.strict = strict;
+    this.maxGapWaitNanos = TimeUnit.MILLISECONDS.toNanos( maxGapWaitMillis );
+    this.maxBufferedEvents = maxBufferedEvents;
+    this.maxBufferedBytes = maxBufferedBytes;
+  }
+
+  /**
+   * Creates a policy based on the settings read from the ConfigService
+   *
+   * @return Configured policy
+   */
+  static GapPolicy fromConfig() {
+    final ConfigService config = ConfigService.INSTANCE;
+    final boolean strict = ConfigService.SEQUENCE_GAP_POLICY_STRICT.equals( config.getSequenceGapPolicy() );
+    return new GapPolicy( strict, config.getMaxGapWaitMillis(), config.getMaxBufferedEvents(), config.getMaxBufferedEventBytes() );
+  }
+
+  /**
+   * @return True, if missing events are waited for forever
+   */
+  boolean isStrict() {
+    return strict;
+  }
+
+  /**
+   * @param gapWaitNanos
+   *          Time in ns the sequencer has been waiting for the missing event so far
+   * @return Time in ns until the missing event times out, ConsumerParker.NO_TIMEOUT if it is waited for forever
+   */
+  long getRemainingWaitNanos( long gapWaitNanos ) {
+    if ( strict ) {
+      return ConsumerParker.NO_TIMEOUT;
+    }
+    // the wait time has to exceed the maximum
+    return maxGapWaitNanos - gapWaitNanos + 1;
+  }
+
+  /**
+   * Checks, if the sequencer should skip the missing events
+   *
+   * @param bufferedEvents
+   *          Number of events buffered behind the gap
+   * @param bufferedBytes
+   *          Estimated memory footprint in byte of the events buffered behind the gap
+   * @param gapWaitNanos
+   *          Time in ns the sequencer has been waiting for the missing event so far
+   * @return Description of the exceeded limit, null if the sequencer should keep waiting
+   */
+  String checkLimits( int bufferedEvents, long bufferedBytes, long gapWaitNanos ) {
+    if ( strict ) {
+      return null;
+    }
+    if ( bufferedEvents > maxBufferedEvents ) {
+      return bufferedEvents + " buffered events exceed the maximum of " + maxBufferedEvents;
+    }
+    if ( bufferedBytes > maxBufferedBytes ) {
+      return bufferedBytes + " buffered bytes exceed the maximum of " + maxBufferedBytes;
+    }
+    if ( gapWaitNanos > maxGapWaitNanos ) {
+      return "waited " + TimeUnit.NANOSECONDS.toMillis( gapWaitNanos ) + " ms for the missing event";
+    }
+    return null;
+  }
+}
@@ -0,0 +1,132 @@
+package followermaze.server.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+
+/**
+ * MetricsService collects counters and gauges of the server components. Counters are AtomicLong instances that are looked up once by the components and updated on the hot path without further
+ * lookups. Gauges are read only when a snapshot is taken. If configured, a snapshot of all metrics is logged periodically. Implemented using enum singleton pattern.
+ *
+ */
+public enum MetricsService {
+  INSTANCE;
+
+  /** Logger */
+  private static final Logger logger = LogManager.getLogger( MetricsService.class );
+
+  /**
+   * Gauges are read when a snapshot of the metrics is taken
+   */
+  public interface Gauge {
+
+    /**
+     * @return Current value of the gauge
+     */
+    public long getValue();
+  }
+
+  /** Counters by name */
+  private final Map<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+  /** Gauges by name */
+  private final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+  /** Executor used to log the metrics periodically, null if not running */
+  private ScheduledExecutorService reporter = null;
+
+  /**
+   * Returns the counter with the passed in name, creates it if it does not exist yet. Components should keep the returned instance instead of looking it up for every update.
+   *
+   * @param name
+   *          Name of the counter
+   * @return Counter instance
+   */
+  public AtomicLong counter( final String name ) {
+    AtomicLong counter = counters.get( name );
+    if ( counter == null ) {
+      synchronized ( counters ) {
+        counter = counters.get( name );
+        if ( counter == null ) {
+          counter = new AtomicLong();
+          counters.put( name, counter );
+        }
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Registers a gauge, replaces a gauge with the same name
+   *
+   * @param name
+   *          Name of the gauge
+   * @param gauge
+   *          Gauge instance
+   */
+  public void registerGauge( final String name, final Gauge gauge ) {
+    gauges.put( name, gauge );
+  }
+
+  /**
+   * Takes a snapshot of all counters and gauges
+   *
+   * @return Map holding the current values of all metrics, sorted by name
+   */
+  public Map<String, Long> getSnapshot() {
+    final Map<String, Long> snapshot = new TreeMap<String, Long>();
+    for ( Map.Entry<String, AtomicLong> curCounter : counters.entrySet() ) {
+      snapshot.put( curCounter.getKey(), curCounter.getValue().get() );
+    }
+    for ( Map.Entry<String, Gauge> curGauge : gauges.entrySet() ) {
+      snapshot.put( curGauge.getKey(), curGauge.getValue().getValue() );
+    }
+    return snapshot;
+  }
+
+  /**
+   * Starts logging the metrics periodically, if a log interval is configured
+   */
+  public synchronized void startReporting() {
+    final int interval = ConfigService.INSTANCE.getMetricsLogIntervalSeconds();
+    if ( reporter != null || interval <= 0 ) {
+      return;
+    }
+    reporter = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+      @Override
+      public Thread newThread( Runnable r ) {
+        final Thread thread = new Thread( r, "MetricsReporter" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    reporter.scheduleAtFixedRate( new Runnable() {
+
+      @Override
+      public void run() {
+        logger.info( "Metrics: " + getSnapshot() );
+      }
+    }, interval, interval, TimeUnit.SECONDS );
+  }
+
+  /**
+   * Stops logging the metrics
+   */
+  public synchronized void stopReporting() {
+    if ( reporter != null ) {
+      reporter.shutdownNow();
+      reporter = null;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package followermaze.server.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.client.AuthorLog;
+import followermaze.server.model.client.Client;
+import followermaze.server.model.client.Mailbox;
+import followermaze.server.util.IdleStrategy;
+
+/**
+ * Limits the number of messages and bytes waiting in the mailbox of a client, so a few slow clients cannot exhaust the heap. If a message would exceed the limits, the configured policy either
+ * disconnects the client, drops the oldest waiting messages, drops the new message or lets the posting thread wait until the client has caught up. The latter applies backpressure to the sequencer,
+ * thus it slows down all clients. Followers falling too far behind the log of a followed user are handled by the same policy. Every policy counts its overflows, disconnected clients and the first
+ * overflow of a client are logged.
+ *
+ */
+class OverflowPolicy {
+
+  private static final Logger logger = LogManager.getLogger( OverflowPolicy.class );
+
+  /** Policy applied if the limits are exceeded */
+  private final String policy;
+
+  /** Maximum number of messages in a mailbox */
+  private final int maxMessages;
+
+  /** Maximum number of bytes in a mailbox */
+  private final long maxBytes;
+
+  /** Number of clients disconnected */
+  private final AtomicLong disconnectCounter = MetricsService.INSTANCE.counter( "outbound.overflow.disconnect" );
+
+  /** Number of waiting messages dropped to make room for new ones */
+  private final AtomicLong dropOldestCounter = MetricsService.INSTANCE.counter( "outbound.overflow.dropOldest" );
+
+  /** Number of new messages dropped */
+  private final AtomicLong dropNewestCounter = MetricsService.INSTANCE.counter( "outbound.overflow.dropNewest" );
+
+  /** Number of times a posting thread had to wait for a client */
+  private final AtomicLong backpressureCounter = MetricsService.INSTANCE.counter( "outbound.overflow.backpressure" );
+
+  /**
+   * @param policy
+   *          Policy applied if the limits are exceeded
+   * @param maxMessages
+   *          Maximum number of messages in a mailbox
+   * @param maxBytes
+   *          Maximum number of bytes in a mailbox
+   */
+  OverflowPolicy( final String policy, int maxMessages, long maxBytes ) {
+    this.policy = policy;
+    this.maxMessages = maxMessages;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Creates a policy based on the settings read from the ConfigService
+   *
+   * @return Configured policy
+   */
+  static OverflowPolicy fromConfig() {
+    final ConfigService config = ConfigService.INSTANCE;
+    return new OverflowPolicy( config.getOutboundOverflowPolicy(), config.getOutboundMaxMessages(), config.getOutboundMaxBytes() );
+  }
+
+  /**
+   * Checks the limits of the mailbox of a client before a message is posted to it and applies the policy if the message would exceed them
+   *
+   * @param client
+   *          Client the message is posted to
+   * @param messageBytes
+   *          Size of the message in byte
+   * @return True, if the message should be posted, false if it has to be dropped
+   */
+  boolean admit( final Client client, int messageBytes ) {
+    final Mailbox mailbox = client.getMailbox();
+    String reason = checkLimits( mailbox, messageBytes );
+    if ( reason == null ) {
+      mailbox.clearOverflowing();
+      return true;
+    }
+
+    if ( ConfigService.OUTBOUND_OVERFLOW_POLICY_DROP_NEWEST.equals( policy ) ) {
+      dropNewestCounter.incrementAndGet();
+      logFirstOverflow( client, "dropping new messages", reason );
+      return false;
+    }
+    if ( ConfigService.OUTBOUND_OVERFLOW_POLICY_DROP_OLDEST.equals( policy ) ) {
+      dropOldestCounter.addAndGet( mailbox.dropOldest( maxMessages - 1, maxBytes - messageBytes ) );
+      logFirstOverflow( client, "dropping the oldest messages", reason );
+      return true;
+    }
+    if ( ConfigService.OUTBOUND_OVERFLOW_POLICY_BACKPRESSURE.equals( policy ) ) {
+      backpressureCounter.incrementAndGet();
+      logFirstOverflow( client, "waiting for the client", reason );
+      int idleIterations = 0;
+      while ( reason != null && !client.isDisconnected() ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+        reason = checkLimits( mailbox, messageBytes );
+      }
+      return !client.isDisconnected();
+    }
+
+    // disconnect is the default
+    if ( !client.isDisconnected() ) {
+      disconnectCounter.incrementAndGet();
+      logger.warn( "Disconnecting user " + client.getId() + ", " + reason );
+      client.disconnect();
+    }
+    return false;
+  }
+
+  /**
+   * Applies the policy to a follower reading the log of a followed user so slowly that it would miss updates overwritten before the next lag check. Called by the thread appending to the log. The log
+   * keeps the newest updates, thus both drop policies let the follower miss its oldest unread updates.
+   *
+   * @param client
+   *          Follower subscribed to the log
+   * @param log
+   *          Log of the followed user
+   * @param safeReadPosition
+   *          Lowest read position that cannot be overwritten before the next lag check
+   */
+  void checkLogReader( final Client client, final AuthorLog log, long safeReadPosition ) {
+    final long readPosition = client.getReadPosition( log );
+    if ( readPosition >= safeReadPosition || client.isDisconnected() ) {
+      return;
+    }
+    final String reason = "reading the log of user " + log.getAuthorId() + " " + (log.getPublished() - readPosition) + " updates behind";
+
+    if ( ConfigService.OUTBOUND_OVERFLOW_POLICY_DROP_NEWEST.equals( policy ) || ConfigService.OUTBOUND_OVERFLOW_POLICY_DROP_OLDEST.equals( policy ) ) {
+      logFirstOverflow( client, "dropping the oldest logged updates", reason );
+      return;
+    }
+    if ( ConfigService.OUTBOUND_OVERFLOW_POLICY_BACKPRESSURE.equals( policy ) ) {
+      backpressureCounter.incrementAndGet();
+      logFirstOverflow( client, "waiting for the client", reason );
+      int idleIterations = 0;
+      while ( client.getReadPosition( log ) < safeReadPosition && !client.isDisconnected() ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+      }
+      return;
+    }
+
+    // disconnect is the default
+    disconnectCounter.incrementAndGet();
+    logger.warn( "Disconnecting user " + client.getId() + ", " + reason );
+    client.disconnect();
+  }
+
+  /**
+   * @param mailbox
+   *          Mailbox the message is posted to
+   * @param messageBytes
+   *          Size of the message in byte
+   * @return Description of the exceeded limit, null if the message fits into the mailbox
+   */
+  private String checkLimits( final Mailbox mailbox, int messageBytes ) {
+    final int queuedMessages = mailbox.getQueuedMessages();
+    if ( queuedMessages >= maxMessages ) {
+      return queuedMessages + " waiting messages reach the maximum of " + maxMessages;
+    }
+    final long queuedBytes = mailbox.getQueuedBytes();
+    if ( queuedBytes + messageBytes > maxBytes ) {
+      return queuedBytes + " waiting bytes and a message of " + messageBytes + " bytes exceed the maximum of " + maxBytes;
+    }
+    return null;
+  }
+
+  /**
+   * Logs the first overflow of a client, further overflows are only counted until the client is within its limits again
+   */
+  private void logFirstOverflow( final Client client, final String action, final String reason ) {
+    if ( client.getMailbox().markOverflowing() ) {
+      logger.warn( "User " + client.getId() + " exceeds its outbound limits, " + action + ": " + reason );
+    }
+  }
+}
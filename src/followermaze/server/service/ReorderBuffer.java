@@ -0,0 +1,238 @@
+package followermaze.server.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import followermaze.server.model.event.Event;
+
+/**
+ * Reorder buffer holding events that arrived before their predecessors. Events within a window of sequence numbers starting at the next expected sequence number are stored in a circular array whose
+ * size is a power of two, the slot of an event is derived from its sequence number. Thus inserting an event and draining the next one are O(1). Events beyond the window are kept in an overflow map
+ * and moved into the window once it has advanced far enough. The buffer keeps track of the number and the estimated memory footprint of the buffered events, so the sequencer can give up waiting for a
+ * missing event by skipping ahead to the first buffered one. Only used by the sequencer thread, thus not thread-safe.
+ *
+ */
+class ReorderBuffer {
+
+  /** Estimated memory footprint of an event instance in byte without its message */
+  private static final int EVENT_OVERHEAD_IN_BYTE = 64;
+
+  /** Slots of the window, the event with sequence number n is stored at index n & mask */
+  private final Event[] slots;
+
+  /** Mask used to map a sequence number to a slot index */
+  private final int mask;
+
+  /** Events whose sequence number lies beyond the window, sorted by sequence number */
+  private final TreeMap<Integer, Event> overflow = new TreeMap<Integer, Event>();
+
+  /** Sequence number of the next event to be drained */
+  private int nextSequenceNumber = 1;
+
+  /** Number of events stored in the window */
+  private int windowCount = 0;
+
+  /** Estimated memory footprint of all buffered events in byte */
+  private long bufferedBytes = 0;
+
+  /**
+   * Constructs a reorder buffer
+   *
+   * @param requestedWindowSize
+   *          Minimum number of sequence numbers covered by the window, rounded up to the next power of two
+   */
+  ReorderBuffer( int requestedWindowSize ) {
+    int windowSize = 1;
+    while ( windowSize < requestedWindowSize ) {
+      windowSize <<= 1;
+    }
+    this.slots = new Event[windowSize];
+    this.mask = windowSize - 1;
+  }
+
+  /**
+   * Checks, if the passed in sequence number is the next one to be drained. Events with this sequence number can be processed right away without buffering them, call advance() afterwards.
+   *
+   * @param sequenceNumber
+   *          Sequence number to check
+   * @return True, if the sequence number is the next expected one
+   */
+  boolean isNext( int sequenceNumber ) {
+    return sequenceNumber == nextSequenceNumber;
+  }
+
+  /**
+   * Marks the next sequence number as processed without buffering an event for it
+   */
+  void advance() {
+    final int slot = nextSequenceNumber & mask;
+    if ( slots[slot] != null ) {
+      bufferedBytes -= estimateSize( slots[slot] );
+      slots[slot] = null;
+      windowCount--;
+    }
+    nextSequenceNumber++;
+    refillWindow();
+  }
+
+  /**
+   * Buffers an event until all of its predecessors have been drained
+   *
+   * @param event
+   *          Event to be buffered
+   * @return True, if the event has been buffered, false if it is a duplicate of an already drained or buffered event
+   */
+  boolean offer( final Event event ) {
+    final int sequenceNumber = event.getSequenceNumber();
+    final int distance = sequenceNumber - nextSequenceNumber;
+    if ( distance < 0 ) {
+      return false;
+    }
+    if ( distance <= mask ) {
+      final int slot = sequenceNumber & mask;
+      if ( slots[slot] != null ) {
+        return false;
+      }
+      slots[slot] = event;
+      windowCount++;
+      bufferedBytes += estimateSize( event );
+      return true;
+    }
+    if ( overflow.containsKey( sequenceNumber ) ) {
+      return false;
+    }
+    overflow.put( sequenceNumber, event );
+    bufferedBytes += estimateSize( event );
+    return true;
+  }
+
+  /**
+   * Removes the event with the next expected sequence number and advances the window
+   *
+   * @return Event with the next expected sequence number, null if it has not arrived yet
+   */
+  Event poll() {
+    final int slot = nextSequenceNumber & mask;
+    final Event event = slots[slot];
+    if ( event == null ) {
+      return null;
+    }
+    slots[slot] = null;
+    windowCount--;
+    bufferedBytes -= estimateSize( event );
+    nextSequenceNumber++;
+    refillWindow();
+    return event;
+  }
+
+  /**
+   * Gives up waiting for missing events and moves the next expected sequence number to the smallest buffered sequence number
+   *
+   * @return New next expected sequence number, unchanged if no events are buffered
+   */
+  int skipToFirstBuffered() {
+    if ( windowCount > 0 ) {
+      while ( slots[nextSequenceNumber & mask] == null ) {
+        nextSequenceNumber++;
+      }
+    } else if ( !overflow.isEmpty() ) {
+      nextSequenceNumber = overflow.firstKey();
+    }
+    refillWindow();
+    return nextSequenceNumber;
+  }
+
+  /**
+   * Moves the overflow events that are covered by the window after it has advanced into their slots
+   */
+  private void refillWindow() {
+    while ( !overflow.isEmpty() && overflow.firstKey() - nextSequenceNumber <= mask ) {
+      final Map.Entry<Integer, Event> entry = overflow.pollFirstEntry();
+      slots[entry.getKey() & mask] = entry.getValue();
+      windowCount++;
+    }
+  }
+
+  /**
+   * @return Sequence number of the next event to be drained
+   */
+  int getNextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  /**
+   * @return Number of buffered events
+   */
+  int size() {
+    return windowCount + overflow.size();
+  }
+
+  /**
+   * @return Estimated memory footprint of all buffered events in byte
+   */
+  long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /**
+   * @return Number of sequence numbers covered by the window
+   */
+  int getWindowSize() {
+    return slots.length;
+  }
+
+  /**
+   * @return Buffered events sorted by sequence number, the events remain in the buffer
+   */
+  List<Event> getBufferedEvents() {
+    final List<Event> result = new ArrayList<Event>( size() );
+    if ( windowCount > 0 ) {
+      for ( int i = 0; i < slots.length; i++ ) {
+        final Event event = slots[(nextSequenceNumber + i) & mask];
+        if ( event != null ) {
+          result.add( event );
+        }
+      }
+    }
+    result.addAll( overflow.values() );
+    return result;
+  }
+
+  /**
+   * Removes all buffered events and resets the next expected sequence number to 1
+   */
+  void clear() {
+    clear( 1 );
+  }
+
+  /**
+   * Removes all buffered events and continues with the passed in sequence number
+   *
+   * @param sequenceNumber
+   *          Sequence number of the next event to be drained
+   */
+  void clear( int sequenceNumber ) {
+    if ( windowCount > 0 ) {
+      for ( int i = 0; i < slots.length; i++ ) {
+        slots[i] = null;
+      }
+    }
+    overflow.clear();
+    windowCount = 0;
+    bufferedBytes = 0;
+    nextSequenceNumber = sequenceNumber;
+  }
+
+  /**
+   * Estimates the memory footprint of an event
+   *
+   * @param event
+   *          Buffered event
+   * @return Estimated size in byte
+   */
+  private static long estimateSize( final Event event ) {
+    return EVENT_OVERHEAD_IN_BYTE + event.getMessageLength();
+  }
+}
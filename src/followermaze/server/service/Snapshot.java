@@ -0,0 +1,326 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import followermaze.server.model.event.Event;
+import followermaze.server.model.graph.FollowerGraph;
+import followermaze.server.util.IntVisitor;
+
+/**
+ * State of the event processing at a sequence number: the next expected sequence number, the events buffered out of order and all follows. The sequencer copies its own state, the follows of every
+ * partition are copied into primitive int chunks by the thread owning the partition once it has processed the events before the sequence number, so the partitions are captured in parallel. The
+ * complete snapshot is written to a file by another thread without pausing the event processing. File layout, all values big-endian:
+ *
+ * <pre>
+ * int magic, int version, int next sequence number, int number of buffered events
+ * per buffered event: int length, source message bytes
+ * long number of ints in the follower records
+ * per follower record: int followed user, int count, count times int follower
+ * int magic
+ * </pre>
+ *
+ * The followers of a user may be split into several records, one per partition.
+ *
+ */
+final class Snapshot {
+
+  /** Marks the start and the end of a snapshot file, "FMSN" */
+  static final int MAGIC = 0x464D534E;
+
+  /** Version of the file layout */
+  static final int VERSION = 1;
+
+  /** Charset used to encode the buffered messages */
+  static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  /** Number of ints per chunk of the follower records */
+  private static final int CHUNK_SIZE = 1 << 20;
+
+  /** Size of the buffer used to write the file in byte */
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+  /** Sequence number of the next event to be processed */
+  private final int nextSequenceNumber;
+
+  /** Source messages of the events buffered out of order, sorted by sequence number */
+  private final List<byte[]> bufferedMessages = new ArrayList<byte[]>();
+
+  /** Follower records of every partition, each only filled by the thread owning the partition */
+  private final FollowerRecords[] partitionRecords;
+
+  /** Counted down whenever the follower records of a partition are complete */
+  private final CountDownLatch pendingPartitions;
+
+  /** Error thrown while copying the follows of a partition, null if none */
+  private volatile RuntimeException captureError = null;
+
+  /** Time in ns the sequencer paused to copy its state */
+  private long sequencerPauseNanos = 0;
+
+  /**
+   * @param nextSequenceNumber
+   *          Sequence number of the next event to be processed
+   * @param numberOfPartitions
+   *          Number of partitions whose follows are captured
+   */
+  Snapshot( int nextSequenceNumber, int numberOfPartitions ) {
+    this.nextSequenceNumber = nextSequenceNumber;
+    partitionRecords = new FollowerRecords[numberOfPartitions];
+    for ( int i = 0; i < numberOfPartitions; i++ ) {
+      partitionRecords[i] = new FollowerRecords();
+    }
+    pendingPartitions = new CountDownLatch( numberOfPartitions );
+  }
+
+  /**
+   * Copies the source message of an event buffered out of order, must be called in the order of the sequence numbers
+   *
+   * @param event
+   *          Buffered event
+   */
+  void addBufferedEvent( final Event event ) {
+    bufferedMessages.add( event.toSourceMessage().getBytes( CHARSET ) );
+  }
+
+  /**
+   * Copies the followers of all users of a partition, called once per partition by the thread owning it while it processes no events
+   *
+   * @param index
+   *          Index of the partition
+   * @param graph
+   *          Graph holding the followers of the partition
+   */
+  void capturePartition( int index, final FollowerGraph graph ) {
+    final FollowerRecords records = partitionRecords[index];
+    final long start = System.nanoTime();
+    try {
+      graph.forEachFollowedUser( new IntVisitor() {
+
+        @Override
+        public void visit( int followedId ) {
+          records.addFollowers( followedId, graph );
+        }
+      } );
+    } catch ( RuntimeException ex ) {
+      captureError = ex;
+      throw ex;
+    } finally {
+      records.pauseNanos = System.nanoTime() - start;
+      pendingPartitions.countDown();
+    }
+  }
+
+  /**
+   * Waits until the follower records of all partitions are complete
+   *
+   * @throws InterruptedException
+   *           Thrown if the calling thread is interrupted while waiting
+   * @throws ExecutionException
+   *           Thrown if the follows of a partition could not be copied
+   */
+  void awaitCaptured() throws InterruptedException, ExecutionException {
+    pendingPartitions.await();
+    if ( captureError != null ) {
+      throw new ExecutionException( "Could not copy the follows of a partition", captureError );
+    }
+  }
+
+  /**
+   * @param nanos
+   *          Time in ns the sequencer paused to copy its state
+   */
+  void setSequencerPauseNanos( long nanos ) {
+    sequencerPauseNanos = nanos;
+  }
+
+  /**
+   * @return Time in ns the sequencer paused to copy its state
+   */
+  long getSequencerPauseNanos() {
+    return sequencerPauseNanos;
+  }
+
+  /**
+   * @return Longest time in ns a thread owning a partition paused its event processing to copy the follows of its partition, only valid once all partitions have been captured
+   */
+  long getPartitionPauseNanos() {
+    long max = 0;
+    for ( FollowerRecords curRecords : partitionRecords ) {
+      max = Math.max( max, curRecords.pauseNanos );
+    }
+    return max;
+  }
+
+  /**
+   * @return Sequence number of the next event to be processed
+   */
+  int getNextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  /**
+   * @return Number of events buffered out of order
+   */
+  int getNumberOfBufferedEvents() {
+    return bufferedMessages.size();
+  }
+
+  /**
+   * @return Number of follows
+   */
+  long getNumberOfFollows() {
+    long numberOfFollows = 0;
+    for ( FollowerRecords curRecords : partitionRecords ) {
+      numberOfFollows += curRecords.numberOfFollows;
+    }
+    return numberOfFollows;
+  }
+
+  /**
+   * Writes the snapshot to a temporary file next to the target file, forces it to the disk and renames it to the target file, thus the target file always holds a complete snapshot
+   *
+   * @param file
+   *          Target file, replaced if it exists
+   * @throws IOException
+   *           Thrown if the file can not be written
+   */
+  void writeTo( final Path file ) throws IOException {
+    final Path tempFile = Paths.get( file.toString() + ".tmp" );
+    final ByteBuffer buffer = ByteBuffer.allocateDirect( WRITE_BUFFER_SIZE );
+    final FileChannel channel = FileChannel.open( tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+    try {
+      buffer.putInt( MAGIC ).putInt( VERSION ).putInt( nextSequenceNumber ).putInt( bufferedMessages.size() );
+      for ( byte[] curMessage : bufferedMessages ) {
+        ensureRemaining( channel, buffer, 4 );
+        buffer.putInt( curMessage.length );
+        int written = 0;
+        while ( written < curMessage.length ) {
+          ensureRemaining( channel, buffer, 1 );
+          final int length = Math.min( buffer.remaining(), curMessage.length - written );
+          buffer.put( curMessage, written, length );
+          written += length;
+        }
+      }
+
+      long numberOfInts = 0;
+      for ( FollowerRecords curRecords : partitionRecords ) {
+        numberOfInts += curRecords.numberOfInts;
+      }
+      ensureRemaining( channel, buffer, 8 );
+      buffer.putLong( numberOfInts );
+      for ( FollowerRecords curRecords : partitionRecords ) {
+        for ( int[] curChunk : curRecords.chunks ) {
+          final int used = curChunk == curRecords.currentChunk ? curRecords.chunkPosition : CHUNK_SIZE;
+          int written = 0;
+          while ( written < used ) {
+            ensureRemaining( channel, buffer, 4 );
+            final int length = Math.min( buffer.remaining() >> 2, used - written );
+            buffer.asIntBuffer().put( curChunk, written, length );
+            buffer.position( buffer.position() + (length << 2) );
+            written += length;
+          }
+        }
+      }
+
+      ensureRemaining( channel, buffer, 4 );
+      buffer.putInt( MAGIC );
+      flush( channel, buffer );
+      channel.force( true );
+    } finally {
+      channel.close();
+    }
+    Files.move( tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+  }
+
+  /**
+   * Writes the buffer to the channel if less than the requested number of bytes remain
+   */
+  private static void ensureRemaining( final FileChannel channel, final ByteBuffer buffer, int bytes ) throws IOException {
+    if ( buffer.remaining() < bytes ) {
+      flush( channel, buffer );
+    }
+  }
+
+  /**
+   * Writes the buffer to the channel and clears it
+   */
+  private static void flush( final FileChannel channel, final ByteBuffer buffer ) throws IOException {
+    buffer.flip();
+    while ( buffer.hasRemaining() ) {
+      channel.write( buffer );
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Follower records of a partition, filled chunk by chunk
+   */
+  private static final class FollowerRecords {
+
+    /** Chunks of the records */
+    private final List<int[]> chunks = new ArrayList<int[]>();
+
+    /** Chunk currently filled */
+    private int[] currentChunk = null;
+
+    /** Number of ints in the current chunk */
+    private int chunkPosition = CHUNK_SIZE;
+
+    /** Number of ints in the records */
+    private long numberOfInts = 0;
+
+    /** Number of follows */
+    private long numberOfFollows = 0;
+
+    /** Time in ns needed to copy the follows */
+    private long pauseNanos = 0;
+
+    /** Visitor appending the visited followers to the records */
+    private final IntVisitor followerAppender = new IntVisitor() {
+
+      @Override
+      public void visit( int followerId ) {
+        append( followerId );
+      }
+    };
+
+    /**
+     * Copies the followers of a user into a new record
+     */
+    private void addFollowers( int followedId, final FollowerGraph graph ) {
+      final int count = graph.getFollowerCount( followedId );
+      if ( count == 0 ) {
+        return;
+      }
+      append( followedId );
+      append( count );
+      graph.forEachFollower( followedId, followerAppender );
+      numberOfFollows += count;
+    }
+
+    /**
+     * Appends an int to the records, allocates a new chunk if the current one is full
+     */
+    private void append( int value ) {
+      if ( chunkPosition == CHUNK_SIZE ) {
+        currentChunk = new int[CHUNK_SIZE];
+        chunks.add( currentChunk );
+        chunkPosition = 0;
+      }
+      currentChunk[chunkPosition++] = value;
+      numberOfInts++;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package followermaze.server.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a snapshot file sequentially through memory-mapped regions. Follower records are copied in bulk from the mapped pages into int arrays, the file is not read through intermediate buffers. A
+ * region covers at most 1 GB, the next region is mapped when the current one is exhausted, thus files larger than 2 GB can be read as well.
+ *
+ */
+final class SnapshotReader implements Closeable {
+
+  /** Maximum size of a mapped region in byte */
+  private static final long MAX_REGION_SIZE = 1L << 30;
+
+  /** Channel of the snapshot file */
+  private final FileChannel channel;
+
+  /** Size of the snapshot file in byte */
+  private final long size;
+
+  /** Region currently read */
+  private MappedByteBuffer region = null;
+
+  /** Offset of the current region in the file */
+  private long regionStart = 0;
+
+  /**
+   * Opens a snapshot file and maps its first region
+   *
+   * @param file
+   *          Snapshot file
+   * @throws IOException
+   *           Thrown if the file can not be opened or mapped
+   */
+  SnapshotReader( final Path file ) throws IOException {
+    channel = FileChannel.open( file, StandardOpenOption.READ );
+    size = channel.size();
+    map( 0 );
+  }
+
+  /**
+   * @return Size of the snapshot file in byte
+   */
+  long getSize() {
+    return size;
+  }
+
+  /**
+   * @return Offset of the next value to be read
+   */
+  long getPosition() {
+    return regionStart + region.position();
+  }
+
+  /**
+   * @return Next int of the file
+   * @throws IOException
+   *           Thrown if the file ends before the value
+   */
+  int readInt() throws IOException {
+    ensureRemaining( 4 );
+    return region.getInt();
+  }
+
+  /**
+   * @return Next long of the file
+   * @throws IOException
+   *           Thrown if the file ends before the value
+   */
+  long readLong() throws IOException {
+    ensureRemaining( 8 );
+    return region.getLong();
+  }
+
+  /**
+   * Reads an int at an absolute offset without changing the position
+   *
+   * @param position
+   *          Offset of the value in the file
+   * @return Value read
+   * @throws IOException
+   *           Thrown if the file ends before the value
+   */
+  int readIntAt( long position ) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate( 4 );
+    while ( buffer.hasRemaining() ) {
+      if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+        throw new EOFException( "Snapshot ends at " + size + " byte" );
+      }
+    }
+    return buffer.getInt( 0 );
+  }
+
+  /**
+   * Reads bytes into a complete array
+   *
+   * @param target
+   *          Array to be filled
+   * @throws IOException
+   *           Thrown if the file ends before the array has been filled
+   */
+  void readBytes( final byte[] target ) throws IOException {
+    ensureRemaining( target.length );
+    region.get( target );
+  }
+
+  /**
+   * Reads up to the passed in number of ints, less if the current region ends earlier
+   *
+   * @param target
+   *          Array the ints are copied into, starting at index 0
+   * @param count
+   *          Maximum number of ints to be read, at most the length of the array
+   * @return Number of ints read, at least 1
+   * @throws IOException
+   *           Thrown if the file ends before the first int
+   */
+  int readInts( final int[] target, int count ) throws IOException {
+    ensureRemaining( 4 );
+    final int length = Math.min( count, region.remaining() >> 2 );
+    region.asIntBuffer().get( target, 0, length );
+    region.position( region.position() + (length << 2) );
+    return length;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Maps the next region starting at the current position if less than the requested number of bytes remain in the current region
+   */
+  private void ensureRemaining( int bytes ) throws IOException {
+    if ( region.remaining() >= bytes ) {
+      return;
+    }
+    final long position = getPosition();
+    if ( position + bytes > size ) {
+      throw new EOFException( "Snapshot ends at " + size + " byte, " + bytes + " byte requested at " + position );
+    }
+    map( position );
+  }
+
+  private void map( long position ) throws IOException {
+    regionStart = position;
+    region = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( MAX_REGION_SIZE, size - position ) );
+  }
+}
@@ -0,0 +1,261 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.event.Event;
+import followermaze.server.model.event.EventFactory;
+import followermaze.server.model.event.EventParser;
+
+/**
+ * SnapshotService persists the state of the event processing, so a restarted server continues with the follows and the sequence number it stopped at instead of an empty state. If a snapshot file is
+ * configured, the snapshot is restored on startup, written periodically by a background thread and written once more on shutdown. The sequencer only pauses while it copies its own state and every
+ * event shard only pauses while it copies the follows of its partition, the file is written by the background thread. Every written snapshot is a checkpoint of the event log. Implemented using enum
+ * singleton pattern.
+ *
+ */
+public enum SnapshotService {
+  INSTANCE;
+
+  /** Logger */
+  private static final Logger logger = LogManager.getLogger( SnapshotService.class );
+
+  /** Number of followers read from the file at once */
+  private static final int RESTORE_BATCH_SIZE = 4096;
+
+  /** Number of snapshots written */
+  private final AtomicLong writtenCounter = MetricsService.INSTANCE.counter( "snapshots.written" );
+
+  /** Number of snapshots that could not be written */
+  private final AtomicLong failedCounter = MetricsService.INSTANCE.counter( "snapshots.failed" );
+
+  /** Time in microseconds the sequencer paused for the last snapshot */
+  private volatile long sequencerPauseMicros = 0;
+
+  /** Longest time in microseconds an event shard paused for the last snapshot */
+  private volatile long partitionPauseMicros = 0;
+
+  /** Time in ms from requesting the last snapshot until it has been captured completely */
+  private volatile long captureMillis = 0;
+
+  /** Time in ms needed to write the last snapshot */
+  private volatile long writeMillis = 0;
+
+  /** Snapshot file, null if not running */
+  private Path snapshotFile = null;
+
+  /** Executor writing the snapshots periodically, null if not running or no interval is configured */
+  private ScheduledExecutorService writer = null;
+
+  private SnapshotService() {
+    MetricsService.INSTANCE.registerGauge( "snapshots.sequencerPauseMicros", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return sequencerPauseMicros;
+      }
+    } );
+    MetricsService.INSTANCE.registerGauge( "snapshots.partitionPauseMicros", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return partitionPauseMicros;
+      }
+    } );
+    MetricsService.INSTANCE.registerGauge( "snapshots.captureMillis", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return captureMillis;
+      }
+    } );
+    MetricsService.INSTANCE.registerGauge( "snapshots.writeMillis", new MetricsService.Gauge() {
+
+      @Override
+      public long getValue() {
+        return writeMillis;
+      }
+    } );
+  }
+
+  /**
+   * Restores the configured snapshot file if it exists and starts writing snapshots periodically. Must be called before the first event is added. Does nothing if no snapshot file is configured.
+   *
+   * @throws IllegalStateException
+   *           If a snapshot file is configured together with the mapped follower graph, a snapshot would copy every follow of the mapped graph onto the heap
+   */
+  public synchronized void start() {
+    final String configuredFile = ConfigService.INSTANCE.getSnapshotFile();
+    if ( snapshotFile != null || configuredFile.isEmpty() ) {
+      return;
+    }
+    if ( ConfigService.FOLLOWER_GRAPH_MAPPED.equals( ConfigService.INSTANCE.getFollowerGraph() ) ) {
+      throw new IllegalStateException( "Snapshots are not supported by the mapped follower graph, snapshot file " + configuredFile + " must not be configured together with it" );
+    }
+    snapshotFile = Paths.get( configuredFile );
+    if ( Files.exists( snapshotFile ) ) {
+      try {
+        restoreSnapshot( snapshotFile );
+      } catch ( IOException ex ) {
+        logger.error( "Could not restore snapshot " + snapshotFile + ", starting with an empty state.", ex );
+        EventHandlerService.INSTANCE.reset();
+        UserRegistryService.INSTANCE.reset();
+      }
+    }
+
+    final int interval = ConfigService.INSTANCE.getSnapshotIntervalSeconds();
+    if ( interval <= 0 ) {
+      return;
+    }
+    final Path file = snapshotFile;
+    writer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+
+      @Override
+      public Thread newThread( Runnable r ) {
+        final Thread thread = new Thread( r, "SnapshotWriter" );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+    writer.scheduleWithFixedDelay( new Runnable() {
+
+      @Override
+      public void run() {
+        writeSnapshot( file );
+      }
+    }, interval, interval, TimeUnit.SECONDS );
+  }
+
+  /**
+   * Stops writing snapshots periodically and writes a final snapshot, called on shutdown before the state is reset
+   */
+  public synchronized void stop() {
+    if ( snapshotFile == null ) {
+      return;
+    }
+    if ( writer != null ) {
+      writer.shutdown();
+      try {
+        writer.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+      } catch ( InterruptedException e ) {
+        logger.error( "Error while waiting for the snapshot writer to stop!", e );
+      }
+      writer = null;
+    }
+    writeSnapshot( snapshotFile );
+    snapshotFile = null;
+  }
+
+  /**
+   * Captures a snapshot of the current state and writes it to a file. Errors are logged, a previous snapshot in the file is kept if the new one can not be written.
+   *
+   * @param file
+   *          File the snapshot is written to
+   * @return True, if the snapshot has been written
+   */
+  boolean writeSnapshot( final Path file ) {
+    logger.entry( file );
+    boolean written = false;
+    try {
+      final long captureStart = System.nanoTime();
+      final Snapshot snapshot = EventHandlerService.INSTANCE.takeSnapshot();
+      final long writeStart = System.nanoTime();
+      snapshot.writeTo( file );
+      EventLogService.INSTANCE.checkpoint( snapshot.getNextSequenceNumber() );
+      writtenCounter.incrementAndGet();
+      written = true;
+      sequencerPauseMicros = TimeUnit.NANOSECONDS.toMicros( snapshot.getSequencerPauseNanos() );
+      partitionPauseMicros = TimeUnit.NANOSECONDS.toMicros( snapshot.getPartitionPauseNanos() );
+      captureMillis = TimeUnit.NANOSECONDS.toMillis( writeStart - captureStart );
+      writeMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - writeStart );
+      logger.info( "Wrote snapshot of " + snapshot.getNumberOfFollows() + " follows at sequence number " + snapshot.getNextSequenceNumber() + ", sequencer paused " + sequencerPauseMicros
+          + " microseconds, event processing paused at most " + partitionPauseMicros + " microseconds per partition, captured in " + captureMillis + " ms, written in " + writeMillis + " ms." );
+    } catch ( IOException | ExecutionException ex ) {
+      failedCounter.incrementAndGet();
+      logger.error( "Could not write snapshot " + file, ex );
+    } catch ( InterruptedException ex ) {
+      failedCounter.incrementAndGet();
+      logger.error( "Interrupted while capturing snapshot " + file, ex );
+      Thread.currentThread().interrupt();
+    }
+    return logger.exit( written );
+  }
+
+  /**
+   * Restores the follows and the sequencer state of a snapshot file. The file is memory-mapped and the followers are copied in bulk from the mapped pages. Must be called on an empty state before the
+   * first event is added.
+   *
+   * @param file
+   *          Snapshot file
+   * @throws IOException
+   *           Thrown if the file can not be read or is not a complete snapshot
+   */
+  void restoreSnapshot( final Path file ) throws IOException {
+    logger.entry( file );
+    final long start = System.nanoTime();
+    final SnapshotReader reader = new SnapshotReader( file );
+    try {
+      if ( reader.readInt() != Snapshot.MAGIC || reader.readInt() != Snapshot.VERSION ) {
+        throw new IOException( file + " is not a snapshot of version " + Snapshot.VERSION );
+      }
+      // an incomplete file must not be restored partially
+      if ( reader.getSize() < 20 || reader.readIntAt( reader.getSize() - 4 ) != Snapshot.MAGIC ) {
+        throw new IOException( "Snapshot " + file + " is incomplete" );
+      }
+
+      final int nextSequenceNumber = reader.readInt();
+      final int numberOfBufferedEvents = reader.readInt();
+      final List<Event> bufferedEvents = new ArrayList<Event>( numberOfBufferedEvents );
+      final EventParser parser = new EventParser();
+      for ( int i = 0; i < numberOfBufferedEvents; i++ ) {
+        final byte[] message = new byte[reader.readInt()];
+        reader.readBytes( message );
+        final Event event = EventFactory.createEvent( ByteBuffer.wrap( message ), parser );
+        if ( event != null ) {
+          bufferedEvents.add( event );
+        }
+      }
+
+      final long numberOfInts = reader.readLong();
+      final int[] followerIds = new int[RESTORE_BATCH_SIZE];
+      long numberOfFollows = 0;
+      long consumed = 0;
+      while ( consumed < numberOfInts ) {
+        final int followedId = reader.readInt();
+        int remaining = reader.readInt();
+        consumed += 2 + remaining;
+        numberOfFollows += remaining;
+        while ( remaining > 0 ) {
+          final int count = reader.readInts( followerIds, Math.min( remaining, RESTORE_BATCH_SIZE ) );
+          UserRegistryService.INSTANCE.restoreFollowers( followedId, followerIds, count );
+          remaining -= count;
+        }
+      }
+      if ( reader.readInt() != Snapshot.MAGIC || reader.getPosition() != reader.getSize() ) {
+        throw new IOException( "Snapshot " + file + " is corrupt" );
+      }
+
+      EventHandlerService.INSTANCE.restore( nextSequenceNumber, bufferedEvents );
+      logger.info( "Restored snapshot of " + numberOfFollows + " follows and " + bufferedEvents.size() + " buffered events at sequence number " + nextSequenceNumber + " in "
+          + TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ) + " ms." );
+    } finally {
+      reader.close();
+    }
+    logger.exit();
+  }
+}
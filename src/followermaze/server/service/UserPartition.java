@@ -0,0 +1,321 @@
+package followermaze.server.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.model.client.Client;
+import followermaze.server.model.graph.FollowerGraph;
+import followermaze.server.model.graph.IntFollowerGraph;
+import followermaze.server.model.graph.MappedFollowerGraph;
+import followermaze.server.util.IntObjectMap;
+import followermaze.server.util.IntVisitor;
+import followermaze.server.util.MpscLinkedQueue;
+
+/**
+ * Users owned by a single event shard. A partition holds the registered clients of its users and the edges of the follower graph whose follower is one of its users, thus every notification to one
+ * of its users is resolved and posted by the owning shard alone. The follower graph, the connected followers cache and the author logs are only accessed by the owning shard, clients are registered
+ * and removed by any thread. Registrations and removals are handed over to the owning shard through a queue, which patches the cached entries of the users the client follows before it uses the cache
+ * again.
+ *
+ */
+final class UserPartition {
+
+  /** Number of cache entries built */
+  private static final AtomicLong connectedFollowersBuildCounter = MetricsService.INSTANCE.counter( "connectedFollowers.builds" );
+
+  /** Index of the partition, equals the index of the owning event shard */
+  private final int index;
+
+  /** Needs synchronization due to highly concurrent access during registration and removal */
+  private final Map<Integer, Client> registeredClients = new ConcurrentHashMap<Integer, Client>();
+
+  /** Followers of all users that are users of this partition, graph selected by the ConfigService */
+  private final FollowerGraph followers = createFollowerGraph();
+
+  /** Connected followers by followed user, built on the first status update of a user */
+  private final IntObjectMap<ConnectedFollowers> connectedFollowersCache = new IntObjectMap<ConnectedFollowers>();
+
+  /** Clients registered or removed by any thread, applied to the cache by the owning shard */
+  private final MpscLinkedQueue<ClientChange> pendingClientChanges = new MpscLinkedQueue<ClientChange>();
+
+  /** Registered clients as seen by the owning shard, updated from the pending changes, the cache is built and patched from them */
+  private final IntObjectMap<Client> connectedClients = new IntObjectMap<Client>();
+
+  /** Visitor patching the cached entries of the users a registered or removed client follows */
+  private final ClientChangePatcher clientChangePatcher = new ClientChangePatcher();
+
+  /** Visitor adding the connected followers to a cache entry that is built */
+  private final ConnectedFollowerCollector connectedFollowerCollector = new ConnectedFollowerCollector();
+
+  /** Logs of the users with a very large number of followers in this partition */
+  private final AuthorLogRegistry authorLogs;
+
+  /**
+   * @param index
+   *          Index of the partition, equals the index of the owning event shard
+   * @param numberOfPartitions
+   *          Number of partitions the users are spread across
+   */
+  UserPartition( int index, int numberOfPartitions ) {
+    this.index = index;
+    this.authorLogs = new AuthorLogRegistry( followers, registeredClients, numberOfPartitions );
+  }
+
+  /**
+   * @return Index of the partition, equals the index of the owning event shard
+   */
+  int getIndex() {
+    return index;
+  }
+
+  /**
+   * Registers a client of the partition, called by any thread
+   *
+   * @param client
+   *          Client to be registered
+   */
+  void registerClient( final Client client ) {
+    registeredClients.put( client.getId(), client );
+    pendingClientChanges.offer( new ClientChange( client, true ) );
+    authorLogs.clientRegistered( client );
+  }
+
+  /**
+   * Removes a client of the partition, called by any thread. The client is dropped from the cached connected followers before they are used again.
+   *
+   * @param client
+   *          Client to be removed
+   */
+  void removeClient( final Client client ) {
+    registeredClients.remove( client.getId() );
+    pendingClientChanges.offer( new ClientChange( client, false ) );
+    authorLogs.clientRemoved( client );
+  }
+
+  /**
+   * @param id
+   *          ID of a user of the partition
+   * @return Registered client, null if the user is not connected
+   */
+  Client getClient( int id ) {
+    return registeredClients.get( id );
+  }
+
+  /**
+   * @return Registered clients of the partition
+   */
+  Collection<Client> getClients() {
+    return registeredClients.values();
+  }
+
+  /**
+   * @return Followers that are users of this partition
+   */
+  FollowerGraph getFollowers() {
+    return followers;
+  }
+
+  /**
+   * Adds a follower that is a user of this partition, patches a valid cache entry instead of rebuilding it
+   *
+   * @param followedId
+   *          User who gets a new follower
+   * @param followerId
+   *          User of the partition who starts to follow the other user
+   * @return True, if the follower has been added, false if the follower has already been following the user
+   */
+  boolean addFollower( int followedId, int followerId ) {
+    if ( !followers.addFollower( followedId, followerId ) ) {
+      return false;
+    }
+    authorLogs.followerAdded( followedId, followerId );
+    applyClientChanges();
+    final ConnectedFollowers connectedFollowers = connectedFollowersCache.get( followedId );
+    if ( connectedFollowers != null ) {
+      final Client follower = connectedClients.get( followerId );
+      if ( follower != null ) {
+        connectedFollowers.add( follower );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Removes a follower that is a user of this partition
+   *
+   * @param followedId
+   *          User who loses a follower
+   * @param followerId
+   *          User of the partition who stops following the other user
+   * @return True, if the follower has been removed, false if the follower has not been following the user
+   */
+  boolean removeFollower( int followedId, int followerId ) {
+    if ( !followers.removeFollower( followedId, followerId ) ) {
+      return false;
+    }
+    authorLogs.followerRemoved( followedId, followerId );
+    applyClientChanges();
+    final ConnectedFollowers connectedFollowers = connectedFollowersCache.get( followedId );
+    if ( connectedFollowers != null ) {
+      if ( followers.getFollowerCount( followedId ) == 0 ) {
+        connectedFollowersCache.remove( followedId );
+      } else {
+        connectedFollowers.remove( followerId );
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the connected followers of a user in this partition from the cache. The cache entry is built if it does not exist yet, else it has been patched whenever a follower of the user has been
+   * added, removed, registered or removed from the registry.
+   *
+   * @param followedId
+   *          User whose connected followers are returned
+   * @return Connected followers, valid until the next call of this method, addFollower or removeFollower
+   */
+  ConnectedFollowers getConnectedFollowers( int followedId ) {
+    applyClientChanges();
+    ConnectedFollowers connectedFollowers = connectedFollowersCache.get( followedId );
+    if ( connectedFollowers == null ) {
+      connectedFollowers = new ConnectedFollowers( followers.getFollowerCount( followedId ) );
+      connectedFollowerCollector.target = connectedFollowers;
+      followers.forEachFollower( followedId, connectedFollowerCollector );
+      connectedFollowerCollector.target = null;
+      connectedFollowersCache.put( followedId, connectedFollowers );
+      connectedFollowersBuildCounter.incrementAndGet();
+    }
+    return connectedFollowers;
+  }
+
+  /**
+   * Applies the clients registered and removed since the last call to the clients seen by the owning shard and patches the cached entries of the users they follow, called by the owning shard. Every
+   * cached user is checked for being followed by the client, the entries are not rebuilt.
+   */
+  private void applyClientChanges() {
+    ClientChange change = pendingClientChanges.poll();
+    while ( change != null ) {
+      final Client client = change.client;
+      if ( change.registered ) {
+        connectedClients.put( client.getId(), client );
+      } else {
+        connectedClients.remove( client.getId() );
+      }
+      if ( connectedFollowersCache.size() > 0 ) {
+        clientChangePatcher.change = change;
+        connectedFollowersCache.forEachKey( clientChangePatcher );
+        clientChangePatcher.change = null;
+      }
+      change = pendingClientChanges.poll();
+    }
+  }
+
+  /**
+   * Appends a status update to the log of its author if the author has a log in this partition or has reached the threshold
+   *
+   * @param authorId
+   *          User the status update originates from
+   * @param sequenceNumber
+   *          Sequence number of the status update
+   * @param payload
+   *          Read-only buffer holding the encoded update
+   * @return True, if the update has been logged, false if it has to be posted to the connected followers of the partition
+   */
+  boolean appendToAuthorLog( int authorId, int sequenceNumber, final ByteBuffer payload ) {
+    return authorLogs.append( authorId, sequenceNumber, payload );
+  }
+
+  /**
+   * Releases the files of the follower graph, called when the partition is replaced on reset
+   *
+   * @throws IOException
+   *           Thrown if the files can not be released
+   */
+  void close() throws IOException {
+    if ( followers instanceof Closeable ) {
+      ((Closeable) followers).close();
+    }
+  }
+
+  /**
+   * Creates the follower graph configured in the ConfigService
+   *
+   * @return Single threaded graph, or a mapped graph if configured
+   */
+  private static FollowerGraph createFollowerGraph() {
+    final ConfigService config = ConfigService.INSTANCE;
+    if ( ConfigService.FOLLOWER_GRAPH_MAPPED.equals( config.getFollowerGraph() ) ) {
+      final String directory = config.getFollowerGraphDirectory();
+      try {
+        return new MappedFollowerGraph( Paths.get( directory.isEmpty() ? System.getProperty( "java.io.tmpdir" ) : directory ), config.getFollowerGraphCacheSize() );
+      } catch ( IOException ex ) {
+        throw new IllegalStateException( "Could not create mapped follower graph in " + directory, ex );
+      }
+    }
+    return new IntFollowerGraph();
+  }
+
+  /**
+   * Adds every visited follower that is currently connected to a cache entry
+   */
+  private class ConnectedFollowerCollector implements IntVisitor {
+
+    /** Cache entry that is built */
+    private ConnectedFollowers target = null;
+
+    @Override
+    public void visit( int followerId ) {
+      final Client follower = connectedClients.get( followerId );
+      if ( follower != null ) {
+        target.add( follower );
+      }
+    }
+  }
+
+  /**
+   * Adds a registered client to or removes a removed client from the visited cache entry if the client follows its user
+   */
+  private class ClientChangePatcher implements IntVisitor {
+
+    /** Change that is applied */
+    private ClientChange change = null;
+
+    @Override
+    public void visit( int followedId ) {
+      final int clientId = change.client.getId();
+      if ( !followers.isFollowing( followedId, clientId ) ) {
+        return;
+      }
+      final ConnectedFollowers connectedFollowers = connectedFollowersCache.get( followedId );
+      if ( change.registered ) {
+        connectedFollowers.add( change.client );
+      } else {
+        connectedFollowers.remove( clientId );
+      }
+    }
+  }
+
+  /**
+   * Client registered or removed by any thread, handed over to the owning shard
+   */
+  private static final class ClientChange {
+
+    /** Registered or removed client */
+    private final Client client;
+
+    /** True, if the client has been registered, false if it has been removed */
+    private final boolean registered;
+
+    private ClientChange( final Client client, boolean registered ) {
+      this.client = client;
+      this.registered = registered;
+    }
+  }
+}
@@ -1,22 +1,25 @@
 package followermaze.server.service;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import followermaze.server.config.ConfigService;
 import followermaze.server.model.client.Client;
-import followermaze.server.model.event.ClientNotification;
+import followermaze.server.util.IntVisitor;
 
 /**
- * UserRegistryService handles everything that is connected to users. It handles registration and removal of users and implements the follower logic. Implemented using singleton enum pattern.
+ * UserRegistryService handles everything that is connected to users. It handles registration and removal of users and implements the follower logic. The users are split into partitions, one per
+ * event shard, a user belongs to the partition given by the hash of its ID. A partition holds the clients of its users and the follows of its users, thus every notification to a user is resolved and
+ * posted by the shard owning the user, in the order of the sequence numbers. Events touching users of several partitions are processed by all of their shards, each shard only applies the part
+ * concerning its own users. Without sharding there is a single partition processed by the sequencer thread. Implemented using singleton enum pattern.
  *
  */
 public enum UserRegistryService {
@@ -26,16 +29,11 @@ public enum UserRegistryService {
   /** Logger */
   private static final Logger logger = LogManager.getLogger( UserRegistryService.class );
 
-  /** Needs synchronization due to highly concurrent access during registration and removal */
-  private final Map<Integer, Client> registeredClients = new ConcurrentHashMap<Integer, Client>();
+  /** Partitions of the users, one per event shard, created from the configured number of shards and recreated on reset */
+  private volatile UserPartition[] partitions = createPartitions();
 
-  /** Does not need synchronization due to single threaded event processing */
-  private final Map<Integer, Set<Integer>> followers = new HashMap<Integer, Set<Integer>>();
-
-  /**
-   * Does not need synchronization as only one thrread deals with a specific client at any point in time. Map holds ExecutorService instances per connected user
-   */
-  private final Map<Integer, ExecutorService> notificationQueues = new HashMap<Integer, ExecutorService>();
+  /** Partition owned by the event shard running on the current thread, not set on other threads */
+  private final ThreadLocal<UserPartition> shardPartition = new ThreadLocal<UserPartition>();
 
   /**
    * Register a client in the registry
@@ -45,7 +43,7 @@ public enum UserRegistryService {
    */
   public void registerClient( final Client client ) {
     logger.entry( client );
-    registeredClients.put( client.getId(), client );
+    partitionOf( client.getId() ).registerClient( client );
     logger.info( "Registered Client: " + client.getId() );
     logger.exit();
   }
@@ -58,7 +56,7 @@ public enum UserRegistryService {
    * @return Client instance containingt the socket object
    */
   public Client getClientById( final Integer id ) {
-    return registeredClients.get( id );
+    return partitionOf( id ).getClient( id );
   }
 
   /**
@@ -69,85 +67,123 @@ public enum UserRegistryService {
    */
   public void removeClient( final Client client ) {
     logger.entry( client );
-    registeredClients.remove( client.getId() );
-    notificationQueues.remove( client.getId() );
+    partitionOf( client.getId() ).removeClient( client );
     logger.exit();
   }
 
   /**
-   * Method retrieves all followers of the client
+   * Method retrieves all followers of the client. Creates a copy of the followers, the event processing uses forEachFollower() which does not allocate any memory.
    * 
    * @param followedId
    *          whose followers have to be retrieved
    * @return Set containing all following clients, null, if no followers have been registered
    */
-  public Set<Integer> getFollowers( final Integer followedId ) {
-    return followers.get( followedId );
+  public Set<Integer> getFollowers( final int followedId ) {
+    final Set<Integer> result = new HashSet<Integer>();
+    forEachFollower( followedId, new IntVisitor() {
+
+      @Override
+      public void visit( int followerId ) {
+        result.add( followerId );
+      }
+    } );
+    return result.isEmpty() ? null : result;
+  }
+
+  /**
+   * Method calls the visitor for every follower of the client in all partitions. Not thread-safe, only called by the event processing thread while no shards are running.
+   * 
+   * @param followedId
+   *          whose followers have to be visited
+   * @param visitor
+   *          Visitor called for every follower
+   * @return Number of visited followers
+   */
+  public int forEachFollower( final int followedId, final IntVisitor visitor ) {
+    int visited = 0;
+    for ( UserPartition curPartition : partitions ) {
+      visited += curPartition.getFollowers().forEachFollower( followedId, visitor );
+    }
+    return visited;
+  }
+
+  /**
+   * Returns the connected followers of a user from the cache of the partition owned by the calling shard. The cache entry is built if it does not exist yet, else it is returned right away, it has
+   * been patched by every follow, unfollow, registration and removal of a follower. Must only be called by the thread processing the events.
+   * 
+   * @param followedId
+   *          User whose connected followers are returned
+   * @return Connected followers, valid until the next call of this method, addFollower or removeFollower
+   */
+  public ConnectedFollowers getConnectedFollowers( final int followedId ) {
+    final UserPartition[] currentPartitions = partitions;
+    if ( currentPartitions.length == 1 ) {
+      return currentPartitions[0].getConnectedFollowers( followedId );
+    }
+    final UserPartition partition = shardPartition.get();
+    if ( partition == null ) {
+      throw new IllegalStateException( "Connected followers of a partitioned registry must be retrieved by an event shard." );
+    }
+    return partition.getConnectedFollowers( followedId );
   }
 
   /**
    * Method a collection with all registered clients
    * 
-   * @return Collection with all Clients in the User Registry
+   * @return Collection with all Clients in the User Registry, a copy if the users are partitioned
    */
   public Collection<Client> getAllRegisteredUser() {
-    return registeredClients.values();
+    final UserPartition[] currentPartitions = partitions;
+    if ( currentPartitions.length == 1 ) {
+      return currentPartitions[0].getClients();
+    }
+    final List<Client> result = new ArrayList<Client>();
+    for ( UserPartition curPartition : currentPartitions ) {
+      result.addAll( curPartition.getClients() );
+    }
+    return result;
   }
 
   /**
-   * Method is not thread-safe, this is not necessary because of the single-thread processing of events. No race-conditions are possible, thus the overhead and complexity of synchronization does not
-   * need to be implemented. Handles processing gracefully, if the follower is already in the list, this is silently accepted.
+   * Method is not thread-safe, this is not necessary because of the single-thread processing of the events of every partition. No race-conditions are possible, thus the overhead and complexity of
+   * synchronization does not need to be implemented. Handles processing gracefully, if the follower is already in the list, this is silently accepted. The follow is stored in the partition of the
+   * follower, an event shard ignores follows of users it does not own.
    * 
    * @param followedId
    *          Client who gets a new follower
    * @param followerId
    *          Client who starts to follow antoher client
    */
-  public void addFollower( final Integer followedId, final Integer followerId ) {
-    logger.entry( followedId, followerId );
-    Set<Integer> followerOfClient = followers.get( followedId );
-    if ( followerOfClient == null ) {
-      followerOfClient = new HashSet<Integer>();
-      followers.put( followedId, followerOfClient );
-      logger.debug( "Created empty follower list for user " + followedId );
+  public void addFollower( final int followedId, final int followerId ) {
+    if ( !isProcessedHere( followerId ) ) {
+      return;
     }
-    final boolean added = followerOfClient.add( followerId );
-    if ( !added ) {
+    if ( !partitionOf( followerId ).addFollower( followedId, followerId ) ) {
       logger.warn( "User  " + followerId + " has already been following user " + followedId );
     }
-    logger.debug( "Added " + followerId + " to follower list of " + followedId );
-    logger.exit();
   }
 
   /**
-   * Method is not thread-safe, this is not necessary because of the single-thread processing of events. No race-conditions are possible, thus the overhead and complexity of synchronization does not
-   * need to be implemented. Handles processing gracefully, if follower is not in the list, it silently accepts that.
+   * Method is not thread-safe, this is not necessary because of the single-thread processing of the events of every partition. No race-conditions are possible, thus the overhead and complexity of
+   * synchronization does not need to be implemented. Handles processing gracefully, if follower is not in the list, it silently accepts that. An event shard ignores unfollows of users it does not own.
    * 
    * @param followedId
    *          Client who loses a follower
    * @param followerId
    *          Client who stops following another client
    */
-  public void removeFollower( final Integer followedId, final Integer followerId ) {
-    logger.entry( followedId, followerId );
-    final Set<Integer> followerOfClient = followers.get( followedId );
-    if ( followerOfClient != null ) {
-      final boolean removed = followerOfClient.remove( followerId );
-      if ( !removed ) {
-        logger.warn( "User  " + followerId + " has not been following user " + followedId );
-      }
-      if ( followerOfClient.size() == 0 ) {
-        followers.remove( followedId );
-        logger.debug( "Removed empty follower list for user " + followedId );
-      }
+  public void removeFollower( final int followedId, final int followerId ) {
+    if ( !isProcessedHere( followerId ) ) {
+      return;
+    }
+    if ( !partitionOf( followerId ).removeFollower( followedId, followerId ) ) {
+      logger.warn( "User  " + followerId + " has not been following user " + followedId );
     }
-    logger.debug( "Removed " + followerId + " from follower list of " + followedId );
-    logger.entry();
   }
 
   /**
-   * Method adds a notification task to the executors running per thread. This increases concurrency and throughput, but guarantees to keep the ordering. Using one central executor can cause race
-   * conditions depending on JVM thread scheduling.
+   * Method posts a message to the mailbox of the client. The mailbox is drained by one of the shared delivery workers, which sends the messages in the order they have been posted. An event shard only
+   * posts to clients it owns.
    * 
    * @param message
    *          Message to be transmitted
@@ -155,18 +191,156 @@ public enum UserRegistryService {
    *          Client to be notified
    */
   public void addNotificationJob( final String message, final Client client ) {
-    logger.entry();
-    ExecutorService executor = notificationQueues.get( client.getId() );
-    if ( executor == null ) {
-      executor = Executors.newSingleThreadExecutor();
-      notificationQueues.put( client.getId(), executor );
+    if ( isProcessedHere( client.getId() ) ) {
+      DeliveryService.INSTANCE.deliver( client, message );
     }
-    executor.submit( new ClientNotification( message, client ) );
-    logger.exit();
   }
 
   /**
-   * Method cleans up before shutting down the server
+   * Method posts the encoded bytes of a message to the mailbox of the client, the buffer may be shared with other recipients as the client is passed its own duplicate. An event shard only posts to
+   * clients it owns.
+   * 
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   * @param client
+   *          Client to be notified
+   */
+  public void addNotificationJob( final ByteBuffer payload, final Client client ) {
+    if ( isProcessedHere( client.getId() ) ) {
+      DeliveryService.INSTANCE.deliver( client, payload );
+    }
+  }
+
+  /**
+   * Method posts the encoded bytes of a status update to the mailbox of the client. Unlike other notifications, status updates to backlogged clients may be conflated if configured. The client has to
+   * be owned by the calling shard.
+   * 
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   * @param fromUserId
+   *          User the status update originates from
+   * @param client
+   *          Client to be notified
+   */
+  public void addStatusUpdateJob( final ByteBuffer payload, int fromUserId, final Client client ) {
+    DeliveryService.INSTANCE.deliverStatusUpdate( client, fromUserId, payload );
+  }
+
+  /**
+   * Method posts a status update to the connected followers of its author. Processed per partition: if the author has more followers in the partition than the configured threshold, the update is
+   * appended to the log of the author and read by the mailboxes of the followers, else it is posted to the cached connected followers of the partition. An event shard only processes its own
+   * partition. Must only be called by the thread processing the events.
+   * 
+   * @param fromUserId
+   *          User the status update originates from
+   * @param sequenceNumber
+   *          Sequence number of the status update
+   * @param payload
+   *          Read-only buffer holding the encoded update, shared by all followers
+   */
+  public void addStatusUpdateJobForFollowers( int fromUserId, int sequenceNumber, final ByteBuffer payload ) {
+    final UserPartition[] currentPartitions = partitions;
+    final UserPartition partition = currentPartitions.length == 1 ? currentPartitions[0] : shardPartition.get();
+    if ( partition != null ) {
+      postStatusUpdate( partition, fromUserId, sequenceNumber, payload );
+      return;
+    }
+    for ( UserPartition curPartition : currentPartitions ) {
+      postStatusUpdate( curPartition, fromUserId, sequenceNumber, payload );
+    }
+  }
+
+  /**
+   * Method posts the encoded bytes of a message to the mailboxes of all registered clients. Returns after all mailboxes have been posted to, thus the order of the notifications of every client is
+   * preserved. An event shard only posts to the clients it owns.
+   * 
+   * @param payload
+   *          Buffer holding the encoded message between position and limit, not modified
+   */
+  public void addNotificationJobForAll( final ByteBuffer payload ) {
+    final UserPartition[] currentPartitions = partitions;
+    final UserPartition partition = currentPartitions.length == 1 ? currentPartitions[0] : shardPartition.get();
+    if ( partition != null ) {
+      DeliveryService.INSTANCE.deliverToAll( partition.getClients(), payload );
+      return;
+    }
+    for ( UserPartition curPartition : currentPartitions ) {
+      DeliveryService.INSTANCE.deliverToAll( curPartition.getClients(), payload );
+    }
+  }
+
+  /**
+   * @return Number of partitions, equals the number of event shards
+   */
+  public int getNumberOfPartitions() {
+    return partitions.length;
+  }
+
+  /**
+   * Returns the index of the partition a user belongs to, thus the index of the event shard owning the user
+   * 
+   * @param userId
+   *          ID of a user
+   * @return Index of the partition
+   */
+  public int getPartitionIndex( int userId ) {
+    return partitionIndex( userId, partitions.length );
+  }
+
+  /**
+   * Binds the calling thread to a partition, called by an event shard before it processes events
+   * 
+   * @param index
+   *          Index of the partition owned by the shard
+   */
+  void bindPartition( int index ) {
+    shardPartition.set( partitions[index] );
+  }
+
+  /**
+   * Releases the binding of the calling thread, called by an event shard when it stops
+   */
+  void unbindPartition() {
+    shardPartition.remove();
+  }
+
+  /**
+   * Copies the follows into a snapshot. An event shard copies the partition it owns, any other thread copies all partitions, thus it must only be called while no events are processed.
+   * 
+   * @param snapshot
+   *          Snapshot the follows are copied into
+   */
+  void copyFollowersTo( final Snapshot snapshot ) {
+    final UserPartition partition = shardPartition.get();
+    if ( partition != null ) {
+      snapshot.capturePartition( partition.getIndex(), partition.getFollowers() );
+      return;
+    }
+    for ( UserPartition curPartition : partitions ) {
+      snapshot.capturePartition( curPartition.getIndex(), curPartition.getFollowers() );
+    }
+  }
+
+  /**
+   * Adds followers restored from a snapshot to the partitions of the followers, must only be called while no events are processed. The snapshot may have been taken with a different number of
+   * partitions.
+   * 
+   * @param followedId
+   *          User whose followers are restored
+   * @param followerIds
+   *          Restored followers, starting at index 0
+   * @param count
+   *          Number of restored followers in the array
+   */
+  void restoreFollowers( int followedId, final int[] followerIds, int count ) {
+    final UserPartition[] currentPartitions = partitions;
+    for ( int i = 0; i < count; i++ ) {
+      currentPartitions[partitionIndex( followerIds[i], currentPartitions.length )].addFollower( followedId, followerIds[i] );
+    }
+  }
+
+  /**
+   * Method cleans up before shutting down the server. The partitions are recreated with the currently configured number of event shards.
    */
   public void reset() {
     logger.entry();
@@ -175,16 +349,85 @@ public enum UserRegistryService {
       curClient.closeConnection();
     }
 
-    // shutdown all client specific executor queues
-    for ( ExecutorService curExecutor : notificationQueues.values() ) {
-      curExecutor.shutdownNow();
-    }
+    // stop the delivery workers
+    DeliveryService.INSTANCE.reset();
 
-    // clear all queues
-    this.followers.clear();
-    this.notificationQueues.clear();
-    this.registeredClients.clear();
+    // clear all partitions and release the files of their follower graphs
+    final UserPartition[] oldPartitions = partitions;
+    partitions = createPartitions();
+    for ( UserPartition curPartition : oldPartitions ) {
+      try {
+        curPartition.close();
+      } catch ( IOException ex ) {
+        logger.error( "Could not close follower graph of partition " + curPartition.getIndex(), ex );
+      }
+    }
     logger.exit();
   }
 
+  /**
+   * Posts a status update to the connected followers of a partition or appends it to the log of its author
+   */
+  private static void postStatusUpdate( final UserPartition partition, int fromUserId, int sequenceNumber, final ByteBuffer payload ) {
+    if ( partition.appendToAuthorLog( fromUserId, sequenceNumber, payload ) ) {
+      return;
+    }
+    final ConnectedFollowers connectedFollowers = partition.getConnectedFollowers( fromUserId );
+    final int numberOfFollowers = connectedFollowers.size();
+    for ( int i = 0; i < numberOfFollowers; i++ ) {
+      DeliveryService.INSTANCE.deliverStatusUpdate( connectedFollowers.get( i ), fromUserId, payload );
+    }
+  }
+
+  /**
+   * @param userId
+   *          ID of a user
+   * @return True, if the calling thread processes the events of the user: it is the shard owning the user, or no shard at all
+   */
+  private boolean isProcessedHere( int userId ) {
+    final UserPartition[] currentPartitions = partitions;
+    if ( currentPartitions.length == 1 ) {
+      return true;
+    }
+    final UserPartition partition = shardPartition.get();
+    return partition == null || partition.getIndex() == partitionIndex( userId, currentPartitions.length );
+  }
+
+  /**
+   * @param userId
+   *          ID of a user
+   * @return Partition the user belongs to
+   */
+  private UserPartition partitionOf( int userId ) {
+    final UserPartition[] currentPartitions = partitions;
+    return currentPartitions[partitionIndex( userId, currentPartitions.length )];
+  }
+
+  /**
+   * @param userId
+   *          ID of a user
+   * @param numberOfPartitions
+   *          Number of partitions
+   * @return Index of the partition the user belongs to
+   */
+  private static int partitionIndex( int userId, int numberOfPartitions ) {
+    if ( numberOfPartitions == 1 ) {
+      return 0;
+    }
+    final int hash = userId * 0x9E3779B9;
+    return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % numberOfPartitions;
+  }
+
+  /**
+   * Creates one partition per configured event shard, called while the enum constant is initialized, thus before the static logger
+   * 
+   * @return New partitions
+   */
+  private static UserPartition[] createPartitions() {
+    final UserPartition[] newPartitions = new UserPartition[Math.max( 1, ConfigService.INSTANCE.getEventShards() )];
+    for ( int i = 0; i < newPartitions.length; i++ ) {
+      newPartitions[i] = new UserPartition( i, newPartitions.length );
+    }
+    return newPartitions;
+  }
 }
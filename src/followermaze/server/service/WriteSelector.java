@@ -0,0 +1,119 @@
+package followermaze.server.service;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import followermaze.server.model.client.Mailbox;
+
+/**
+ * Waits for stalled client sockets to become writable again. Mailboxes whose client did not accept all pending bytes are registered for OP_WRITE with a dedicated selector, once the socket is
+ * writable the interest is cleared and the mailbox is scheduled onto a delivery worker again, which continues with the remaining bytes. Runs on its own thread started by the DeliveryService.
+ *
+ */
+class WriteSelector implements Runnable {
+
+  private static final Logger logger = LogManager.getLogger( WriteSelector.class );
+
+  /** Selector waiting for OP_WRITE */
+  private final Selector selector;
+
+  /** Mailboxes to be registered by the selector thread */
+  private final ConcurrentLinkedQueue<Mailbox> registrations = new ConcurrentLinkedQueue<Mailbox>();
+
+  /** Flag controls the main loop */
+  private volatile boolean running = true;
+
+  /**
+   * @throws IOException
+   *           If the selector cannot be opened
+   */
+  WriteSelector() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Hands a mailbox over to the selector thread which schedules it again once the socket of its client is writable
+   *
+   * @param mailbox
+   *          Scheduled mailbox whose client has pending bytes
+   */
+  void register( final Mailbox mailbox ) {
+    registrations.offer( mailbox );
+    selector.wakeup();
+  }
+
+  /**
+   * Main loop, waits for writable sockets and schedules the corresponding mailboxes
+   */
+  @Override
+  public void run() {
+    logger.entry();
+    try {
+      while ( running ) {
+        selector.select();
+        processRegistrations();
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while ( keys.hasNext() ) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if ( key.isValid() && key.isWritable() ) {
+              key.interestOps( 0 );
+              DeliveryService.INSTANCE.schedule( (Mailbox) key.attachment() );
+            }
+          } catch ( CancelledKeyException e ) {
+            // the client has been closed meanwhile, the next flush fails and removes it
+            DeliveryService.INSTANCE.schedule( (Mailbox) key.attachment() );
+          }
+        }
+      }
+    } catch ( IOException e ) {
+      logger.error( "Error while waiting for writable client sockets!", e );
+    } finally {
+      try {
+        selector.close();
+      } catch ( IOException e ) {
+        logger.error( "Error closing write selector!", e );
+      }
+    }
+    logger.exit();
+  }
+
+  /**
+   * Registers the handed over mailboxes for OP_WRITE, the key of a socket registered before is reused
+   */
+  private void processRegistrations() {
+    Mailbox mailbox = registrations.poll();
+    while ( mailbox != null ) {
+      final SocketChannel channel = mailbox.getClient().getChannel();
+      try {
+        final SelectionKey key = channel.keyFor( selector );
+        if ( key == null ) {
+          channel.register( selector, SelectionKey.OP_WRITE, mailbox );
+        } else {
+          key.interestOps( SelectionKey.OP_WRITE );
+        }
+      } catch ( ClosedChannelException | CancelledKeyException e ) {
+        // the client has been closed meanwhile, the next flush fails and removes it
+        DeliveryService.INSTANCE.schedule( mailbox );
+      }
+      mailbox = registrations.poll();
+    }
+  }
+
+  /** Sets the main loop control flag to false and wakes up the selector */
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+}
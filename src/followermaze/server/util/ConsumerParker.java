@@ -0,0 +1,82 @@
+package followermaze.server.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lets a consumer thread that runs out of work park without a timeout once the spinning and yielding of the IdleStrategy are exhausted, the producers unpark it after publishing work. The consumer
+ * announces itself before it checks for work a last time and the producers check for an announced consumer after publishing, both separated by a full fence, thus no wakeup is lost. A consumer that
+ * has to act at a deadline parks until the deadline at most.
+ *
+ */
+public final class ConsumerParker {
+
+  /** Passed in as maximum park time if the consumer does not have to act at a deadline */
+  public static final long NO_TIMEOUT = Long.MAX_VALUE;
+
+  /** Consumer announced to park, null while it is busy */
+  private volatile Thread parkedConsumer = null;
+
+  /** Written by the producers to separate publishing their work from checking for an announced consumer */
+  private volatile boolean fence = false;
+
+  /**
+   * Waits depending on the number of unsuccessful iterations so far. Once the backoff is exhausted, the consumer is announced and has to check for work again before the next call parks it.
+   *
+   * @param iteration
+   *          Number of unsuccessful iterations so far, 0 after the last successful one
+   * @param maxParkNanos
+   *          Maximum time in ns to park, NO_TIMEOUT if the consumer parks until it is unparked
+   * @return Value to pass into the next call
+   */
+  public int idle( int iteration, long maxParkNanos ) {
+    if ( iteration < IdleStrategy.YIELD_ITERATIONS ) {
+      return IdleStrategy.idle( iteration );
+    }
+    if ( parkedConsumer == null ) {
+      parkedConsumer = Thread.currentThread();
+      return iteration;
+    }
+    if ( maxParkNanos == NO_TIMEOUT ) {
+      LockSupport.park( this );
+    } else if ( maxParkNanos > 0 ) {
+      LockSupport.parkNanos( this, maxParkNanos );
+    }
+    return iteration;
+  }
+
+  /**
+   * Withdraws the announcement of the consumer, called by the consumer once it found work
+   */
+  public void busy() {
+    if ( parkedConsumer != null ) {
+      parkedConsumer = null;
+    }
+  }
+
+  /**
+   * Unparks the consumer if it is announced, called by a producer after publishing work
+   */
+  public void unpark() {
+    fence = true;
+    final Thread consumer = parkedConsumer;
+    if ( consumer != null ) {
+      LockSupport.unpark( consumer );
+    }
+  }
+
+  /**
+   * Unparks the announced consumers with a single fence, called by a producer after publishing work to several consumers
+   *
+   * @param parkers
+   *          Parkers of the consumers
+   */
+  public static void unparkAll( final ConsumerParker[] parkers ) {
+    parkers[0].fence = true;
+    for ( ConsumerParker curParker : parkers ) {
+      final Thread consumer = curParker.parkedConsumer;
+      if ( consumer != null ) {
+        LockSupport.unpark( consumer );
+      }
+    }
+  }
+}
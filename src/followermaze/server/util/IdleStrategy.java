@@ -0,0 +1,43 @@
+package followermaze.server.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Progressive backoff used by threads waiting for a lock-free queue to become non-empty or non-full. The waiting thread first spins, then yields and finally parks for a short time, so short waits
+ * are handled with low latency while long waits do not burn CPU. Meant for waits that end once another busy thread makes progress, like a full queue, consumers idling for an unbounded time park
+ * without a timeout through a ConsumerParker instead.
+ *
+ */
+public final class IdleStrategy {
+
+  /** Number of iterations spent spinning */
+  private static final int SPIN_ITERATIONS = 100;
+
+  /** Number of iterations spent yielding after spinning */
+  static final int YIELD_ITERATIONS = 200;
+
+  /** Time in ns a thread parks after spinning and yielding */
+  private static final long PARK_NANOS = 50000;
+
+  private IdleStrategy() {
+  }
+
+  /**
+   * Waits depending on the number of unsuccessful iterations so far
+   *
+   * @param iteration
+   *          Number of unsuccessful iterations so far, 0 after the last successful one
+   * @return Value to pass into the next call
+   */
+  public static int idle( int iteration ) {
+    if ( iteration < SPIN_ITERATIONS ) {
+      return iteration + 1;
+    }
+    if ( iteration < YIELD_ITERATIONS ) {
+      Thread.yield();
+      return iteration + 1;
+    }
+    LockSupport.parkNanos( PARK_NANOS );
+    return iteration;
+  }
+}
@@ -0,0 +1,209 @@
+package followermaze.server.util;
+
+/**
+ * Map from primitive int keys to objects using open addressing with linear probing. The key 0 marks a free slot, its value is kept in a separate field. Removal shifts the following entries of the
+ * probe sequence back, so no tombstones are left behind. Not thread-safe.
+ *
+ * @param <V>
+ *          Type of the values
+ */
+public class IntObjectMap<V> {
+
+  /** Marker of a free slot */
+  private static final int FREE = 0;
+
+  /** Minimum number of slots */
+  private static final int MIN_CAPACITY = 16;
+
+  /** Slots holding the keys */
+  private int[] keys;
+
+  /** Slots holding the values, same index as the key */
+  private Object[] values;
+
+  /** Mask used to map a hash to a slot index */
+  private int mask;
+
+  /** Number of entries stored in the slots */
+  private int size = 0;
+
+  /** Number of entries in the slots that triggers growing the slot arrays */
+  private int resizeThreshold;
+
+  /** Value of the key 0 which cannot be stored in the slots, null if not contained */
+  private V freeKeyValue = null;
+
+  /**
+   * Constructs an empty map
+   */
+  public IntObjectMap() {
+    allocate( MIN_CAPACITY );
+  }
+
+  /**
+   * @param key
+   *          Key to look up
+   * @return Value mapped to the key, null if the key is not contained
+   */
+  @SuppressWarnings( "unchecked" )
+  public V get( int key ) {
+    if ( key == FREE ) {
+      return freeKeyValue;
+    }
+    int slot = slot( key );
+    while ( keys[slot] != FREE ) {
+      if ( keys[slot] == key ) {
+        return (V) values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * Maps a key to a value
+   *
+   * @param key
+   *          Key of the entry
+   * @param value
+   *          Value of the entry, must not be null
+   * @return Value previously mapped to the key, null if the key was not contained
+   */
+  @SuppressWarnings( "unchecked" )
+  public V put( int key, final V value ) {
+    if ( key == FREE ) {
+      final V previous = freeKeyValue;
+      freeKeyValue = value;
+      return previous;
+    }
+    int slot = slot( key );
+    while ( keys[slot] != FREE ) {
+      if ( keys[slot] == key ) {
+        final V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if ( ++size > resizeThreshold ) {
+      rehash( keys.length << 1 );
+    }
+    return null;
+  }
+
+  /**
+   * Removes the entry of a key
+   *
+   * @param key
+   *          Key of the entry
+   * @return Value mapped to the key, null if the key was not contained
+   */
+  @SuppressWarnings( "unchecked" )
+  public V remove( int key ) {
+    if ( key == FREE ) {
+      final V previous = freeKeyValue;
+      freeKeyValue = null;
+      return previous;
+    }
+    int slot = slot( key );
+    while ( keys[slot] != key ) {
+      if ( keys[slot] == FREE ) {
+        return null;
+      }
+      slot = (slot + 1) & mask;
+    }
+    final V previous = (V) values[slot];
+
+    // shift back entries whose probe sequence passes the freed slot
+    int gap = slot;
+    int current = slot;
+    while ( true ) {
+      current = (current + 1) & mask;
+      final int currentKey = keys[current];
+      if ( currentKey == FREE ) {
+        break;
+      }
+      final int home = slot( currentKey );
+      if ( ((current - home) & mask) >= ((current - gap) & mask) ) {
+        keys[gap] = currentKey;
+        values[gap] = values[current];
+        gap = current;
+      }
+    }
+    keys[gap] = FREE;
+    values[gap] = null;
+    size--;
+    return previous;
+  }
+
+  /**
+   * Calls the visitor for every key of the map, the order is undefined. The map must not be modified during the iteration.
+   *
+   * @param visitor
+   *          Visitor called for every key
+   */
+  public void forEachKey( final IntVisitor visitor ) {
+    if ( freeKeyValue != null ) {
+      visitor.visit( FREE );
+    }
+    final int[] currentKeys = keys;
+    for ( int i = 0; i < currentKeys.length; i++ ) {
+      if ( currentKeys[i] != FREE ) {
+        visitor.visit( currentKeys[i] );
+      }
+    }
+  }
+
+  /**
+   * @return Number of entries in the map
+   */
+  public int size() {
+    return freeKeyValue != null ? size + 1 : size;
+  }
+
+  /**
+   * Removes all entries and shrinks the map to its minimum capacity
+   */
+  public void clear() {
+    allocate( MIN_CAPACITY );
+    size = 0;
+    freeKeyValue = null;
+  }
+
+  /**
+   * Maps a key to its home slot
+   */
+  private int slot( int key ) {
+    final int hash = key * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * Moves all entries into new slot arrays
+   */
+  private void rehash( int capacity ) {
+    final int[] oldKeys = keys;
+    final Object[] oldValues = values;
+    allocate( capacity );
+    for ( int i = 0; i < oldKeys.length; i++ ) {
+      final int key = oldKeys[i];
+      if ( key != FREE ) {
+        int slot = slot( key );
+        while ( keys[slot] != FREE ) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private void allocate( int capacity ) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    resizeThreshold = (capacity >> 1) + (capacity >> 2);
+  }
+}
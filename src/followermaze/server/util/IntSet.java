@@ -0,0 +1,215 @@
+package followermaze.server.util;
+
+/**
+ * Set of primitive int values using open addressing with linear probing. The value 0 marks a free slot and is tracked by a separate flag. Removal shifts the following entries of the probe sequence
+ * back, so no tombstones are left behind. Not thread-safe.
+ *
+ */
+public class IntSet {
+
+  /** Marker of a free slot */
+  private static final int FREE = 0;
+
+  /** Minimum number of slots */
+  private static final int MIN_CAPACITY = 8;
+
+  /** Slots holding the values */
+  private int[] keys;
+
+  /** Mask used to map a hash to a slot index */
+  private int mask;
+
+  /** Number of values stored in the slots */
+  private int size = 0;
+
+  /** Number of values in the slots that triggers growing the slot array */
+  private int resizeThreshold;
+
+  /** True, if the set contains 0 which cannot be stored in the slots */
+  private boolean containsFree = false;
+
+  /**
+   * Constructs an empty set with the minimum capacity
+   */
+  public IntSet() {
+    this( MIN_CAPACITY );
+  }
+
+  /**
+   * Constructs an empty set
+   *
+   * @param expectedSize
+   *          Number of values the set can hold without growing
+   */
+  public IntSet( int expectedSize ) {
+    allocate( capacityFor( expectedSize ) );
+  }
+
+  /**
+   * Adds a value
+   *
+   * @param value
+   *          Value to be added
+   * @return True, if the value has been added, false if it was already contained
+   */
+  public boolean add( int value ) {
+    if ( value == FREE ) {
+      if ( containsFree ) {
+        return false;
+      }
+      containsFree = true;
+      return true;
+    }
+    int slot = slot( value );
+    while ( keys[slot] != FREE ) {
+      if ( keys[slot] == value ) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = value;
+    if ( ++size > resizeThreshold ) {
+      rehash( keys.length << 1 );
+    }
+    return true;
+  }
+
+  /**
+   * Removes a value
+   *
+   * @param value
+   *          Value to be removed
+   * @return True, if the value has been removed, false if it was not contained
+   */
+  public boolean remove( int value ) {
+    if ( value == FREE ) {
+      if ( !containsFree ) {
+        return false;
+      }
+      containsFree = false;
+      return true;
+    }
+    int slot = slot( value );
+    while ( keys[slot] != value ) {
+      if ( keys[slot] == FREE ) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    // shift back entries whose probe sequence passes the freed slot
+    int gap = slot;
+    int current = slot;
+    while ( true ) {
+      current = (current + 1) & mask;
+      final int key = keys[current];
+      if ( key == FREE ) {
+        break;
+      }
+      final int home = slot( key );
+      if ( ((current - home) & mask) >= ((current - gap) & mask) ) {
+        keys[gap] = key;
+        gap = current;
+      }
+    }
+    keys[gap] = FREE;
+    size--;
+    return true;
+  }
+
+  /**
+   * @param value
+   *          Value to look up
+   * @return True, if the set contains the value
+   */
+  public boolean contains( int value ) {
+    if ( value == FREE ) {
+      return containsFree;
+    }
+    int slot = slot( value );
+    while ( keys[slot] != FREE ) {
+      if ( keys[slot] == value ) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * Calls the visitor for every value of the set, the order is undefined. The set must not be modified during the iteration.
+   *
+   * @param visitor
+   *          Visitor called for every value
+   */
+  public void forEach( final IntVisitor visitor ) {
+    if ( containsFree ) {
+      visitor.visit( FREE );
+    }
+    final int[] currentKeys = keys;
+    for ( int i = 0; i < currentKeys.length; i++ ) {
+      if ( currentKeys[i] != FREE ) {
+        visitor.visit( currentKeys[i] );
+      }
+    }
+  }
+
+  /**
+   * @return Number of values in the set
+   */
+  public int size() {
+    return containsFree ? size + 1 : size;
+  }
+
+  /**
+   * Removes all values and shrinks the set to its minimum capacity
+   */
+  public void clear() {
+    allocate( MIN_CAPACITY );
+    size = 0;
+    containsFree = false;
+  }
+
+  /**
+   * Maps a value to its home slot
+   */
+  private int slot( int value ) {
+    final int hash = value * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /**
+   * Moves all values into a new slot array
+   */
+  private void rehash( int capacity ) {
+    final int[] oldKeys = keys;
+    allocate( capacity );
+    for ( int i = 0; i < oldKeys.length; i++ ) {
+      final int key = oldKeys[i];
+      if ( key != FREE ) {
+        int slot = slot( key );
+        while ( keys[slot] != FREE ) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+      }
+    }
+  }
+
+  private void allocate( int capacity ) {
+    keys = new int[capacity];
+    mask = capacity - 1;
+    resizeThreshold = (capacity >> 1) + (capacity >> 2);
+  }
+
+  /**
+   * @return Smallest power of two capacity that holds the passed in number of values without growing
+   */
+  private static int capacityFor( int expectedSize ) {
+    int capacity = MIN_CAPACITY;
+    while ( (capacity >> 1) + (capacity >> 2) < expectedSize ) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+}
@@ -0,0 +1,16 @@
+package followermaze.server.util;
+
+/**
+ * Callback used to iterate over primitive int collections without allocating an iterator or boxing the values.
+ *
+ */
+public interface IntVisitor {
+
+  /**
+   * Called once for every element of the iterated collection
+   *
+   * @param value
+   *          Current element
+   */
+  public void visit( int value );
+}
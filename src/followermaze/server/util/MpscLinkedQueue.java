@@ -0,0 +1,87 @@
+package followermaze.server.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded, lock-free queue for any number of producer threads and exactly one consumer thread at a time. Producers append a node by atomically swapping the head reference and linking the previous
+ * head to the new node afterwards, the consumer follows the links from its private tail. Offering never blocks and never fails.
+ *
+ * @param <E>
+ *          Type of the queued elements
+ */
+public class MpscLinkedQueue<E> {
+
+  /** Node of the linked list */
+  private static final class Node<E> {
+
+    @SuppressWarnings( "rawtypes" )
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT_UPDATER = AtomicReferenceFieldUpdater.newUpdater( Node.class, Node.class, "next" );
+
+    /** Element, null for the stub node */
+    private E value;
+
+    /** Next node, written once by the producer that appended it */
+    private volatile Node<E> next;
+
+    private Node( final E value ) {
+      this.value = value;
+    }
+
+    private void linkTo( final Node<E> node ) {
+      NEXT_UPDATER.lazySet( this, node );
+    }
+  }
+
+  /** Most recently appended node, swapped by the producers */
+  private final AtomicReference<Node<E>> head;
+
+  /** Node preceding the oldest element, only accessed by the consumer */
+  private Node<E> tail;
+
+  /**
+   * Constructs an empty queue
+   */
+  public MpscLinkedQueue() {
+    final Node<E> stub = new Node<E>( null );
+    head = new AtomicReference<Node<E>>( stub );
+    tail = stub;
+  }
+
+  /**
+   * Appends an element, can be called by any thread
+   *
+   * @param element
+   *          Element to be added, must not be null
+   */
+  public void offer( final E element ) {
+    final Node<E> node = new Node<E>( element );
+    final Node<E> previous = head.getAndSet( node );
+    previous.linkTo( node );
+  }
+
+  /**
+   * Removes the oldest element, must only be called by the consumer thread. An element whose producer has not completed the offer yet is not returned.
+   *
+   * @return Oldest element, null if the queue is empty
+   */
+  public E poll() {
+    final Node<E> next = tail.next;
+    if ( next == null ) {
+      return null;
+    }
+    final E element = next.value;
+    next.value = null;
+    tail = next;
+    return element;
+  }
+
+  /**
+   * Checks, if the queue contains completely offered elements, must only be called by the consumer thread
+   *
+   * @return True, if the queue is empty
+   */
+  public boolean isEmpty() {
+    return tail.next == null;
+  }
+}
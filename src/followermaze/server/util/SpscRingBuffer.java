@@ -0,0 +1,115 @@
+package followermaze.server.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free queue for exactly one producer thread and one consumer thread. The slots are preallocated in an array whose size is a power of two, so offering and polling do not allocate any
+ * memory. Producer and consumer only communicate via two ordered counters, each side caches the counter of the other side to avoid reading it on every operation.
+ *
+ * @param <E>
+ *          Type of the queued elements
+ */
+public class SpscRingBuffer<E> {
+
+  /** Preallocated slots */
+  private final Object[] slots;
+
+  /** Mask used to map a counter to a slot index */
+  private final int mask;
+
+  /** Number of elements offered so far, only written by the producer */
+  private final AtomicLong producerIndex = new AtomicLong();
+
+  /** Number of elements polled so far, only written by the consumer */
+  private final AtomicLong consumerIndex = new AtomicLong();
+
+  /** Last value of the consumer index seen by the producer */
+  private long cachedConsumerIndex = 0;
+
+  /** Last value of the producer index seen by the consumer */
+  private long cachedProducerIndex = 0;
+
+  /**
+   * Constructs a ring buffer
+   *
+   * @param requestedCapacity
+   *          Minimum number of elements the buffer can hold, rounded up to the next power of two
+   */
+  public SpscRingBuffer( int requestedCapacity ) {
+    int capacity = 1;
+    while ( capacity < requestedCapacity ) {
+      capacity <<= 1;
+    }
+    this.slots = new Object[capacity];
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Adds an element, must only be called by the producer thread
+   *
+   * @param element
+   *          Element to be added, must not be null
+   * @return True, if the element has been added, false if the buffer is full
+   */
+  public boolean offer( final E element ) {
+    final long index = producerIndex.get();
+    if ( index - cachedConsumerIndex >= slots.length ) {
+      cachedConsumerIndex = consumerIndex.get();
+      if ( index - cachedConsumerIndex >= slots.length ) {
+        return false;
+      }
+    }
+    slots[(int) index & mask] = element;
+    // ordered write publishes the slot to the consumer
+    producerIndex.lazySet( index + 1 );
+    return true;
+  }
+
+  /**
+   * Removes the oldest element, must only be called by the consumer thread
+   *
+   * @return Oldest element, null if the buffer is empty
+   */
+  @SuppressWarnings( "unchecked" )
+  public E poll() {
+    final long index = consumerIndex.get();
+    if ( index >= cachedProducerIndex ) {
+      cachedProducerIndex = producerIndex.get();
+      if ( index >= cachedProducerIndex ) {
+        return null;
+      }
+    }
+    final int slot = (int) index & mask;
+    final E element = (E) slots[slot];
+    slots[slot] = null;
+    // ordered write releases the slot to the producer
+    consumerIndex.lazySet( index + 1 );
+    return element;
+  }
+
+  /**
+   * Number of queued elements, can be called by any thread. The value is only an estimate while producer and consumer are active.
+   *
+   * @return Number of queued elements
+   */
+  public int size() {
+    final long size = producerIndex.get() - consumerIndex.get();
+    return (int) Math.max( 0, Math.min( size, slots.length ) );
+  }
+
+  /**
+   * @return Maximum number of elements the buffer can hold
+   */
+  public int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * Removes all elements. Must only be called while neither the producer nor the consumer are active.
+   */
+  public void clear() {
+    while ( poll() != null ) {
+      continue;
+    }
+  }
+}
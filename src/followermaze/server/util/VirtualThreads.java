@@ -0,0 +1,76 @@
+package followermaze.server.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to the virtual threads of modern JVMs. The server is compiled for Java 7, so the factory method is looked up via reflection and virtual threads are only used if the running JVM provides
+ * them.
+ *
+ */
+public final class VirtualThreads {
+
+  /** Executors.newVirtualThreadPerTaskExecutor(), null if not provided by the running JVM */
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookupMethod( "java.util.concurrent.Executors", "newVirtualThreadPerTaskExecutor" );
+
+  /** Thread.ofVirtual(), null if not provided by the running JVM */
+  private static final Method OF_VIRTUAL = lookupMethod( "java.lang.Thread", "ofVirtual" );
+
+  /** Thread.Builder.factory(), null if not provided by the running JVM */
+  private static final Method BUILDER_FACTORY = lookupMethod( "java.lang.Thread$Builder", "factory" );
+
+  private VirtualThreads() {
+  }
+
+  /**
+   * @return True, if the running JVM supports virtual threads
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null && OF_VIRTUAL != null && BUILDER_FACTORY != null;
+  }
+
+  /**
+   * Creates an executor that starts a new virtual thread for each task
+   *
+   * @return Executor running every task on its own virtual thread
+   * @throws UnsupportedOperationException
+   *           The running JVM does not support virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() throws UnsupportedOperationException {
+    if ( NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null ) {
+      throw new UnsupportedOperationException( "Virtual threads are not supported by this JVM." );
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke( null );
+    } catch ( Exception e ) {
+      throw new UnsupportedOperationException( "Could not create virtual thread executor.", e );
+    }
+  }
+
+  /**
+   * Creates a thread factory creating virtual threads, used where tasks have to run one after another on a single thread
+   *
+   * @return Factory creating virtual threads
+   * @throws UnsupportedOperationException
+   *           The running JVM does not support virtual threads
+   */
+  public static ThreadFactory newThreadFactory() throws UnsupportedOperationException {
+    if ( !isSupported() ) {
+      throw new UnsupportedOperationException( "Virtual threads are not supported by this JVM." );
+    }
+    try {
+      return (ThreadFactory) BUILDER_FACTORY.invoke( OF_VIRTUAL.invoke( null ) );
+    } catch ( Exception e ) {
+      throw new UnsupportedOperationException( "Could not create virtual thread factory.", e );
+    }
+  }
+
+  private static Method lookupMethod( final String className, final String methodName ) {
+    try {
+      return Class.forName( className ).getMethod( methodName );
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package followermaze.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.dispatcher.ServerManager;
+
+/**
+ * Measures the cost of the write-ahead event log for every fsync policy compared to a server without log. Every run starts a server logging into a new temporary directory, connects the clients and
+ * sends a generated workload, the time until all notifications have arrived is measured. A warm-up run of every mode is discarded, afterwards the modes are run in turns for a number of rounds, so
+ * drifts of the machine hit all modes alike, and the median of every mode is reported. Usage: EventLogBenchmark [clients] [events] [rounds]
+ */
+public class EventLogBenchmark {
+
+  private static final int EVENT_SOURCE_PORT = 9090;
+
+  private static final int CLIENT_PORT = 9099;
+
+  private static final long RUN_TIMEOUT = 120000;
+
+  private static final String DISABLED = "disabled";
+
+  private static final String[] MODES = { DISABLED, ConfigService.EVENT_LOG_FSYNC_NEVER, ConfigService.EVENT_LOG_FSYNC_INTERVAL, ConfigService.EVENT_LOG_FSYNC_ALWAYS };
+
+  public static void main( String[] args ) throws Exception {
+    final int numberOfClients = args.length > 0 ? Integer.parseInt( args[0] ) : 100;
+    final int numberOfEvents = args.length > 1 ? Integer.parseInt( args[1] ) : 200000;
+    final int numberOfRounds = args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+    final LoadGenerator.Workload workload = LoadGenerator.createWorkload( numberOfClients, numberOfEvents, 42 );
+
+    for ( String curMode : MODES ) {
+      run( curMode, numberOfClients, workload );
+    }
+
+    final long[][] millis = new long[MODES.length][numberOfRounds];
+    for ( int round = 0; round < numberOfRounds; round++ ) {
+      for ( int mode = 0; mode < MODES.length; mode++ ) {
+        millis[mode][round] = run( MODES[mode], numberOfClients, workload );
+        System.out.println( "Round " + (round + 1) + ", " + MODES[mode] + ": " + millis[mode][round] + " ms" );
+      }
+    }
+
+    for ( int mode = 0; mode < MODES.length; mode++ ) {
+      Arrays.sort( millis[mode] );
+      if ( millis[mode][0] < 0 ) {
+        System.out.println( MODES[mode] + ": failed in at least one round" );
+        continue;
+      }
+      final long median = millis[mode][numberOfRounds / 2];
+      System.out.println( MODES[mode] + ": " + numberOfClients + " clients, " + numberOfEvents + " events, " + workload.getExpectedNotifications() + " notifications, median " + median + " ms ("
+          + (workload.getExpectedNotifications() * 1000 / Math.max( 1, median )) + " notifications/s), min " + millis[mode][0] + " ms, max " + millis[mode][numberOfRounds - 1] + " ms" );
+    }
+    System.clearProperty( "eventLogDirectory" );
+    System.clearProperty( "eventLogFsyncPolicy" );
+  }
+
+  /**
+   * Starts a server with the log mode, sends the workload and stops the server again
+   *
+   * @return Time in ms until all notifications have arrived, -1 if the run failed
+   */
+  private static long run( final String fsyncPolicy, int numberOfClients, final LoadGenerator.Workload workload ) throws Exception {
+    final File logDirectory = Files.createTempDirectory( "followermaze-log" ).toFile();
+    if ( DISABLED.equals( fsyncPolicy ) ) {
+      System.clearProperty( "eventLogDirectory" );
+    } else {
+      System.setProperty( "eventLogDirectory", logDirectory.getPath() );
+    }
+    System.setProperty( "eventLogFsyncPolicy", fsyncPolicy );
+
+    final ServerManager serverManager = new ServerManager();
+    serverManager.startUpServers( EVENT_SOURCE_PORT, CLIENT_PORT );
+    final LoadGenerator loadGenerator = new LoadGenerator( EVENT_SOURCE_PORT, CLIENT_PORT );
+    try {
+      if ( !loadGenerator.connectClients( numberOfClients ) ) {
+        System.out.println( fsyncPolicy + ": not all of " + numberOfClients + " clients could be registered" );
+        return -1;
+      }
+      final long millis = loadGenerator.run( workload, RUN_TIMEOUT );
+      if ( millis < 0 ) {
+        System.out.println( fsyncPolicy + ": timeout, received " + loadGenerator.getReceivedNotifications() + " of " + workload.getExpectedNotifications() + " notifications" );
+      }
+      return millis;
+    } finally {
+      loadGenerator.close();
+      serverManager.stopServers();
+      final File[] segments = logDirectory.listFiles();
+      if ( segments != null ) {
+        for ( File curSegment : segments ) {
+          curSegment.delete();
+        }
+      }
+      logDirectory.delete();
+    }
+  }
+}
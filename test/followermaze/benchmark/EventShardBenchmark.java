@@ -0,0 +1,51 @@
+package followermaze.benchmark;
+
+import followermaze.server.dispatcher.ServerManager;
+import followermaze.server.service.UserRegistryService;
+
+/**
+ * Measures the speedup of processing the events on several user-sharded threads. Every run starts a server with the given number of event shards, connects the clients and sends a generated workload,
+ * the time until all notifications have arrived is reported for 1, 2, 4, ... shards up to the number of available processors. Usage: EventShardBenchmark [clients] [events] [max shards]
+ */
+public class EventShardBenchmark {
+
+  private static final int EVENT_SOURCE_PORT = 9090;
+
+  private static final int CLIENT_PORT = 9099;
+
+  private static final long RUN_TIMEOUT = 120000;
+
+  public static void main( String[] args ) throws Exception {
+    final int numberOfClients = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+    final int numberOfEvents = args.length > 1 ? Integer.parseInt( args[1] ) : 1000000;
+    final LoadGenerator.Workload workload = LoadGenerator.createWorkload( numberOfClients, numberOfEvents, 42 );
+
+    final int maxShards = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+    for ( int shards = 1; shards <= maxShards; shards <<= 1 ) {
+      System.setProperty( "eventShards", String.valueOf( shards ) );
+      // the partitions are created when the registry is reset
+      UserRegistryService.INSTANCE.reset();
+
+      final ServerManager serverManager = new ServerManager();
+      serverManager.startUpServers( EVENT_SOURCE_PORT, CLIENT_PORT );
+      final LoadGenerator loadGenerator = new LoadGenerator( EVENT_SOURCE_PORT, CLIENT_PORT );
+      try {
+        if ( !loadGenerator.connectClients( numberOfClients ) ) {
+          System.out.println( shards + " shards: not all of " + numberOfClients + " clients could be registered" );
+          continue;
+        }
+        final long millis = loadGenerator.run( workload, RUN_TIMEOUT );
+        if ( millis < 0 ) {
+          System.out.println( shards + " shards: timeout, received " + loadGenerator.getReceivedNotifications() + " of " + workload.getExpectedNotifications() + " notifications" );
+        } else {
+          System.out.println( shards + " shards: " + numberOfClients + " clients, " + numberOfEvents + " events, " + workload.getExpectedNotifications() + " notifications in " + millis + " ms ("
+              + (workload.getExpectedNotifications() * 1000 / Math.max( 1, millis )) + " notifications/s)" );
+        }
+      } finally {
+        loadGenerator.close();
+        serverManager.stopServers();
+      }
+    }
+    System.clearProperty( "eventShards" );
+  }
+}
@@ -0,0 +1,283 @@
+package followermaze.benchmark;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import followermaze.server.service.UserRegistryService;
+
+/**
+ * Drives a server running in the same JVM with a generated workload and measures the time until all notifications have arrived at the clients. The clients are read by a single selector thread, so
+ * the load generator does not need a thread per connection itself.
+ */
+public class LoadGenerator {
+
+  /** Message terminator */
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  /** Encoding used in communication with the server */
+  private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  /** Max wait time in ms for all clients to be registered at the server */
+  private static final long REGISTRATION_TIMEOUT = 30000;
+
+  /**
+   * Generated events and the number of notifications they cause if all users are connected
+   */
+  public static class Workload {
+
+    /** Events in wire format */
+    final byte[] events;
+
+    /** Number of events */
+    final int numberOfEvents;
+
+    /** Number of notifications sent to the clients */
+    final long expectedNotifications;
+
+    Workload( final byte[] events, int numberOfEvents, long expectedNotifications ) {
+      this.events = events;
+      this.numberOfEvents = numberOfEvents;
+      this.expectedNotifications = expectedNotifications;
+    }
+
+    public long getExpectedNotifications() {
+      return expectedNotifications;
+    }
+  }
+
+  /** Port on which the event source connects to the server */
+  private final int eventPort;
+
+  /** Port on which clients connect to the server */
+  private final int clientPort;
+
+  /** Connected clients */
+  private final List<SocketChannel> clients = new ArrayList<SocketChannel>();
+
+  /** Number of notifications received by all clients */
+  private final AtomicLong receivedNotifications = new AtomicLong();
+
+  /** Selector multiplexing the client connections */
+  private Selector selector = null;
+
+  /** Thread reading from the client connections */
+  private Thread readerThread = null;
+
+  /** Controls the reader loop */
+  private volatile boolean running = false;
+
+  /**
+   * @param eventPort
+   *          Port on which the event source connects to the server
+   * @param clientPort
+   *          Port on which clients connect to the server
+   */
+  public LoadGenerator( int eventPort, int clientPort ) {
+    this.eventPort = eventPort;
+    this.clientPort = clientPort;
+  }
+
+  /**
+   * Generates a mix of all event types between the users 1 to numberOfUsers
+   *
+   * @param numberOfUsers
+   *          Number of users
+   * @param numberOfEvents
+   *          Number of events
+   * @param seed
+   *          Seed of the random generator
+   * @return Generated workload
+   */
+  public static Workload createWorkload( int numberOfUsers, int numberOfEvents, long seed ) {
+    final Random random = new Random( seed );
+    final Map<Integer, Set<Integer>> followers = new HashMap<Integer, Set<Integer>>();
+    final StringBuilder events = new StringBuilder( numberOfEvents * 16 );
+    long expectedNotifications = 0;
+
+    for ( int sequenceNumber = 1; sequenceNumber <= numberOfEvents; sequenceNumber++ ) {
+      final int from = random.nextInt( numberOfUsers ) + 1;
+      final int to = random.nextInt( numberOfUsers ) + 1;
+      final int type = random.nextInt( 1000 );
+      Set<Integer> followersOfTo = followers.get( to );
+      if ( type < 350 ) {
+        events.append( sequenceNumber ).append( "|F|" ).append( from ).append( '|' ).append( to );
+        if ( followersOfTo == null ) {
+          followersOfTo = new HashSet<Integer>();
+          followers.put( to, followersOfTo );
+        }
+        followersOfTo.add( from );
+        expectedNotifications++;
+      } else if ( type < 450 ) {
+        events.append( sequenceNumber ).append( "|U|" ).append( from ).append( '|' ).append( to );
+        if ( followersOfTo != null ) {
+          followersOfTo.remove( from );
+        }
+      } else if ( type < 850 ) {
+        events.append( sequenceNumber ).append( "|S|" ).append( from );
+        final Set<Integer> followersOfFrom = followers.get( from );
+        expectedNotifications += followersOfFrom == null ? 0 : followersOfFrom.size();
+      } else if ( type < 995 ) {
+        events.append( sequenceNumber ).append( "|P|" ).append( from ).append( '|' ).append( to );
+        expectedNotifications++;
+      } else {
+        events.append( sequenceNumber ).append( "|B" );
+        expectedNotifications += numberOfUsers;
+      }
+      events.append( MESSAGE_TERMINATOR );
+    }
+    return new Workload( events.toString().getBytes( CHARSET ), numberOfEvents, expectedNotifications );
+  }
+
+  /**
+   * Connects and registers the users 1 to numberOfClients and starts reading from their connections
+   *
+   * @param numberOfClients
+   *          Number of clients
+   * @return True, if all clients have been registered at the server in time
+   * @throws IOException
+   *           Connecting a client failed
+   * @throws InterruptedException
+   *           Interrupted while waiting for the registration
+   */
+  public boolean connectClients( int numberOfClients ) throws IOException, InterruptedException {
+    selector = Selector.open();
+    for ( int userId = 1; userId <= numberOfClients; userId++ ) {
+      final SocketChannel client = SocketChannel.open( new InetSocketAddress( InetAddress.getLoopbackAddress(), clientPort ) );
+      writeFully( client, ByteBuffer.wrap( (userId + MESSAGE_TERMINATOR).getBytes( CHARSET ) ) );
+      client.configureBlocking( false );
+      client.register( selector, SelectionKey.OP_READ );
+      clients.add( client );
+    }
+
+    running = true;
+    readerThread = new Thread( new Runnable() {
+
+      @Override
+      public void run() {
+        readNotifications();
+      }
+    }, "LoadGeneratorReader" );
+    readerThread.start();
+
+    final long deadline = System.currentTimeMillis() + REGISTRATION_TIMEOUT;
+    while ( UserRegistryService.INSTANCE.getAllRegisteredUser().size() < numberOfClients ) {
+      if ( System.currentTimeMillis() > deadline ) {
+        return false;
+      }
+      Thread.sleep( 10 );
+    }
+    return true;
+  }
+
+  /**
+   * Sends the events of the workload and waits until all notifications have been received
+   *
+   * @param workload
+   *          Workload to be sent, the sequence numbers have to continue the ones sent before
+   * @param timeoutMillis
+   *          Max wait time in ms for the notifications
+   * @return Time in ms until all notifications have been received, -1 if the timeout has been reached
+   * @throws IOException
+   *           Sending the events failed
+   * @throws InterruptedException
+   *           Interrupted while waiting for the notifications
+   */
+  public long run( final Workload workload, long timeoutMillis ) throws IOException, InterruptedException {
+    final long expected = receivedNotifications.get() + workload.expectedNotifications;
+    final long start = System.nanoTime();
+    final SocketChannel eventSource = SocketChannel.open( new InetSocketAddress( InetAddress.getLoopbackAddress(), eventPort ) );
+    try {
+      writeFully( eventSource, ByteBuffer.wrap( workload.events ) );
+      final long deadline = System.currentTimeMillis() + timeoutMillis;
+      while ( receivedNotifications.get() < expected ) {
+        if ( System.currentTimeMillis() > deadline ) {
+          return -1;
+        }
+        Thread.sleep( 1 );
+      }
+      return (System.nanoTime() - start) / 1000000;
+    } finally {
+      eventSource.close();
+    }
+  }
+
+  /**
+   * @return Number of notifications received by all clients so far
+   */
+  public long getReceivedNotifications() {
+    return receivedNotifications.get();
+  }
+
+  /**
+   * Stops reading and disconnects all clients
+   */
+  public void close() throws IOException, InterruptedException {
+    running = false;
+    if ( selector != null ) {
+      selector.wakeup();
+    }
+    if ( readerThread != null ) {
+      readerThread.join();
+    }
+    for ( SocketChannel client : clients ) {
+      client.close();
+    }
+    clients.clear();
+    if ( selector != null ) {
+      selector.close();
+    }
+  }
+
+  /**
+   * Reader loop, counts the received message terminators
+   */
+  private void readNotifications() {
+    final ByteBuffer buffer = ByteBuffer.allocate( 64 * 1024 );
+    try {
+      while ( running ) {
+        selector.select( 100 );
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while ( keys.hasNext() ) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          buffer.clear();
+          final int read = ((SocketChannel) key.channel()).read( buffer );
+          if ( read < 0 ) {
+            key.cancel();
+            continue;
+          }
+          int terminators = 0;
+          for ( int i = 0; i < read; i++ ) {
+            if ( buffer.get( i ) == '\n' ) {
+              terminators++;
+            }
+          }
+          receivedNotifications.addAndGet( terminators );
+        }
+      }
+    } catch ( IOException e ) {
+      System.err.println( "Error reading notifications: " + e );
+    }
+  }
+
+  private static void writeFully( final SocketChannel channel, final ByteBuffer buffer ) throws IOException {
+    while ( buffer.hasRemaining() ) {
+      channel.write( buffer );
+    }
+  }
+}
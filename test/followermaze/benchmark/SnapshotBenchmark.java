@@ -0,0 +1,69 @@
+package followermaze.benchmark;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Random;
+
+import followermaze.server.model.event.EventFactory;
+import followermaze.server.service.EventHandlerService;
+import followermaze.server.service.MetricsService;
+import followermaze.server.service.SnapshotService;
+import followermaze.server.service.UserRegistryService;
+
+/**
+ * Measures the pauses caused by capturing a snapshot of a large follower graph, the time needed to write it and the time needed to restore it. The graph is built by random follow events passed
+ * through the sequencer and the event shards, a snapshot is written on shutdown of the snapshot service and restored when the service is started again. The pause of the sequencer and the longest
+ * pause of a shard are reported separately from the time until the snapshot has been captured completely and the time needed to write it. Usage: SnapshotBenchmark [users] [follows] [shards]
+ */
+public class SnapshotBenchmark {
+
+  private static final long PROCESSING_TIMEOUT = 600000;
+
+  public static void main( String[] args ) throws Exception {
+    final int numberOfUsers = args.length > 0 ? Integer.parseInt( args[0] ) : 1000000;
+    final int numberOfFollows = args.length > 1 ? Integer.parseInt( args[1] ) : 10000000;
+    final int numberOfShards = args.length > 2 ? Integer.parseInt( args[2] ) : 4;
+
+    final File snapshotFile = File.createTempFile( "followermaze", ".snapshot" );
+    snapshotFile.delete();
+    System.setProperty( "snapshotFile", snapshotFile.getPath() );
+    System.setProperty( "snapshotIntervalSeconds", "0" );
+    System.setProperty( "eventShards", String.valueOf( numberOfShards ) );
+    try {
+      EventHandlerService.INSTANCE.reset();
+      UserRegistryService.INSTANCE.reset();
+      SnapshotService.INSTANCE.start();
+      final Random random = new Random( 42 );
+      for ( int i = 1; i <= numberOfFollows; i++ ) {
+        EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( i + "|F|" + (random.nextInt( numberOfUsers ) + 1) + "|" + (random.nextInt( numberOfUsers ) + 1) + "\r\n" ) );
+      }
+      final long deadline = System.currentTimeMillis() + PROCESSING_TIMEOUT;
+      while ( EventHandlerService.INSTANCE.getNextSequenceNumber() <= numberOfFollows && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 10 );
+      }
+
+      long start = System.nanoTime();
+      SnapshotService.INSTANCE.stop();
+      final long millis = (System.nanoTime() - start) / 1000000;
+      final Map<String, Long> metrics = MetricsService.INSTANCE.getSnapshot();
+      System.out.println( "Snapshot after " + numberOfFollows + " follow events on " + numberOfShards + " shards: " + snapshotFile.length() / (1024 * 1024) + " MB in " + millis
+          + " ms, sequencer paused " + metrics.get( "snapshots.sequencerPauseMicros" ) + " us, shards paused at most " + metrics.get( "snapshots.partitionPauseMicros" ) + " us, captured in "
+          + metrics.get( "snapshots.captureMillis" ) + " ms, written in " + metrics.get( "snapshots.writeMillis" ) + " ms" );
+
+      EventHandlerService.INSTANCE.reset();
+      UserRegistryService.INSTANCE.reset();
+      System.gc();
+      start = System.nanoTime();
+      SnapshotService.INSTANCE.start();
+      System.out.println( "Snapshot after " + numberOfFollows + " follow events restored in " + (System.nanoTime() - start) / 1000000 + " ms" );
+      SnapshotService.INSTANCE.stop();
+    } finally {
+      EventHandlerService.INSTANCE.reset();
+      UserRegistryService.INSTANCE.reset();
+      System.clearProperty( "snapshotFile" );
+      System.clearProperty( "snapshotIntervalSeconds" );
+      System.clearProperty( "eventShards" );
+      snapshotFile.delete();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package followermaze.benchmark;
+
+import followermaze.server.config.ConfigService;
+import followermaze.server.dispatcher.ServerManager;
+import followermaze.server.util.VirtualThreads;
+
+/**
+ * Compares platform and virtual threads for the blocking thread-per-connection mode. Every run starts a server, connects the clients and sends a generated workload, the time until all notifications
+ * have arrived is reported. Usage: ThreadModeBenchmark [clients] [events]
+ */
+public class ThreadModeBenchmark {
+
+  private static final int EVENT_SOURCE_PORT = 9090;
+
+  private static final int CLIENT_PORT = 9099;
+
+  private static final long RUN_TIMEOUT = 120000;
+
+  public static void main( String[] args ) throws Exception {
+    final int numberOfClients = args.length > 0 ? Integer.parseInt( args[0] ) : 100;
+    final int numberOfEvents = args.length > 1 ? Integer.parseInt( args[1] ) : 200000;
+    final LoadGenerator.Workload workload = LoadGenerator.createWorkload( numberOfClients, numberOfEvents, 42 );
+
+    System.setProperty( "userClientIoMode", ConfigService.USER_CLIENT_IO_MODE_THREAD_PER_CONNECTION );
+    for ( String threadMode : new String[] { ConfigService.THREAD_MODE_PLATFORM, ConfigService.THREAD_MODE_VIRTUAL } ) {
+      if ( ConfigService.THREAD_MODE_VIRTUAL.equals( threadMode ) && !VirtualThreads.isSupported() ) {
+        System.out.println( threadMode + ": not supported by this JVM, build with -Pjdk21 and run on JDK 21+" );
+        continue;
+      }
+      System.setProperty( "threadMode", threadMode );
+
+      final ServerManager serverManager = new ServerManager();
+      serverManager.startUpServers( EVENT_SOURCE_PORT, CLIENT_PORT );
+      final LoadGenerator loadGenerator = new LoadGenerator( EVENT_SOURCE_PORT, CLIENT_PORT );
+      try {
+        if ( !loadGenerator.connectClients( numberOfClients ) ) {
+          System.out.println( threadMode + ": not all of " + numberOfClients + " clients could be registered" );
+          continue;
+        }
+        final long millis = loadGenerator.run( workload, RUN_TIMEOUT );
+        if ( millis < 0 ) {
+          System.out.println( threadMode + ": timeout, received " + loadGenerator.getReceivedNotifications() + " of " + workload.getExpectedNotifications() + " notifications" );
+        } else {
+          System.out.println( threadMode + ": " + numberOfClients + " clients, " + numberOfEvents + " events, " + workload.getExpectedNotifications() + " notifications in " + millis + " ms ("
+              + (workload.getExpectedNotifications() * 1000 / Math.max( 1, millis )) + " notifications/s)" );
+        }
+      } finally {
+        loadGenerator.close();
+        serverManager.stopServers();
+      }
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package followermaze.server.dispatcher;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * Test class tests the LineFramer by reading messages of different lengths through small read buffers and comparing the returned messages.
+ */
+public class TestLineFramer {
+
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+  // messages spanning several reads have to be carried over to the next read
+  @Test
+  public void testMessagesSpanningReads() throws Exception {
+
+    final String input = "1|F|1|2" + MESSAGE_TERMINATOR + "2|B" + MESSAGE_TERMINATOR + "3|S|1" + MESSAGE_TERMINATOR;
+    final List<String> messages = readAll( input, 4, 64 );
+
+    assertTrue( "ERROR: Expected 3 messages, received " + messages, messages.size() == 3 );
+    assertTrue( "ERROR: Invalid first message: " + messages.get( 0 ), messages.get( 0 ).equals( "1|F|1|2" + MESSAGE_TERMINATOR ) );
+    assertTrue( "ERROR: Invalid second message: " + messages.get( 1 ), messages.get( 1 ).equals( "2|B" + MESSAGE_TERMINATOR ) );
+    assertTrue( "ERROR: Invalid third message: " + messages.get( 2 ), messages.get( 2 ).equals( "3|S|1" + MESSAGE_TERMINATOR ) );
+  }
+
+  // messages longer than the initial buffer grow the buffer
+  @Test
+  public void testMessageLongerThanBuffer() throws Exception {
+
+    final StringBuilder longMessage = new StringBuilder( "1|P|1|2|" );
+    for ( int i = 0; i < 100; i++ ) {
+      longMessage.append( i );
+    }
+    longMessage.append( MESSAGE_TERMINATOR );
+
+    final List<String> messages = readAll( longMessage.toString() + "2|B" + MESSAGE_TERMINATOR, 8, 1024 );
+
+    assertTrue( "ERROR: Expected 2 messages, received " + messages, messages.size() == 2 );
+    assertTrue( "ERROR: Invalid long message: " + messages.get( 0 ), messages.get( 0 ).equals( longMessage.toString() ) );
+    assertTrue( "ERROR: Invalid second message: " + messages.get( 1 ), messages.get( 1 ).equals( "2|B" + MESSAGE_TERMINATOR ) );
+  }
+
+  // messages exceeding the maximum length are rejected
+  @Test( expected = IllegalStateException.class )
+  public void testMessageExceedingMaxLength() throws Exception {
+    readAll( "12345678901234567890" + MESSAGE_TERMINATOR, 4, 16 );
+  }
+
+  /**
+   * Reads the passed in input through a LineFramer and returns the messages
+   *
+   * @param input
+   *          Bytes sent to the framer
+   * @param initialCapacity
+   *          Initial capacity of the read buffer
+   * @param maxCapacity
+   *          Maximum capacity of the read buffer
+   * @return All complete messages
+   * @throws Exception
+   */
+  private List<String> readAll( final String input, int initialCapacity, int maxCapacity ) throws Exception {
+    final ReadableByteChannel channel = Channels.newChannel( new ByteArrayInputStream( input.getBytes( CHARSET ) ) );
+    final LineFramer framer = new LineFramer( initialCapacity, maxCapacity );
+    final List<String> result = new ArrayList<String>();
+    while ( framer.readFrom( channel ) != -1 ) {
+      ByteBuffer frame = null;
+      while ( (frame = framer.nextFrame()) != null ) {
+        result.add( CHARSET.decode( frame ).toString() );
+      }
+    }
+    return result;
+  }
+}
@@ -2,11 +2,16 @@ package followermaze.server.event;
 
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
 import org.junit.Test;
 
 import followermaze.server.model.event.BroadcastEvent;
 import followermaze.server.model.event.Event;
 import followermaze.server.model.event.EventFactory;
+import followermaze.server.model.event.EventParser;
+import followermaze.server.model.event.EventPool;
 import followermaze.server.model.event.FollowEvent;
 import followermaze.server.model.event.PrivateMsgEvent;
 import followermaze.server.model.event.StatusUpdateEvent;
@@ -89,5 +94,66 @@ public class TestEventFactory {
     event = EventFactory.createEvent( eventStr );
     assertTrue( "ERROR: Expected null, received " + event, event == null );
 
+    eventStr = "1|FF|1|2" + MESSAGE_TERMINATOR;
+    event = EventFactory.createEvent( eventStr );
+    assertTrue( "ERROR: Expected null, received " + event, event == null );
+
+    eventStr = "2147483648|B" + MESSAGE_TERMINATOR;
+    event = EventFactory.createEvent( eventStr );
+    assertTrue( "ERROR: Expected null, received " + event, event == null );
+
+    eventStr = "1|P|1|2a" + MESSAGE_TERMINATOR;
+    event = EventFactory.createEvent( eventStr );
+    assertTrue( "ERROR: Expected null, received " + event, event == null );
+
+  }
+
+  // parse the raw bytes of a message and check the extracted values
+  @Test
+  public void testCreateEventFromBytes() {
+
+    final EventParser parser = new EventParser();
+    final String eventStr = "1|F|1|2" + MESSAGE_TERMINATOR + "2147483647|P|-5|+17" + MESSAGE_TERMINATOR;
+    final ByteBuffer buffer = ByteBuffer.wrap( eventStr.getBytes( Charset.forName( "UTF-8" ) ) );
+
+    // only parse the second message
+    buffer.position( eventStr.indexOf( MESSAGE_TERMINATOR ) + MESSAGE_TERMINATOR.length() );
+    final Event event = EventFactory.createEvent( buffer, parser );
+    assertTrue( "ERROR: Invalid event creation, expected PrivateMessageEvent, received " + event, event instanceof PrivateMsgEvent );
+    assertTrue( "ERROR: Invalid sequence number " + event.getSequenceNumber(), event.getSequenceNumber() == Integer.MAX_VALUE );
+    assertTrue( "ERROR: Invalid from user " + event.getFromUserId(), event.getFromUserId() == -5 );
+    assertTrue( "ERROR: Invalid to user " + event.getToUserId(), event.getToUserId() == 17 );
+  }
+
+  // trailing separators are ignored like the former String.split() based parsing did
+  @Test
+  public void testTrailingSeparators() {
+
+    final String eventStr = "3|S|7|" + MESSAGE_TERMINATOR;
+    final Event event = EventFactory.createEvent( eventStr );
+    assertTrue( "ERROR: Invalid event creation, expected StatusUpdateEvent, received " + event, event instanceof StatusUpdateEvent );
+    assertTrue( "ERROR: Invalid from user " + event.getFromUserId(), event.getFromUserId() == 7 );
+  }
+
+  // recycled events are reused for the next message of the same type and carry its values
+  @Test
+  public void testPooledEvents() {
+
+    final EventParser parser = new EventParser();
+    final EventPool pool = new EventPool( 4 );
+    final Event first = EventFactory.createEvent( wrap( "1|F|1|2" + MESSAGE_TERMINATOR ), parser, pool );
+    first.recycle();
+
+    final Event second = EventFactory.createEvent( wrap( "2|F|3|4" + MESSAGE_TERMINATOR ), parser, pool );
+    assertTrue( "ERROR: Recycled event not reused", first == second );
+    assertTrue( "ERROR: Invalid values of reused event " + second, second.getSequenceNumber() == 2 && second.getFromUserId() == 3 && second.getToUserId() == 4 );
+    assertTrue( "ERROR: Invalid message length " + second.getMessageLength(), second.getMessageLength() == 9 );
+
+    final Event third = EventFactory.createEvent( wrap( "3|B" + MESSAGE_TERMINATOR ), parser, pool );
+    assertTrue( "ERROR: Event reused for different type", third != second && third instanceof BroadcastEvent );
+  }
+
+  private static ByteBuffer wrap( final String message ) {
+    return ByteBuffer.wrap( message.getBytes( Charset.forName( "UTF-8" ) ) );
   }
 }
@@ -0,0 +1,200 @@
+package followermaze.server.model.graph;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import followermaze.server.util.IntVisitor;
+
+/**
+ *
+ * Test class tests the adaptive follower sets of the IntFollowerGraph by growing and shrinking a follower set through all representations and comparing it with a java.util set. The mapped graph,
+ * whose cache and regions are small enough to evict users and grow blocks all the time, has to match the graph built on the heap from the same events.
+ */
+public class TestFollowerGraph {
+
+  private static final int FOLLOWED_ID = 42;
+
+  /** Number of follow and unfollow events applied to the mapped graph */
+  private static final int NUMBER_OF_EVENTS = 400000;
+
+  /** Number of followed users in the events applied to the mapped graph */
+  private static final int NUMBER_OF_FOLLOWED_USERS = 1000;
+
+  /** Cache size of the mapped graph, users with more than 1/16 of it are modified in place */
+  private static final int MAPPED_CACHE_SIZE = 1024;
+
+  /** Regions of 2^16 byte hold blocks of up to 16384 followers */
+  private static final int MAPPED_REGION_SHIFT = 16;
+
+  // the representation is promoted and demoted depending on the number of followers
+  @Test
+  public void testPromotionAndDemotion() {
+
+    final IntFollowerGraph graph = new IntFollowerGraph();
+    final Set<Integer> expected = new HashSet<Integer>();
+    final Random random = new Random( 3 );
+
+    addFollowers( graph, expected, random, IntFollowerGraph.MAX_SMALL_SET_SIZE );
+    assertRepresentation( graph, SmallFollowerSet.class );
+    addFollowers( graph, expected, random, 1 );
+    assertRepresentation( graph, HashFollowerSet.class );
+    addFollowers( graph, expected, random, IntFollowerGraph.MAX_HASH_SET_SIZE - expected.size() + 1 );
+    assertRepresentation( graph, BitmapFollowerSet.class );
+    // dense ID range turns array containers into bitmap containers
+    for ( int i = 0; i < 10000; i++ ) {
+      graph.addFollower( FOLLOWED_ID, i );
+      expected.add( i );
+    }
+    assertFollowers( graph, expected );
+
+    removeFollowers( graph, expected, expected.size() - IntFollowerGraph.MIN_BITMAP_SET_SIZE );
+    assertRepresentation( graph, BitmapFollowerSet.class );
+    removeFollowers( graph, expected, 1 );
+    assertRepresentation( graph, HashFollowerSet.class );
+    removeFollowers( graph, expected, expected.size() - IntFollowerGraph.MIN_HASH_SET_SIZE );
+    assertRepresentation( graph, SmallFollowerSet.class );
+    removeFollowers( graph, expected, expected.size() );
+    assertTrue( "ERROR: Empty follower set not removed", graph.getRepresentation( FOLLOWED_ID ) == null );
+  }
+
+  // duplicates and unknown followers are reported in every representation
+  @Test
+  public void testDuplicates() {
+
+    final IntFollowerGraph graph = new IntFollowerGraph();
+    final int[] sizes = { 2, IntFollowerGraph.MAX_SMALL_SET_SIZE + 1, IntFollowerGraph.MAX_HASH_SET_SIZE + 1 };
+    for ( int size : sizes ) {
+      graph.clear();
+      for ( int i = 0; i < size; i++ ) {
+        graph.addFollower( FOLLOWED_ID, -i * 65537 );
+      }
+      assertTrue( "ERROR: Accepted duplicate follower at size " + size, !graph.addFollower( FOLLOWED_ID, -65537 ) );
+      assertTrue( "ERROR: Removed unknown follower at size " + size, !graph.removeFollower( FOLLOWED_ID, 1 ) );
+      assertTrue( "ERROR: Invalid follower count " + graph.getFollowerCount( FOLLOWED_ID ), graph.getFollowerCount( FOLLOWED_ID ) == size );
+    }
+  }
+
+  // the mapped graph evicts, reloads and grows the blocks of its users and equals the graph built on the heap
+  @Test
+  public void testMappedGraph() throws Exception {
+
+    final Random random = new Random( 11 );
+    final IntFollowerGraph heapGraph = new IntFollowerGraph();
+    final Path directory = Files.createTempDirectory( "followermaze" );
+    final MappedFollowerGraph mappedGraph = new MappedFollowerGraph( directory, MAPPED_CACHE_SIZE, MAPPED_REGION_SHIFT );
+    try {
+      for ( int i = 0; i < NUMBER_OF_EVENTS; i++ ) {
+        final int followedId = random.nextInt( NUMBER_OF_FOLLOWED_USERS ) - 10;
+        // a few users get too many followers to be loaded into the cache
+        final int followerId = followedId < 0 ? random.nextInt( 5000 ) : random.nextInt( 50 );
+        if ( random.nextInt( 4 ) != 0 ) {
+          assertTrue( "ERROR: Follow " + i + " differs", mappedGraph.addFollower( followedId, followerId ) == heapGraph.addFollower( followedId, followerId ) );
+        } else {
+          assertTrue( "ERROR: Unfollow " + i + " differs", mappedGraph.removeFollower( followedId, followerId ) == heapGraph.removeFollower( followedId, followerId ) );
+        }
+        assertTrue( "ERROR: Cache holds " + mappedGraph.getNumberOfCachedUsers() + " users", mappedGraph.getNumberOfCachedUsers() <= MAPPED_CACHE_SIZE );
+      }
+      assertTrue( "ERROR: Blocks did not span several regions", mappedGraph.getAllocatedBytes() > 1L << MAPPED_REGION_SHIFT );
+      assertMappedGraph( mappedGraph, heapGraph );
+
+      // unfollow everybody of some users, their blocks are reused
+      for ( int followedId = -10; followedId < 100; followedId++ ) {
+        for ( Integer curFollower : followersOf( heapGraph, followedId ) ) {
+          assertTrue( "ERROR: Could not remove follower " + curFollower + " of user " + followedId, mappedGraph.removeFollower( followedId, curFollower ) );
+          heapGraph.removeFollower( followedId, curFollower );
+        }
+      }
+      assertMappedGraph( mappedGraph, heapGraph );
+
+      mappedGraph.clear();
+      assertTrue( "ERROR: Followers left after clear", mappedGraph.getFollowerCount( -1 ) == 0 && mappedGraph.getFollowerCount( 500 ) == 0 );
+      assertTrue( "ERROR: Could not add follower after clear", mappedGraph.addFollower( -1, 7 ) && mappedGraph.isFollowing( -1, 7 ) );
+    } finally {
+      mappedGraph.close();
+    }
+    assertTrue( "ERROR: File of the mapped graph not deleted", directory.toFile().list().length == 0 );
+    Files.delete( directory );
+  }
+
+  private static void assertMappedGraph( final MappedFollowerGraph mappedGraph, final IntFollowerGraph heapGraph ) {
+    for ( int followedId = -10; followedId < NUMBER_OF_FOLLOWED_USERS; followedId++ ) {
+      final Set<Integer> expected = followersOf( heapGraph, followedId );
+      assertTrue( "ERROR: Followers of user " + followedId + " differ", followersOf( mappedGraph, followedId ).equals( expected ) );
+      assertTrue( "ERROR: Invalid follower count of user " + followedId, mappedGraph.getFollowerCount( followedId ) == expected.size() );
+      assertTrue( "ERROR: Unknown follower 5000 reported for user " + followedId, mappedGraph.isFollowing( followedId, 5000 ) == expected.contains( 5000 ) );
+      for ( Integer curFollower : expected ) {
+        assertTrue( "ERROR: User " + curFollower + " should follow user " + followedId, mappedGraph.isFollowing( followedId, curFollower ) );
+      }
+    }
+    assertTrue( "ERROR: Followed users differ", followedUsersOf( mappedGraph ).equals( followedUsersOf( heapGraph ) ) );
+  }
+
+  private static Set<Integer> followedUsersOf( final FollowerGraph graph ) {
+    final Set<Integer> visited = new HashSet<Integer>();
+    graph.forEachFollowedUser( new IntVisitor() {
+
+      @Override
+      public void visit( int followedId ) {
+        visited.add( followedId );
+      }
+    } );
+    return visited;
+  }
+
+  private static void addFollowers( final IntFollowerGraph graph, final Set<Integer> expected, final Random random, int count ) {
+    for ( int i = 0; i < count; i++ ) {
+      int followerId = random.nextInt();
+      while ( expected.contains( followerId ) ) {
+        followerId = random.nextInt();
+      }
+      assertTrue( "ERROR: Could not add follower " + followerId, graph.addFollower( FOLLOWED_ID, followerId ) );
+      expected.add( followerId );
+    }
+    assertFollowers( graph, expected );
+  }
+
+  private static void removeFollowers( final IntFollowerGraph graph, final Set<Integer> expected, int count ) {
+    final Integer[] followers = expected.toArray( new Integer[expected.size()] );
+    for ( int i = 0; i < count; i++ ) {
+      assertTrue( "ERROR: Could not remove follower " + followers[i], graph.removeFollower( FOLLOWED_ID, followers[i] ) );
+      expected.remove( followers[i] );
+    }
+    assertFollowers( graph, expected );
+  }
+
+  private static void assertFollowers( final IntFollowerGraph graph, final Set<Integer> expected ) {
+    final Set<Integer> visited = new HashSet<Integer>();
+    final int count = graph.forEachFollower( FOLLOWED_ID, new IntVisitor() {
+
+      @Override
+      public void visit( int followerId ) {
+        visited.add( followerId );
+      }
+    } );
+    assertTrue( "ERROR: Invalid follower count " + count + ", expected " + expected.size(), count == expected.size() );
+    assertTrue( "ERROR: Visited followers differ", visited.equals( expected ) );
+  }
+
+  private static Set<Integer> followersOf( final FollowerGraph graph, int followedId ) {
+    final Set<Integer> visited = new HashSet<Integer>();
+    graph.forEachFollower( followedId, new IntVisitor() {
+
+      @Override
+      public void visit( int followerId ) {
+        visited.add( followerId );
+      }
+    } );
+    return visited;
+  }
+
+  private static void assertRepresentation( final IntFollowerGraph graph, final Class<?> expected ) {
+    assertTrue( "ERROR: Expected " + expected.getSimpleName() + ", found " + graph.getRepresentation( FOLLOWED_ID ), graph.getRepresentation( FOLLOWED_ID ) == expected );
+  }
+}
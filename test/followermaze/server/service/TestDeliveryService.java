@@ -0,0 +1,701 @@
+package followermaze.server.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import followermaze.server.dispatcher.ServerManager;
+import followermaze.server.model.client.Client;
+import followermaze.server.model.graph.FollowerGraph;
+import followermaze.server.model.graph.IntFollowerGraph;
+
+/**
+ *
+ * Test class tests the non-blocking outbound path of the DeliveryService. A client that does not read its socket must not block the single delivery worker, neither with the event loops nor in thread
+ * per connection mode, the messages sent to it are completed once it starts reading again. Messages posted in quick succession are coalesced into few write calls, a payload shared by several
+ * recipients is sent to each of them completely. Broadcasts posted in parallel keep their order relative to the other notifications of each client. Clients exceeding their outbound limits are handled
+ * according to the overflow policy, status updates to backlogged clients are conflated if enabled. Status updates read from the log of a user with many followers are sent in order with the other
+ * notifications of each follower, a follower falling behind the log is handled according to the overflow policy.
+ */
+public class TestDeliveryService {
+
+  /** Logger */
+  private static final Logger logger = LogManager.getLogger( TestDeliveryService.class );
+
+  /** Port on which clients connect in thread per connection mode */
+  private static final int CLIENT_PORT = 9097;
+
+  /** Number of messages sent to the stalled client, large enough to fill the socket buffers */
+  private static final int NUMBER_OF_MESSAGES = 100000;
+
+  /** Number of clients receiving parallel broadcasts */
+  private static final int NUMBER_OF_BROADCAST_CLIENTS = 8;
+
+  /** Number of broadcasts, each followed by a private message to every client */
+  private static final int NUMBER_OF_BROADCASTS = 200;
+
+  /** Number of messages of 1 KB posted to a client exceeding its outbound limits */
+  private static final int NUMBER_OF_OVERFLOW_MESSAGES = 20000;
+
+  /** Number of users sending status updates to test conflation */
+  private static final int NUMBER_OF_UPDATING_USERS = 10;
+
+  /** Number of status updates sent by every user to test conflation */
+  private static final int UPDATES_PER_USER = 2000;
+
+  /** Number of events sent to test the log of a user with many followers, every third one is a private message */
+  private static final int NUMBER_OF_AUTHOR_LOG_EVENTS = 3000;
+
+  /** Number of small messages sent to test coalescing */
+  private static final int NUMBER_OF_SMALL_MESSAGES = 1000;
+
+  private static final String PADDING = "0123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789";
+
+  private ServerSocketChannel serverSocket;
+
+  @Before
+  public void setUp() throws IOException {
+    System.setProperty( "deliveryWorkerThreads", "1" );
+    System.setProperty( "outboundMaxLingerMicros", "2000" );
+    DeliveryService.INSTANCE.reset();
+    serverSocket = ServerSocketChannel.open();
+    serverSocket.bind( new InetSocketAddress( "localhost", 0 ) );
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    DeliveryService.INSTANCE.reset();
+    System.clearProperty( "deliveryWorkerThreads" );
+    System.clearProperty( "outboundMaxLingerMicros" );
+    System.clearProperty( "broadcastParallelThreshold" );
+    System.clearProperty( "broadcastChunkSize" );
+    System.clearProperty( "outboundMaxBytes" );
+    System.clearProperty( "outboundOverflowPolicy" );
+    System.clearProperty( "outboundConflationBacklog" );
+    System.clearProperty( "celebrityFollowerThreshold" );
+    System.clearProperty( "authorLogCapacity" );
+    System.clearProperty( "userClientIoMode" );
+    serverSocket.close();
+  }
+
+  @Test
+  public void testStalledClient() throws Exception {
+
+    final SocketChannel stalledPeer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client stalledClient = new Client( 1, accept() );
+    final SocketChannel otherPeer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client otherClient = new Client( 2, accept() );
+
+    final long expectedBytes = deliverUntilStalled( stalledClient );
+    assertDeliveredWhileStalled( otherClient, otherPeer );
+    assertReceivedInOrder( stalledPeer, expectedBytes );
+
+    stalledClient.closeConnection();
+    otherClient.closeConnection();
+    stalledPeer.close();
+    otherPeer.close();
+  }
+
+  // in thread per connection mode the sockets of the registered clients are non-blocking as well, a client that does not read must not block the single delivery worker
+  @Test
+  public void testStalledClientThreadPerConnection() throws Exception {
+
+    System.setProperty( "userClientIoMode", "threadPerConnection" );
+    final ServerManager serverManager = new ServerManager();
+    serverManager.startUpUserClientDispatcher( CLIENT_PORT );
+    try {
+      final SocketChannel stalledPeer = SocketChannel.open( new InetSocketAddress( "localhost", CLIENT_PORT ) );
+      stalledPeer.write( ByteBuffer.wrap( "1\r\n".getBytes( "UTF-8" ) ) );
+      final SocketChannel otherPeer = SocketChannel.open( new InetSocketAddress( "localhost", CLIENT_PORT ) );
+      otherPeer.write( ByteBuffer.wrap( "2\r\n".getBytes( "UTF-8" ) ) );
+      final long registrationDeadline = System.currentTimeMillis() + 5000;
+      while ( (UserRegistryService.INSTANCE.getClientById( 1 ) == null || UserRegistryService.INSTANCE.getClientById( 2 ) == null) && System.currentTimeMillis() < registrationDeadline ) {
+        Thread.sleep( 10 );
+      }
+      final Client stalledClient = UserRegistryService.INSTANCE.getClientById( 1 );
+      final Client otherClient = UserRegistryService.INSTANCE.getClientById( 2 );
+      assertTrue( "ERROR: Clients have not been registered!", stalledClient != null && otherClient != null );
+
+      final long expectedBytes = deliverUntilStalled( stalledClient );
+      assertDeliveredWhileStalled( otherClient, otherPeer );
+      assertReceivedInOrder( stalledPeer, expectedBytes );
+
+      stalledPeer.close();
+      otherPeer.close();
+    } finally {
+      serverManager.stopServers();
+    }
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client client = new Client( 1, accept() );
+
+    final long writeCallsBefore = MetricsService.INSTANCE.counter( "delivery.writeCalls" ).get();
+    long expectedBytes = 0;
+    for ( int i = 0; i < NUMBER_OF_SMALL_MESSAGES; i++ ) {
+      final String message = i + "|S|1\n";
+      expectedBytes += message.length();
+      DeliveryService.INSTANCE.deliver( client, message );
+    }
+
+    final ByteBuffer readBuffer = ByteBuffer.allocate( 65536 );
+    long receivedBytes = 0;
+    peer.configureBlocking( false );
+    final long deadline = System.currentTimeMillis() + 5000;
+    while ( receivedBytes < expectedBytes && System.currentTimeMillis() < deadline ) {
+      final int read = peer.read( readBuffer );
+      if ( read == 0 ) {
+        Thread.sleep( 1 );
+      }
+      receivedBytes += Math.max( read, 0 );
+      readBuffer.clear();
+    }
+    assertTrue( "ERROR: Received " + receivedBytes + " bytes, expected " + expectedBytes, receivedBytes == expectedBytes );
+
+    // the worker counts its write calls after the bytes have been written
+    final long countDeadline = System.currentTimeMillis() + 1000;
+    while ( MetricsService.INSTANCE.counter( "delivery.writeCalls" ).get() == writeCallsBefore && System.currentTimeMillis() < countDeadline ) {
+      Thread.sleep( 1 );
+    }
+    final long writeCalls = MetricsService.INSTANCE.counter( "delivery.writeCalls" ).get() - writeCallsBefore;
+    assertTrue( "ERROR: " + NUMBER_OF_SMALL_MESSAGES + " messages have been written with " + writeCalls + " write calls!", writeCalls > 0 && writeCalls <= NUMBER_OF_SMALL_MESSAGES / 10 );
+
+    client.closeConnection();
+    peer.close();
+  }
+
+  @Test
+  public void testSharedPayload() throws Exception {
+
+    final SocketChannel firstPeer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client firstClient = new Client( 1, accept() );
+    final SocketChannel secondPeer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client secondClient = new Client( 2, accept() );
+
+    final byte[] message = "42|B\n".getBytes( "UTF-8" );
+    final ByteBuffer payload = ByteBuffer.wrap( message ).asReadOnlyBuffer();
+    DeliveryService.INSTANCE.deliver( firstClient, payload );
+    DeliveryService.INSTANCE.deliver( secondClient, payload );
+    assertTrue( "ERROR: Delivering modified the shared payload!", payload.position() == 0 && payload.remaining() == message.length );
+
+    for ( SocketChannel peer : new SocketChannel[] { firstPeer, secondPeer } ) {
+      final ByteBuffer readBuffer = ByteBuffer.allocate( message.length );
+      peer.configureBlocking( false );
+      final long deadline = System.currentTimeMillis() + 5000;
+      while ( readBuffer.hasRemaining() && System.currentTimeMillis() < deadline ) {
+        if ( peer.read( readBuffer ) == 0 ) {
+          Thread.sleep( 1 );
+        }
+      }
+      assertTrue( "ERROR: Shared payload has not been received completely!", !readBuffer.hasRemaining() && ByteBuffer.wrap( message ).equals( readBuffer.flip() ) );
+    }
+
+    firstClient.closeConnection();
+    secondClient.closeConnection();
+    firstPeer.close();
+    secondPeer.close();
+  }
+
+  @Test
+  public void testParallelBroadcast() throws Exception {
+
+    // split every broadcast down to single clients
+    System.setProperty( "broadcastParallelThreshold", "2" );
+    System.setProperty( "broadcastChunkSize", "1" );
+
+    final SocketChannel[] peers = new SocketChannel[NUMBER_OF_BROADCAST_CLIENTS];
+    final List<Client> clients = new ArrayList<Client>();
+    for ( int i = 0; i < NUMBER_OF_BROADCAST_CLIENTS; i++ ) {
+      peers[i] = SocketChannel.open( serverSocket.getLocalAddress() );
+      clients.add( new Client( i + 1, accept() ) );
+    }
+
+    final long parallelBroadcastsBefore = MetricsService.INSTANCE.counter( "delivery.parallelBroadcasts" ).get();
+    for ( int i = 0; i < NUMBER_OF_BROADCASTS; i++ ) {
+      DeliveryService.INSTANCE.deliverToAll( clients, ByteBuffer.wrap( (i + "|B\n").getBytes( "UTF-8" ) ) );
+      for ( Client curClient : clients ) {
+        DeliveryService.INSTANCE.deliver( curClient, i + "|P|1|" + curClient.getId() + "\n" );
+      }
+    }
+    assertTrue( "ERROR: Broadcasts have not been posted in parallel!", MetricsService.INSTANCE.counter( "delivery.parallelBroadcasts" ).get() - parallelBroadcastsBefore == NUMBER_OF_BROADCASTS );
+
+    for ( int c = 0; c < NUMBER_OF_BROADCAST_CLIENTS; c++ ) {
+      final StringBuilder expectedForClient = new StringBuilder();
+      for ( int i = 0; i < NUMBER_OF_BROADCASTS; i++ ) {
+        expectedForClient.append( i + "|B\n" ).append( i + "|P|1|" + (c + 1) + "\n" );
+      }
+      final byte[] expectedBytes = expectedForClient.toString().getBytes( "UTF-8" );
+      final ByteBuffer readBuffer = ByteBuffer.allocate( expectedBytes.length );
+      peers[c].configureBlocking( false );
+      final long deadline = System.currentTimeMillis() + 5000;
+      while ( readBuffer.hasRemaining() && System.currentTimeMillis() < deadline ) {
+        if ( peers[c].read( readBuffer ) == 0 ) {
+          Thread.sleep( 1 );
+        }
+      }
+      readBuffer.flip();
+      assertTrue( "ERROR: Client " + (c + 1) + " did not receive the broadcasts in order with its private messages!", ByteBuffer.wrap( expectedBytes ).equals( readBuffer ) );
+    }
+
+    for ( int i = 0; i < NUMBER_OF_BROADCAST_CLIENTS; i++ ) {
+      clients.get( i ).closeConnection();
+      peers[i].close();
+    }
+  }
+
+  @Test
+  public void testOverflowDisconnect() throws Exception {
+
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client client = new Client( 1, accept() );
+
+    final long disconnectsBefore = MetricsService.INSTANCE.counter( "outbound.overflow.disconnect" ).get();
+    postOverflowMessages( client, "disconnect" );
+
+    assertTrue( "ERROR: Client exceeding its outbound limits has not been disconnected!", client.isDisconnected() );
+    assertTrue( "ERROR: Disconnect has not been counted!", MetricsService.INSTANCE.counter( "outbound.overflow.disconnect" ).get() - disconnectsBefore == 1 );
+    peer.close();
+  }
+
+  @Test
+  public void testOverflowDropNewest() throws Exception {
+
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client client = new Client( 1, accept() );
+
+    final long droppedBefore = MetricsService.INSTANCE.counter( "outbound.overflow.dropNewest" ).get();
+    postOverflowMessages( client, "dropNewest" );
+    final long dropped = MetricsService.INSTANCE.counter( "outbound.overflow.dropNewest" ).get() - droppedBefore;
+    assertTrue( "ERROR: No messages have been dropped!", dropped > 0 && !client.isDisconnected() );
+
+    final int[] received = readOverflowMessages( peer );
+    assertTrue( "ERROR: Received " + received[0] + " messages in order, expected " + (NUMBER_OF_OVERFLOW_MESSAGES - dropped), received[0] == NUMBER_OF_OVERFLOW_MESSAGES - dropped );
+    assertTrue( "ERROR: The first message has been dropped!", received[1] == 0 );
+
+    client.closeConnection();
+    peer.close();
+  }
+
+  @Test
+  public void testOverflowDropOldest() throws Exception {
+
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client client = new Client( 1, accept() );
+
+    final long droppedBefore = MetricsService.INSTANCE.counter( "outbound.overflow.dropOldest" ).get();
+    postOverflowMessages( client, "dropOldest" );
+    final long dropped = MetricsService.INSTANCE.counter( "outbound.overflow.dropOldest" ).get() - droppedBefore;
+    assertTrue( "ERROR: No messages have been dropped!", dropped > 0 && !client.isDisconnected() );
+
+    final int[] received = readOverflowMessages( peer );
+    assertTrue( "ERROR: Received " + received[0] + " messages in order, expected " + (NUMBER_OF_OVERFLOW_MESSAGES - dropped), received[0] == NUMBER_OF_OVERFLOW_MESSAGES - dropped );
+    assertTrue( "ERROR: The last message has been dropped!", received[2] == NUMBER_OF_OVERFLOW_MESSAGES - 1 );
+
+    client.closeConnection();
+    peer.close();
+  }
+
+  @Test
+  public void testConflation() throws Exception {
+
+    // conflate as soon as a single message is waiting
+    System.setProperty( "outboundConflationBacklog", "1" );
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client client = new Client( 1, accept() );
+
+    final long conflatedBefore = MetricsService.INSTANCE.counter( "outbound.conflated" ).get();
+    final int[] latestUpdateByUser = new int[NUMBER_OF_UPDATING_USERS + 1];
+    int sequenceNumber = 0;
+    int privateMessages = 0;
+    for ( int i = 0; i < UPDATES_PER_USER; i++ ) {
+      for ( int user = 1; user <= NUMBER_OF_UPDATING_USERS; user++ ) {
+        final ByteBuffer payload = ByteBuffer.wrap( (++sequenceNumber + "|S|" + user + "|" + PADDING + "\n").getBytes( "UTF-8" ) );
+        DeliveryService.INSTANCE.deliverStatusUpdate( client, user, payload );
+        latestUpdateByUser[user] = sequenceNumber;
+      }
+      if ( i % 100 == 0 ) {
+        DeliveryService.INSTANCE.deliver( client, ++sequenceNumber + "|P|99|1\n" );
+        privateMessages++;
+      }
+    }
+    final long conflated = MetricsService.INSTANCE.counter( "outbound.conflated" ).get() - conflatedBefore;
+
+    // read all messages, they have to arrive in order of their sequence numbers
+    final ByteBuffer readBuffer = ByteBuffer.allocate( 65536 );
+    final StringBuilder line = new StringBuilder();
+    final int[] receivedUpdateByUser = new int[NUMBER_OF_UPDATING_USERS + 1];
+    int lastSequenceNumber = 0;
+    int received = 0;
+    int receivedPrivateMessages = 0;
+    boolean ordered = true;
+    peer.configureBlocking( false );
+    long lastRead = System.currentTimeMillis();
+    while ( System.currentTimeMillis() - lastRead < 1000 ) {
+      if ( peer.read( readBuffer ) <= 0 ) {
+        Thread.sleep( 1 );
+        continue;
+      }
+      lastRead = System.currentTimeMillis();
+      readBuffer.flip();
+      while ( readBuffer.hasRemaining() ) {
+        final char c = (char) readBuffer.get();
+        if ( c == '\n' ) {
+          final String[] fields = line.toString().split( "\\|" );
+          final int number = Integer.parseInt( fields[0] );
+          ordered &= number > lastSequenceNumber;
+          lastSequenceNumber = number;
+          if ( "S".equals( fields[1] ) ) {
+            receivedUpdateByUser[Integer.parseInt( fields[2] )] = number;
+          } else {
+            receivedPrivateMessages++;
+          }
+          received++;
+          line.setLength( 0 );
+        } else {
+          line.append( c );
+        }
+      }
+      readBuffer.clear();
+    }
+
+    assertTrue( "ERROR: Messages have not been received in order!", ordered );
+    assertTrue( "ERROR: Private messages have been conflated!", receivedPrivateMessages == privateMessages );
+    assertTrue( "ERROR: No status updates have been conflated!", conflated > 0 );
+    assertTrue( "ERROR: Received " + received + " messages, expected " + (sequenceNumber - conflated), received == sequenceNumber - conflated );
+    for ( int user = 1; user <= NUMBER_OF_UPDATING_USERS; user++ ) {
+      assertTrue( "ERROR: The latest status update of user " + user + " has not been received!", receivedUpdateByUser[user] == latestUpdateByUser[user] );
+    }
+
+    client.closeConnection();
+    peer.close();
+  }
+
+  @Test
+  public void testAuthorLog() throws Exception {
+
+    // log the updates of every user with at least two followers, large enough to never overrun the followers
+    System.setProperty( "celebrityFollowerThreshold", "2" );
+    System.setProperty( "authorLogCapacity", String.valueOf( NUMBER_OF_AUTHOR_LOG_EVENTS ) );
+    final UserRegistryService userReg = UserRegistryService.INSTANCE;
+    userReg.reset();
+
+    final int authorId = 100;
+    final SocketChannel[] peers = new SocketChannel[3];
+    final Client[] followers = new Client[3];
+    for ( int i = 0; i < 3; i++ ) {
+      peers[i] = SocketChannel.open( serverSocket.getLocalAddress() );
+      followers[i] = new Client( i + 1, accept() );
+      userReg.addFollower( authorId, i + 1 );
+    }
+    // the third follower connects halfway, the second one unfollows halfway
+    userReg.registerClient( followers[0] );
+    userReg.registerClient( followers[1] );
+
+    final StringBuilder[] expected = { new StringBuilder(), new StringBuilder(), new StringBuilder() };
+    final long appendsBefore = MetricsService.INSTANCE.counter( "authorLog.appends" ).get();
+    for ( int i = 0; i < NUMBER_OF_AUTHOR_LOG_EVENTS; i++ ) {
+      if ( i == NUMBER_OF_AUTHOR_LOG_EVENTS / 2 ) {
+        userReg.removeFollower( authorId, 2 );
+        userReg.registerClient( followers[2] );
+      }
+      final boolean secondHalf = i >= NUMBER_OF_AUTHOR_LOG_EVENTS / 2;
+      if ( i % 3 == 0 ) {
+        for ( int c = 0; c < 3; c++ ) {
+          if ( c < 2 || secondHalf ) {
+            final String message = i + "|P|7|" + (c + 1) + "\n";
+            userReg.addNotificationJob( message, followers[c] );
+            expected[c].append( message );
+          }
+        }
+      } else {
+        final String update = i + "|S|" + authorId + "\n";
+        userReg.addStatusUpdateJobForFollowers( authorId, i, ByteBuffer.wrap( update.getBytes( "UTF-8" ) ).asReadOnlyBuffer() );
+        expected[0].append( update );
+        if ( !secondHalf ) {
+          expected[1].append( update );
+        } else {
+          expected[2].append( update );
+        }
+      }
+    }
+    assertTrue( "ERROR: Status updates have not been logged once per update!", MetricsService.INSTANCE.counter( "authorLog.appends" ).get() - appendsBefore == NUMBER_OF_AUTHOR_LOG_EVENTS * 2 / 3 );
+
+    for ( int c = 0; c < 3; c++ ) {
+      final byte[] expectedBytes = expected[c].toString().getBytes( "UTF-8" );
+      // one more byte to detect updates sent after unfollowing
+      final ByteBuffer readBuffer = ByteBuffer.allocate( expectedBytes.length + 1 );
+      peers[c].configureBlocking( false );
+      final long deadline = System.currentTimeMillis() + 5000;
+      while ( readBuffer.position() < expectedBytes.length && System.currentTimeMillis() < deadline ) {
+        if ( peers[c].read( readBuffer ) == 0 ) {
+          Thread.sleep( 1 );
+        }
+      }
+      Thread.sleep( 50 );
+      peers[c].read( readBuffer );
+      readBuffer.flip();
+      assertTrue( "ERROR: Follower " + (c + 1) + " did not receive the logged updates in order with its private messages!", ByteBuffer.wrap( expectedBytes ).equals( readBuffer ) );
+    }
+
+    userReg.reset();
+    for ( int i = 0; i < 3; i++ ) {
+      peers[i].close();
+    }
+  }
+
+  // every partition only counts its own followers of a user, thus it compares them against its share of the threshold
+  @Test
+  public void testAuthorLogThresholdPerPartition() throws Exception {
+
+    System.setProperty( "celebrityFollowerThreshold", "7" );
+    final FollowerGraph graph = new IntFollowerGraph();
+    final AuthorLogRegistry authorLogs = new AuthorLogRegistry( graph, new ConcurrentHashMap<Integer, Client>(), 4 );
+    final ByteBuffer update = ByteBuffer.wrap( "1|S|100\n".getBytes( "UTF-8" ) ).asReadOnlyBuffer();
+
+    graph.addFollower( 100, 1 );
+    assertTrue( "ERROR: Status update logged below the share of the threshold!", !authorLogs.append( 100, 1, update ) );
+    graph.addFollower( 100, 2 );
+    assertTrue( "ERROR: Status update not logged at the share of the threshold!", authorLogs.append( 100, 2, update ) );
+  }
+
+  // a follower falling behind the log by more than its capacity is disconnected instead of silently missing updates
+  @Test
+  public void testAuthorLogOverrunDisconnect() throws Exception {
+
+    System.setProperty( "outboundOverflowPolicy", "disconnect" );
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client follower = startAuthorLogFollower();
+
+    final long disconnectsBefore = MetricsService.INSTANCE.counter( "outbound.overflow.disconnect" ).get();
+    final long overrunsBefore = MetricsService.INSTANCE.counter( "authorLog.overruns" ).get();
+    postLoggedUpdates();
+
+    assertTrue( "ERROR: Follower falling behind the log has not been disconnected!", follower.isDisconnected() );
+    assertTrue( "ERROR: Disconnect has not been counted!", MetricsService.INSTANCE.counter( "outbound.overflow.disconnect" ).get() - disconnectsBefore == 1 );
+    assertTrue( "ERROR: Overwritten updates have been skipped!", MetricsService.INSTANCE.counter( "authorLog.overruns" ).get() == overrunsBefore );
+    UserRegistryService.INSTANCE.reset();
+    peer.close();
+  }
+
+  // with backpressure the log waits for a follower falling behind, which receives every update once it reads
+  @Test
+  public void testAuthorLogOverrunBackpressure() throws Exception {
+
+    System.setProperty( "outboundOverflowPolicy", "backpressure" );
+    final SocketChannel peer = SocketChannel.open( serverSocket.getLocalAddress() );
+    final Client follower = startAuthorLogFollower();
+
+    final long backpressureBefore = MetricsService.INSTANCE.counter( "outbound.overflow.backpressure" ).get();
+    final long overrunsBefore = MetricsService.INSTANCE.counter( "authorLog.overruns" ).get();
+    final int[][] received = new int[1][];
+    final Thread reader = new Thread( new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          // start reading once the log had to wait
+          final long deadline = System.currentTimeMillis() + 10000;
+          while ( MetricsService.INSTANCE.counter( "outbound.overflow.backpressure" ).get() == backpressureBefore && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+          }
+          received[0] = readOverflowMessages( peer );
+        } catch ( Exception ex ) {
+          logger.error( "Error while reading the logged updates!", ex );
+        }
+      }
+    } );
+    reader.start();
+    postLoggedUpdates();
+    reader.join();
+
+    assertTrue( "ERROR: Log did not wait for the follower!", MetricsService.INSTANCE.counter( "outbound.overflow.backpressure" ).get() > backpressureBefore && !follower.isDisconnected() );
+    assertTrue( "ERROR: Overwritten updates have been skipped!", MetricsService.INSTANCE.counter( "authorLog.overruns" ).get() == overrunsBefore );
+    assertTrue( "ERROR: Received " + received[0][0] + " updates in order, expected " + NUMBER_OF_OVERFLOW_MESSAGES, received[0][0] == NUMBER_OF_OVERFLOW_MESSAGES );
+    UserRegistryService.INSTANCE.reset();
+    peer.close();
+  }
+
+  /**
+   * Delivers messages to a client that does not read them until the socket buffers are full and the mailbox is parked in the write selector
+   *
+   * @return Number of bytes delivered
+   */
+  private long deliverUntilStalled( final Client stalledClient ) throws Exception {
+    final long stallsBefore = MetricsService.INSTANCE.counter( "delivery.writeStalls" ).get();
+    long expectedBytes = 0;
+    for ( int i = 0; i < NUMBER_OF_MESSAGES; i++ ) {
+      final String message = i + "|" + PADDING + "\n";
+      expectedBytes += message.length();
+      DeliveryService.INSTANCE.deliver( stalledClient, message );
+    }
+
+    // the socket buffers fill up as nobody reads, the mailbox is parked in the write selector
+    final long stallDeadline = System.currentTimeMillis() + 5000;
+    while ( MetricsService.INSTANCE.counter( "delivery.writeStalls" ).get() == stallsBefore && System.currentTimeMillis() < stallDeadline ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( "ERROR: Stalled client has not been parked in the write selector!", MetricsService.INSTANCE.counter( "delivery.writeStalls" ).get() > stallsBefore );
+    return expectedBytes;
+  }
+
+  /**
+   * Checks that the only worker still delivers to another client while the first one is stalled
+   */
+  private void assertDeliveredWhileStalled( final Client otherClient, final SocketChannel otherPeer ) throws Exception {
+    final String otherMessage = "1|B\n";
+    DeliveryService.INSTANCE.deliver( otherClient, otherMessage );
+    final ByteBuffer otherBuffer = ByteBuffer.allocate( otherMessage.length() );
+    otherPeer.configureBlocking( false );
+    final long otherDeadline = System.currentTimeMillis() + 5000;
+    while ( otherBuffer.hasRemaining() && System.currentTimeMillis() < otherDeadline ) {
+      if ( otherPeer.read( otherBuffer ) == 0 ) {
+        Thread.sleep( 1 );
+      }
+    }
+    assertTrue( "ERROR: Message to the second client has not been delivered while the first client is stalled!", !otherBuffer.hasRemaining() );
+  }
+
+  /**
+   * Reads the messages delivered by deliverUntilStalled, reading resumes the delivery and all messages have to arrive complete and in order
+   */
+  private void assertReceivedInOrder( final SocketChannel stalledPeer, long expectedBytes ) throws Exception {
+    final ByteBuffer readBuffer = ByteBuffer.allocate( 65536 );
+    final StringBuilder line = new StringBuilder();
+    long receivedBytes = 0;
+    int nextExpected = 0;
+    boolean ordered = true;
+    final long deadline = System.currentTimeMillis() + 20000;
+    while ( receivedBytes < expectedBytes && System.currentTimeMillis() < deadline ) {
+      final int read = stalledPeer.read( readBuffer );
+      if ( read < 0 ) {
+        break;
+      }
+      receivedBytes += read;
+      readBuffer.flip();
+      while ( readBuffer.hasRemaining() ) {
+        final char c = (char) readBuffer.get();
+        if ( c == '\n' ) {
+          final String received = line.toString();
+          ordered &= received.equals( nextExpected + "|" + PADDING );
+          nextExpected++;
+          line.setLength( 0 );
+        } else {
+          line.append( c );
+        }
+      }
+      readBuffer.clear();
+    }
+
+    assertTrue( "ERROR: Received " + receivedBytes + " bytes, expected " + expectedBytes, receivedBytes == expectedBytes );
+    assertTrue( "ERROR: Messages have not been received complete and in order!", ordered && nextExpected == NUMBER_OF_MESSAGES );
+  }
+
+  /**
+   * Registers a client following a user whose updates are logged in a small log
+   *
+   * @return Registered follower
+   */
+  private Client startAuthorLogFollower() throws Exception {
+    System.setProperty( "celebrityFollowerThreshold", "2" );
+    System.setProperty( "authorLogCapacity", "1024" );
+    UserRegistryService.INSTANCE.reset();
+    final Client follower = new Client( 1, accept() );
+    UserRegistryService.INSTANCE.addFollower( 100, 1 );
+    UserRegistryService.INSTANCE.addFollower( 100, 2 );
+    UserRegistryService.INSTANCE.registerClient( follower );
+    return follower;
+  }
+
+  /**
+   * Logs status updates of 1 KB, far more than the log and the socket buffers hold
+   */
+  private void postLoggedUpdates() throws Exception {
+    final StringBuilder padding = new StringBuilder();
+    while ( padding.length() < 1000 ) {
+      padding.append( PADDING );
+    }
+    for ( int i = 0; i < NUMBER_OF_OVERFLOW_MESSAGES; i++ ) {
+      final String update = i + "|" + padding + "\n";
+      UserRegistryService.INSTANCE.addStatusUpdateJobForFollowers( 100, i + 1, ByteBuffer.wrap( update.getBytes( "UTF-8" ) ).asReadOnlyBuffer() );
+    }
+  }
+
+  /**
+   * Posts messages of 1 KB to a client that does not read them, far more than its outbound limit of 1 MB
+   */
+  private void postOverflowMessages( final Client client, final String policy ) throws Exception {
+    System.setProperty( "outboundMaxBytes", "1048576" );
+    System.setProperty( "outboundOverflowPolicy", policy );
+    final StringBuilder padding = new StringBuilder();
+    while ( padding.length() < 1000 ) {
+      padding.append( PADDING );
+    }
+    for ( int i = 0; i < NUMBER_OF_OVERFLOW_MESSAGES; i++ ) {
+      DeliveryService.INSTANCE.deliver( client, i + "|" + padding + "\n" );
+    }
+  }
+
+  /**
+   * Reads the messages posted by postOverflowMessages until no further bytes arrive
+   *
+   * @return Number of messages received in increasing order, number of the first and the last message
+   */
+  private int[] readOverflowMessages( final SocketChannel peer ) throws Exception {
+    final ByteBuffer readBuffer = ByteBuffer.allocate( 65536 );
+    final StringBuilder line = new StringBuilder();
+    final int[] result = new int[] { 0, -1, -1 };
+    peer.configureBlocking( false );
+    long lastRead = System.currentTimeMillis();
+    while ( System.currentTimeMillis() - lastRead < 1000 ) {
+      if ( peer.read( readBuffer ) <= 0 ) {
+        Thread.sleep( 1 );
+        continue;
+      }
+      lastRead = System.currentTimeMillis();
+      readBuffer.flip();
+      while ( readBuffer.hasRemaining() ) {
+        final char c = (char) readBuffer.get();
+        if ( c == '\n' ) {
+          final int number = Integer.parseInt( line.substring( 0, line.indexOf( "|" ) ) );
+          if ( number > result[2] ) {
+            result[0]++;
+          }
+          if ( result[1] < 0 ) {
+            result[1] = number;
+          }
+          result[2] = number;
+          line.setLength( 0 );
+        } else {
+          line.append( c );
+        }
+      }
+      readBuffer.clear();
+    }
+    return result;
+  }
+
+  /**
+   * @return Accepted server side channel, non-blocking like the channels of the user client event loop
+   */
+  private SocketChannel accept() throws IOException {
+    final SocketChannel channel = serverSocket.accept();
+    channel.configureBlocking( false );
+    return channel;
+  }
+}
@@ -0,0 +1,230 @@
+package followermaze.server.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import followermaze.server.model.event.Event;
+import followermaze.server.model.event.EventFactory;
+
+/**
+ *
+ * Test class tests the write-ahead event log. The follows rebuilt by replaying the log after a restart have to match the follows before, segments covered by a checkpoint have to be deleted, duplicates
+ * must not be logged and an incomplete batch at the end of a segment has to be truncated.
+ */
+public class TestEventLogService {
+
+  private static final int NUMBER_OF_EVENTS = 20000;
+
+  private static final int NUMBER_OF_USERS = 200;
+
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  /** Followers by followed user, maintained by the test */
+  private final Map<Integer, Set<Integer>> expectedFollowers = new HashMap<Integer, Set<Integer>>();
+
+  private File logDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    logDirectory = File.createTempFile( "followermaze", ".log" );
+    logDirectory.delete();
+    System.setProperty( "eventLogDirectory", logDirectory.getPath() );
+    System.setProperty( "eventLogSegmentBytes", "16384" );
+    // small batches are handed to the writer while the sequencer is busy, so the segments fill up, every batch holds at least one message of maximum length
+    System.setProperty( "eventLogBufferBytes", "2048" );
+    System.setProperty( "maxMessageLengthInByte", "1024" );
+    System.setProperty( "eventLogFsyncPolicy", "always" );
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+  }
+
+  @After
+  public void tearDown() {
+    EventLogService.INSTANCE.stop();
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    System.clearProperty( "eventLogDirectory" );
+    System.clearProperty( "eventLogSegmentBytes" );
+    System.clearProperty( "eventLogBufferBytes" );
+    System.clearProperty( "maxMessageLengthInByte" );
+    System.clearProperty( "eventLogFsyncPolicy" );
+    final File[] files = logDirectory.listFiles();
+    if ( files != null ) {
+      for ( File curFile : files ) {
+        curFile.delete();
+      }
+    }
+    logDirectory.delete();
+  }
+
+  // the follows are rebuilt from several segments after a restart
+  @Test
+  public void testReplay() throws Exception {
+
+    EventLogService.INSTANCE.start();
+    addRandomFollows();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    EventLogService.INSTANCE.stop();
+    assertTrue( "ERROR: Expected several segments, found " + logDirectory.list().length, logDirectory.list().length > 1 );
+
+    restart();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    EventHandlerService.INSTANCE.reset();
+    assertFollowers();
+  }
+
+  // segments whose events are all covered by a checkpoint are deleted, later segments are kept
+  @Test
+  public void testCheckpoint() throws Exception {
+
+    EventLogService.INSTANCE.start();
+    addRandomFollows();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    final int segmentsBefore = logDirectory.list().length;
+    EventLogService.INSTANCE.checkpoint( NUMBER_OF_EVENTS / 2 );
+    EventLogService.INSTANCE.stop();
+    final int segmentsAfter = logDirectory.list().length;
+    assertTrue( "ERROR: No segment deleted after checkpoint, " + segmentsBefore + " segments", segmentsAfter < segmentsBefore );
+
+    // the kept segments hold every event from the checkpoint on
+    EventHandlerService.INSTANCE.reset();
+    EventHandlerService.INSTANCE.restore( NUMBER_OF_EVENTS / 2, new ArrayList<Event>() );
+    EventLogService.INSTANCE.start();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    EventLogService.INSTANCE.checkpoint( NUMBER_OF_EVENTS + 1 );
+    EventLogService.INSTANCE.stop();
+    assertTrue( "ERROR: Covered segments not deleted, " + logDirectory.list().length + " segments left", logDirectory.list().length == 1 );
+  }
+
+  // duplicates discarded by the reorder buffer are not logged, thus the replay does not discard any event
+  @Test
+  public void testDuplicatesNotLogged() throws Exception {
+
+    EventLogService.INSTANCE.start();
+    addRandomFollows();
+    // already processed events and a buffered event behind a missing one are sent twice
+    for ( int sequenceNumber = 1; sequenceNumber <= 10; sequenceNumber++ ) {
+      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( sequenceNumber + "|F|1|2" + MESSAGE_TERMINATOR ) );
+    }
+    for ( int i = 0; i < 2; i++ ) {
+      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( (NUMBER_OF_EVENTS + 2) + "|F|1001|1002" + MESSAGE_TERMINATOR ) );
+    }
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    final long duplicates = MetricsService.INSTANCE.counter( "events.duplicate" ).get();
+    EventLogService.INSTANCE.stop();
+
+    restart();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    assertTrue( "ERROR: Duplicates have been logged", MetricsService.INSTANCE.counter( "events.duplicate" ).get() == duplicates );
+    // the missing event releases the logged buffered event
+    EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( (NUMBER_OF_EVENTS + 1) + "|F|3|4" + MESSAGE_TERMINATOR ) );
+    awaitProcessed( NUMBER_OF_EVENTS + 3 );
+    EventHandlerService.INSTANCE.reset();
+    assertTrue( "ERROR: Buffered event has not been replayed", UserRegistryService.INSTANCE.getFollowers( 1002 ).contains( 1001 ) );
+  }
+
+  // a torn write at the end of the last segment is truncated, the complete batches are replayed
+  @Test
+  public void testIncompleteBatch() throws Exception {
+
+    EventLogService.INSTANCE.start();
+    addRandomFollows();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    EventLogService.INSTANCE.stop();
+
+    File lastSegment = null;
+    for ( File curFile : logDirectory.listFiles() ) {
+      if ( lastSegment == null || curFile.getName().compareTo( lastSegment.getName() ) > 0 ) {
+        lastSegment = curFile;
+      }
+    }
+    final long validLength = lastSegment.length();
+    final RandomAccessFile file = new RandomAccessFile( lastSegment, "rw" );
+    try {
+      file.seek( validLength );
+      // header of a batch whose records have not been written completely
+      file.writeInt( 4096 );
+      file.writeInt( 0 );
+      file.write( new byte[100] );
+    } finally {
+      file.close();
+    }
+
+    restart();
+    awaitProcessed( NUMBER_OF_EVENTS + 1 );
+    EventHandlerService.INSTANCE.reset();
+    assertTrue( "ERROR: Incomplete batch not truncated, " + lastSegment.length() + " byte instead of " + validLength, lastSegment.length() == validLength );
+    assertFollowers();
+  }
+
+  /**
+   * Resets the state and starts the log again, which replays it
+   */
+  private void restart() {
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    EventLogService.INSTANCE.start();
+  }
+
+  /**
+   * Adds random follow and unfollow events like the thread reading from the event source, the sequencer logs them, and applies them to the expected followers
+   */
+  private void addRandomFollows() throws Exception {
+    final Random random = new Random( 9 );
+    for ( int sequenceNumber = 1; sequenceNumber <= NUMBER_OF_EVENTS; sequenceNumber++ ) {
+      final int from = random.nextInt( NUMBER_OF_USERS ) + 1;
+      final int to = random.nextInt( NUMBER_OF_USERS ) + 1;
+      final String message;
+      if ( random.nextInt( 4 ) == 0 ) {
+        message = sequenceNumber + "|U|" + from + "|" + to + MESSAGE_TERMINATOR;
+        final Set<Integer> followers = expectedFollowers.get( to );
+        if ( followers != null && followers.remove( from ) && followers.isEmpty() ) {
+          expectedFollowers.remove( to );
+        }
+      } else {
+        message = sequenceNumber + "|F|" + from + "|" + to + MESSAGE_TERMINATOR;
+        Set<Integer> followers = expectedFollowers.get( to );
+        if ( followers == null ) {
+          followers = new HashSet<Integer>();
+          expectedFollowers.put( to, followers );
+        }
+        followers.add( from );
+      }
+      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( message ) );
+    }
+  }
+
+  /**
+   * Takes snapshots until the sequencer has processed the events up to the passed in sequence number
+   */
+  private static void awaitProcessed( int nextSequenceNumber ) throws Exception {
+    final long deadline = System.currentTimeMillis() + 10000;
+    Snapshot snapshot = EventHandlerService.INSTANCE.takeSnapshot();
+    while ( snapshot.getNextSequenceNumber() != nextSequenceNumber && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+      snapshot = EventHandlerService.INSTANCE.takeSnapshot();
+    }
+    assertTrue( "ERROR: Sequencer stopped at " + snapshot.getNextSequenceNumber(), snapshot.getNextSequenceNumber() == nextSequenceNumber );
+  }
+
+  private void assertFollowers() {
+    for ( int followedId = 1; followedId <= NUMBER_OF_USERS; followedId++ ) {
+      final Set<Integer> followers = UserRegistryService.INSTANCE.getFollowers( followedId );
+      final Set<Integer> expected = expectedFollowers.get( followedId );
+      assertTrue( "ERROR: Followers of user " + followedId + " are " + followers + " instead of " + expected, expected == null ? followers == null : expected.equals( followers ) );
+    }
+  }
+}
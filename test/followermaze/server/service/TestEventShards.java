@@ -0,0 +1,129 @@
+package followermaze.server.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import followermaze.server.model.client.Client;
+import followermaze.server.model.event.EventFactory;
+
+/**
+ *
+ * Test class tests the parallel processing of events by several event shards. Every client has to receive exactly the notifications a sequential processing of the same events produces, in the
+ * order of their sequence numbers.
+ */
+public class TestEventShards {
+
+  /** Number of event shards */
+  private static final int NUMBER_OF_SHARDS = 4;
+
+  /** Number of connected users */
+  private static final int NUMBER_OF_USERS = 16;
+
+  /** Number of events sent */
+  private static final int NUMBER_OF_EVENTS = 20000;
+
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  private ServerSocketChannel serverSocket;
+
+  @Before
+  public void setUp() throws IOException {
+    System.setProperty( "eventShards", String.valueOf( NUMBER_OF_SHARDS ) );
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    serverSocket = ServerSocketChannel.open();
+    serverSocket.bind( new InetSocketAddress( "localhost", 0 ) );
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    EventHandlerService.INSTANCE.reset();
+    System.clearProperty( "eventShards" );
+    UserRegistryService.INSTANCE.reset();
+    serverSocket.close();
+  }
+
+  @Test
+  public void testShardedProcessing() throws Exception {
+
+    final UserRegistryService userReg = UserRegistryService.INSTANCE;
+    assertTrue( "ERROR: Expected " + NUMBER_OF_SHARDS + " partitions, found " + userReg.getNumberOfPartitions(), userReg.getNumberOfPartitions() == NUMBER_OF_SHARDS );
+
+    final SocketChannel[] peers = new SocketChannel[NUMBER_OF_USERS + 1];
+    for ( int userId = 1; userId <= NUMBER_OF_USERS; userId++ ) {
+      peers[userId] = SocketChannel.open( serverSocket.getLocalAddress() );
+      final SocketChannel channel = serverSocket.accept();
+      channel.configureBlocking( false );
+      userReg.registerClient( new Client( userId, channel ) );
+    }
+
+    // generate the events and the notifications every user receives if they are processed sequentially
+    final Random random = new Random( 11 );
+    final Map<Integer, Set<Integer>> followers = new HashMap<Integer, Set<Integer>>();
+    final StringBuilder[] expected = new StringBuilder[NUMBER_OF_USERS + 1];
+    for ( int userId = 1; userId <= NUMBER_OF_USERS; userId++ ) {
+      expected[userId] = new StringBuilder();
+      followers.put( userId, new HashSet<Integer>() );
+    }
+    for ( int sequenceNumber = 1; sequenceNumber <= NUMBER_OF_EVENTS; sequenceNumber++ ) {
+      final int from = random.nextInt( NUMBER_OF_USERS ) + 1;
+      final int to = random.nextInt( NUMBER_OF_USERS ) + 1;
+      final int type = random.nextInt( 100 );
+      final String message;
+      if ( type < 35 ) {
+        message = sequenceNumber + "|F|" + from + "|" + to + MESSAGE_TERMINATOR;
+        followers.get( to ).add( from );
+        expected[to].append( message );
+      } else if ( type < 50 ) {
+        message = sequenceNumber + "|U|" + from + "|" + to + MESSAGE_TERMINATOR;
+        followers.get( to ).remove( from );
+      } else if ( type < 85 ) {
+        message = sequenceNumber + "|S|" + from + MESSAGE_TERMINATOR;
+        for ( Integer curFollower : followers.get( from ) ) {
+          expected[curFollower].append( message );
+        }
+      } else if ( type < 98 ) {
+        message = sequenceNumber + "|P|" + from + "|" + to + MESSAGE_TERMINATOR;
+        expected[to].append( message );
+      } else {
+        message = sequenceNumber + "|B" + MESSAGE_TERMINATOR;
+        for ( int userId = 1; userId <= NUMBER_OF_USERS; userId++ ) {
+          expected[userId].append( message );
+        }
+      }
+      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( message ) );
+    }
+
+    for ( int userId = 1; userId <= NUMBER_OF_USERS; userId++ ) {
+      final byte[] expectedBytes = expected[userId].toString().getBytes( "UTF-8" );
+      final ByteBuffer readBuffer = ByteBuffer.allocate( expectedBytes.length );
+      peers[userId].configureBlocking( false );
+      final long deadline = System.currentTimeMillis() + 10000;
+      while ( readBuffer.hasRemaining() && System.currentTimeMillis() < deadline ) {
+        if ( peers[userId].read( readBuffer ) == 0 ) {
+          Thread.sleep( 1 );
+        }
+      }
+      readBuffer.flip();
+      assertTrue( "ERROR: User " + userId + " did not receive the notifications of sequential processing in order!", ByteBuffer.wrap( expectedBytes ).equals( readBuffer ) );
+    }
+
+    for ( int userId = 1; userId <= NUMBER_OF_USERS; userId++ ) {
+      peers[userId].close();
+    }
+  }
+}
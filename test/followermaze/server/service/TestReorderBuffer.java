@@ -0,0 +1,104 @@
+package followermaze.server.service;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import followermaze.server.model.event.Event;
+import followermaze.server.model.event.EventFactory;
+
+/**
+ *
+ * Test class tests the ReorderBuffer by offering events out of order and checking the order in which they are drained.
+ */
+public class TestReorderBuffer {
+
+  // events within the window are drained in sequence order, the buffer blocks at gaps
+  @Test
+  public void testDrainInOrder() {
+
+    final ReorderBuffer buffer = new ReorderBuffer( 8 );
+    assertTrue( "ERROR: Could not offer event 3", buffer.offer( createEvent( 3 ) ) );
+    assertTrue( "ERROR: Could not offer event 2", buffer.offer( createEvent( 2 ) ) );
+    assertTrue( "ERROR: Drained event before its predecessor arrived", buffer.poll() == null );
+
+    assertTrue( "ERROR: Event 1 not expected next", buffer.isNext( 1 ) );
+    buffer.advance();
+    assertPoll( buffer, 2 );
+    assertPoll( buffer, 3 );
+    assertTrue( "ERROR: Drained event from empty buffer", buffer.poll() == null );
+    assertTrue( "ERROR: Invalid next sequence number " + buffer.getNextSequenceNumber(), buffer.getNextSequenceNumber() == 4 );
+  }
+
+  // events beyond the window are moved into the window once it has advanced
+  @Test
+  public void testOverflow() {
+
+    final ReorderBuffer buffer = new ReorderBuffer( 4 );
+    for ( int i = 20; i >= 1; i-- ) {
+      assertTrue( "ERROR: Could not offer event " + i, buffer.offer( createEvent( i ) ) );
+    }
+    assertTrue( "ERROR: Invalid size " + buffer.size(), buffer.size() == 20 );
+    for ( int i = 1; i <= 20; i++ ) {
+      assertPoll( buffer, i );
+    }
+    assertTrue( "ERROR: Buffer not empty: " + buffer.size(), buffer.size() == 0 );
+  }
+
+  // duplicates of drained, buffered and overflowing events are rejected
+  @Test
+  public void testDuplicates() {
+
+    final ReorderBuffer buffer = new ReorderBuffer( 4 );
+    buffer.advance();
+    assertTrue( "ERROR: Accepted already drained event", !buffer.offer( createEvent( 1 ) ) );
+    assertTrue( "ERROR: Could not offer event 3", buffer.offer( createEvent( 3 ) ) );
+    assertTrue( "ERROR: Accepted duplicate buffered event", !buffer.offer( createEvent( 3 ) ) );
+    assertTrue( "ERROR: Could not offer event 10", buffer.offer( createEvent( 10 ) ) );
+    assertTrue( "ERROR: Accepted duplicate overflow event", !buffer.offer( createEvent( 10 ) ) );
+    assertTrue( "ERROR: Invalid size " + buffer.size(), buffer.size() == 2 );
+
+    buffer.clear();
+    assertTrue( "ERROR: Buffer not reset", buffer.size() == 0 && buffer.isNext( 1 ) && buffer.offer( createEvent( 3 ) ) );
+  }
+
+  // skipping moves the window to the first buffered event, in the window as well as in the overflow
+  @Test
+  public void testSkipToFirstBuffered() {
+
+    final ReorderBuffer buffer = new ReorderBuffer( 4 );
+    buffer.offer( createEvent( 3 ) );
+    buffer.offer( createEvent( 12 ) );
+    assertTrue( "ERROR: Invalid buffered bytes " + buffer.getBufferedBytes(), buffer.getBufferedBytes() > 0 );
+
+    assertTrue( "ERROR: Did not skip to event 3", buffer.skipToFirstBuffered() == 3 );
+    assertPoll( buffer, 3 );
+    assertTrue( "ERROR: Did not skip to event 12", buffer.skipToFirstBuffered() == 12 );
+    assertPoll( buffer, 12 );
+    assertTrue( "ERROR: Skipped without buffered events", buffer.skipToFirstBuffered() == 13 );
+    assertTrue( "ERROR: Buffered bytes not released: " + buffer.getBufferedBytes(), buffer.getBufferedBytes() == 0 );
+  }
+
+  // the gap policy never skips in strict mode and reports every exceeded limit in skip mode
+  @Test
+  public void testGapPolicy() {
+
+    final GapPolicy strict = new GapPolicy( true, 10, 10, 1000 );
+    assertTrue( "ERROR: Strict policy skipped", strict.checkLimits( 100, 100000, Long.MAX_VALUE ) == null );
+
+    final GapPolicy skip = new GapPolicy( false, 10, 10, 1000 );
+    assertTrue( "ERROR: Skipped within limits", skip.checkLimits( 10, 1000, 1000000 ) == null );
+    assertTrue( "ERROR: Event limit not detected", skip.checkLimits( 11, 0, 0 ) != null );
+    assertTrue( "ERROR: Byte limit not detected", skip.checkLimits( 0, 1001, 0 ) != null );
+    assertTrue( "ERROR: Wait limit not detected", skip.checkLimits( 0, 0, 11000000 ) != null );
+  }
+
+  private static void assertPoll( final ReorderBuffer buffer, int expectedSequenceNumber ) {
+    final Event event = buffer.poll();
+    assertTrue( "ERROR: Expected event " + expectedSequenceNumber + ", drained " + event, event != null && event.getSequenceNumber() == expectedSequenceNumber );
+  }
+
+  private static Event createEvent( int sequenceNumber ) {
+    return EventFactory.createEvent( sequenceNumber + "|B" );
+  }
+}
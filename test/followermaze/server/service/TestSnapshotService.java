@@ -0,0 +1,219 @@
+package followermaze.server.service;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import followermaze.server.model.event.EventFactory;
+
+/**
+ *
+ * Test class tests writing and restoring snapshots of the event processing state. The follows and the sequencer state restored from a snapshot taken with several event shards have to match the
+ * state before, events buffered behind a missing event have to be processed once the missing event arrives after the restore. Snapshots of the mapped follower graph have to be refused.
+ */
+public class TestSnapshotService {
+
+  private static final int NUMBER_OF_EVENTS = 5000;
+
+  private static final int NUMBER_OF_USERS = 200;
+
+  /** Number of events buffered behind the missing event */
+  private static final int NUMBER_OF_BUFFERED_EVENTS = 4;
+
+  private static final String MESSAGE_TERMINATOR = "\r\n";
+
+  /** Followers by followed user, maintained by the test */
+  private final Map<Integer, Set<Integer>> expectedFollowers = new HashMap<Integer, Set<Integer>>();
+
+  private File snapshotFile;
+
+  @Before
+  public void setUp() throws IOException {
+    System.setProperty( "eventShards", "2" );
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    snapshotFile = File.createTempFile( "followermaze", ".snapshot" );
+    snapshotFile.delete();
+  }
+
+  @After
+  public void tearDown() {
+    EventHandlerService.INSTANCE.reset();
+    System.clearProperty( "eventShards" );
+    System.clearProperty( "snapshotFile" );
+    System.clearProperty( "snapshotIntervalSeconds" );
+    System.clearProperty( "followerGraph" );
+    UserRegistryService.INSTANCE.reset();
+    snapshotFile.delete();
+  }
+
+  // the snapshot is taken with two partitions and restored into a single one
+  @Test
+  public void testSnapshotAndRestore() throws Exception {
+
+    addRandomFollows( 1, NUMBER_OF_EVENTS );
+    // the event following the random follows is missing, the later ones are buffered
+    final int missingSequenceNumber = NUMBER_OF_EVENTS + 1;
+    for ( int i = 1; i <= NUMBER_OF_BUFFERED_EVENTS; i++ ) {
+      EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( (missingSequenceNumber + i) + "|F|" + (1000 + i) + "|1000" + MESSAGE_TERMINATOR ) );
+    }
+
+    final Snapshot snapshot = awaitSnapshot( missingSequenceNumber, NUMBER_OF_BUFFERED_EVENTS );
+    assertTrue( "ERROR: Snapshot holds " + snapshot.getNumberOfFollows() + " follows instead of " + countFollows(), snapshot.getNumberOfFollows() == countFollows() );
+    snapshot.writeTo( snapshotFile.toPath() );
+
+    EventHandlerService.INSTANCE.reset();
+    System.clearProperty( "eventShards" );
+    UserRegistryService.INSTANCE.reset();
+    SnapshotService.INSTANCE.restoreSnapshot( snapshotFile.toPath() );
+
+    assertTrue( "ERROR: Restored next sequence number " + EventHandlerService.INSTANCE.getNextSequenceNumber(), EventHandlerService.INSTANCE.getNextSequenceNumber() == missingSequenceNumber );
+    assertFollowers();
+
+    // the missing event releases the restored buffered events
+    EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( missingSequenceNumber + "|F|1000|2000" + MESSAGE_TERMINATOR ) );
+    follow( 1000, 2000 );
+    for ( int i = 1; i <= NUMBER_OF_BUFFERED_EVENTS; i++ ) {
+      follow( 1000 + i, 1000 );
+    }
+    awaitSnapshot( missingSequenceNumber + NUMBER_OF_BUFFERED_EVENTS + 1, 0 );
+    EventHandlerService.INSTANCE.reset();
+    assertFollowers();
+  }
+
+  // a truncated file is rejected before anything is restored
+  @Test
+  public void testIncompleteSnapshot() throws Exception {
+
+    addRandomFollows( 1, NUMBER_OF_EVENTS );
+    awaitSnapshot( NUMBER_OF_EVENTS + 1, 0 ).writeTo( snapshotFile.toPath() );
+    final RandomAccessFile file = new RandomAccessFile( snapshotFile, "rw" );
+    try {
+      file.setLength( file.length() - 2 );
+    } finally {
+      file.close();
+    }
+
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    boolean rejected = false;
+    try {
+      SnapshotService.INSTANCE.restoreSnapshot( snapshotFile.toPath() );
+    } catch ( IOException ex ) {
+      rejected = true;
+    }
+    assertTrue( "ERROR: Incomplete snapshot has been restored!", rejected );
+    assertTrue( "ERROR: Sequence number changed by incomplete snapshot!", EventHandlerService.INSTANCE.getNextSequenceNumber() == 1 );
+    for ( int followedId = 1; followedId <= NUMBER_OF_USERS; followedId++ ) {
+      assertTrue( "ERROR: Follows restored from incomplete snapshot!", UserRegistryService.INSTANCE.getFollowers( followedId ) == null );
+    }
+  }
+
+  // a configured snapshot file is written on shutdown and restored on startup
+  @Test
+  public void testStartAndStop() throws Exception {
+
+    System.setProperty( "snapshotFile", snapshotFile.getPath() );
+    System.setProperty( "snapshotIntervalSeconds", "0" );
+    SnapshotService.INSTANCE.start();
+    addRandomFollows( 1, NUMBER_OF_EVENTS );
+    awaitSnapshot( NUMBER_OF_EVENTS + 1, 0 );
+    SnapshotService.INSTANCE.stop();
+    assertTrue( "ERROR: No snapshot written on shutdown!", snapshotFile.exists() );
+
+    EventHandlerService.INSTANCE.reset();
+    UserRegistryService.INSTANCE.reset();
+    SnapshotService.INSTANCE.start();
+    assertTrue( "ERROR: Restored next sequence number " + EventHandlerService.INSTANCE.getNextSequenceNumber(), EventHandlerService.INSTANCE.getNextSequenceNumber() == NUMBER_OF_EVENTS + 1 );
+    assertFollowers();
+    SnapshotService.INSTANCE.stop();
+  }
+
+  // snapshots are refused for the mapped follower graph, they would copy every follow onto the heap
+  @Test
+  public void testMappedGraphRejected() throws Exception {
+
+    System.setProperty( "snapshotFile", snapshotFile.getPath() );
+    System.setProperty( "followerGraph", "mapped" );
+    boolean rejected = false;
+    try {
+      SnapshotService.INSTANCE.start();
+    } catch ( IllegalStateException ex ) {
+      rejected = true;
+    }
+    SnapshotService.INSTANCE.stop();
+    assertTrue( "ERROR: Snapshot service started with the mapped follower graph!", rejected );
+  }
+
+  /**
+   * Adds random follow and unfollow events and applies them to the expected followers
+   */
+  private void addRandomFollows( int firstSequenceNumber, int numberOfEvents ) {
+    final Random random = new Random( 5 );
+    for ( int sequenceNumber = firstSequenceNumber; sequenceNumber < firstSequenceNumber + numberOfEvents; sequenceNumber++ ) {
+      final int from = random.nextInt( NUMBER_OF_USERS ) + 1;
+      final int to = random.nextInt( NUMBER_OF_USERS ) + 1;
+      if ( random.nextInt( 4 ) == 0 ) {
+        EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( sequenceNumber + "|U|" + from + "|" + to + MESSAGE_TERMINATOR ) );
+        final Set<Integer> followers = expectedFollowers.get( to );
+        if ( followers != null && followers.remove( from ) && followers.isEmpty() ) {
+          expectedFollowers.remove( to );
+        }
+      } else {
+        EventHandlerService.INSTANCE.addEvent( EventFactory.createEvent( sequenceNumber + "|F|" + from + "|" + to + MESSAGE_TERMINATOR ) );
+        follow( from, to );
+      }
+    }
+  }
+
+  private void follow( int followerId, int followedId ) {
+    Set<Integer> followers = expectedFollowers.get( followedId );
+    if ( followers == null ) {
+      followers = new HashSet<Integer>();
+      expectedFollowers.put( followedId, followers );
+    }
+    followers.add( followerId );
+  }
+
+  private long countFollows() {
+    long count = 0;
+    for ( Set<Integer> curFollowers : expectedFollowers.values() ) {
+      count += curFollowers.size();
+    }
+    return count;
+  }
+
+  /**
+   * Takes snapshots until the sequencer has processed the events up to the passed in sequence number
+   */
+  private static Snapshot awaitSnapshot( int nextSequenceNumber, int numberOfBufferedEvents ) throws Exception {
+    final long deadline = System.currentTimeMillis() + 10000;
+    Snapshot snapshot = EventHandlerService.INSTANCE.takeSnapshot();
+    while ( (snapshot.getNextSequenceNumber() != nextSequenceNumber || snapshot.getNumberOfBufferedEvents() != numberOfBufferedEvents) && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+      snapshot = EventHandlerService.INSTANCE.takeSnapshot();
+    }
+    assertTrue( "ERROR: Sequencer stopped at " + snapshot.getNextSequenceNumber() + " with " + snapshot.getNumberOfBufferedEvents() + " buffered events",
+        snapshot.getNextSequenceNumber() == nextSequenceNumber && snapshot.getNumberOfBufferedEvents() == numberOfBufferedEvents );
+    return snapshot;
+  }
+
+  private void assertFollowers() {
+    for ( int followedId = 1; followedId <= 2000; followedId++ ) {
+      final Set<Integer> followers = UserRegistryService.INSTANCE.getFollowers( followedId );
+      final Set<Integer> expected = expectedFollowers.get( followedId );
+      assertTrue( "ERROR: Followers of user " + followedId + " are " + followers + " instead of " + expected, expected == null ? followers == null : expected.equals( followers ) );
+    }
+  }
+}
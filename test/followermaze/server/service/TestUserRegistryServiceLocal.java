@@ -109,4 +109,51 @@ public class TestUserRegistryServiceLocal {
     assertTrue( "Error: Number of elements is different! ", retrievedFollowers.size() == expectedUsers.size() );
     assertTrue( "Error: Follower sets don´t contain the same elements!", retrievedFollowers.containsAll( expectedUsers ) );
   }
+
+  @Test
+  public void testConnectedFollowers() {
+
+    final int userId = 1;
+    final UserRegistryService userReg = UserRegistryService.INSTANCE;
+    for ( int curUser = 2; curUser <= 4; curUser++ ) {
+      userReg.addFollower( userId, curUser );
+    }
+    userReg.registerClient( new Client( 2, null ) );
+    userReg.registerClient( new Client( 3, null ) );
+
+    // only connected followers are cached
+    assertTrue( "Error: Connected followers 2 and 3 expected!", connectedFollowerIds( userId ).equals( new HashSet<Integer>( Arrays.asList( 2, 3 ) ) ) );
+
+    // registering a follower patches the cache without rebuilding it, registering another client does not touch it
+    final long buildsBefore = MetricsService.INSTANCE.counter( "connectedFollowers.builds" ).get();
+    userReg.registerClient( new Client( 4, null ) );
+    userReg.registerClient( new Client( 7, null ) );
+    assertTrue( "Error: Newly connected follower 4 is missing!", connectedFollowerIds( userId ).equals( new HashSet<Integer>( Arrays.asList( 2, 3, 4 ) ) ) );
+    assertTrue( "Error: Cache has been rebuilt after a registration!", MetricsService.INSTANCE.counter( "connectedFollowers.builds" ).get() == buildsBefore );
+
+    // following and unfollowing patch the cache without rebuilding it
+    userReg.registerClient( new Client( 5, null ) );
+    userReg.addFollower( userId, 5 );
+    userReg.addFollower( userId, 6 );
+    userReg.removeFollower( userId, 2 );
+    assertTrue( "Error: Connected followers 3, 4 and 5 expected!", connectedFollowerIds( userId ).equals( new HashSet<Integer>( Arrays.asList( 3, 4, 5 ) ) ) );
+    assertTrue( "Error: Cache has been rebuilt instead of patched!", MetricsService.INSTANCE.counter( "connectedFollowers.builds" ).get() == buildsBefore );
+
+    // removing a client drops it from the cache without rebuilding it
+    userReg.removeClient( userReg.getClientById( 4 ) );
+    assertTrue( "Error: Removed follower 4 is still cached!", connectedFollowerIds( userId ).equals( new HashSet<Integer>( Arrays.asList( 3, 5 ) ) ) );
+    assertTrue( "Error: Cache has been rebuilt after a removal!", MetricsService.INSTANCE.counter( "connectedFollowers.builds" ).get() == buildsBefore );
+  }
+
+  /**
+   * @return IDs of the cached connected followers of a user
+   */
+  private Set<Integer> connectedFollowerIds( int userId ) {
+    final ConnectedFollowers connectedFollowers = UserRegistryService.INSTANCE.getConnectedFollowers( userId );
+    final Set<Integer> ids = new HashSet<Integer>();
+    for ( int i = 0; i < connectedFollowers.size(); i++ ) {
+      ids.add( connectedFollowers.get( i ).getId() );
+    }
+    return ids;
+  }
 }
@@ -33,6 +33,9 @@ public class TestUserRegistryServiceSocket {
   /** Port on which clients connect to the server */
   final static int CLIENT_PORT = 9099;
 
+  /** Max wait time in ms for a client to be registered */
+  final static int REGISTRATION_TIMEOUT = 1000;
+
   /** Handles startup and shutodnw of server instances */
   private static ServerManager serverManager = null;
 
@@ -75,20 +78,42 @@ public class TestUserRegistryServiceSocket {
     // check if all clients that should be connected can be found in the user registry
     final List<ClientSocket> clients = clientManager.getClients();
 
+    // check before the clients time out, disconnected clients are removed from the registry
+    for ( ClientSocket curClient : clients ) {
+      assertTrue( "Error: Client " + curClient.getUserId() + " is not registered in the user registry!", waitForRegistration( curClient.getUserId() ) != null );
+    }
+
     try {
       clientManager.getClientTimeOutLatch().await();
     } catch ( InterruptedException e ) {
       logger.error( "Error while waiting for clients to disconnect!", e );
     }
 
-    for ( ClientSocket curClient : clients ) {
-      assertTrue( "Error: Client " + curClient.getUserId() + " is not registered in the user registry!", userReg.getClientById( curClient.getUserId() ) != null );
-    }
+  }
 
+  /**
+   * Registration messages are processed asynchronously by the server, waits a limited time until the client with the passed in id shows up in the registry
+   * 
+   * @param clientId
+   *          Id of the client
+   * @return Registered client, null if the client has not been registered in time
+   */
+  private Client waitForRegistration( final int clientId ) {
+    final long deadline = System.currentTimeMillis() + REGISTRATION_TIMEOUT;
+    Client client = UserRegistryService.INSTANCE.getClientById( clientId );
+    while ( client == null && System.currentTimeMillis() < deadline ) {
+      try {
+        Thread.sleep( 10 );
+      } catch ( InterruptedException e ) {
+        logger.error( "Error while waiting for client registration!", e );
+      }
+      client = UserRegistryService.INSTANCE.getClientById( clientId );
+    }
+    return client;
   }
 
   /**
-   * Retrieves a user from the User Registry and sends a string to check if the number of bytes sent to the client via the socket are identical to the length of the string in bytes
+   * Retrieves a user from the User Registry and sends a string to check if the bytes enqueued for the client are written to the socket without blocking and received completely
    */
   @Test
   public void testClientNotify() {
@@ -100,14 +125,14 @@ public class TestUserRegistryServiceSocket {
     final Client client = userReg.getClientById( clientId );
     assertTrue( "Error: Client with ID " + clientId + " is not registered in the user registry!", client != null );
 
-    // send an arbitrary String via the clients notify method and check the number of bytes that have been written
+    // send an arbitrary String via the clients enqueue and flush methods and check the number of bytes that have been written
     final String testString = "THIS IS A TESTSTRING";
     final ByteBuffer byteBuffer = Charset.forName( "UTF-8" ).encode( testString );
-
-    final int bytesWritten = client.notify( testString );
     final int testStringLengthInByte = byteBuffer.limit();
 
-    assertTrue( "Error: Bytes send via socket: " + bytesWritten + ", expected number of bytes: " + testStringLengthInByte, bytesWritten == testStringLengthInByte );
+    client.enqueue( byteBuffer );
+    assertTrue( "Error: Bytes enqueued: " + client.getPendingBytes() + ", expected number of bytes: " + testStringLengthInByte, client.getPendingBytes() == testStringLengthInByte );
+    assertTrue( "Error: Message not written completely, " + client.getPendingBytes() + " bytes pending", client.flush() && client.getPendingBytes() == 0 );
 
     try {
       clientManager.getClientTimeOutLatch().await();
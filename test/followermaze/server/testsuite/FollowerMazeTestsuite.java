@@ -4,13 +4,24 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import followermaze.server.dispatcher.TestLineFramer;
 import followermaze.server.endtoend.TestEndToEndCommunication;
 import followermaze.server.event.TestEventFactory;
+import followermaze.server.model.graph.TestFollowerGraph;
+import followermaze.server.service.TestDeliveryService;
+import followermaze.server.service.TestEventLogService;
+import followermaze.server.service.TestEventShards;
+import followermaze.server.service.TestSnapshotService;
+import followermaze.server.service.TestReorderBuffer;
 import followermaze.server.service.TestUserRegistryServiceLocal;
 import followermaze.server.service.TestUserRegistryServiceSocket;
+import followermaze.server.util.TestIntCollections;
+import followermaze.server.util.TestConsumerParker;
+import followermaze.server.util.TestMpscLinkedQueue;
+import followermaze.server.util.TestSpscRingBuffer;
 
 @RunWith( Suite.class )
-@SuiteClasses( { TestEventFactory.class, TestUserRegistryServiceLocal.class, TestUserRegistryServiceSocket.class, TestEndToEndCommunication.class } )
+@SuiteClasses( { TestEventFactory.class, TestLineFramer.class, TestSpscRingBuffer.class, TestMpscLinkedQueue.class, TestConsumerParker.class, TestIntCollections.class, TestFollowerGraph.class, TestReorderBuffer.class, TestDeliveryService.class, TestEventShards.class, TestSnapshotService.class, TestEventLogService.class, TestUserRegistryServiceLocal.class, TestUserRegistryServiceSocket.class, TestEndToEndCommunication.class } )
 public class FollowerMazeTestsuite {
 
 }
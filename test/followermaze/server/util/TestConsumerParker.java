@@ -0,0 +1,86 @@
+package followermaze.server.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * Test class tests the ConsumerParker by letting a consumer thread park on an empty ring buffer while a producer thread publishes elements in bursts.
+ */
+public class TestConsumerParker {
+
+  // an idle consumer parks without a timeout and receives every element published after it parked
+  @Test
+  public void testParkAndUnpark() throws Exception {
+
+    final int numberOfBursts = 20;
+    final int burstSize = 1000;
+    final SpscRingBuffer<Integer> ringBuffer = new SpscRingBuffer<Integer>( 64 );
+    final ConsumerParker parker = new ConsumerParker();
+    final int[] errors = new int[1];
+
+    final Thread consumer = new Thread( new Runnable() {
+
+      @Override
+      public void run() {
+        int expected = 0;
+        int idleIterations = 0;
+        while ( expected < numberOfBursts * burstSize ) {
+          final Integer element = ringBuffer.poll();
+          if ( element == null ) {
+            idleIterations = parker.idle( idleIterations, ConsumerParker.NO_TIMEOUT );
+            continue;
+          }
+          idleIterations = 0;
+          parker.busy();
+          if ( element != expected ) {
+            errors[0]++;
+          }
+          expected++;
+        }
+      }
+    } );
+    consumer.start();
+
+    int value = 0;
+    for ( int burst = 0; burst < numberOfBursts; burst++ ) {
+      // the consumer runs out of elements and parks until the next burst
+      final long deadline = System.currentTimeMillis() + 5000;
+      while ( consumer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 1 );
+      }
+      assertTrue( "ERROR: Idle consumer did not park without a timeout in burst " + burst + ": " + consumer.getState(), consumer.getState() == Thread.State.WAITING );
+      int idleIterations = 0;
+      for ( int i = 0; i < burstSize; i++ ) {
+        while ( !ringBuffer.offer( value ) ) {
+          idleIterations = IdleStrategy.idle( idleIterations );
+        }
+        idleIterations = 0;
+        parker.unpark();
+        value++;
+      }
+    }
+    consumer.join( 10000 );
+
+    assertTrue( "ERROR: Consumer did not receive all elements", !consumer.isAlive() );
+    assertTrue( "ERROR: Consumer received " + errors[0] + " elements out of order", errors[0] == 0 );
+  }
+
+  // a consumer with a deadline wakes up without being unparked
+  @Test
+  public void testParkUntilDeadline() {
+
+    final ConsumerParker parker = new ConsumerParker();
+    final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos( 20 );
+    final long start = System.nanoTime();
+    int idleIterations = 0;
+    while ( System.nanoTime() - start < timeoutNanos ) {
+      idleIterations = parker.idle( idleIterations, timeoutNanos - (System.nanoTime() - start) );
+    }
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+    assertTrue( "ERROR: Consumer did not wake up at its deadline, elapsed " + elapsedMillis + " ms", elapsedMillis < 1000 );
+  }
+}
@@ -0,0 +1,77 @@
+package followermaze.server.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *
+ * Test class tests the primitive int collections by applying random operations and comparing the results with the corresponding java.util collections.
+ */
+public class TestIntCollections {
+
+  private static final int NUMBER_OF_OPERATIONS = 200000;
+
+  // random adds and removes, including the free slot marker 0 and negative values
+  @Test
+  public void testIntSet() {
+
+    final Random random = new Random( 42 );
+    final IntSet set = new IntSet();
+    final Set<Integer> expected = new HashSet<Integer>();
+    for ( int i = 0; i < NUMBER_OF_OPERATIONS; i++ ) {
+      final int value = random.nextInt( 2000 ) - 1000;
+      if ( random.nextInt( 3 ) == 0 ) {
+        assertTrue( "ERROR: Invalid result removing " + value, set.remove( value ) == expected.remove( value ) );
+      } else {
+        assertTrue( "ERROR: Invalid result adding " + value, set.add( value ) == expected.add( value ) );
+      }
+    }
+    assertTrue( "ERROR: Invalid size " + set.size() + ", expected " + expected.size(), set.size() == expected.size() );
+    for ( int value = -1000; value < 1000; value++ ) {
+      assertTrue( "ERROR: Invalid contains for " + value, set.contains( value ) == expected.contains( value ) );
+    }
+
+    final Set<Integer> visited = new HashSet<Integer>();
+    set.forEach( new IntVisitor() {
+
+      @Override
+      public void visit( int value ) {
+        visited.add( value );
+      }
+    } );
+    assertTrue( "ERROR: Visited values differ", visited.equals( expected ) );
+  }
+
+  // random puts and removes, including the free slot marker 0 and negative keys
+  @Test
+  public void testIntObjectMap() {
+
+    final Random random = new Random( 7 );
+    final IntObjectMap<Integer> map = new IntObjectMap<Integer>();
+    final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+    for ( int i = 0; i < NUMBER_OF_OPERATIONS; i++ ) {
+      final int key = random.nextInt( 2000 ) - 1000;
+      if ( random.nextInt( 3 ) == 0 ) {
+        final Integer removed = map.remove( key );
+        final Integer expectedRemoved = expected.remove( key );
+        assertTrue( "ERROR: Invalid result removing " + key, removed == null ? expectedRemoved == null : removed.equals( expectedRemoved ) );
+      } else {
+        map.put( key, i );
+        expected.put( key, i );
+      }
+    }
+    assertTrue( "ERROR: Invalid size " + map.size() + ", expected " + expected.size(), map.size() == expected.size() );
+    for ( int key = -1000; key < 1000; key++ ) {
+      final Integer value = map.get( key );
+      final Integer expectedValue = expected.get( key );
+      assertTrue( "ERROR: Invalid value for " + key, value == null ? expectedValue == null : value.equals( expectedValue ) );
+    }
+  }
+}
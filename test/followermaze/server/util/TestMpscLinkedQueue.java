@@ -0,0 +1,62 @@
+package followermaze.server.util;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ *
+ * Test class tests the MpscLinkedQueue by offering elements from several producer threads and checking that the consumer receives all of them in the order of each producer.
+ */
+public class TestMpscLinkedQueue {
+
+  private static final int NUMBER_OF_PRODUCERS = 4;
+
+  private static final int ELEMENTS_PER_PRODUCER = 250000;
+
+  @Test
+  public void testProducersConsumer() throws Exception {
+
+    final MpscLinkedQueue<long[]> queue = new MpscLinkedQueue<long[]>();
+    final CountDownLatch startSignal = new CountDownLatch( 1 );
+    for ( int p = 0; p < NUMBER_OF_PRODUCERS; p++ ) {
+      final int producer = p;
+      new Thread( new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            startSignal.await();
+          } catch ( InterruptedException e ) {
+            return;
+          }
+          for ( int i = 0; i < ELEMENTS_PER_PRODUCER; i++ ) {
+            queue.offer( new long[] { producer, i } );
+          }
+        }
+      } ).start();
+    }
+    startSignal.countDown();
+
+    final int[] nextExpected = new int[NUMBER_OF_PRODUCERS];
+    int received = 0;
+    int idleIterations = 0;
+    final long deadline = System.currentTimeMillis() + 20000;
+    while ( received < NUMBER_OF_PRODUCERS * ELEMENTS_PER_PRODUCER && System.currentTimeMillis() < deadline ) {
+      final long[] element = queue.poll();
+      if ( element == null ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+        continue;
+      }
+      idleIterations = 0;
+      final int producer = (int) element[0];
+      assertTrue( "ERROR: Producer " + producer + " expected " + nextExpected[producer] + ", received " + element[1], element[1] == nextExpected[producer] );
+      nextExpected[producer]++;
+      received++;
+    }
+    assertTrue( "ERROR: Received only " + received + " elements", received == NUMBER_OF_PRODUCERS * ELEMENTS_PER_PRODUCER );
+    assertTrue( "ERROR: Queue not empty", queue.isEmpty() && queue.poll() == null );
+  }
+}
@@ -0,0 +1,76 @@
+package followermaze.server.util;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * Test class tests the SpscRingBuffer by offering and polling elements from a single thread as well as from a producer and a consumer thread.
+ */
+public class TestSpscRingBuffer {
+
+  // elements are returned in offering order, a full buffer rejects further elements
+  @Test
+  public void testOrderAndCapacity() {
+
+    final SpscRingBuffer<Integer> ringBuffer = new SpscRingBuffer<Integer>( 3 );
+    assertTrue( "ERROR: Capacity not rounded up to power of two: " + ringBuffer.capacity(), ringBuffer.capacity() == 4 );
+
+    for ( int i = 0; i < 4; i++ ) {
+      assertTrue( "ERROR: Could not offer element " + i, ringBuffer.offer( i ) );
+    }
+    assertTrue( "ERROR: Full buffer accepted element", !ringBuffer.offer( 4 ) );
+    assertTrue( "ERROR: Invalid size: " + ringBuffer.size(), ringBuffer.size() == 4 );
+
+    for ( int i = 0; i < 4; i++ ) {
+      final Integer element = ringBuffer.poll();
+      assertTrue( "ERROR: Expected " + i + ", polled " + element, element != null && element == i );
+    }
+    assertTrue( "ERROR: Empty buffer returned element", ringBuffer.poll() == null );
+    assertTrue( "ERROR: Buffer not reusable after wrap around", ringBuffer.offer( 5 ) && ringBuffer.poll() == 5 );
+  }
+
+  // a consumer thread receives all elements of a producer thread in order
+  @Test
+  public void testProducerConsumer() throws Exception {
+
+    final int numberOfElements = 1000000;
+    final SpscRingBuffer<Integer> ringBuffer = new SpscRingBuffer<Integer>( 64 );
+    final int[] errors = new int[1];
+
+    final Thread consumer = new Thread( new Runnable() {
+
+      @Override
+      public void run() {
+        int expected = 0;
+        int idleIterations = 0;
+        while ( expected < numberOfElements ) {
+          final Integer element = ringBuffer.poll();
+          if ( element == null ) {
+            idleIterations = IdleStrategy.idle( idleIterations );
+            continue;
+          }
+          idleIterations = 0;
+          if ( element != expected ) {
+            errors[0]++;
+          }
+          expected++;
+        }
+      }
+    } );
+    consumer.start();
+
+    int idleIterations = 0;
+    for ( int i = 0; i < numberOfElements; i++ ) {
+      while ( !ringBuffer.offer( i ) ) {
+        idleIterations = IdleStrategy.idle( idleIterations );
+      }
+      idleIterations = 0;
+    }
+    consumer.join( 10000 );
+
+    assertTrue( "ERROR: Consumer did not receive all elements", !consumer.isAlive() );
+    assertTrue( "ERROR: Consumer received " + errors[0] + " elements out of order", errors[0] == 0 );
+  }
+}